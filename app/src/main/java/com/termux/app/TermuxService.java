@@ -46,9 +46,12 @@ import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.shell.command.ExecutionCommand.Runner;
 import com.termux.shared.shell.command.ExecutionCommand.ShellCreateMode;
 import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalMetrics;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -188,6 +191,32 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         return mBinder;
     }
 
+    /**
+     * Dump the {@link TerminalMetrics} of each session, for instance with
+     * "adb shell dumpsys activity service com.termux/.app.TermuxService". Pass "metrics on" or "metrics off" as
+     * arguments to start or stop counting, which also shows or hides the metrics overlay of the terminal view.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length == 2 && "metrics".equals(args[0])) {
+            TerminalMetrics.setEnabled("on".equals(args[1]));
+            writer.println("Metrics " + (TerminalMetrics.isEnabled() ? "enabled" : "disabled"));
+            return;
+        }
+
+        writer.println("Metrics " + (TerminalMetrics.isEnabled() ? "enabled" : "disabled, enable with \"metrics on\""));
+        final List<TermuxSession> termuxSessions;
+        synchronized (this) {
+            termuxSessions = new ArrayList<>(mShellManager.mTermuxSessions);
+        }
+        for (int i = 0; i < termuxSessions.size(); i++) {
+            final TerminalSession session = termuxSessions.get(i).getTerminalSession();
+            writer.println("Session " + i + " \"" + session.mSessionName + "\" pid=" + session.getPid()
+                + (session.isInBackground() ? " (background)" : ""));
+            session.getMetrics().dump(writer, "  ");
+        }
+    }
+
     @Override
     public boolean onUnbind(Intent intent) {
         Logger.logVerbose(LOG_TAG, "onUnbind");
@@ -584,6 +613,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         executionCommand.setShellCommandShellEnvironment = true;
         executionCommand.terminalTranscriptRows = mProperties.getTerminalTranscriptRows();
+        executionCommand.terminalTranscriptSpillRows = mProperties.getTerminalTranscriptSpillRows();
 
         if (Logger.getLogLevel() >= Logger.LOG_LEVEL_VERBOSE)
             Logger.logVerboseExtended(LOG_TAG, executionCommand.toString());
@@ -648,6 +678,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
                 TermuxPluginUtils.processPluginExecutionCommandResult(this, LOG_TAG, executionCommand);
 
             mShellManager.mTermuxSessions.remove(termuxSession);
+            termuxSession.getTerminalSession().closeTranscriptSpill();
 
             // Notify {@link TermuxSessionsListViewController} that sessions list has been updated if
             // activity in is foreground
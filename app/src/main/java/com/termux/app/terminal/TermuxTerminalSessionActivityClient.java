@@ -74,6 +74,10 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
             termuxSessionListNotifyUpdated();
         }
 
+        // Process the output of the current session on the main thread again, see onStop()
+        TerminalSession currentSession = mActivity.getCurrentSession();
+        if (currentSession != null) currentSession.setInBackground(false);
+
         // The current terminal session may have changed while being away, force
         // a refresh of the displayed terminal.
         mActivity.getTerminalView().onScreenUpdated();
@@ -97,6 +101,11 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
         // {@link #onStart} if needed.
         setCurrentStoredSession();
 
+        // The current session is not visible anymore, so process its output in the background without updating the
+        // terminal view, which is refreshed in onStart()
+        TerminalSession currentSession = mActivity.getCurrentSession();
+        if (currentSession != null) currentSession.setInBackground(true);
+
         // Release mBellSoundPool resources, specially to prevent exceptions like the following to be thrown
         // java.util.concurrent.TimeoutException: android.media.SoundPool.finalize() timed out after 10 seconds
         // Bell is not played in background anyways
@@ -193,7 +202,7 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
 
         String text = ShareUtils.getTextStringFromClipboardIfSet(mActivity, true);
         if (text != null)
-            mActivity.getTerminalView().mEmulator.paste(text);
+            mActivity.getTerminalView().paste(text);
     }
 
     @Override
@@ -223,6 +232,11 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
 
     @Override
     public void onTerminalCursorStateChange(boolean enabled) {
+        // Called by the emulator on the emulation thread of the session
+        mActivity.runOnUiThread(() -> setTerminalCursorBlinkerState(enabled));
+    }
+
+    private void setTerminalCursorBlinkerState(boolean enabled) {
         // Do not start cursor blinking thread if activity is not visible
         if (enabled && !mActivity.isVisible()) {
             Logger.logVerbose(LOG_TAG, "Ignoring call to start cursor blinking since activity is not visible");
@@ -509,7 +523,9 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
             TerminalColors.COLOR_SCHEME.updateWith(props);
             TerminalSession session = mActivity.getCurrentSession();
             if (session != null && session.getEmulator() != null) {
-                session.getEmulator().mColors.reset();
+                synchronized (session.getEmulatorLock()) {
+                    session.getEmulator().mColors.reset();
+                }
             }
             updateBackgroundColor();
 
@@ -0,0 +1,96 @@
+package com.termux.terminal;
+
+/**
+ * An immutable compact copy of a {@link TerminalRow} in the transcript, which has scrolled off the screen.
+ * <p>
+ * Only the text up to the last non-space char is kept, and the styles are stored as runs of columns with the same
+ * style instead of one style per column. A row is converted with {@link TerminalRow#toCompactRow()} and
+ * inflated back with {@link TerminalRow#copyFrom(CompactRow)}.
+ */
+final class CompactRow {
+
+    private static final char[] EMPTY_TEXT = new char[0];
+    private static final short[] NO_RUN_ENDS = new short[0];
+    private static final long[] NORMAL_STYLE_RUN = {TextStyle.NORMAL};
+
+    /** The text of the row without trailing spaces. */
+    final char[] mText;
+    /** The number of columns used by {@link #mText}, the rest of the columns contain spaces. */
+    final int mTextColumns;
+    /** The style of each run of columns with the same style. */
+    final long[] mRunStyles;
+    /** The exclusive end column of each run in {@link #mRunStyles} except the last, which ends at the end of the row. */
+    final short[] mRunEnds;
+    final boolean mLineWrap;
+    final boolean mHasNonOneWidthOrSurrogateChars;
+
+    /** The {@link TerminalSearch#signature} of the text of the row, computed when first searched. */
+    private long mSearchSignature;
+    private boolean mSearchSignatureValid;
+
+    CompactRow(char[] text, int textLength, int textColumns, TerminalRow styles, boolean lineWrap,
+               boolean hasNonOneWidthOrSurrogateChars) {
+        if (textLength == 0) {
+            mText = EMPTY_TEXT;
+        } else {
+            mText = new char[textLength];
+            System.arraycopy(text, 0, mText, 0, textLength);
+        }
+        mTextColumns = textColumns;
+        mLineWrap = lineWrap;
+        mHasNonOneWidthOrSurrogateChars = hasNonOneWidthOrSurrogateChars;
+
+        final int columns = styles.getColumns();
+        int runs = 0;
+        for (int column = 0; column < columns; column = styles.findStyleRunEnd(column)) runs++;
+
+        if (runs == 1) {
+            final long style = styles.getStyle(0);
+            mRunStyles = (style == TextStyle.NORMAL) ? NORMAL_STYLE_RUN : new long[]{style};
+            mRunEnds = NO_RUN_ENDS;
+        } else {
+            mRunStyles = new long[runs];
+            mRunEnds = new short[runs - 1];
+            int column = 0;
+            for (int run = 0; run < runs; run++) {
+                mRunStyles[run] = styles.getStyle(column);
+                column = styles.findStyleRunEnd(column);
+                if (run < runs - 1) mRunEnds[run] = (short) column;
+            }
+        }
+    }
+
+    /** Create a compact row from its parts, as read back by {@link TranscriptSpillFile}. */
+    CompactRow(char[] text, int textColumns, long[] runStyles, short[] runEnds, boolean lineWrap,
+               boolean hasNonOneWidthOrSurrogateChars) {
+        mText = (text.length == 0) ? EMPTY_TEXT : text;
+        mTextColumns = textColumns;
+        mRunStyles = (runStyles.length == 1 && runStyles[0] == TextStyle.NORMAL) ? NORMAL_STYLE_RUN : runStyles;
+        mRunEnds = (runEnds.length == 0) ? NO_RUN_ENDS : runEnds;
+        mLineWrap = lineWrap;
+        mHasNonOneWidthOrSurrogateChars = hasNonOneWidthOrSurrogateChars;
+    }
+
+    boolean isBlank() {
+        return mText.length == 0;
+    }
+
+    /**
+     * The signature of the text of the row as part of a logical line, which for a wrapped row includes the trailing
+     * spaces up to the end of the row.
+     */
+    long getSearchSignature(int columns) {
+        if (!mSearchSignatureValid) {
+            long signature = TerminalSearch.signature(mText, 0, mText.length);
+            final int trailingSpaces = columns - mTextColumns;
+            if (mLineWrap && trailingSpaces > 0) {
+                if (mText.length > 0) signature |= TerminalSearch.bigramBit(mText[mText.length - 1], ' ');
+                if (trailingSpaces > 1) signature |= TerminalSearch.bigramBit(' ', ' ');
+            }
+            mSearchSignature = signature;
+            mSearchSignatureValid = true;
+        }
+        return mSearchSignature;
+    }
+
+}
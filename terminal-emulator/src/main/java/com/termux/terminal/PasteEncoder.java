@@ -0,0 +1,149 @@
+package com.termux.terminal;
+
+/**
+ * Encodes pasted text in UTF-8 in chunks of bytes, in one pass over the text and without converting all of it at once.
+ * <p>
+ * The text is sanitized while encoding: the escape key and C1 control characters [0x80,0x9F] are removed, and newlines
+ * (\n) and CRLF (\r\n) are replaced with carriage returns (\r). If bracketed paste mode is used the text is prefixed
+ * with "\033[200~" and suffixed with "\033[201~". Chunks only end between code points, so that they can be written
+ * to the process one at a time.
+ */
+final class PasteEncoder {
+
+    static final byte[] BRACKETED_PASTE_START = {27, '[', '2', '0', '0', '~'};
+    static final byte[] BRACKETED_PASTE_END = {27, '[', '2', '0', '1', '~'};
+    /** The min size of a chunk, to fit the bracketed paste prefix and suffix and the longest encoded code point. */
+    static final int MIN_CHUNK_BYTES = 6;
+
+    private static final int STATE_START = 0, STATE_TEXT = 1, STATE_END = 2, STATE_DONE = 3;
+
+    private final CharSequence mText;
+    private final boolean mBracketed;
+    private int mState = STATE_START;
+    /** The index in {@link #mText} of the next char to encode. */
+    private int mIndex;
+
+    PasteEncoder(CharSequence text, boolean bracketed) {
+        mText = text;
+        mBracketed = bracketed;
+    }
+
+    /** Encode all of a paste on the calling thread, writing it to the output one chunk at a time. */
+    static void paste(CharSequence text, boolean bracketed, TerminalOutput output) {
+        final PasteEncoder encoder = new PasteEncoder(text, bracketed);
+        final byte[] chunk = new byte[TerminalPaste.CHUNK_BYTES];
+        int count;
+        while ((count = encoder.encode(chunk, 0, chunk.length)) != -1)
+            output.write(chunk, 0, count);
+    }
+
+    /**
+     * Encode the next chunk of the paste.
+     *
+     * @param length The max number of bytes to encode, at least {@link #MIN_CHUNK_BYTES}.
+     * @return The number of bytes encoded into the buffer, or -1 if all of the paste has been encoded.
+     */
+    int encode(byte[] buffer, int offset, int length) {
+        if (length < MIN_CHUNK_BYTES) throw new IllegalArgumentException("length < " + MIN_CHUNK_BYTES);
+        if (mState == STATE_DONE) return -1;
+
+        int position = offset;
+        final int end = offset + length;
+        if (mState == STATE_START) {
+            if (mBracketed) position = put(BRACKETED_PASTE_START, buffer, position);
+            mState = STATE_TEXT;
+        }
+
+        if (mState == STATE_TEXT) {
+            final CharSequence text = mText;
+            final int textLength = text.length();
+            int i = mIndex;
+            // Leave room for the longest encoded code point:
+            while (i < textLength && end - position >= 4) {
+                char c = text.charAt(i++);
+                if (c < 0x80) {
+                    if (c == 27) continue;
+                    if (c == '\n') {
+                        c = '\r';
+                    } else if (c == '\r') {
+                        // Replace CRLF, also if only separated by removed chars:
+                        final int next = skipRemoved(text, i);
+                        if (next < textLength && text.charAt(next) == '\n') i = next + 1;
+                    }
+                    buffer[position++] = (byte) c;
+                } else if (c <= 0x9F) {
+                    // Removed C1 control character.
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0b11000000 | (c >> 6));
+                    buffer[position++] = (byte) (0b10000000 | (c & 0b111111));
+                } else if (Character.isSurrogate(c)) {
+                    // A surrogate pair may also be separated by removed chars:
+                    final int next = Character.isHighSurrogate(c) ? skipRemoved(text, i) : i;
+                    if (next < textLength && Character.isHighSurrogate(c) && Character.isLowSurrogate(text.charAt(next))) {
+                        final int codePoint = Character.toCodePoint(c, text.charAt(next));
+                        i = next + 1;
+                        buffer[position++] = (byte) (0b11110000 | (codePoint >> 18));
+                        buffer[position++] = (byte) (0b10000000 | ((codePoint >> 12) & 0b111111));
+                        buffer[position++] = (byte) (0b10000000 | ((codePoint >> 6) & 0b111111));
+                        buffer[position++] = (byte) (0b10000000 | (codePoint & 0b111111));
+                    } else {
+                        // Unpaired surrogate, replaced like by String.getBytes():
+                        buffer[position++] = '?';
+                    }
+                } else {
+                    buffer[position++] = (byte) (0b11100000 | (c >> 12));
+                    buffer[position++] = (byte) (0b10000000 | ((c >> 6) & 0b111111));
+                    buffer[position++] = (byte) (0b10000000 | (c & 0b111111));
+                }
+            }
+            mIndex = i;
+            if (i == textLength) mState = STATE_END;
+        }
+
+        if (mState == STATE_END) {
+            if (!mBracketed) {
+                mState = STATE_DONE;
+            } else if (end - position >= BRACKETED_PASTE_END.length) {
+                position = put(BRACKETED_PASTE_END, buffer, position);
+                mState = STATE_DONE;
+            }
+        }
+
+        final int encoded = position - offset;
+        return (encoded == 0 && mState == STATE_DONE) ? -1 : encoded;
+    }
+
+    /**
+     * Skip the text which has not been encoded yet. If some of the paste has been encoded, the bracketed paste suffix
+     * is still encoded by the next call to {@link #encode(byte[], int, int)} so that the process leaves paste mode.
+     */
+    void cancel() {
+        if (mState == STATE_START) {
+            mState = STATE_DONE;
+        } else if (mState == STATE_TEXT) {
+            mState = STATE_END;
+        }
+    }
+
+    /** The number of chars of the text which have been encoded. */
+    int getEncodedChars() {
+        return mIndex;
+    }
+
+    /** The index of the first char from {@code index} which is not removed from the paste. */
+    private static int skipRemoved(CharSequence text, int index) {
+        final int length = text.length();
+        while (index < length) {
+            final char c = text.charAt(index);
+            if (c != 27 && (c < 0x80 || c > 0x9F)) break;
+            index++;
+        }
+        return index;
+    }
+
+    private static int put(byte[] bytes, byte[] buffer, int position) {
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        return position + bytes.length;
+    }
+
+}
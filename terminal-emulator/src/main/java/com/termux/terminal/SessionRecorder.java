@@ -0,0 +1,319 @@
+package com.termux.terminal;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Records the output of a terminal session, and its resizes, to an
+ * <a href="https://docs.asciinema.org/manual/asciicast/v2/">asciicast v2</a> file which can be played by asciinema or
+ * replayed into an emulator by {@link SessionReplayer}.
+ * <p>
+ * The recording methods only copy the data into an in-memory batch, which a background thread encodes and writes out
+ * at most every {@link #BATCH_INTERVAL_MILLIS}, so that the thread reading from the process is never blocked by file
+ * I/O. If the writing falls behind by more than {@link #MAX_BATCH_BYTES}, output is dropped rather than waited for, see
+ * {@link #getDroppedBytes()}.
+ */
+public final class SessionRecorder implements Closeable {
+
+    /** The max time between a recorded event and it being written to the file. */
+    static final int BATCH_INTERVAL_MILLIS = 100;
+    /** The max size of the batch of events waiting to be written. */
+    static final int MAX_BATCH_BYTES = 4 * 1024 * 1024;
+
+    private static final byte EVENT_OUTPUT = 'o';
+    private static final byte EVENT_RESIZE = 'r';
+    /** The size of an event before its data: the type, the time in nanos and the length of the data. */
+    private static final int EVENT_HEADER_BYTES = 1 + 8 + 4;
+
+    private static final String LOG_TAG = "SessionRecorder";
+
+    private final Object mLock = new Object();
+    private final long mStartNanos;
+    private final Writer mWriter;
+    private final Thread mWriterThread;
+    private final TerminalSessionClient mClient;
+
+    /** The events waiting to be written, guarded by {@link #mLock}. */
+    private byte[] mBatch = new byte[64 * 1024];
+    private int mBatchLength;
+    /** The batch being written by the writer thread, swapped with {@link #mBatch} to reuse the arrays. */
+    private byte[] mWritingBatch = new byte[64 * 1024];
+    private boolean mClosed;
+    private long mDroppedBytes;
+
+    /** The decoder of output, which keeps an incomplete UTF-8 sequence at the end of a chunk for the next one. */
+    private final CharsetDecoder mDecoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer mDecoderInput = ByteBuffer.allocate(8 * 1024);
+    private CharBuffer mDecoderOutput = CharBuffer.allocate(8 * 1024);
+    /** The time of the last written output event, only used by the writer thread. */
+    private long mLastOutputTime;
+
+    /** Start recording to a file, which is created or truncated. */
+    public SessionRecorder(File file, int columns, int rows, TerminalSessionClient client) throws IOException {
+        this(new FileOutputStream(file), columns, rows, client);
+    }
+
+    /**
+     * Start recording to a stream, which is closed by {@link #close()}.
+     *
+     * @param client The client to log write errors to, or null.
+     */
+    public SessionRecorder(OutputStream out, int columns, int rows, TerminalSessionClient client) throws IOException {
+        mClient = client;
+        mStartNanos = System.nanoTime();
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        mWriter.write("{\"version\": 2, \"width\": " + columns + ", \"height\": " + rows + ", \"timestamp\": "
+            + System.currentTimeMillis() / 1000 + "}\n");
+        mWriterThread = new Thread("SessionRecorder") {
+            @Override
+            public void run() {
+                writeEvents();
+            }
+        };
+        mWriterThread.start();
+    }
+
+    /** Record output from the process. May be called from any thread, and does not block on I/O. */
+    public void recordOutput(byte[] data, int offset, int length) {
+        addEvent(EVENT_OUTPUT, data, offset, length, 0, 0);
+    }
+
+    /** Record a resize of the terminal. May be called from any thread, and does not block on I/O. */
+    public void recordResize(int columns, int rows) {
+        addEvent(EVENT_RESIZE, null, 0, 0, columns, rows);
+    }
+
+    /** The number of bytes of output which have not been recorded since the writing could not keep up. */
+    public long getDroppedBytes() {
+        synchronized (mLock) {
+            return mDroppedBytes;
+        }
+    }
+
+    /**
+     * Stop recording without waiting for the file, which the writer thread closes after writing the recorded events.
+     * Events recorded afterwards are ignored.
+     */
+    public void finish() {
+        synchronized (mLock) {
+            if (mClosed) return;
+            mClosed = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /** Write the recorded events, and wait for the file to be closed. Events recorded afterwards are ignored. */
+    @Override
+    public void close() {
+        finish();
+        boolean interrupted = false;
+        while (mWriterThread.isAlive()) {
+            try {
+                mWriterThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void addEvent(byte type, byte[] data, int offset, int length, int columns, int rows) {
+        final long time = System.nanoTime() - mStartNanos;
+        final int dataLength = (type == EVENT_OUTPUT) ? length : 8;
+        synchronized (mLock) {
+            if (mClosed) return;
+            final int required = mBatchLength + EVENT_HEADER_BYTES + dataLength;
+            if (required > MAX_BATCH_BYTES) {
+                mDroppedBytes += length;
+                return;
+            }
+            if (required > mBatch.length) {
+                byte[] newBatch = new byte[Math.min(MAX_BATCH_BYTES, Math.max(required, mBatch.length * 2))];
+                System.arraycopy(mBatch, 0, newBatch, 0, mBatchLength);
+                mBatch = newBatch;
+            }
+            final boolean wasEmpty = mBatchLength == 0;
+            int i = mBatchLength;
+            mBatch[i++] = type;
+            i = putLong(mBatch, i, time);
+            i = putInt(mBatch, i, dataLength);
+            if (type == EVENT_OUTPUT) {
+                System.arraycopy(data, offset, mBatch, i, length);
+                i += length;
+            } else {
+                i = putInt(mBatch, i, columns);
+                i = putInt(mBatch, i, rows);
+            }
+            mBatchLength = i;
+            // The writer thread waits for the first event of a batch, and then for the batch to fill up:
+            if (wasEmpty || mBatchLength >= MAX_BATCH_BYTES / 2) mLock.notifyAll();
+        }
+    }
+
+    private void writeEvents() {
+        boolean failed = false;
+        while (true) {
+            final byte[] batch;
+            final int batchLength;
+            synchronized (mLock) {
+                while (mBatchLength == 0 && !mClosed) waitForEvents(0);
+                if (mBatchLength == 0) break;
+
+                // Let events accumulate, so that they are written in batches instead of for every read from the
+                // process, unless closing or the batch is filling up:
+                final long deadline = System.nanoTime() + BATCH_INTERVAL_MILLIS * 1_000_000L;
+                long remainingMillis = BATCH_INTERVAL_MILLIS;
+                while (!mClosed && mBatchLength < MAX_BATCH_BYTES / 2 && remainingMillis > 0) {
+                    waitForEvents(remainingMillis);
+                    remainingMillis = (deadline - System.nanoTime()) / 1_000_000L;
+                }
+
+                batch = mBatch;
+                batchLength = mBatchLength;
+                mBatch = mWritingBatch;
+                mBatchLength = 0;
+            }
+            mWritingBatch = batch;
+
+            if (failed) continue;
+            try {
+                writeBatch(batch, batchLength);
+                mWriter.flush();
+            } catch (IOException e) {
+                // Keep emptying the batches, so that the recording methods do not need to know about the failure.
+                failed = true;
+                Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to write session recording", e);
+            }
+        }
+
+        try {
+            if (!failed) {
+                writeOutput(-1, null, 0, 0, true);
+                mWriter.flush();
+            }
+            mWriter.close();
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to close session recording", e);
+        }
+    }
+
+    /** Wait on {@link #mLock}, which must be held, for events or closing. */
+    private void waitForEvents(long timeoutMillis) {
+        try {
+            mLock.wait(timeoutMillis);
+        } catch (InterruptedException e) {
+            // Only closing stops the writer thread.
+        }
+    }
+
+    private void writeBatch(byte[] batch, int batchLength) throws IOException {
+        int i = 0;
+        while (i < batchLength) {
+            final byte type = batch[i];
+            final long time = getLong(batch, i + 1);
+            final int length = getInt(batch, i + 9);
+            i += EVENT_HEADER_BYTES;
+            if (type == EVENT_OUTPUT) {
+                writeOutput(time, batch, i, length, false);
+            } else {
+                writeEventStart(time, EVENT_RESIZE);
+                mWriter.write(getInt(batch, i) + "x" + getInt(batch, i + 4));
+                mWriter.write("\"]\n");
+            }
+            i += length;
+        }
+    }
+
+    /**
+     * Write an output event, with the bytes kept from the previous one which did not end with a complete UTF-8 sequence.
+     *
+     * @param endOfInput If the kept bytes should be written, as replacement chars, since no more output follows.
+     */
+    private void writeOutput(long time, byte[] data, int offset, int length, boolean endOfInput) throws IOException {
+        if (mDecoderInput.remaining() < length) {
+            ByteBuffer newInput = ByteBuffer.allocate(mDecoderInput.position() + length);
+            mDecoderInput.flip();
+            newInput.put(mDecoderInput);
+            mDecoderInput = newInput;
+        }
+        if (length > 0) mDecoderInput.put(data, offset, length);
+        mDecoderInput.flip();
+        final int maxChars = mDecoderInput.remaining() + 1;
+        if (mDecoderOutput.capacity() < maxChars) mDecoderOutput = CharBuffer.allocate(maxChars);
+        mDecoderOutput.clear();
+        mDecoder.decode(mDecoderInput, mDecoderOutput, endOfInput);
+        if (endOfInput) mDecoder.flush(mDecoderOutput);
+        mDecoderInput.compact();
+        mDecoderOutput.flip();
+        if (!mDecoderOutput.hasRemaining()) return;
+
+        // The end of input is written with the time of the last event:
+        if (time >= 0) mLastOutputTime = time;
+        writeEventStart(mLastOutputTime, EVENT_OUTPUT);
+        final char[] chars = mDecoderOutput.array();
+        final int end = mDecoderOutput.limit();
+        int unescapedStart = 0;
+        for (int i = 0; i < end; i++) {
+            final char c = chars[i];
+            if (c >= ' ' && c != '"' && c != '\\' && c != 127) continue;
+            mWriter.write(chars, unescapedStart, i - unescapedStart);
+            unescapedStart = i + 1;
+            switch (c) {
+                case '"': mWriter.write("\\\""); break;
+                case '\\': mWriter.write("\\\\"); break;
+                case '\n': mWriter.write("\\n"); break;
+                case '\r': mWriter.write("\\r"); break;
+                case '\t': mWriter.write("\\t"); break;
+                case '\b': mWriter.write("\\b"); break;
+                case '\f': mWriter.write("\\f"); break;
+                default: mWriter.write(String.format(Locale.ROOT, "\\u%04x", (int) c)); break;
+            }
+        }
+        mWriter.write(chars, unescapedStart, end - unescapedStart);
+        mWriter.write("\"]\n");
+    }
+
+    private void writeEventStart(long timeNanos, byte type) throws IOException {
+        mWriter.write('[');
+        mWriter.write(String.format(Locale.ROOT, "%.6f", timeNanos / 1e9));
+        mWriter.write(", \"");
+        mWriter.write(type);
+        mWriter.write("\", \"");
+    }
+
+    private static int putLong(byte[] array, int index, long value) {
+        index = putInt(array, index, (int) (value >>> 32));
+        return putInt(array, index, (int) value);
+    }
+
+    private static int putInt(byte[] array, int index, int value) {
+        array[index] = (byte) (value >>> 24);
+        array[index + 1] = (byte) (value >>> 16);
+        array[index + 2] = (byte) (value >>> 8);
+        array[index + 3] = (byte) value;
+        return index + 4;
+    }
+
+    private static long getLong(byte[] array, int index) {
+        return ((long) getInt(array, index) << 32) | (getInt(array, index + 4) & 0xFFFFFFFFL);
+    }
+
+    private static int getInt(byte[] array, int index) {
+        return ((array[index] & 0xFF) << 24) | ((array[index + 1] & 0xFF) << 16) | ((array[index + 2] & 0xFF) << 8)
+            | (array[index + 3] & 0xFF);
+    }
+
+}
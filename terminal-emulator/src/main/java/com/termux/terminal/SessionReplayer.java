@@ -0,0 +1,198 @@
+package com.termux.terminal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays an <a href="https://docs.asciinema.org/manual/asciicast/v2/">asciicast v2</a> recording, like those written
+ * by {@link SessionRecorder}, into a headless {@link TerminalEmulator} as fast as possible, without waiting for the
+ * times of the events. Output events are given to {@link TerminalEmulator#append(byte[], int)} in the chunks they were
+ * recorded in, and resize events to {@link TerminalEmulator#resize(int, int, int, int)}.
+ * <p>
+ * The recording is parsed and encoded up front, so that replaying it only measures the emulator, and it can be
+ * replayed any number of times, which makes real captured workloads usable as throughput benchmarks.
+ */
+public final class SessionReplayer {
+
+    /** The cell size in pixels used for the emulator, which only matters for the size reports it sends. */
+    private static final int CELL_WIDTH_PIXELS = 10, CELL_HEIGHT_PIXELS = 20;
+
+    private static final Pattern HEADER_VERSION = Pattern.compile("\"version\"\\s*:\\s*(\\d+)");
+    private static final Pattern HEADER_WIDTH = Pattern.compile("\"width\"\\s*:\\s*(\\d+)");
+    private static final Pattern HEADER_HEIGHT = Pattern.compile("\"height\"\\s*:\\s*(\\d+)");
+
+    private final int mColumns, mRows;
+    /** The UTF-8 encoded output of each event, or null for resize events. */
+    private final List<byte[]> mOutputs = new ArrayList<>();
+    /** The size of each resize event, with the columns in the high 32 bits, or 0 for output events. */
+    private final List<Long> mSizes = new ArrayList<>();
+    private long mOutputBytes;
+
+    /** Parse a recording, which is closed afterwards. */
+    public SessionReplayer(Reader reader) throws IOException {
+        try (BufferedReader lines = new BufferedReader(reader)) {
+            final String header = lines.readLine();
+            if (header == null) throw new IOException("Empty asciicast recording");
+            if (parseHeaderInt(header, HEADER_VERSION) != 2)
+                throw new IOException("Unsupported asciicast version: " + header);
+            mColumns = parseHeaderInt(header, HEADER_WIDTH);
+            mRows = parseHeaderInt(header, HEADER_HEIGHT);
+
+            final EventParser parser = new EventParser();
+            String line;
+            int lineNumber = 1;
+            while ((line = lines.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) continue;
+                if (!parser.parse(line)) throw new IOException("Invalid asciicast event on line " + lineNumber + ": " + line);
+                if (parser.mType.equals("o")) {
+                    final byte[] output = parser.mData.getBytes(StandardCharsets.UTF_8);
+                    mOutputs.add(output);
+                    mSizes.add(0L);
+                    mOutputBytes += output.length;
+                } else if (parser.mType.equals("r")) {
+                    final int separator = parser.mData.indexOf('x');
+                    final int columns, rows;
+                    try {
+                        columns = Integer.parseInt(parser.mData.substring(0, Math.max(separator, 0)));
+                        rows = Integer.parseInt(parser.mData.substring(separator + 1));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid asciicast resize on line " + lineNumber + ": " + line);
+                    }
+                    if (columns <= 0 || rows <= 0) throw new IOException("Invalid asciicast resize on line " + lineNumber + ": " + line);
+                    mOutputs.add(null);
+                    mSizes.add(((long) columns << 32) | rows);
+                }
+                // Input and marker events do not affect the emulator.
+            }
+        }
+    }
+
+    /** Parse a recording file. */
+    public static SessionReplayer read(File file) throws IOException {
+        return new SessionReplayer(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    /** The number of columns at the start of the recording. */
+    public int getColumns() {
+        return mColumns;
+    }
+
+    /** The number of rows at the start of the recording. */
+    public int getRows() {
+        return mRows;
+    }
+
+    /** The number of output bytes appended by {@link #replay(TerminalEmulator)}. */
+    public long getOutputBytes() {
+        return mOutputBytes;
+    }
+
+    /** The number of output and resize events in the recording. */
+    public int getEventCount() {
+        return mOutputs.size();
+    }
+
+    /** Create an emulator with the size at the start of the recording. */
+    public TerminalEmulator createEmulator(TerminalOutput output, Integer transcriptRows) {
+        return new TerminalEmulator(output, mColumns, mRows, CELL_WIDTH_PIXELS, CELL_HEIGHT_PIXELS, transcriptRows, null);
+    }
+
+    /** Feed all events of the recording to an emulator, usually one from {@link #createEmulator(TerminalOutput, Integer)}. */
+    public void replay(TerminalEmulator emulator) {
+        for (int i = 0; i < mOutputs.size(); i++) {
+            final byte[] output = mOutputs.get(i);
+            if (output != null) {
+                emulator.append(output, output.length);
+            } else {
+                final long size = mSizes.get(i);
+                emulator.resize((int) (size >>> 32), (int) size, CELL_WIDTH_PIXELS, CELL_HEIGHT_PIXELS);
+            }
+        }
+    }
+
+    private static int parseHeaderInt(String header, Pattern pattern) throws IOException {
+        final Matcher matcher = pattern.matcher(header);
+        if (!matcher.find()) throw new IOException("Invalid asciicast header: " + header);
+        try {
+            return Integer.parseInt(matcher.group(1));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid asciicast header: " + header);
+        }
+    }
+
+    /** Parses the {@code [time, "type", "data"]} arrays of events, which is all the JSON an event line contains. */
+    private static final class EventParser {
+
+        private final StringBuilder mString = new StringBuilder();
+        private String mLine;
+        private int mIndex;
+        String mType, mData;
+
+        boolean parse(String line) {
+            mLine = line;
+            mIndex = 0;
+            if (!skip('[')) return false;
+            // The time is not needed as events are replayed without waiting:
+            while (mIndex < line.length() && line.charAt(mIndex) != ',') mIndex++;
+            if (!skip(',') || (mType = parseString()) == null) return false;
+            if (!skip(',') || (mData = parseString()) == null) return false;
+            return skip(']');
+        }
+
+        /** Skip whitespace and then the expected char, returning false if it is not there. */
+        private boolean skip(char expected) {
+            while (mIndex < mLine.length() && Character.isWhitespace(mLine.charAt(mIndex))) mIndex++;
+            if (mIndex == mLine.length() || mLine.charAt(mIndex) != expected) return false;
+            mIndex++;
+            return true;
+        }
+
+        private String parseString() {
+            if (!skip('"')) return null;
+            mString.setLength(0);
+            while (mIndex < mLine.length()) {
+                char c = mLine.charAt(mIndex++);
+                if (c == '"') return mString.toString();
+                if (c != '\\') {
+                    mString.append(c);
+                    continue;
+                }
+                if (mIndex == mLine.length()) return null;
+                c = mLine.charAt(mIndex++);
+                switch (c) {
+                    case 'b': mString.append('\b'); break;
+                    case 'f': mString.append('\f'); break;
+                    case 'n': mString.append('\n'); break;
+                    case 'r': mString.append('\r'); break;
+                    case 't': mString.append('\t'); break;
+                    case 'u':
+                        if (mIndex + 4 > mLine.length()) return null;
+                        try {
+                            mString.append((char) Integer.parseInt(mLine.substring(mIndex, mIndex + 4), 16));
+                        } catch (NumberFormatException e) {
+                            return null;
+                        }
+                        mIndex += 4;
+                        break;
+                    default:
+                        // Quotes, backslashes and slashes are escaped as themselves.
+                        mString.append(c);
+                        break;
+                }
+            }
+            return null;
+        }
+
+    }
+
+}
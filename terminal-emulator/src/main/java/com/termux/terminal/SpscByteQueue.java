@@ -0,0 +1,206 @@
+package com.termux.terminal;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A circular byte buffer with one consumer and one producer at a time, with the same interface as {@link ByteQueue}.
+ * <p>
+ * The head and tail positions only ever increase and are each written by one side, so the queue itself never takes a
+ * lock. A thread only yields and then parks when the queue is empty (for the consumer) or full (for the producer), and
+ * the other side unparks it after it has made progress.
+ * <p>
+ * Only one thread at a time may call {@link #write(byte[], int, int)}, and only one thread at a time may call
+ * {@link #read(byte[], boolean)}. Several producer threads may share the queue if they serialize their writes with an
+ * external lock, like the queue to the process of a {@link TerminalSession}, which is written by the main thread, the
+ * emulator and pastes while synchronized on the queue. A producer which waits for the consumer then does so while
+ * holding the lock, so the other producers wait as well, unless it writes with
+ * {@link #tryWrite(byte[], int, int, int)} and waits with {@link #awaitFreeSpace(int)} after releasing the lock.
+ */
+final class SpscByteQueue {
+
+    /**
+     * How many times to yield and check again before parking a thread which has to wait, since the other side often
+     * makes progress shortly and parking and unparking is much more expensive.
+     */
+    private static final int SPINS_BEFORE_PARKING = 16;
+
+    private final byte[] mBuffer;
+    private final int mMask;
+
+    /** The total number of bytes read. Only written by the consumer. */
+    private volatile long mHead;
+    /** The total number of bytes written. Only written by the producer. */
+    private volatile long mTail;
+    private volatile boolean mOpen = true;
+
+    /** The consumer thread if it is parked or about to park waiting for bytes to read. */
+    private volatile Thread mWaitingConsumer;
+    /** The producer thread if it is parked or about to park waiting for space to write. */
+    private volatile Thread mWaitingProducer;
+    /** The thread parked or about to park in {@link #awaitFreeSpace(int)}. */
+    private volatile Thread mWaitingForSpace;
+    /** The number of times that a write found the queue full, see {@link #getFullStalls()}. Only written by the producer. */
+    private volatile long mFullStalls;
+
+    /** @param capacity The size of the buffer, which must be a power of two. */
+    public SpscByteQueue(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        mBuffer = new byte[capacity];
+        mMask = capacity - 1;
+    }
+
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    public void close() {
+        mOpen = false;
+        unpark(mWaitingConsumer);
+        unpark(mWaitingProducer);
+        unpark(mWaitingForSpace);
+    }
+
+    public int read(byte[] buffer, boolean block) {
+        long head = mHead;
+        long tail = mTail;
+        if (tail == head && mOpen) {
+            if (!block) return 0;
+            for (int i = 0; i < SPINS_BEFORE_PARKING && (tail = mTail) == head && mOpen; i++)
+                Thread.yield();
+        }
+        if (tail == head && mOpen) {
+            mWaitingConsumer = Thread.currentThread();
+            // Check again after publishing mWaitingConsumer, as the producer might have written in between and then
+            // not seen that it needs to unpark us.
+            while ((tail = mTail) == head && mOpen)
+                park();
+            mWaitingConsumer = null;
+        }
+        if (!mOpen) return -1;
+
+        final int bytesToRead = (int) Math.min(tail - head, buffer.length);
+        final int index = (int) head & mMask;
+        final int firstRun = Math.min(bytesToRead, mBuffer.length - index);
+        System.arraycopy(mBuffer, index, buffer, 0, firstRun);
+        if (firstRun < bytesToRead) System.arraycopy(mBuffer, 0, buffer, firstRun, bytesToRead - firstRun);
+        mHead = head + bytesToRead;
+
+        unpark(mWaitingProducer);
+        unpark(mWaitingForSpace);
+        return bytesToRead;
+    }
+
+    /**
+     * Wait until at least {@code bytes} bytes can be written without waiting, so that a thread writing a lot of data
+     * can leave space for other writers, which only wait for the consumer if they write more than that. Only one thread
+     * at a time may wait, and unlike reads and writes it may be interrupted.
+     *
+     * @return False if the queue was closed.
+     */
+    public boolean awaitFreeSpace(int bytes) throws InterruptedException {
+        if (bytes > mBuffer.length) throw new IllegalArgumentException("bytes > capacity: " + bytes);
+        if (mBuffer.length - (mTail - mHead) >= bytes || !mOpen) return mOpen;
+        mWaitingForSpace = Thread.currentThread();
+        try {
+            // Check again after publishing mWaitingForSpace, see read().
+            while (mBuffer.length - (mTail - mHead) < bytes && mOpen) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+        } finally {
+            mWaitingForSpace = null;
+        }
+        return mOpen;
+    }
+
+    /**
+     * Attempt to write the specified portion of the provided buffer to the queue.
+     * <p/>
+     * Returns whether the output was totally written, false if it was closed before.
+     */
+    public boolean write(byte[] buffer, int offset, int lengthToWrite) {
+        if (lengthToWrite + offset > buffer.length) {
+            throw new IllegalArgumentException("length + offset > buffer.length");
+        } else if (lengthToWrite <= 0) {
+            throw new IllegalArgumentException("length <= 0");
+        }
+
+        final int capacity = mBuffer.length;
+        long tail = mTail;
+        while (lengthToWrite > 0) {
+            long head = mHead;
+            if (tail - head == capacity) mFullStalls++;
+            for (int i = 0; i < SPINS_BEFORE_PARKING && tail - head == capacity && mOpen; i++) {
+                Thread.yield();
+                head = mHead;
+            }
+            if (tail - head == capacity && mOpen) {
+                mWaitingProducer = Thread.currentThread();
+                // Check again after publishing mWaitingProducer, see read().
+                while (tail - (head = mHead) == capacity && mOpen)
+                    park();
+                mWaitingProducer = null;
+            }
+            if (!mOpen) return false;
+
+            final int bytesToWrite = (int) Math.min(capacity - (tail - head), lengthToWrite);
+            copyIn(tail, buffer, offset, bytesToWrite);
+            tail += bytesToWrite;
+            offset += bytesToWrite;
+            lengthToWrite -= bytesToWrite;
+            mTail = tail;
+
+            unpark(mWaitingConsumer);
+        }
+        return true;
+    }
+
+    /**
+     * Write as much of the specified portion of the buffer as fits without waiting for the consumer, while leaving
+     * {@code keepFree} bytes free for other writers. The same threads may call this as {@link #write(byte[], int, int)}.
+     *
+     * @return The number of bytes written, or -1 if the queue was closed.
+     */
+    public int tryWrite(byte[] buffer, int offset, int lengthToWrite, int keepFree) {
+        if (lengthToWrite + offset > buffer.length) {
+            throw new IllegalArgumentException("length + offset > buffer.length");
+        } else if (lengthToWrite < 0 || keepFree < 0) {
+            throw new IllegalArgumentException("length < 0 or keepFree < 0");
+        }
+        if (!mOpen) return -1;
+
+        final long tail = mTail;
+        final int bytesToWrite = (int) Math.max(0, Math.min(mBuffer.length - keepFree - (tail - mHead), lengthToWrite));
+        if (bytesToWrite == 0) return 0;
+        copyIn(tail, buffer, offset, bytesToWrite);
+        mTail = tail + bytesToWrite;
+
+        unpark(mWaitingConsumer);
+        return bytesToWrite;
+    }
+
+    /** Copy bytes into {@link #mBuffer} at the position of {@code tail}, wrapping around at its end. */
+    private void copyIn(long tail, byte[] buffer, int offset, int bytesToWrite) {
+        final int index = (int) tail & mMask;
+        final int firstRun = Math.min(bytesToWrite, mBuffer.length - index);
+        System.arraycopy(buffer, offset, mBuffer, index, firstRun);
+        if (firstRun < bytesToWrite) System.arraycopy(buffer, offset + firstRun, mBuffer, 0, bytesToWrite - firstRun);
+    }
+
+    /** The number of times that {@link #write(byte[], int, int)} had to wait for the consumer as the queue was full. */
+    public long getFullStalls() {
+        return mFullStalls;
+    }
+
+    private void park() {
+        LockSupport.park(this);
+        // Interrupts are ignored, as in ByteQueue. Clear the flag so that park() does not return immediately again.
+        Thread.interrupted();
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+}
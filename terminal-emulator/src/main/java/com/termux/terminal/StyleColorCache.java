@@ -0,0 +1,139 @@
+package com.termux.terminal;
+
+/**
+ * A cache of the foreground and background colors to render a {@link TextStyle} with, so that a renderer does not
+ * decode the colors, apply bold bright colors, look up the palette, swap inverse colors and dim the foreground again
+ * for each style run of each frame.
+ * <p>
+ * The cache is for one palette generation at a time, see {@link #setPalette(int[], long)}, and is direct mapped so that
+ * a lookup is a hash and a compare. Styles with a truecolor are resolved without the cache, as they need no palette
+ * lookup and a gradient may use more of them than fit, so that caching them costs more than it saves.
+ */
+public final class StyleColorCache {
+
+    /** The number of styles cached for each of normal and reverse video, a power of two. */
+    private static final int CACHE_BITS = 8;
+    private static final int CACHE_SIZE = 1 << CACHE_BITS;
+    /** A style which is never encoded, as it has an unused effect bit set, for entries which are empty. */
+    private static final long EMPTY = 1L << 15;
+
+    private int[] mPalette;
+    private long mPaletteGeneration = -1;
+
+    /**
+     * The style and then its resolved colors, see {@link #resolve(int[], long, boolean)}, of each entry at an index
+     * from {@link #entry(long, boolean)}, next to each other so that a lookup reads one cache line.
+     */
+    private final long[] mEntries = new long[4 * CACHE_SIZE];
+
+    private long mMisses;
+
+    public StyleColorCache() {
+        clear();
+    }
+
+    /**
+     * Set the palette to resolve indexed colors with, which invalidates the cache if its generation changed.
+     *
+     * @param palette    The colors, like {@link TerminalSnapshot#getColors()}, which must not be changed without
+     *                   changing the generation.
+     * @param generation The {@link TerminalColors#getGeneration()} of the palette.
+     */
+    public void setPalette(int[] palette, long generation) {
+        if (palette.length != TextStyle.NUM_INDEXED_COLORS)
+            throw new IllegalArgumentException("palette.length=" + palette.length);
+        if (generation == mPaletteGeneration && palette == mPalette) return;
+        mPalette = palette;
+        mPaletteGeneration = generation;
+        clear();
+    }
+
+    private void clear() {
+        for (int i = 0; i < mEntries.length; i += 2)
+            mEntries[i] = EMPTY;
+    }
+
+    /**
+     * The colors to render a style with, see {@link #foreColor(long)} and {@link #backColor(long)}.
+     *
+     * @param reverseVideo If the colors should be swapped, like for reverse video, the block cursor or selection. The
+     *                     colors of an inverse style are swapped back.
+     */
+    public long get(long style, boolean reverseVideo) {
+        if (TextStyle.hasTrueColor(style)) return resolve(mPalette, style, reverseVideo);
+        final long[] entries = mEntries;
+        final int entry = entry(style, reverseVideo);
+        if (entries[entry] == style) return entries[entry + 1];
+        return miss(entry, style, reverseVideo);
+    }
+
+    private long miss(int entry, long style, boolean reverseVideo) {
+        mMisses++;
+        final long colors = resolve(mPalette, style, reverseVideo);
+        mEntries[entry] = style;
+        mEntries[entry + 1] = colors;
+        return colors;
+    }
+
+    /** The index in {@link #mEntries} of the entry of a style. */
+    private static int entry(long style, boolean reverseVideo) {
+        // Fibonacci hashing, so that the colors in the high bits and the effects in the low bits all spread the styles:
+        final int hash = (int) ((style * 0x9E3779B97F4A7C15L) >>> (64 - CACHE_BITS));
+        return ((hash << 1) | (reverseVideo ? 1 : 0)) << 1;
+    }
+
+    /** The number of lookups of styles without a truecolor which were not found in the cache and had to be resolved. */
+    public long getMisses() {
+        return mMisses;
+    }
+
+    /** Resolve the colors of a style without the cache, see {@link #get(long, boolean)}. */
+    public static long resolve(int[] palette, long style, boolean reverseVideo) {
+        int foreColor = TextStyle.decodeForeColor(style);
+        int backColor = TextStyle.decodeBackColor(style);
+        final int effect = TextStyle.decodeEffect(style);
+
+        if ((foreColor & 0xff000000) != 0xff000000) {
+            // Let bold have bright colors if applicable (one of the first 8):
+            final boolean bold = (effect & (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_BLINK)) != 0;
+            if (bold && foreColor >= 0 && foreColor < 8) foreColor += 8;
+            foreColor = palette[foreColor];
+        }
+
+        if ((backColor & 0xff000000) != 0xff000000) {
+            backColor = palette[backColor];
+        }
+
+        // Reverse video here if _one and only one_ of the reverse flags are set:
+        if (reverseVideo ^ (effect & TextStyle.CHARACTER_ATTRIBUTE_INVERSE) != 0) {
+            int tmp = foreColor;
+            foreColor = backColor;
+            backColor = tmp;
+        }
+
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_DIM) != 0) {
+            int red = (0xFF & (foreColor >> 16));
+            int green = (0xFF & (foreColor >> 8));
+            int blue = (0xFF & foreColor);
+            // Dim color handling used by libvte which in turn took it from xterm
+            // (https://bug735245.bugzilla-attachments.gnome.org/attachment.cgi?id=284267):
+            red = red * 2 / 3;
+            green = green * 2 / 3;
+            blue = blue * 2 / 3;
+            foreColor = 0xFF000000 + (red << 16) + (green << 8) + blue;
+        }
+
+        return ((long) foreColor << 32) | (backColor & 0xFFFFFFFFL);
+    }
+
+    /** The foreground color of resolved colors, after dimming. */
+    public static int foreColor(long colors) {
+        return (int) (colors >>> 32);
+    }
+
+    /** The background color of resolved colors. */
+    public static int backColor(long colors) {
+        return (int) colors;
+    }
+
+}
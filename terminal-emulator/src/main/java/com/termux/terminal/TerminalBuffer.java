@@ -1,5 +1,12 @@
 package com.termux.terminal;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 /**
@@ -7,11 +14,37 @@ import java.util.Arrays;
  * history.
  * <p>
  * See {@link #externalToInternalRow(int)} for how to map from logical screen rows to array indices.
+ * <p>
+ * Rows which scroll off the screen into the transcript are stored as {@link CompactRow}:s in {@link #mCompactLines},
+ * and are inflated back into {@link #mLines} by {@link #allocateFullLineIfNecessary(int)} when needed.
+ * <p>
+ * If a {@link TranscriptSpillFile} is set with {@link #setTranscriptSpill(TranscriptSpillFile)}, rows which drop out of
+ * the full transcript are appended to it instead of being discarded. The spilled rows come before the transcript in
+ * the external coordinate system, and are paged back in to slots after the circular buffer by {@link #pageInRow(int)}.
  */
 public final class TerminalBuffer {
 
+    private static final String LOG_TAG = "TerminalBuffer";
+
+    /** The chars which separate words, for instance when selecting a word, see {@link #getWordAtLocation(int, int)}. */
+    public static final String DEFAULT_WORD_DELIMITERS = " ";
+
+    /** The chars which separate a URL from the text around it, as they are not allowed unencoded in URLs. */
+    public static final String URL_DELIMITERS = " \"<>`{}|\\^";
+
+    /**
+     * The max number of transcript rows kept inflated after {@link #allocateFullLineIfNecessary(int)}, for instance to
+     * render them while scrolled back. When more rows are inflated the least recently inflated row is compacted again.
+     */
+    private static final int MAX_INFLATED_TRANSCRIPT_ROWS = 256;
+
+    /** The number of rows paged in from {@link #mSpill}, which are kept in {@link #mLines} after {@link #mTotalRows}. */
+    private static final int MAX_PAGED_IN_SPILLED_ROWS = 64;
+
     TerminalRow[] mLines;
-    /** The length of {@link #mLines}. */
+    /** The compact transcript rows, for which the row in {@link #mLines} at the same index is null. */
+    CompactRow[] mCompactLines;
+    /** The number of rows in the circular buffer, which is the length of {@link #mLines} without spilled rows paged in. */
     int mTotalRows;
     /** The number of rows and columns visible on the screen. */
     int mScreenRows, mColumns;
@@ -20,6 +53,50 @@ public final class TerminalBuffer {
     /** The index in the circular buffer where the visible screen starts. */
     private int mScreenFirstRow = 0;
 
+    /** Circular buffer of internal rows that have been inflated from {@link #mCompactLines}, or -1. */
+    private final int[] mInflatedTranscriptRows = new int[MAX_INFLATED_TRANSCRIPT_ROWS];
+    private int mInflatedTranscriptRowsNext = 0;
+    /**
+     * Rows compacted again when more transcript rows were inflated, which a reader may still use. They are given to the
+     * row pool by {@link #releaseEvictedRows()} when the buffer changes, as readers may not hold rows over changes.
+     */
+    private final TerminalRow[] mEvictedRows = new TerminalRow[MAX_INFLATED_TRANSCRIPT_ROWS];
+    private int mEvictedRowCount = 0;
+    /** Row used for reading compact rows without inflating them into {@link #mLines}. */
+    private TerminalRow mReadRow;
+    /** The rows which are not used anymore, to reuse instead of allocating new ones. */
+    private final TerminalRowPool mRowPool;
+
+    /** The file rows which drop out of the transcript are spilled to, or null. */
+    private TranscriptSpillFile mSpill;
+    /** The spill file row number paged in to each slot after {@link #mTotalRows}, or -1. */
+    private final long[] mPagedInSpilledRows = new long[MAX_PAGED_IN_SPILLED_ROWS];
+    private int mPagedInSpilledRowsNext = 0;
+
+    /** Incremented on each change, see {@link #getRowChangeCount(int)}. */
+    private long mChangeCount = 1;
+    /** The value of {@link #mChangeCount} when each screen row last changed. */
+    private long[] mRowChangeCounts;
+    /** The value of {@link #mChangeCount} when all rows last changed. */
+    private long mAllRowsChangeCount = 1;
+    /** The value of {@link #mChangeCount} when the transcript rows last moved, by a row scrolling into it. */
+    private long mTranscriptChangeCount = 1;
+    /** If {@link #resize} should only reflow the screen, leaving the history to {@link #reflowPendingHistory(int)}. */
+    private boolean mLazyReflow;
+    /** The history rows which a lazy {@link #resize} has not reflowed yet, or null. */
+    private TerminalReflow mPendingReflow;
+
+    /** The text of the logical line being searched by {@link #search(TerminalSearch, int, int, boolean)}. */
+    private final StringBuilder mSearchLine = new StringBuilder();
+    /** The start in {@link #mSearchLine} of each row of the line, followed by the end of the line. */
+    private int[] mSearchRowStarts = new int[16];
+    /** If each row of the line has chars which are not one column each. */
+    private boolean[] mSearchRowWideChars = new boolean[16];
+    /** The rows of the logical line in {@link #mSearchLine} read by {@link #findWord(int, int, String)}. */
+    private int mWordLineStartRow, mWordLineEndRow;
+    /** The chars of the word found in {@link #mSearchLine} by {@link #findWord(int, int, String)}. */
+    private int mWordStart, mWordEnd;
+
     /**
      * Create a transcript screen.
      *
@@ -29,24 +106,78 @@ public final class TerminalBuffer {
      *                   the top of the screen.
      */
     public TerminalBuffer(int columns, int totalRows, int screenRows) {
+        this(columns, totalRows, screenRows, new TerminalRowPool());
+    }
+
+    /** Create a transcript screen which shares a pool of unused rows, like with the other buffer of the same emulator. */
+    TerminalBuffer(int columns, int totalRows, int screenRows, TerminalRowPool rowPool) {
+        mRowPool = rowPool;
         mColumns = columns;
         mTotalRows = totalRows;
         mScreenRows = screenRows;
         mLines = new TerminalRow[totalRows];
+        mCompactLines = new CompactRow[totalRows];
+        Arrays.fill(mInflatedTranscriptRows, -1);
+        Arrays.fill(mPagedInSpilledRows, -1);
+        mRowChangeCounts = new long[screenRows];
 
         blockSet(0, 0, columns, screenRows, ' ', TextStyle.NORMAL);
     }
 
     public String getTranscriptText() {
-        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows).trim();
+        return getTranscriptText(true, false);
     }
 
     public String getTranscriptTextWithoutJoinedLines() {
-        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, false).trim();
+        return getTranscriptText(false, false);
     }
 
     public String getTranscriptTextWithFullLinesJoined() {
-        return getSelectedText(0, -getActiveTranscriptRows(), mColumns, mScreenRows, true, true).trim();
+        return getTranscriptText(true, true);
+    }
+
+    private String getTranscriptText(boolean joinBackLines, boolean joinFullLines) {
+        final StringWriter writer = new StringWriter();
+        try {
+            writeTranscript(writer, joinBackLines, joinFullLines, false);
+        } catch (IOException e) {
+            // Not thrown by a StringWriter.
+            throw new RuntimeException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Write the text of the transcript and screen, as selected by
+     * {@link #getSelectedText(int, int, int, int, boolean, boolean)} and trimmed, one row at a time without building it
+     * in memory, for instance to export a large transcript to a file.
+     *
+     * @param withStyles If the text should include SGR escape sequences for its colors and effects, as by
+     *                   {@link TerminalEmulator} when read back.
+     */
+    public void writeTranscript(Writer out, boolean joinBackLines, boolean joinFullLines, boolean withStyles) throws IOException {
+        reflowPendingHistory(Integer.MAX_VALUE);
+        final TranscriptWriter writer = new TranscriptWriter(out, withStyles);
+        for (int row = -getActiveTranscriptRows(); row < mScreenRows; row++) {
+            final TerminalRow line = getRowForReading(pageInRow(row));
+            final int spaceUsed = line.getSpaceUsed();
+            int charEnd = spaceUsed;
+            if (!line.mLineWrap) {
+                while (charEnd > 0 && line.mText[charEnd - 1] == ' ') charEnd--;
+            }
+            writer.writeRow(line, charEnd);
+            final boolean lineFillsWidth = charEnd == spaceUsed;
+            if ((!joinBackLines || !line.mLineWrap) && (!joinFullLines || !lineFillsWidth) && row < mScreenRows - 1)
+                writer.writeNewline();
+        }
+        writer.finish();
+    }
+
+    /** Write the transcript as UTF-8, see {@link #writeTranscript(Writer, boolean, boolean, boolean)}. */
+    public void writeTranscript(OutputStream out, boolean joinBackLines, boolean joinFullLines, boolean withStyles) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writeTranscript(writer, joinBackLines, joinFullLines, withStyles);
+        writer.flush();
     }
 
     public String getSelectedText(int selX1, int selY1, int selX2, int selY2) {
@@ -59,6 +190,12 @@ public final class TerminalBuffer {
 
     public String getSelectedText(int selX1, int selY1, int selX2, int selY2, boolean joinBackLines, boolean joinFullLines) {
         final StringBuilder builder = new StringBuilder();
+        appendSelectedText(builder, selX1, selY1, selX2, selY2, joinBackLines, joinFullLines);
+        return builder.toString();
+    }
+
+    /** Append the selected text to a builder, see {@link #getSelectedText(int, int, int, int, boolean, boolean)}. */
+    public void appendSelectedText(StringBuilder builder, int selX1, int selY1, int selX2, int selY2, boolean joinBackLines, boolean joinFullLines) {
         final int columns = mColumns;
 
         if (selY1 < -getActiveTranscriptRows()) selY1 = -getActiveTranscriptRows();
@@ -73,7 +210,7 @@ public final class TerminalBuffer {
             } else {
                 x2 = columns;
             }
-            TerminalRow lineObject = mLines[externalToInternalRow(row)];
+            TerminalRow lineObject = getRowForReading(pageInRow(row));
             int x1Index = lineObject.findStartOfColumn(x1);
             int x2Index = (x2 < mColumns) ? lineObject.findStartOfColumn(x2) : lineObject.getSpaceUsed();
             if (x2Index == x1Index) {
@@ -102,54 +239,375 @@ public final class TerminalBuffer {
             if ((!joinBackLines || !rowLineWrap) && (!joinFullLines || !lineFillsWidth)
                 && row < selY2 && row < mScreenRows - 1) builder.append('\n');
         }
-        return builder.toString();
     }
 
+    /** Get the word at a location, separated by {@link #DEFAULT_WORD_DELIMITERS}, or "" if there is none. */
     public String getWordAtLocation(int x, int y) {
-        // Set y1 and y2 to the lines where the wrapped line starts and ends.
-        // I.e. if a line that is wrapped to 3 lines starts at line 4, and this
-        // is called with y=5, then y1 would be set to 4 and y2 would be set to 6.
-        int y1 = y;
-        int y2 = y;
-        while (y1 > 0 && !getSelectedText(0, y1 - 1, mColumns, y, true, true).contains("\n")) {
-            y1--;
+        return getWordAtLocation(x, y, DEFAULT_WORD_DELIMITERS);
+    }
+
+    /**
+     * Get the word at a location, which may continue on the rows before and after it if the line is wrapped.
+     *
+     * @param delimiters The chars which separate words, such as {@link #URL_DELIMITERS} for finding a URL.
+     * @return The word, or "" if the location is on a delimiter or after the end of the text of its row.
+     */
+    public String getWordAtLocation(int x, int y, String delimiters) {
+        if (!findWord(x, y, delimiters)) return "";
+        return mSearchLine.substring(mWordStart, mWordEnd);
+    }
+
+    /**
+     * Find the word at a location, see {@link #getWordAtLocation(int, int, String)}.
+     *
+     * @return The rows and columns of the word as for a text selection, or null if there is no word at the location.
+     */
+    public TerminalSearchMatch findWordAtLocation(int x, int y, String delimiters) {
+        if (!findWord(x, y, delimiters)) return null;
+        final int rows = mWordLineEndRow - mWordLineStartRow + 1;
+        final int startLineRow = rowOfCharIndex(rows, mWordStart);
+        final int endLineRow = rowOfCharIndex(rows, mWordEnd - 1);
+        final int startColumn = columnOfCharIndex(startLineRow, mWordStart);
+        int endColumn = columnOfCharIndex(endLineRow, mWordEnd) - 1;
+        if (endLineRow == startLineRow) endColumn = Math.max(startColumn, endColumn);
+        return new TerminalSearchMatch(mWordLineStartRow + startLineRow, startColumn, mWordLineStartRow + endLineRow, endColumn);
+    }
+
+    /**
+     * Read the logical line with a location into {@link #mSearchLine}, finding its rows by their line wrap flags, and
+     * scan it once from the location for the delimiters before and after it.
+     *
+     * @return If there is a word at the location, which is then at [{@link #mWordStart}, {@link #mWordEnd}) in the line.
+     */
+    private boolean findWord(int column, int row, String delimiters) {
+        if (column < 0 || column >= mColumns) return false;
+        reflowPendingHistory(Integer.MAX_VALUE);
+        if (row < -getActiveTranscriptRows() || row >= mScreenRows) return false;
+
+        mWordLineStartRow = findLineStart(row);
+        mWordLineEndRow = findLineEnd(row);
+        readLine(mWordLineStartRow, mWordLineEndRow);
+        final int lineRow = row - mWordLineStartRow;
+        final int rowEnd = mSearchRowStarts[lineRow + 1];
+        // After the end of the text of the row:
+        if (columnOfCharIndex(lineRow, rowEnd) <= column) return false;
+
+        // The last char of the column, which is the second half of a surrogate pair or a combining char after it:
+        final StringBuilder line = mSearchLine;
+        final int index = charIndexOfColumn(lineRow, column + 1) - 1;
+        if (delimiters.indexOf(line.charAt(index)) != -1) return false;
+
+        int start = index;
+        while (start > 0 && delimiters.indexOf(line.charAt(start - 1)) == -1) start--;
+        int end = index + 1;
+        final int length = line.length();
+        while (end < length && delimiters.indexOf(line.charAt(end)) == -1) end++;
+        mWordStart = start;
+        mWordEnd = end;
+        return true;
+    }
+
+    /**
+     * Find the next or previous match of a search in the transcript and on the screen, reading one logical line at a
+     * time. Lines in the transcript which cannot contain a literal search, as told by the signatures cached in their
+     * rows, are skipped without reading their text.
+     *
+     * @param row      The external row to search from.
+     * @param column   The column to search from, where a match starting at the column is found when searching forward
+     *                 but not when searching backward.
+     * @param backward If searching towards the top of the transcript for the last match before the position.
+     * @return The closest match from the position in the direction of the search, or null if there is none.
+     */
+    public TerminalSearchMatch search(TerminalSearch search, int row, int column, boolean backward) {
+        reflowPendingHistory(Integer.MAX_VALUE);
+        final int firstRow = -getActiveTranscriptRows();
+        if (row < firstRow) {
+            row = firstRow;
+            column = 0;
+        } else if (row >= mScreenRows) {
+            row = mScreenRows - 1;
+            column = mColumns;
         }
-        while (y2 < mScreenRows && !getSelectedText(0, y, mColumns, y2 + 1, true, true).contains("\n")) {
-            y2++;
+
+        if (backward) {
+            for (int endRow = findLineEnd(row); endRow >= firstRow; ) {
+                final int startRow = findLineStart(endRow);
+                final TerminalSearchMatch match = searchLine(search, startRow, endRow, row, column, true);
+                if (match != null) return match;
+                endRow = startRow - 1;
+            }
+        } else {
+            for (int startRow = findLineStart(row); startRow < mScreenRows; ) {
+                final int endRow = findLineEnd(startRow);
+                final TerminalSearchMatch match = searchLine(search, startRow, endRow, row, column, false);
+                if (match != null) return match;
+                startRow = endRow + 1;
+            }
         }
+        return null;
+    }
+
+    /** The first external row of the logical line with a row. */
+    private int findLineStart(int row) {
+        final int firstRow = -getActiveTranscriptRows();
+        while (row > firstRow && getLineWrap(row - 1)) row--;
+        return row;
+    }
 
-        // Get the text for the whole wrapped line
-        String text = getSelectedText(0, y1, mColumns, y2, true, true);
-        // The index of x in text
-        int textOffset = (y - y1) * mColumns + x;
+    /** The last external row of the logical line with a row. */
+    private int findLineEnd(int row) {
+        while (row < mScreenRows - 1 && getLineWrap(row)) row++;
+        return row;
+    }
 
-        if (textOffset >= text.length()) {
-          // The click was to the right of the last word on the line, so
-          // there's no word to return
-          return "";
+    private TerminalSearchMatch searchLine(TerminalSearch search, int startRow, int endRow, int row, int column, boolean backward) {
+        if ((search.mSignature & ~getLineSignature(startRow, endRow)) != 0) return null;
+        readLine(startRow, endRow);
+
+        final StringBuilder line = mSearchLine;
+        final boolean hasPosition = row >= startRow && row <= endRow;
+        int start;
+        if (!backward) {
+            start = search.find(line, hasPosition ? charIndexOfColumn(row - startRow, column) : 0);
+        } else {
+            final int position = hasPosition ? charIndexOfColumn(row - startRow, column) : line.length() + 1;
+            start = -1;
+            int end = 0;
+            for (int found = search.find(line, 0); found >= 0 && found < position; found = search.find(line, found + 1)) {
+                start = found;
+                end = search.mMatchEnd;
+            }
+            search.mMatchEnd = end;
         }
+        if (start < 0) return null;
 
-        // Set x1 and x2 to the indices of the last space before x and the
-        // first space after x in text respectively
-        int x1 = text.lastIndexOf(' ', textOffset);
-        int x2 = text.indexOf(' ', textOffset);
-        if (x2 == -1) {
-            x2 = text.length();
+        final int startLineRow = rowOfCharIndex(endRow - startRow + 1, start);
+        final int endLineRow = rowOfCharIndex(endRow - startRow + 1, search.mMatchEnd - 1);
+        final int startColumn = columnOfCharIndex(startLineRow, start);
+        int endColumn = columnOfCharIndex(endLineRow, search.mMatchEnd) - 1;
+        if (endLineRow == startLineRow) endColumn = Math.max(startColumn, endColumn);
+        return new TerminalSearchMatch(startRow + startLineRow, startColumn, startRow + endLineRow, endColumn);
+    }
+
+    /**
+     * The signature of the text of a logical line, see {@link TerminalSearch#signature(char[], int, int)}, from the
+     * signatures cached in its rows. All bits are set if not all of its rows are compact transcript rows.
+     */
+    private long getLineSignature(int startRow, int endRow) {
+        // Spilled rows are paged in as full rows, and so have no cached signature:
+        if (startRow < -mActiveTranscriptRows) return -1;
+        long signature = 0;
+        CompactRow previousRow = null;
+        for (int row = startRow; row <= endRow; row++) {
+            final int internalRow = externalToInternalRow(row);
+            final CompactRow compactRow = mCompactLines[internalRow];
+            if (mLines[internalRow] != null || compactRow == null) return -1;
+            signature |= compactRow.getSearchSignature(mColumns);
+            if (previousRow != null) {
+                // The chars on both sides of the wrap from the previous row, which ends with spaces if not full:
+                final char last = (previousRow.mTextColumns < mColumns) ? ' ' : previousRow.mText[previousRow.mText.length - 1];
+                if (compactRow.mText.length > 0) signature |= TerminalSearch.bigramBit(last, compactRow.mText[0]);
+                else if (row < endRow) signature |= TerminalSearch.bigramBit(last, ' ');
+            }
+            previousRow = compactRow;
         }
+        return signature;
+    }
 
-        if (x1 == x2) {
-          // The click was on a space, so there's no word to return
-          return "";
+    /** Read the text of a logical line into {@link #mSearchLine}, as when selecting it. */
+    private void readLine(int startRow, int endRow) {
+        final StringBuilder line = mSearchLine;
+        line.setLength(0);
+        final int rows = endRow - startRow + 1;
+        if (mSearchRowStarts.length <= rows) {
+            mSearchRowStarts = new int[rows * 2];
+            mSearchRowWideChars = new boolean[rows * 2];
         }
-        return text.substring(x1 + 1, x2);
+        for (int i = 0; i < rows; i++) {
+            mSearchRowStarts[i] = line.length();
+            // Trailing spaces are only part of the line if it continues on the next row:
+            final boolean continues = i < rows - 1;
+            final int internalRow = pageInRow(startRow + i);
+            final TerminalRow fullRow = mLines[internalRow];
+            final CompactRow compactRow = mCompactLines[internalRow];
+            if (fullRow != null) {
+                int end = fullRow.getSpaceUsed();
+                if (!continues) {
+                    while (end > 0 && fullRow.mText[end - 1] == ' ') end--;
+                }
+                line.append(fullRow.mText, 0, end);
+                mSearchRowWideChars[i] = fullRow.mHasNonOneWidthOrSurrogateChars;
+            } else if (compactRow != null) {
+                line.append(compactRow.mText);
+                if (continues) {
+                    for (int column = compactRow.mTextColumns; column < mColumns; column++) line.append(' ');
+                }
+                mSearchRowWideChars[i] = compactRow.mHasNonOneWidthOrSurrogateChars;
+            } else {
+                mSearchRowWideChars[i] = false;
+            }
+        }
+        mSearchRowStarts[rows] = line.length();
+    }
+
+    /** The row of {@link #mSearchLine}, counted from its first row, with a char. */
+    private int rowOfCharIndex(int rows, int index) {
+        int row = 0;
+        while (row < rows - 1 && mSearchRowStarts[row + 1] <= index) row++;
+        return row;
     }
 
+    /** The column of a char in a row of {@link #mSearchLine}, which is the number of columns used before it. */
+    private int columnOfCharIndex(int lineRow, int index) {
+        final int rowStart = mSearchRowStarts[lineRow];
+        if (!mSearchRowWideChars[lineRow]) return index - rowStart;
+        final int rowEnd = mSearchRowStarts[lineRow + 1];
+        int column = 0;
+        for (int i = rowStart; i < index && i < rowEnd; i++) {
+            final char c = mSearchLine.charAt(i);
+            final int codePoint = (Character.isHighSurrogate(c) && i + 1 < rowEnd) ? Character.toCodePoint(c, mSearchLine.charAt(++i)) : c;
+            column += Math.max(0, WcWidth.width(codePoint));
+        }
+        return column;
+    }
+
+    /** The index in {@link #mSearchLine} of the first char at or after a column of a row in it. */
+    private int charIndexOfColumn(int lineRow, int column) {
+        final int rowStart = mSearchRowStarts[lineRow];
+        final int rowEnd = mSearchRowStarts[lineRow + 1];
+        if (!mSearchRowWideChars[lineRow]) return Math.min(rowStart + Math.max(0, column), rowEnd);
+        int index = rowStart;
+        int indexColumn = 0;
+        while (index < rowEnd && indexColumn < column) {
+            final char c = mSearchLine.charAt(index);
+            final int codePoint = (Character.isHighSurrogate(c) && index + 1 < rowEnd) ? Character.toCodePoint(c, mSearchLine.charAt(index + 1)) : c;
+            indexColumn += Math.max(0, WcWidth.width(codePoint));
+            index += Character.charCount(codePoint);
+        }
+        return index;
+    }
+
+    /** The number of rows in history, including those spilled to a {@link TranscriptSpillFile}. */
     public int getActiveTranscriptRows() {
-        return mActiveTranscriptRows;
+        return mActiveTranscriptRows + getSpilledRows();
     }
 
     public int getActiveRows() {
-        return mActiveTranscriptRows + mScreenRows;
+        return getActiveTranscriptRows() + mScreenRows;
+    }
+
+    /**
+     * A number which is increased whenever a row changes, by having characters or styles set, being scrolled or by a
+     * resize. It is never reset, so several observers can each check if a row changed since they last saw it.
+     * Transcript rows change whenever a row scrolls into the transcript, as they all move up.
+     */
+    public long getRowChangeCount(int externalRow) {
+        if (externalRow < 0) return Math.max(mAllRowsChangeCount, mTranscriptChangeCount);
+        if (externalRow >= mScreenRows) return mAllRowsChangeCount;
+        return Math.max(mAllRowsChangeCount, mRowChangeCounts[externalRow]);
+    }
+
+    /** Mark all rows as changed, for instance since the screen has been reset. */
+    public void markAllRowsChanged() {
+        mAllRowsChangeCount = ++mChangeCount;
+    }
+
+    private void markRowChanged(int externalRow) {
+        mRowChangeCounts[externalRow] = ++mChangeCount;
+    }
+
+    /** Mark the screen rows from {@code startRow} to {@code endRow} (exclusive) as changed. */
+    private void markRowsChanged(int startRow, int endRow) {
+        final long changeCount = ++mChangeCount;
+        for (int row = startRow; row < endRow; row++)
+            mRowChangeCounts[row] = changeCount;
+    }
+
+    /** The number of rows of history in the {@link TranscriptSpillFile}, if any. */
+    public int getSpilledRows() {
+        return (mSpill == null) ? 0 : mSpill.getRows();
+    }
+
+    /**
+     * Set the file that rows dropping out of the transcript are spilled to, closing any previous one.
+     *
+     * @param spill The spill file, or null to stop spilling.
+     */
+    void setTranscriptSpill(TranscriptSpillFile spill) {
+        reflowPendingHistory(Integer.MAX_VALUE);
+        closeTranscriptSpill();
+        mSpill = spill;
+        if (spill != null && mLines.length == mTotalRows) {
+            mLines = Arrays.copyOf(mLines, mTotalRows + MAX_PAGED_IN_SPILLED_ROWS);
+            mCompactLines = Arrays.copyOf(mCompactLines, mTotalRows + MAX_PAGED_IN_SPILLED_ROWS);
+        }
+    }
+
+    /** Close and delete the transcript spill file, if any, dropping the history in it. */
+    void closeTranscriptSpill() {
+        if (mSpill == null) return;
+        try {
+            mSpill.close();
+        } catch (IOException e) {
+            // The history is dropped either way.
+        }
+        mSpill = null;
+        Arrays.fill(mPagedInSpilledRows, -1);
+    }
+
+    /** Append the transcript row which is about to be overwritten to the spill file. */
+    private void spillRow(int internalRow) {
+        CompactRow row = mCompactLines[internalRow];
+        if (row == null) {
+            final TerminalRow line = mLines[internalRow];
+            if (line != null) {
+                row = line.toCompactRow();
+            } else {
+                final TerminalRow blankLine = mRowPool.obtain(mColumns, TextStyle.NORMAL);
+                row = blankLine.toCompactRow();
+                mRowPool.release(blankLine);
+            }
+        }
+        spillRow(row);
+    }
+
+    private void spillRow(CompactRow row) {
+        try {
+            mSpill.append(row, mColumns);
+        } catch (IOException e) {
+            // Keep the history in memory instead of dropping it, for instance if the storage is full:
+            Logger.logStackTraceWithMessage(null, LOG_TAG, "Failed to spill transcript row, keeping spilled rows in memory", e);
+            mSpill.appendInMemory(row, mColumns);
+        }
+    }
+
+    /** Page in a row from the spill file, returning its internal row which is valid until more rows are paged in. */
+    private int pageInSpilledRow(long spilledRow) {
+        for (int slot = 0; slot < MAX_PAGED_IN_SPILLED_ROWS; slot++)
+            if (mPagedInSpilledRows[slot] == spilledRow) return mTotalRows + slot;
+
+        final int slot = mPagedInSpilledRowsNext;
+        mPagedInSpilledRowsNext = (slot + 1) % MAX_PAGED_IN_SPILLED_ROWS;
+        mPagedInSpilledRows[slot] = spilledRow;
+        final int internalRow = mTotalRows + slot;
+        TerminalRow line = mLines[internalRow];
+        if (line == null || line.getColumns() != mColumns) {
+            mRowPool.release(line);
+            line = mLines[internalRow] = mRowPool.obtain(mColumns, TextStyle.NORMAL);
+        }
+        line.copyFrom(mSpill.read(spilledRow, mColumns));
+        return internalRow;
+    }
+
+    /**
+     * Get the internal row of an external row like {@link #externalToInternalRow(int)}, but also for rows in the
+     * {@link TranscriptSpillFile}, which are paged in first. The internal row of a spilled row is only valid until more
+     * rows are paged in.
+     */
+    public int pageInRow(int externalRow) {
+        if (externalRow < -mActiveTranscriptRows && externalRow >= -getActiveTranscriptRows())
+            return pageInSpilledRow(mSpill.getEndRow() + externalRow + mActiveTranscriptRows);
+        return externalToInternalRow(externalRow);
     }
 
     /**
@@ -160,6 +618,9 @@ public final class TerminalBuffer {
      * - Internal coordinate system: the mScreenRows lines starting at mScreenFirstRow comprise the screen, while the
      *   mActiveTranscriptRows lines ending at mScreenFirstRow-1 form the transcript (as a circular buffer).
      *
+     * Rows in a spill file come before -mActiveTranscriptRows, and are paged in to internal rows from mTotalRows by
+     * pageInRow(int) instead.
+     *
      * External ↔ Internal:
      *
      * [ ...                            ]     [ ...                                     ]
@@ -181,26 +642,62 @@ public final class TerminalBuffer {
     }
 
     public void setLineWrap(int row) {
-        mLines[externalToInternalRow(row)].mLineWrap = true;
+        allocateFullLineIfNecessary(externalToInternalRow(row)).mLineWrap = true;
+        markRowChanged(row);
     }
 
     public boolean getLineWrap(int row) {
-        return mLines[externalToInternalRow(row)].mLineWrap;
+        final int internalRow = pageInRow(row);
+        final TerminalRow line = mLines[internalRow];
+        return (line == null) ? mCompactLines[internalRow].mLineWrap : line.mLineWrap;
     }
 
     public void clearLineWrap(int row) {
-        mLines[externalToInternalRow(row)].mLineWrap = false;
+        allocateFullLineIfNecessary(externalToInternalRow(row)).mLineWrap = false;
+        markRowChanged(row);
+    }
+
+    /** If an internal row is part of the transcript, and not of the screen or unused. */
+    private boolean isTranscriptRow(int internalRow) {
+        int rowsAfterScreenStart = internalRow - mScreenFirstRow;
+        if (rowsAfterScreenStart < 0) rowsAfterScreenStart += mTotalRows;
+        return rowsAfterScreenStart >= mScreenRows && rowsAfterScreenStart - mTotalRows >= -mActiveTranscriptRows;
+    }
+
+    /**
+     * Replace a transcript row with a compact copy of it.
+     *
+     * @return The row which was compacted and may be reused, or null if there was no full row.
+     */
+    private TerminalRow compactRow(int internalRow) {
+        final TerminalRow line = mLines[internalRow];
+        if (line == null) return null;
+        mCompactLines[internalRow] = line.toCompactRow();
+        mLines[internalRow] = null;
+        return line;
+    }
+
+    /** Get a row for reading, which for a compact row is only valid until the next call. */
+    private TerminalRow getRowForReading(int internalRow) {
+        final TerminalRow line = mLines[internalRow];
+        final CompactRow compactLine = mCompactLines[internalRow];
+        if (line != null || compactLine == null) return line;
+        if (mReadRow == null || mReadRow.getColumns() != mColumns) mReadRow = new TerminalRow(mColumns, TextStyle.NORMAL);
+        mReadRow.copyFrom(compactLine);
+        return mReadRow;
     }
 
     /**
-     * Resize the screen which this transcript backs. Currently, this only works if the number of columns does not
-     * change or the rows expand (that is, it only works when shrinking the number of rows).
+     * Resize the screen which this transcript backs. If the number of columns changes, the rows are reflowed, see
+     * {@link TerminalReflow}.
      *
      * @param newColumns The number of columns the screen should have.
      * @param newRows    The number of rows the screen should have.
      * @param cursor     An int[2] containing the (column, row) cursor location.
      */
     public void resize(int newColumns, int newRows, int newTotalRows, int[] cursor, long currentStyle, boolean altScreen) {
+        releaseEvictedRows();
+        if (mRowChangeCounts.length < newRows) mRowChangeCounts = Arrays.copyOf(mRowChangeCounts, newRows);
         // newRows > mTotalRows should not normally happen since mTotalRows is TRANSCRIPT_ROWS (10000):
         if (newColumns == mColumns && newRows <= mTotalRows) {
             // Fast resize where just the rows changed.
@@ -224,133 +721,223 @@ public final class TerminalBuffer {
                     shiftDownOfTopRow = actualShift;
                 }
             }
-            mScreenFirstRow += shiftDownOfTopRow;
-            mScreenFirstRow = (mScreenFirstRow < 0) ? (mScreenFirstRow + mTotalRows) : (mScreenFirstRow % mTotalRows);
+            if (newTotalRows < mTotalRows) {
+                // Only the alt buffer, without transcript, shrinks its total rows. Move the rows staying on the screen
+                // to the start, as the circular buffer would otherwise wrap around at a different row:
+                final TerminalRow[] lines = new TerminalRow[newTotalRows + mLines.length - mTotalRows];
+                for (int row = 0; row < newRows; row++) {
+                    final int internalRow = externalToInternalRow(row + shiftDownOfTopRow);
+                    lines[row] = allocateFullLineIfNecessary(internalRow);
+                    mLines[internalRow] = null;
+                }
+                // The rows not kept are reused later:
+                for (TerminalRow line : mLines) mRowPool.release(line);
+                mLines = lines;
+                mCompactLines = new CompactRow[lines.length];
+                mScreenFirstRow = 0;
+            } else {
+                mScreenFirstRow += shiftDownOfTopRow;
+                mScreenFirstRow = (mScreenFirstRow < 0) ? (mScreenFirstRow + mTotalRows) : (mScreenFirstRow % mTotalRows);
+            }
             mTotalRows = newTotalRows;
             mActiveTranscriptRows = altScreen ? 0 : Math.max(0, mActiveTranscriptRows + shiftDownOfTopRow);
             cursor[1] -= shiftDownOfTopRow;
             mScreenRows = newRows;
+
+            // Rows revealed from the transcript should be full rows while on the screen, and rows pushed into the
+            // transcript compact ones:
+            for (int row = 0; row < mScreenRows; row++)
+                allocateFullLineIfNecessary(externalToInternalRow(row));
+            for (int row = Math.max(-shiftDownOfTopRow, -mActiveTranscriptRows); row < 0; row++)
+                mRowPool.release(compactRow(externalToInternalRow(row)));
+            if (mPendingReflow != null && mActiveTranscriptRows == mTotalRows - mScreenRows) mPendingReflow = null;
         } else {
-            // Copy away old state and update new:
-            TerminalRow[] oldLines = mLines;
-            mLines = new TerminalRow[newTotalRows];
-            for (int i = 0; i < newTotalRows; i++)
-                mLines[i] = new TerminalRow(newColumns, currentStyle);
-
-            final int oldActiveTranscriptRows = mActiveTranscriptRows;
-            final int oldScreenFirstRow = mScreenFirstRow;
-            final int oldScreenRows = mScreenRows;
-            final int oldTotalRows = mTotalRows;
-            mTotalRows = newTotalRows;
-            mScreenRows = newRows;
-            mActiveTranscriptRows = mScreenFirstRow = 0;
-            mColumns = newColumns;
-
-            int newCursorRow = -1;
-            int newCursorColumn = -1;
-            int oldCursorRow = cursor[1];
-            int oldCursorColumn = cursor[0];
-            boolean newCursorPlaced = false;
-
-            int currentOutputExternalRow = 0;
-            int currentOutputExternalColumn = 0;
-
-            // Loop over every character in the initial state.
-            // Blank lines should be skipped only if at end of transcript (just as is done in the "fast" resize), so we
-            // keep track how many blank lines we have skipped if we later on find a non-blank line.
-            int skippedBlankLines = 0;
-            for (int externalOldRow = -oldActiveTranscriptRows; externalOldRow < oldScreenRows; externalOldRow++) {
-                // Do what externalToInternalRow() does but for the old state:
-                int internalOldRow = oldScreenFirstRow + externalOldRow;
-                internalOldRow = (internalOldRow < 0) ? (oldTotalRows + internalOldRow) : (internalOldRow % oldTotalRows);
-
-                TerminalRow oldLine = oldLines[internalOldRow];
-                boolean cursorAtThisRow = externalOldRow == oldCursorRow;
-                // The cursor may only be on a non-null line, which we should not skip:
-                if (oldLine == null || (!(!newCursorPlaced && cursorAtThisRow)) && oldLine.isBlank()) {
-                    skippedBlankLines++;
-                    continue;
-                } else if (skippedBlankLines > 0) {
-                    // After skipping some blank lines we encounter a non-blank line. Insert the skipped blank lines.
-                    for (int i = 0; i < skippedBlankLines; i++) {
-                        if (currentOutputExternalRow == mScreenRows - 1) {
-                            scrollDownOneLine(0, mScreenRows, currentStyle);
-                        } else {
-                            currentOutputExternalRow++;
-                        }
-                        currentOutputExternalColumn = 0;
-                    }
-                    skippedBlankLines = 0;
-                }
+            reflow(newColumns, newRows, newTotalRows, cursor, currentStyle, altScreen);
+        }
+
+        // Handle cursor scrolling off screen:
+        if (cursor[0] < 0 || cursor[1] < 0) cursor[0] = cursor[1] = 0;
+
+        markAllRowsChanged();
+    }
+
+    /**
+     * Reflow all rows to a new number of columns for {@link #resize}, one logical line at a time from the bottom up.
+     * Rows of history which do not fit are spilled or dropped, and with {@link #setLazyReflow(boolean)} only the lines
+     * on the screen are reflowed.
+     */
+    private void reflow(int newColumns, int newRows, int newTotalRows, int[] cursor, long currentStyle, boolean altScreen) {
+        // The rows to reflow, oldest first: rows left by an earlier lazy reflow, the transcript and the screen.
+        final TerminalReflow pending = mPendingReflow;
+        final int pendingRows = (pending == null) ? 0 : pending.mSourceRows;
+        final int rows = pendingRows + mActiveTranscriptRows + mScreenRows;
+        final TerminalRow[] lines = new TerminalRow[rows];
+        final CompactRow[] compactLines = new CompactRow[rows];
+        final int[] columns = new int[rows];
+        if (pending != null) {
+            System.arraycopy(pending.mSourceLines, 0, lines, 0, pendingRows);
+            System.arraycopy(pending.mSourceCompactLines, 0, compactLines, 0, pendingRows);
+            System.arraycopy(pending.mSourceColumns, 0, columns, 0, pendingRows);
+        }
+        int firstRow = mScreenFirstRow - mActiveTranscriptRows;
+        if (firstRow < 0) firstRow += mTotalRows;
+        final int rowsBeforeWraparound = Math.min(rows - pendingRows, mTotalRows - firstRow);
+        final int rowsAfterWraparound = rows - pendingRows - rowsBeforeWraparound;
+        System.arraycopy(mLines, firstRow, lines, pendingRows, rowsBeforeWraparound);
+        System.arraycopy(mLines, 0, lines, pendingRows + rowsBeforeWraparound, rowsAfterWraparound);
+        System.arraycopy(mCompactLines, firstRow, compactLines, pendingRows, rowsBeforeWraparound);
+        System.arraycopy(mCompactLines, 0, compactLines, pendingRows + rowsBeforeWraparound, rowsAfterWraparound);
+        Arrays.fill(columns, pendingRows, rows, mColumns);
+
+        final int oldScreenFirstRow = rows - mScreenRows;
+        final TerminalReflow reflow = new TerminalReflow(lines, compactLines, columns, rows, rows - 1, newColumns, currentStyle, mRowPool);
+        reflow.setCursor(oldScreenFirstRow + cursor[1], cursor[0]);
+
+        final int pagedInSpilledRows = (mSpill == null) ? 0 : MAX_PAGED_IN_SPILLED_ROWS;
+        for (int i = mTotalRows; i < mLines.length; i++) mRowPool.release(mLines[i]);
+        mLines = new TerminalRow[newTotalRows + pagedInSpilledRows];
+        mCompactLines = new CompactRow[newTotalRows + pagedInSpilledRows];
+        Arrays.fill(mInflatedTranscriptRows, -1);
+        Arrays.fill(mPagedInSpilledRows, -1);
+        mTotalRows = newTotalRows;
+        mScreenRows = newRows;
+        mColumns = newColumns;
+        mPendingReflow = null;
 
-                int lastNonSpaceIndex = 0;
-                boolean justToCursor = false;
-                if (cursorAtThisRow || oldLine.mLineWrap) {
-                    // Take the whole line, either because of cursor on it, or if line wrapping.
-                    lastNonSpaceIndex = oldLine.getSpaceUsed();
-                    if (cursorAtThisRow) justToCursor = true;
+        // Place the lines from the bottom up, where the rows ending up on the screen are kept as full rows:
+        int placedRows = 0;
+        int cursorRowsFromBottom = -1;
+        int cursorColumn = -1;
+        int endRow = reflow.findLastRow();
+        // The row after the last line, where the next line would start:
+        if (endRow >= 0 && reflow.endsLine(endRow)) mLines[newTotalRows - ++placedRows] = reflow.newRow();
+
+        final boolean lazy = mLazyReflow && mSpill == null && !altScreen;
+        CompactRow[] overflowRows = null;
+        while (endRow >= 0 && placedRows < newTotalRows) {
+            final int startRow = reflow.findLineStart(endRow);
+            reflow.reflowLine(startRow, endRow);
+            final int lineRows = reflow.getLineRows();
+            if (reflow.getCursorLineRow() >= 0) {
+                cursorRowsFromBottom = placedRows + lineRows - 1 - reflow.getCursorLineRow();
+                cursorColumn = reflow.getCursorLineColumn();
+            }
+
+            int lineRow = lineRows - 1;
+            for (; lineRow >= 0 && placedRows < newTotalRows; lineRow--) {
+                final TerminalRow row = reflow.getLineRow(lineRow);
+                final int internalRow = newTotalRows - ++placedRows;
+                if (placedRows <= newRows) {
+                    mLines[internalRow] = row;
                 } else {
-                    for (int i = 0; i < oldLine.getSpaceUsed(); i++)
-                        // NEWLY INTRODUCED BUG! Should not index oldLine.mStyle with char indices
-                        if (oldLine.mText[i] != ' '/* || oldLine.mStyle[i] != currentStyle */)
-                            lastNonSpaceIndex = i + 1;
+                    mCompactLines[internalRow] = row.toCompactRow();
+                    reflow.recycleRow(row);
                 }
+            }
+            if (lineRow >= 0 && mSpill != null) {
+                // The first rows of the line do not fit, and are spilled after the lines before them:
+                overflowRows = new CompactRow[lineRow + 1];
+                for (int i = 0; i <= lineRow; i++)
+                    overflowRows[i] = reflow.getLineRow(i).toCompactRow();
+            }
 
-                int currentOldCol = 0;
-                long styleAtCol = 0;
-                for (int i = 0; i < lastNonSpaceIndex; i++) {
-                    // Note that looping over java character, not cells.
-                    char c = oldLine.mText[i];
-                    int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldLine.mText[++i]) : c;
-                    int displayWidth = WcWidth.width(codePoint);
-                    // Use the last style if this is a zero-width character:
-                    if (displayWidth > 0) styleAtCol = oldLine.getStyle(currentOldCol);
-
-                    // Line wrap as necessary:
-                    if (currentOutputExternalColumn + displayWidth > mColumns) {
-                        setLineWrap(currentOutputExternalRow);
-                        if (currentOutputExternalRow == mScreenRows - 1) {
-                            if (newCursorPlaced) newCursorRow--;
-                            scrollDownOneLine(0, mScreenRows, currentStyle);
-                        } else {
-                            currentOutputExternalRow++;
-                        }
-                        currentOutputExternalColumn = 0;
-                    }
+            endRow = startRow - 1;
+            if (lazy && placedRows >= newRows && startRow <= oldScreenFirstRow) break;
+        }
 
-                    int offsetDueToCombiningChar = ((displayWidth <= 0 && currentOutputExternalColumn > 0) ? 1 : 0);
-                    int outputColumn = currentOutputExternalColumn - offsetDueToCombiningChar;
-                    setChar(outputColumn, currentOutputExternalRow, codePoint, styleAtCol);
-
-                    if (displayWidth > 0) {
-                        if (oldCursorRow == externalOldRow && oldCursorColumn == currentOldCol) {
-                            newCursorColumn = currentOutputExternalColumn;
-                            newCursorRow = currentOutputExternalRow;
-                            newCursorPlaced = true;
-                        }
-                        currentOldCol += displayWidth;
-                        currentOutputExternalColumn += displayWidth;
-                        if (justToCursor && newCursorPlaced) break;
-                    }
-                }
-                // Old row has been copied. Check if we need to insert newline if old line was not wrapping:
-                if (externalOldRow != (oldScreenRows - 1) && !oldLine.mLineWrap) {
-                    if (currentOutputExternalRow == mScreenRows - 1) {
-                        if (newCursorPlaced) newCursorRow--;
-                        scrollDownOneLine(0, mScreenRows, currentStyle);
-                    } else {
-                        currentOutputExternalRow++;
-                    }
-                    currentOutputExternalColumn = 0;
+        if (endRow >= 0 && placedRows < newTotalRows) {
+            // Only stopped early if lazy, in which case the rest is reflowed later:
+            reflow.releaseSourceRows(endRow + 1, rows);
+            reflow.mSourceRows = endRow + 1;
+            mPendingReflow = reflow;
+        } else if (mSpill != null) {
+            for (int startRow = 0; startRow <= endRow && mSpill != null; ) {
+                final int lineEndRow = reflow.findLineEnd(startRow);
+                reflow.reflowLine(startRow, lineEndRow);
+                for (int i = 0; i < reflow.getLineRows(); i++) {
+                    final TerminalRow row = reflow.getLineRow(i);
+                    spillRow(row.toCompactRow());
+                    reflow.recycleRow(row);
                 }
+                startRow = lineEndRow + 1;
             }
+            if (overflowRows != null) {
+                for (int i = 0; i < overflowRows.length && mSpill != null; i++)
+                    spillRow(overflowRows[i]);
+            }
+        }
+        // The rows which have been reflowed are reused later:
+        if (mPendingReflow != reflow) reflow.releaseSourceRows(0, rows);
 
-            cursor[0] = newCursorColumn;
-            cursor[1] = newCursorRow;
+        if (placedRows >= newRows) {
+            mScreenFirstRow = newTotalRows - newRows;
+            mActiveTranscriptRows = placedRows - newRows;
+        } else {
+            // The rows start at the top of the screen, followed by blank rows, and are moved to the start of the
+            // buffer as the alt buffer might shrink its total rows without moving rows on the next resize:
+            final TerminalRow[] screenLines = Arrays.copyOfRange(mLines, newTotalRows - placedRows, newTotalRows);
+            Arrays.fill(mLines, newTotalRows - placedRows, newTotalRows, null);
+            System.arraycopy(screenLines, 0, mLines, 0, placedRows);
+            for (int i = placedRows; i < newRows; i++)
+                mLines[i] = mRowPool.obtain(newColumns, currentStyle);
+            mScreenFirstRow = 0;
+            mActiveTranscriptRows = 0;
         }
 
-        // Handle cursor scrolling off screen:
-        if (cursor[0] < 0 || cursor[1] < 0) cursor[0] = cursor[1] = 0;
+        cursor[0] = cursorColumn;
+        cursor[1] = (cursorRowsFromBottom < 0) ? -1 : Math.min(placedRows, newRows) - 1 - cursorRowsFromBottom;
+    }
+
+    /** Set if {@link #resize} should only reflow the lines on the screen, leaving the history to {@link #reflowPendingHistory(int)}. */
+    void setLazyReflow(boolean lazyReflow) {
+        mLazyReflow = lazyReflow;
+    }
+
+    /** If a lazy {@link #resize} has left rows of history to be reflowed by {@link #reflowPendingHistory(int)}. */
+    public boolean hasPendingReflow() {
+        return mPendingReflow != null;
+    }
+
+    /**
+     * Reflow rows of history left by a lazy {@link #resize}, adding them to the top of the transcript. Rows which do not
+     * fit in the transcript are dropped.
+     *
+     * @param maxRows The number of rows to add, after which to stop at the end of a line.
+     * @return If there are more rows to reflow.
+     */
+    public boolean reflowPendingHistory(int maxRows) {
+        final TerminalReflow reflow = mPendingReflow;
+        if (reflow == null) return false;
+
+        final int maxTranscriptRows = mTotalRows - mScreenRows;
+        int addedRows = 0;
+        int endRow = reflow.mSourceRows - 1;
+        while (endRow >= 0 && addedRows < maxRows && mActiveTranscriptRows < maxTranscriptRows) {
+            final int startRow = reflow.findLineStart(endRow);
+            reflow.reflowLine(startRow, endRow);
+            for (int lineRow = reflow.getLineRows() - 1; lineRow >= 0 && mActiveTranscriptRows < maxTranscriptRows; lineRow--) {
+                final TerminalRow row = reflow.getLineRow(lineRow);
+                int internalRow = mScreenFirstRow - mActiveTranscriptRows - 1;
+                if (internalRow < 0) internalRow += mTotalRows;
+                mRowPool.release(mLines[internalRow]);
+                mLines[internalRow] = null;
+                mCompactLines[internalRow] = row.toCompactRow();
+                reflow.recycleRow(row);
+                mActiveTranscriptRows++;
+                addedRows++;
+            }
+            endRow = startRow - 1;
+        }
+
+        if (endRow < 0 || mActiveTranscriptRows == maxTranscriptRows) {
+            reflow.releaseSourceRows(0, reflow.mSourceRows);
+            mPendingReflow = null;
+            return false;
+        }
+        // Let go of the reflowed rows:
+        reflow.releaseSourceRows(endRow + 1, reflow.mSourceRows);
+        reflow.mSourceRows = endRow + 1;
+        return true;
     }
 
     /**
@@ -367,11 +954,15 @@ public final class TerminalBuffer {
         int start = len - 1;
         // Save away line to be overwritten:
         TerminalRow lineToBeOverWritten = mLines[(srcInternal + start + 1) % totalRows];
+        CompactRow compactLineToBeOverWritten = mCompactLines[(srcInternal + start + 1) % totalRows];
         // Do the copy from bottom to top.
-        for (int i = start; i >= 0; --i)
+        for (int i = start; i >= 0; --i) {
             mLines[(srcInternal + i + 1) % totalRows] = mLines[(srcInternal + i) % totalRows];
+            mCompactLines[(srcInternal + i + 1) % totalRows] = mCompactLines[(srcInternal + i) % totalRows];
+        }
         // Put back overwritten line, now above the block:
         mLines[(srcInternal) % totalRows] = lineToBeOverWritten;
+        mCompactLines[(srcInternal) % totalRows] = compactLineToBeOverWritten;
     }
 
     /**
@@ -384,6 +975,11 @@ public final class TerminalBuffer {
     public void scrollDownOneLine(int topMargin, int bottomMargin, long style) {
         if (topMargin > bottomMargin - 1 || topMargin < 0 || bottomMargin > mScreenRows)
             throw new IllegalArgumentException("topMargin=" + topMargin + ", bottomMargin=" + bottomMargin + ", mScreenRows=" + mScreenRows);
+        releaseEvictedRows();
+
+        // Spill the oldest transcript row if the transcript is full, as it is about to be overwritten:
+        if (mSpill != null && mActiveTranscriptRows > 0 && mActiveTranscriptRows == mTotalRows - mScreenRows)
+            spillRow(externalToInternalRow(-mActiveTranscriptRows));
 
         // Copy the fixed topMargin lines one line down so that they remain on screen in same position:
         blockCopyLinesDown(mScreenFirstRow, topMargin);
@@ -391,17 +987,32 @@ public final class TerminalBuffer {
         // position:
         blockCopyLinesDown(externalToInternalRow(bottomMargin), mScreenRows - bottomMargin);
 
+        // The rows between the margins have all moved up, and so have the transcript rows:
+        markRowsChanged(topMargin, bottomMargin);
+        mTranscriptChangeCount = mChangeCount;
+
         // Update the screen location in the ring buffer:
         mScreenFirstRow = (mScreenFirstRow + 1) % mTotalRows;
-        // Note that the history has grown if not already full:
+        // Note that the history has grown if not already full, in which case rows left to reflow are older than the
+        // oldest row and so dropped:
         if (mActiveTranscriptRows < mTotalRows - mScreenRows) mActiveTranscriptRows++;
+        else mPendingReflow = null;
+
+        // Compact the line which scrolled into the transcript, and reuse it below if possible:
+        TerminalRow freedRow = (mTotalRows > mScreenRows) ? compactRow(externalToInternalRow(-1)) : null;
 
         // Blank the newly revealed line above the bottom margin:
         int blankRow = externalToInternalRow(bottomMargin - 1);
-        if (mLines[blankRow] == null) {
-            mLines[blankRow] = new TerminalRow(mColumns, style);
-        } else {
+        mCompactLines[blankRow] = null;
+        if (mLines[blankRow] != null) {
             mLines[blankRow].clear(style);
+            mRowPool.release(freedRow);
+        } else if (freedRow != null) {
+            freedRow.clear(style);
+            freedRow.mLineWrap = false;
+            mLines[blankRow] = freedRow;
+        } else {
+            mLines[blankRow] = mRowPool.obtain(mColumns, style);
         }
     }
 
@@ -422,6 +1033,7 @@ public final class TerminalBuffer {
         if (sx < 0 || sx + w > mColumns || sy < 0 || sy + h > mScreenRows || dx < 0 || dx + w > mColumns || dy < 0 || dy + h > mScreenRows)
             throw new IllegalArgumentException();
         boolean copyingUp = sy > dy;
+        markRowsChanged(dy, dy + h);
         for (int y = 0; y < h; y++) {
             int y2 = copyingUp ? y : (h - (y + 1));
             TerminalRow sourceRow = allocateFullLineIfNecessary(externalToInternalRow(sy + y2));
@@ -432,41 +1044,112 @@ public final class TerminalBuffer {
     /**
      * Block set characters. All characters must be within the bounds of the screen, or else and
      * InvalidParemeterException will be thrown. Typically this is called with a "val" argument of 32 to clear a block
-     * of characters.
+     * of characters. Each row is filled at once by {@link TerminalRow#fillChars(int, int, int, long)}.
      */
     public void blockSet(int sx, int sy, int w, int h, int val, long style) {
         if (sx < 0 || sx + w > mColumns || sy < 0 || sy + h > mScreenRows) {
             throw new IllegalArgumentException(
                 "Illegal arguments! blockSet(" + sx + ", " + sy + ", " + w + ", " + h + ", " + val + ", " + mColumns + ", " + mScreenRows + ")");
         }
+        if (w <= 0 || h <= 0) return;
+        markRowsChanged(sy, sy + h);
         for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++)
-                setChar(sx + x, sy + y, val, style);
+            allocateFullLineIfNecessary(externalToInternalRow(sy + y)).fillChars(sx, sx + w, val, style);
     }
 
     public TerminalRow allocateFullLineIfNecessary(int row) {
-        return (mLines[row] == null) ? (mLines[row] = new TerminalRow(mColumns, 0)) : mLines[row];
+        if (mLines[row] != null) return mLines[row];
+        final TerminalRow line = mLines[row] = mRowPool.obtain(mColumns, 0);
+        if (mCompactLines[row] != null) {
+            line.copyFrom(mCompactLines[row]);
+            mCompactLines[row] = null;
+
+            // Keep a bounded number of transcript rows inflated:
+            final int leastRecentlyInflatedRow = mInflatedTranscriptRows[mInflatedTranscriptRowsNext];
+            if (leastRecentlyInflatedRow >= 0 && leastRecentlyInflatedRow != row && isTranscriptRow(leastRecentlyInflatedRow)) {
+                final TerminalRow evictedRow = compactRow(leastRecentlyInflatedRow);
+                if (evictedRow != null && mEvictedRowCount < mEvictedRows.length) mEvictedRows[mEvictedRowCount++] = evictedRow;
+            }
+            mInflatedTranscriptRows[mInflatedTranscriptRowsNext] = row;
+            mInflatedTranscriptRowsNext = (mInflatedTranscriptRowsNext + 1) % MAX_INFLATED_TRANSCRIPT_ROWS;
+        }
+        return line;
+    }
+
+    /** Give the rows evicted by {@link #allocateFullLineIfNecessary(int)} to the row pool, when no reader can use them. */
+    private void releaseEvictedRows() {
+        for (int i = 0; i < mEvictedRowCount; i++) {
+            mRowPool.release(mEvictedRows[i]);
+            mEvictedRows[i] = null;
+        }
+        mEvictedRowCount = 0;
+    }
+
+    /** Clear the internal rows from {@code start} to the exclusive {@code end}, giving the full rows to the row pool. */
+    private void releaseRows(int start, int end) {
+        for (int i = start; i < end; i++) {
+            mRowPool.release(mLines[i]);
+            mLines[i] = null;
+            mCompactLines[i] = null;
+        }
+    }
+
+    /**
+     * Give all rows to the row pool, leaving the buffer blank, for the alternate buffer whose contents are cleared
+     * before it is used again. Rows are allocated from the pool again as they are written to.
+     */
+    void releaseAllRows() {
+        releaseEvictedRows();
+        releaseRows(0, mLines.length);
+        Arrays.fill(mInflatedTranscriptRows, -1);
+        Arrays.fill(mPagedInSpilledRows, -1);
+        mActiveTranscriptRows = 0;
+        mPendingReflow = null;
+        markAllRowsChanged();
+    }
+
+    /** The number of rows allocated since there were none to reuse, shared with buffers using the same row pool. */
+    public long getAllocatedRows() {
+        return mRowPool.getAllocatedRows();
+    }
+
+    /** The number of rows reused instead of allocated, shared with buffers using the same row pool. */
+    public long getReusedRows() {
+        return mRowPool.getReusedRows();
     }
 
     public void setChar(int column, int row, int codePoint, long style) {
         if (row  < 0 || row >= mScreenRows || column < 0 || column >= mColumns)
             throw new IllegalArgumentException("TerminalBuffer.setChar(): row=" + row + ", column=" + column + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
+        markRowChanged(row);
         row = externalToInternalRow(row);
         allocateFullLineIfNecessary(row).setChar(column, codePoint, style);
     }
 
+    /** Set a run of printable ASCII characters on a row. See {@link TerminalRow#setAsciiChars(int, byte[], int, int, long)}. */
+    public void setChars(int column, int row, byte[] chars, int offset, int length, long style) {
+        if (row < 0 || row >= mScreenRows || column < 0 || column + length > mColumns)
+            throw new IllegalArgumentException("TerminalBuffer.setChars(): row=" + row + ", column=" + column + ", length=" + length + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
+        markRowChanged(row);
+        row = externalToInternalRow(row);
+        allocateFullLineIfNecessary(row).setAsciiChars(column, chars, offset, length, style);
+    }
+
     public long getStyleAt(int externalRow, int column) {
-        return allocateFullLineIfNecessary(externalToInternalRow(externalRow)).getStyle(column);
+        return allocateFullLineIfNecessary(pageInRow(externalRow)).getStyle(column);
     }
 
     /** Support for http://vt100.net/docs/vt510-rm/DECCARA and http://vt100.net/docs/vt510-rm/DECCARA */
     public void setOrClearEffect(int bits, boolean setOrClear, boolean reverse, boolean rectangular, int leftMargin, int rightMargin, int top, int left,
                                  int bottom, int right) {
+        markRowsChanged(top, bottom);
         for (int y = top; y < bottom; y++) {
-            TerminalRow line = mLines[externalToInternalRow(y)];
+            TerminalRow line = allocateFullLineIfNecessary(externalToInternalRow(y));
             int startOfLine = (rectangular || y == top) ? left : leftMargin;
             int endOfLine = (rectangular || y + 1 == bottom) ? right : rightMargin;
-            for (int x = startOfLine; x < endOfLine; x++) {
+            // The effect is changed once per run of columns with the same style:
+            for (int x = startOfLine; x < endOfLine; ) {
+                final int runEnd = Math.min(line.findStyleRunEnd(x), endOfLine);
                 long currentStyle = line.getStyle(x);
                 int foreColor = TextStyle.decodeForeColor(currentStyle);
                 int backColor = TextStyle.decodeBackColor(currentStyle);
@@ -479,19 +1162,32 @@ public final class TerminalBuffer {
                 } else {
                     effect &= ~bits;
                 }
-                line.mStyle[x] = TextStyle.encode(foreColor, backColor, effect);
+                line.fillStyle(x, runEnd, TextStyle.encode(foreColor, backColor, effect));
+                x = runEnd;
             }
         }
     }
 
     public void clearTranscript() {
+        releaseEvictedRows();
         if (mScreenFirstRow < mActiveTranscriptRows) {
-            Arrays.fill(mLines, mTotalRows + mScreenFirstRow - mActiveTranscriptRows, mTotalRows, null);
-            Arrays.fill(mLines, 0, mScreenFirstRow, null);
+            releaseRows(mTotalRows + mScreenFirstRow - mActiveTranscriptRows, mTotalRows);
+            releaseRows(0, mScreenFirstRow);
         } else {
-            Arrays.fill(mLines, mScreenFirstRow - mActiveTranscriptRows, mScreenFirstRow, null);
+            releaseRows(mScreenFirstRow - mActiveTranscriptRows, mScreenFirstRow);
         }
         mActiveTranscriptRows = 0;
+        mPendingReflow = null;
+        markAllRowsChanged();
+
+        if (mSpill != null) {
+            Arrays.fill(mPagedInSpilledRows, -1);
+            try {
+                mSpill.clear();
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(null, LOG_TAG, "Failed to clear transcript spill file, spilling rows to memory", e);
+            }
+        }
     }
 
 }
@@ -2,6 +2,8 @@ package com.termux.terminal;
 
 import android.graphics.Color;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /** Current terminal colors (if different from default). */
 public final class TerminalColors {
 
@@ -14,6 +16,11 @@ public final class TerminalColors {
      */
     public final int[] mCurrentColors = new int[TextStyle.NUM_INDEXED_COLORS];
 
+    /** The source of {@link #getGeneration()}, shared by all instances so that their generations never collide. */
+    private static final AtomicLong sGenerations = new AtomicLong();
+
+    private long mGeneration;
+
     /** Create a new instance with default colors from the theme. */
     public TerminalColors() {
         reset();
@@ -22,11 +29,22 @@ public final class TerminalColors {
     /** Reset a particular indexed color with the default color from the color theme. */
     public void reset(int index) {
         mCurrentColors[index] = COLOR_SCHEME.mDefaultColors[index];
+        mGeneration = sGenerations.incrementAndGet();
     }
 
     /** Reset all indexed colors with the default color from the color theme. */
     public void reset() {
         System.arraycopy(COLOR_SCHEME.mDefaultColors, 0, mCurrentColors, 0, TextStyle.NUM_INDEXED_COLORS);
+        mGeneration = sGenerations.incrementAndGet();
+    }
+
+    /**
+     * A number which changes each time {@link #mCurrentColors} are changed by this class, like by the OSC 4, 10, 11
+     * and 104 control sequences, and which is never the same for two instances. So colors resolved from the current
+     * colors may be cached until it changes, see {@link StyleColorCache}.
+     */
+    public long getGeneration() {
+        return mGeneration;
     }
 
     /**
@@ -72,7 +90,10 @@ public final class TerminalColors {
     /** Try parse a color from a text parameter and into a specified index. */
     public void tryParseColor(int intoIndex, String textParameter) {
         int c = parse(textParameter);
-        if (c != 0) mCurrentColors[intoIndex] = c;
+        if (c != 0) {
+            mCurrentColors[intoIndex] = c;
+            mGeneration = sGenerations.incrementAndGet();
+        }
     }
 
     /**
@@ -2,6 +2,8 @@ package com.termux.terminal;
 
 import android.util.Base64;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Locale;
@@ -148,6 +150,11 @@ public final class TerminalEmulator {
     public static final int TERMINAL_TRANSCRIPT_ROWS_MAX = 50000;
     public static final int DEFAULT_TERMINAL_TRANSCRIPT_ROWS = 2000;
 
+    /** The number of rows that can be spilled to a file after the transcript rows, see {@link #enableTranscriptSpill(File, int)}. */
+    public static final int TERMINAL_TRANSCRIPT_SPILL_ROWS_MIN = 0;
+    public static final int TERMINAL_TRANSCRIPT_SPILL_ROWS_MAX = 10000000;
+    public static final int DEFAULT_TERMINAL_TRANSCRIPT_SPILL_ROWS = 0;
+
 
     /* The supported terminal cursor styles. */
 
@@ -265,8 +272,18 @@ public final class TerminalEmulator {
     /** If automatic scrolling of terminal is disabled */
     private boolean mAutoScrollDisabled;
 
-    private byte mUtf8ToFollow, mUtf8Index;
-    private final byte[] mUtf8InputBuffer = new byte[4];
+    /** The max number of bytes which {@link #appendDecoded(byte[], int, int)} decodes at a time. */
+    private static final int DECODE_CHUNK_BYTES = 4096;
+    private final Utf8Decoder mUtf8Decoder = new Utf8Decoder();
+    /** The code points decoded by {@link #mUtf8Decoder}, reused between calls to {@link #append(byte[], int)}. */
+    private final int[] mDecodedCodePoints = new int[DECODE_CHUNK_BYTES + 1];
+    /** If the decoded code points are being processed, when {@link #mUtf8Decoder} has already decoded the bytes after them. */
+    private boolean mProcessingDecoded;
+
+    /** The counters of the session, or null, see {@link #setMetrics(TerminalMetrics)}. */
+    private TerminalMetrics mMetrics;
+    /** If escape sequences are counted, which is checked once per {@link #append(byte[], int)}. */
+    private boolean mCountEscapeSequences;
     private int mLastEmittedCodePoint = -1;
 
     public final TerminalColors mColors = new TerminalColors();
@@ -327,8 +344,10 @@ public final class TerminalEmulator {
 
     public TerminalEmulator(TerminalOutput session, int columns, int rows, int cellWidthPixels, int cellHeightPixels, Integer transcriptRows, TerminalSessionClient client) {
         mSession = session;
-        mScreen = mMainBuffer = new TerminalBuffer(columns, getTerminalTranscriptRows(transcriptRows), rows);
-        mAltBuffer = new TerminalBuffer(columns, rows, rows);
+        // The buffers share their unused rows, like those of the alternate buffer while it is not used:
+        final TerminalRowPool rowPool = new TerminalRowPool();
+        mScreen = mMainBuffer = new TerminalBuffer(columns, getTerminalTranscriptRows(transcriptRows), rows, rowPool);
+        mAltBuffer = new TerminalBuffer(columns, rows, rows, rowPool);
         mClient = client;
         mRows = rows;
         mColumns = columns;
@@ -344,6 +363,50 @@ public final class TerminalEmulator {
         setCursorBlinkState(true);
     }
 
+    /**
+     * Spill rows which drop out of the transcript of the main buffer to a memory-mapped file instead of discarding
+     * them, keeping up to {@code spillRows} more rows of history which are paged back in when needed.
+     *
+     * @param file      The file to create, which is deleted by {@link #closeTranscriptSpill()}.
+     * @param spillRows The max number of rows in the file.
+     */
+    public void enableTranscriptSpill(File file, int spillRows) throws IOException {
+        mMainBuffer.setTranscriptSpill(new TranscriptSpillFile(file, spillRows));
+    }
+
+    /** Close and delete the transcript spill file, if any. */
+    public void closeTranscriptSpill() {
+        mMainBuffer.closeTranscriptSpill();
+    }
+
+    /**
+     * Set if resizing to a new number of columns should only reflow the lines on the screen of the main buffer, leaving
+     * the rest of the history to be reflowed by {@link #reflowPendingTranscript(int)}.
+     */
+    public void setLazyTranscriptReflow(boolean lazyReflow) {
+        mMainBuffer.setLazyReflow(lazyReflow);
+    }
+
+    /** Set the counters to count escape sequences in while {@link TerminalMetrics#isEnabled()}. */
+    void setMetrics(TerminalMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Reflow some of the history left by a lazy resize, see {@link #setLazyTranscriptReflow(boolean)}.
+     *
+     * @param maxRows The number of rows to add to the transcript before stopping after the current line.
+     * @return If there are more rows to reflow.
+     */
+    public boolean reflowPendingTranscript(int maxRows) {
+        return mMainBuffer.reflowPendingHistory(maxRows);
+    }
+
+    /** If a lazy resize has left history for {@link #reflowPendingTranscript(int)}. */
+    public boolean hasPendingTranscriptReflow() {
+        return mMainBuffer.hasPendingReflow();
+    }
+
     public TerminalBuffer getScreen() {
         return mScreen;
     }
@@ -498,73 +561,93 @@ public final class TerminalEmulator {
      * @param length the number of bytes in the array to process
      */
     public void append(byte[] buffer, int length) {
-        for (int i = 0; i < length; i++)
-            processByte(buffer[i]);
-    }
-
-    private void processByte(byte byteToProcess) {
-        if (mUtf8ToFollow > 0) {
-            if ((byteToProcess & 0b11000000) == 0b10000000) {
-                // 10xxxxxx, a continuation byte.
-                mUtf8InputBuffer[mUtf8Index++] = byteToProcess;
-                if (--mUtf8ToFollow == 0) {
-                    byte firstByteMask = (byte) (mUtf8Index == 2 ? 0b00011111 : (mUtf8Index == 3 ? 0b00001111 : 0b00000111));
-                    int codePoint = (mUtf8InputBuffer[0] & firstByteMask);
-                    for (int i = 1; i < mUtf8Index; i++)
-                        codePoint = ((codePoint << 6) | (mUtf8InputBuffer[i] & 0b00111111));
-                    if (((codePoint <= 0b1111111) && mUtf8Index > 1) || (codePoint < 0b11111111111 && mUtf8Index > 2)
-                        || (codePoint < 0b1111111111111111 && mUtf8Index > 3)) {
-                        // Overlong encoding.
-                        codePoint = UNICODE_REPLACEMENT_CHAR;
-                    }
-
-                    mUtf8Index = mUtf8ToFollow = 0;
+        mCountEscapeSequences = mMetrics != null && TerminalMetrics.isEnabled();
+        int i = 0;
+        while (i < length) {
+            if (isPrintableAscii(buffer[i]) && canAppendAsciiRun()) {
+                i = appendAsciiRun(buffer, i, length);
+            } else {
+                i = appendDecoded(buffer, i, length);
+            }
+        }
+    }
 
-                    if (codePoint >= 0x80 && codePoint <= 0x9F) {
-                        // Sequence decoded to a C1 control character which we ignore. They are
-                        // not used nowadays and increases the risk of messing up the terminal state
-                        // on binary input. XTerm does not allow them in utf-8:
-                        // "It is not possible to use a C1 control obtained from decoding the
-                        // UTF-8 text" - http://invisible-island.net/xterm/ctlseqs/ctlseqs.html
-                    } else {
-                        switch (Character.getType(codePoint)) {
-                            case Character.UNASSIGNED:
-                            case Character.SURROGATE:
-                                codePoint = UNICODE_REPLACEMENT_CHAR;
-                        }
-                        processCodePoint(codePoint);
-                    }
+    /**
+     * Decode the bytes from {@code start} up to the next printable ASCII character, which may start a run for
+     * {@link #appendAsciiRun(byte[], int, int)}, and process the decoded code points.
+     *
+     * @return The index of the first byte after those decoded.
+     */
+    private int appendDecoded(byte[] buffer, int start, int length) {
+        final int maxEnd = Math.min(length, start + DECODE_CHUNK_BYTES);
+        int end = start + 1;
+        while (end < maxEnd && !isPrintableAscii(buffer[end])) end++;
+
+        final int[] codePoints = mDecodedCodePoints;
+        final int count = mUtf8Decoder.decode(buffer, start, end, codePoints);
+        mProcessingDecoded = true;
+        try {
+            for (int i = 0; i < count; i++) {
+                final int codePoint = codePoints[i];
+                if (codePoint == Utf8Decoder.BROKEN_SEQUENCE) {
+                    emitCodePoint(UNICODE_REPLACEMENT_CHAR);
+                } else {
+                    processCodePoint(codePoint);
                 }
-            } else {
-                // Not a UTF-8 continuation byte so replace the entire sequence up to now with the replacement char:
-                mUtf8Index = mUtf8ToFollow = 0;
-                emitCodePoint(UNICODE_REPLACEMENT_CHAR);
-                // The Unicode Standard Version 6.2 – Core Specification
-                // (http://www.unicode.org/versions/Unicode6.2.0/ch03.pdf):
-                // "If the converter encounters an ill-formed UTF-8 code unit sequence which starts with a valid first
-                // byte, but which does not continue with valid successor bytes (see Table 3-7), it must not consume the
-                // successor bytes as part of the ill-formed subsequence
-                // whenever those successor bytes themselves constitute part of a well-formed UTF-8 code unit
-                // subsequence."
-                processByte(byteToProcess);
             }
-        } else {
-            if ((byteToProcess & 0b10000000) == 0) { // The leading bit is not set so it is a 7-bit ASCII character.
-                processCodePoint(byteToProcess);
-                return;
-            } else if ((byteToProcess & 0b11100000) == 0b11000000) { // 110xxxxx, a two-byte sequence.
-                mUtf8ToFollow = 1;
-            } else if ((byteToProcess & 0b11110000) == 0b11100000) { // 1110xxxx, a three-byte sequence.
-                mUtf8ToFollow = 2;
-            } else if ((byteToProcess & 0b11111000) == 0b11110000) { // 11110xxx, a four-byte sequence.
-                mUtf8ToFollow = 3;
+        } finally {
+            mProcessingDecoded = false;
+        }
+        return end;
+    }
+
+    private static boolean isPrintableAscii(byte b) {
+        return b >= 32 && b < 127;
+    }
+
+    /**
+     * If printable ASCII may be written directly to the screen by {@link #appendAsciiRun(byte[], int, int)} instead of
+     * going through {@link #processCodePoint(int)} and {@link #emitCodePoint(int)} one character at a time.
+     */
+    private boolean canAppendAsciiRun() {
+        return mEscapeState == ESC_NONE && mUtf8Decoder.isIdle() && !mInsertMode && mCursorCol < mRightMargin
+            && !(mUseLineDrawingUsesG0 ? mUseLineDrawingG0 : mUseLineDrawingG1);
+    }
+
+    /**
+     * Write the run of printable ASCII characters starting at {@code start} to the screen, row by row, with the same
+     * result as if each character was passed to {@link #emitCodePoint(int)}.
+     *
+     * @return The index of the first byte after the run.
+     */
+    private int appendAsciiRun(byte[] buffer, int start, int end) {
+        final boolean autoWrap = isDecsetInternalBitSet(DECSET_BIT_AUTOWRAP);
+        final long style = getStyle();
+        int i = start;
+        while (i < end && isPrintableAscii(buffer[i])) {
+            if (autoWrap && mAboutToAutoWrap && mCursorCol == mRightMargin - 1) autoWrapToNextLine();
+
+            int runEnd = i;
+            while (runEnd < end && isPrintableAscii(buffer[runEnd])) runEnd++;
+            int columnsLeft = mRightMargin - mCursorCol;
+            int runLength = Math.min(runEnd - i, columnsLeft);
+            if (!autoWrap && runEnd - i > columnsLeft) {
+                // Without autowrap every character past the right margin overwrites the last column, so only the
+                // last character of the run ends up there:
+                mScreen.setChars(mCursorCol, mCursorRow, buffer, i, runLength - 1, style);
+                mScreen.setChar(mRightMargin - 1, mCursorRow, buffer[runEnd - 1], style);
+                i = runEnd;
             } else {
-                // Not a valid UTF-8 sequence start, signal invalid data:
-                processCodePoint(UNICODE_REPLACEMENT_CHAR);
-                return;
+                mScreen.setChars(mCursorCol, mCursorRow, buffer, i, runLength, style);
+                i += runLength;
             }
-            mUtf8InputBuffer[mUtf8Index++] = byteToProcess;
+
+            int lastColumnWritten = Math.min(mCursorCol + runLength, mRightMargin) - 1;
+            if (autoWrap) mAboutToAutoWrap = (lastColumnWritten == mRightMargin - 1);
+            mCursorCol = Math.min(lastColumnWritten + 1, mRightMargin - 1);
         }
+        mLastEmittedCodePoint = buffer[i - 1];
+        return i;
     }
 
     public void processCodePoint(int b) {
@@ -1257,6 +1340,8 @@ public final class TerminalEmulator {
                     if (setting) saveCursor();
                     mScreen = newScreen;
                     if (!setting) {
+                        // The alternate buffer is cleared before it is used again, so its rows can be reused meanwhile:
+                        mAltBuffer.releaseAllRows();
                         int col = mSavedStateMain.mSavedCursorCol;
                         int row = mSavedStateMain.mSavedCursorRow;
                         restoreCursor();
@@ -1405,6 +1490,10 @@ public final class TerminalEmulator {
 
     /** Encountering a character in the {@link #ESC} state. */
     private void doEsc(int b) {
+        if (mCountEscapeSequences) {
+            mMetrics.onEscapeSequence(b == '[' ? TerminalMetrics.ESCAPE_CSI : b == ']' ? TerminalMetrics.ESCAPE_OSC
+                : b == 'P' ? TerminalMetrics.ESCAPE_DCS : b == '_' ? TerminalMetrics.ESCAPE_APC : TerminalMetrics.ESCAPE_OTHER);
+        }
         switch (b) {
             case '#':
                 continueSequence(ESC_POUND);
@@ -2458,13 +2547,7 @@ public final class TerminalEmulator {
 
         if (autoWrap) {
             if (cursorInLastColumn && ((mAboutToAutoWrap && displayWidth == 1) || displayWidth == 2)) {
-                mScreen.setLineWrap(mCursorRow);
-                mCursorCol = mLeftMargin;
-                if (mCursorRow + 1 < mBottomMargin) {
-                    mCursorRow++;
-                } else {
-                    scrollDownOneLine();
-                }
+                autoWrapToNextLine();
             }
         } else if (cursorInLastColumn && displayWidth == 2) {
             // The behaviour when a wide character is output with cursor in the last column when
@@ -2495,6 +2578,17 @@ public final class TerminalEmulator {
         mCursorCol = Math.min(mCursorCol + displayWidth, mRightMargin - 1);
     }
 
+    /** Mark the cursor row as wrapped and move the cursor to the start of the next line, scrolling if necessary. */
+    private void autoWrapToNextLine() {
+        mScreen.setLineWrap(mCursorRow);
+        mCursorCol = mLeftMargin;
+        if (mCursorRow + 1 < mBottomMargin) {
+            mCursorRow++;
+        } else {
+            scrollDownOneLine();
+        }
+    }
+
     private void setCursorRow(int row) {
         mCursorRow = row;
         mAboutToAutoWrap = false;
@@ -2561,7 +2655,8 @@ public final class TerminalEmulator {
         mSavedDecSetFlags = mSavedStateMain.mSavedDecFlags = mSavedStateAlt.mSavedDecFlags = mCurrentDecSetFlags;
 
         // XXX: Should we set terminal driver back to IUTF8 with termios?
-        mUtf8Index = mUtf8ToFollow = 0;
+        // A reset by the output keeps what has been decoded of the bytes after it:
+        if (!mProcessingDecoded) mUtf8Decoder.reset();
 
         mColors.reset();
         mSession.onColorsChanged();
@@ -2585,18 +2680,18 @@ public final class TerminalEmulator {
         }
     }
 
-    /** If DECSET 2004 is set, prefix paste with "\033[200~" and suffix with "\033[201~". */
+    /**
+     * If DECSET 2004 is set, prefix paste with "\033[200~" and suffix with "\033[201~". The text is sanitized and encoded
+     * in chunks by a {@link PasteEncoder}, see {@link TerminalSession#paste(CharSequence, TerminalPaste.Listener)} to
+     * paste large text without blocking.
+     */
     public void paste(String text) {
-        // First: Always remove escape key and C1 control characters [0x80,0x9F]:
-        text = text.replaceAll("(\u001B|[\u0080-\u009F])", "");
-        // Second: Replace all newlines (\n) or CRLF (\r\n) with carriage returns (\r).
-        text = text.replaceAll("\r?\n", "\r");
-
-        // Then: Implement bracketed paste mode if enabled:
-        boolean bracketed = isDecsetInternalBitSet(DECSET_BIT_BRACKETED_PASTE_MODE);
-        if (bracketed) mSession.write("\033[200~");
-        mSession.write(text);
-        if (bracketed) mSession.write("\033[201~");
+        PasteEncoder.paste(text, isBracketedPasteMode(), mSession);
+    }
+
+    /** If DECSET 2004, bracketed paste mode, is set. */
+    public boolean isBracketedPasteMode() {
+        return isDecsetInternalBitSet(DECSET_BIT_BRACKETED_PASTE_MODE);
     }
 
     /** http://www.vt100.net/docs/vt510-rm/DECSC */
@@ -0,0 +1,163 @@
+package com.termux.terminal;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Counters of the work done for a {@link TerminalSession}, to find out which of many sessions is using the CPU. See
+ * {@link TerminalSession#getMetrics()}.
+ * <p>
+ * Only counted while enabled with {@link #setEnabled(boolean)}, so that sessions only check a flag per chunk of output
+ * otherwise, except for the stalls of the queues to and from the process which are always counted as they are only
+ * counted when a thread has to wait anyway. Each counter is only written by one thread, and may be read by any.
+ */
+public final class TerminalMetrics {
+
+    /** The types of escape sequences counted by {@link #getEscapeSequences(int)}. */
+    public static final int ESCAPE_CSI = 0, ESCAPE_OSC = 1, ESCAPE_DCS = 2, ESCAPE_APC = 3, ESCAPE_OTHER = 4;
+    private static final String[] ESCAPE_NAMES = {"CSI", "OSC", "DCS", "APC", "ESC"};
+
+    private static volatile boolean sEnabled;
+
+    private final SpscByteQueue mProcessToTerminalQueue;
+    private final SpscByteQueue mTerminalToProcessQueue;
+
+    /** Only written by the reader thread. */
+    private volatile long mBytesRead;
+    /** Only written with the emulator lock. */
+    private volatile long mBytesParsed, mAppendNanos;
+    /** Only written by the emulator, with the emulator lock. */
+    private volatile long mCsiSequences, mOscSequences, mDcsSequences, mApcSequences, mOtherEscapeSequences;
+    /** Only written on the main thread. */
+    private volatile long mScreenUpdates, mFramesRendered, mRenderNanos;
+
+    TerminalMetrics(SpscByteQueue processToTerminalQueue, SpscByteQueue terminalToProcessQueue) {
+        mProcessToTerminalQueue = processToTerminalQueue;
+        mTerminalToProcessQueue = terminalToProcessQueue;
+    }
+
+    /** Start or stop counting for all sessions. Counters are kept while stopped. */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    void onBytesRead(int bytes) {
+        mBytesRead += bytes;
+    }
+
+    void onAppend(int bytes, long nanos) {
+        mBytesParsed += bytes;
+        mAppendNanos += nanos;
+    }
+
+    void onEscapeSequence(int type) {
+        switch (type) {
+            case ESCAPE_CSI:
+                mCsiSequences++;
+                break;
+            case ESCAPE_OSC:
+                mOscSequences++;
+                break;
+            case ESCAPE_DCS:
+                mDcsSequences++;
+                break;
+            case ESCAPE_APC:
+                mApcSequences++;
+                break;
+            default:
+                mOtherEscapeSequences++;
+                break;
+        }
+    }
+
+    void onScreenUpdate() {
+        mScreenUpdates++;
+    }
+
+    /** Count a frame rendered on the main thread by a view showing the session, if enabled. */
+    public void onFrameRendered(long nanos) {
+        if (!sEnabled) return;
+        mFramesRendered++;
+        mRenderNanos += nanos;
+    }
+
+    /** The number of bytes read from the process. */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /** The number of bytes from the process parsed by the emulator. */
+    public long getBytesParsed() {
+        return mBytesParsed;
+    }
+
+    /** The time spent in {@link TerminalEmulator#append(byte[], int)}. */
+    public long getAppendNanos() {
+        return mAppendNanos;
+    }
+
+    /** The number of escape sequences of a type, such as {@link #ESCAPE_CSI}, that have been started. */
+    public long getEscapeSequences(int type) {
+        switch (type) {
+            case ESCAPE_CSI:
+                return mCsiSequences;
+            case ESCAPE_OSC:
+                return mOscSequences;
+            case ESCAPE_DCS:
+                return mDcsSequences;
+            case ESCAPE_APC:
+                return mApcSequences;
+            case ESCAPE_OTHER:
+                return mOtherEscapeSequences;
+            default:
+                throw new IllegalArgumentException("Invalid escape sequence type: " + type);
+        }
+    }
+
+    /** The number of times that the reader thread had to wait for the emulator to process output from the process. */
+    public long getOutputQueueStalls() {
+        return mProcessToTerminalQueue.getFullStalls();
+    }
+
+    /** The number of times that a writer to the process had to wait for the process to read its input. */
+    public long getInputQueueStalls() {
+        return mTerminalToProcessQueue.getFullStalls();
+    }
+
+    /** The number of screen updates notified to the client. */
+    public long getScreenUpdates() {
+        return mScreenUpdates;
+    }
+
+    /** The number of frames rendered, see {@link #onFrameRendered(long)}. */
+    public long getFramesRendered() {
+        return mFramesRendered;
+    }
+
+    /** The time spent rendering frames. */
+    public long getRenderNanos() {
+        return mRenderNanos;
+    }
+
+    /** Write the counters, one per line starting with {@code prefix}. */
+    public void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "bytesRead=" + mBytesRead + " bytesParsed=" + mBytesParsed
+            + " appendMillis=" + formatMillis(mAppendNanos));
+        final StringBuilder escapes = new StringBuilder(prefix).append("escapeSequences:");
+        for (int type = 0; type < ESCAPE_NAMES.length; type++)
+            escapes.append(' ').append(ESCAPE_NAMES[type]).append('=').append(getEscapeSequences(type));
+        writer.println(escapes);
+        writer.println(prefix + "queueStalls: output=" + getOutputQueueStalls() + " input=" + getInputQueueStalls());
+        writer.println(prefix + "screenUpdates=" + mScreenUpdates + " framesRendered=" + mFramesRendered
+            + " renderMillis=" + formatMillis(mRenderNanos));
+    }
+
+    static String formatMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.termux.terminal;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A paste of text to the process of a {@link TerminalSession}, which is encoded by a {@link PasteEncoder} and written
+ * in chunks by a separate thread, see {@link TerminalSession#paste(CharSequence, Listener)}.
+ * <p>
+ * Each chunk is written while synchronized on the queue to the process like other writers, but only as much of it as
+ * fits while leaving {@link #RESERVED_BYTES} free, and the thread waits for the process to read more after releasing
+ * the lock. So the paste thread waits for the process instead of the main thread, and keys typed during a long paste
+ * are still written without waiting. Pastes to the same session are written one at a time, in order.
+ */
+public final class TerminalPaste {
+
+    /** Callbacks about the progress of a paste, which are made by the executor given to the paste. */
+    public interface Listener {
+
+        /** Called when more of the paste has been written, see {@link #getPastedChars()}. Updates may be merged. */
+        void onPasteProgress(TerminalPaste paste);
+
+        /** Called when all of the paste has been written, or it was cancelled or the process exited. */
+        void onPasteFinished(TerminalPaste paste);
+
+    }
+
+    /** The max number of bytes written to the queue at a time. */
+    static final int CHUNK_BYTES = 1024;
+    /** The number of bytes left free in the queue when writing a chunk, for other writers. */
+    static final int RESERVED_BYTES = 1024;
+
+    private final PasteEncoder mEncoder;
+    private final int mTotalChars;
+    private final SpscByteQueue mQueue;
+    /** The paste to the same queue to wait for before writing this one, or null. */
+    private TerminalPaste mPreviousPaste;
+    private final Executor mCallbackExecutor;
+    private final Listener mListener;
+
+    private Thread mThread;
+    private volatile int mPastedChars;
+    private volatile boolean mCancelled;
+    private volatile boolean mFinished;
+    /** If a progress update has been posted to {@link #mCallbackExecutor} and not yet delivered. */
+    private final AtomicBoolean mProgressPending = new AtomicBoolean();
+
+    private final Runnable mProgressCallback = new Runnable() {
+        @Override
+        public void run() {
+            mProgressPending.set(false);
+            mListener.onPasteProgress(TerminalPaste.this);
+        }
+    };
+
+    /**
+     * @param queue            The queue to the process, which other threads write to while synchronized on it.
+     * @param previousPaste    The last paste started to the same queue, which is written first, or null.
+     * @param callbackExecutor The executor to notify the listener with, like one posting to the main thread.
+     * @param listener         The listener to notify, or null.
+     */
+    TerminalPaste(CharSequence text, boolean bracketed, SpscByteQueue queue, TerminalPaste previousPaste,
+                  Executor callbackExecutor, Listener listener) {
+        mEncoder = new PasteEncoder(text, bracketed);
+        mTotalChars = text.length();
+        mQueue = queue;
+        mPreviousPaste = previousPaste;
+        mCallbackExecutor = callbackExecutor;
+        mListener = listener;
+    }
+
+    /** Start the thread writing the paste. */
+    void start(String threadName) {
+        mThread = new Thread(threadName) {
+            @Override
+            public void run() {
+                writePaste();
+            }
+        };
+        mThread.start();
+    }
+
+    private void writePaste() {
+        if (mPreviousPaste != null) {
+            try {
+                mPreviousPaste.join();
+            } catch (InterruptedException e) {
+                // Cancelled, so nothing is written.
+            }
+            mPreviousPaste = null;
+        }
+
+        final byte[] chunk = new byte[CHUNK_BYTES];
+        while (true) {
+            if (mCancelled) mEncoder.cancel();
+            final int count = mEncoder.encode(chunk, 0, chunk.length);
+            if (count == -1 || !writeChunk(chunk, count)) break;
+            mPastedChars = mEncoder.getEncodedChars();
+            if (mListener != null && !mCancelled && mProgressPending.compareAndSet(false, true))
+                mCallbackExecutor.execute(mProgressCallback);
+        }
+        // Clear a cancel interrupt which was not seen while waiting for free space:
+        Thread.interrupted();
+        mFinished = true;
+        if (mListener != null) mCallbackExecutor.execute(() -> mListener.onPasteFinished(this));
+    }
+
+    /**
+     * Write a chunk as the queue has room for it, only holding the lock of the queue while writing and not while
+     * waiting for the process to read.
+     *
+     * @return False if the queue was closed.
+     */
+    private boolean writeChunk(byte[] chunk, int count) {
+        int written = 0;
+        while (true) {
+            // Once cancelled, the rest of the chunk, which may have the start of the bracketed paste, and the end of
+            // the paste are written as soon as they fit:
+            final int reserved = mCancelled ? 0 : RESERVED_BYTES;
+            final int bytesWritten;
+            synchronized (mQueue) {
+                bytesWritten = mQueue.tryWrite(chunk, written, count - written, reserved);
+            }
+            if (bytesWritten == -1) return false;
+            written += bytesWritten;
+            if (written == count) return true;
+            try {
+                if (!mQueue.awaitFreeSpace(Math.min(reserved + count - written, mQueue.capacity()))) return false;
+            } catch (InterruptedException e) {
+                // Cancelled, see above.
+            }
+        }
+    }
+
+    /**
+     * Stop writing the paste. Text which has already been written to the process is not taken back, but if bracketed
+     * paste mode is used the paste is still ended so that the process leaves paste mode.
+     */
+    public void cancel() {
+        mCancelled = true;
+        final Thread thread = mThread;
+        if (thread != null) thread.interrupt();
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /** If the thread writing the paste is done, see {@link Listener#onPasteFinished(TerminalPaste)}. */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    /** The number of chars of the text which has been written to the process. */
+    public int getPastedChars() {
+        return mPastedChars;
+    }
+
+    /** The number of chars of the text to paste, before removing control characters. */
+    public int getTotalChars() {
+        return mTotalChars;
+    }
+
+    /** Wait until the thread writing the paste is done. */
+    public void join() throws InterruptedException {
+        mThread.join();
+    }
+
+}
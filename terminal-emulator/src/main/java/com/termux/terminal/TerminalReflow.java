@@ -0,0 +1,303 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * Rewraps rows to a new number of columns when the columns of a {@link TerminalBuffer} change.
+ * <p>
+ * The rows are reflowed one logical line at a time, where a logical line is a run of rows continued with
+ * {@link TerminalRow#mLineWrap}, and each logical line starts on a new row. The lines are therefore independent of each
+ * other, and are reflowed from the newest one backwards, so that old lines which would not fit in the transcript are
+ * never looked at. The text and styles of rows with only chars of width one are copied in bulk, including directly
+ * from {@link CompactRow}:s without inflating them.
+ * <p>
+ * The source rows, oldest first, may have been written with different numbers of columns, so that rows which have not
+ * been reflowed yet can be kept here and reflowed later, or merged into the source of a later resize.
+ */
+final class TerminalReflow {
+
+    /** The rows to reflow, oldest first, where a row with neither a full nor a compact row is blank. */
+    final TerminalRow[] mSourceLines;
+    final CompactRow[] mSourceCompactLines;
+    /** The number of columns of each source row. */
+    final int[] mSourceColumns;
+    /** The number of source rows left to reflow, which are the first ones in the arrays. */
+    int mSourceRows;
+    /** The source row which is the last row of the buffer, and so does not end a line, or -1. */
+    private final int mLastRow;
+
+    /** The number of columns to reflow to. */
+    final int mColumns;
+    /** The style of new rows. */
+    private final long mStyle;
+
+    private int mCursorRow = -1, mCursorColumn;
+
+    /** The rows of the last reflowed line. */
+    private TerminalRow[] mLineRows = new TerminalRow[16];
+    private int mLineRowCount;
+    /** The row of the last reflowed line, and the column in it, where the cursor was placed, or -1. */
+    private int mCursorLineRow = -1, mCursorLineColumn;
+    /** The column to write to next in the last row of the line. */
+    private int mColumn;
+
+    /** The pool of rows to get new rows from, and to give rows which have been compacted by the caller to. */
+    private final TerminalRowPool mRowPool;
+    /** Row to inflate compact source rows into when they need to be read char by char. */
+    private TerminalRow mReadRow;
+
+    /**
+     * @param lastRow The source row which is the last row of the buffer, which does not end its line even without
+     *                being wrapped, or -1 if the source rows are followed by other rows.
+     */
+    TerminalReflow(TerminalRow[] lines, CompactRow[] compactLines, int[] columns, int rows, int lastRow, int newColumns, long style,
+                   TerminalRowPool rowPool) {
+        mSourceLines = lines;
+        mSourceCompactLines = compactLines;
+        mSourceColumns = columns;
+        mSourceRows = rows;
+        mLastRow = lastRow;
+        mColumns = newColumns;
+        mStyle = style;
+        mRowPool = rowPool;
+    }
+
+    /** Set the cursor position in the source, which is tracked to {@link #getCursorLineRow()}. */
+    void setCursor(int row, int column) {
+        mCursorRow = row;
+        mCursorColumn = column;
+    }
+
+    private boolean isBlank(int row) {
+        final TerminalRow line = mSourceLines[row];
+        if (line != null) return line.isBlank();
+        final CompactRow compactLine = mSourceCompactLines[row];
+        return compactLine == null || compactLine.isBlank();
+    }
+
+    private boolean getLineWrap(int row) {
+        final TerminalRow line = mSourceLines[row];
+        if (line != null) return line.mLineWrap;
+        final CompactRow compactLine = mSourceCompactLines[row];
+        return compactLine != null && compactLine.mLineWrap;
+    }
+
+    /** If a row is blank and skipped, so that it only ends the line. The cursor row is only skipped if null. */
+    private boolean isSkippedRow(int row) {
+        if (row == mCursorRow) return mSourceLines[row] == null && mSourceCompactLines[row] == null;
+        return isBlank(row);
+    }
+
+    /** If a source row ends its logical line, so that the next row starts on a new row. */
+    boolean endsLine(int row) {
+        if (!getLineWrap(row) && row != mLastRow) return true;
+        return isSkippedRow(row);
+    }
+
+    /** The last source row which is not blank or has the cursor, as blank rows after it are dropped, or -1. */
+    int findLastRow() {
+        int row = mSourceRows - 1;
+        while (row >= 0 && isSkippedRow(row)) row--;
+        return row;
+    }
+
+    /** The first source row of the logical line ending at {@code endRow}. */
+    int findLineStart(int endRow) {
+        int row = endRow;
+        while (row > 0 && !endsLine(row - 1)) row--;
+        return row;
+    }
+
+    /** The last source row of the logical line starting at {@code startRow}. */
+    int findLineEnd(int startRow) {
+        int row = startRow;
+        while (row < mSourceRows - 1 && !endsLine(row)) row++;
+        return row;
+    }
+
+    /** Get an empty row with the new number of columns, reusing a recycled one if possible. */
+    TerminalRow newRow() {
+        return mRowPool.obtain(mColumns, mStyle);
+    }
+
+    /** Give back a row which is not used anymore, typically after compacting it, to be reused by {@link #newRow()}. */
+    void recycleRow(TerminalRow row) {
+        mRowPool.release(row);
+    }
+
+    /**
+     * Let go of the source rows from {@code start} to the exclusive {@code end}, which have been reflowed or dropped,
+     * giving the full rows to the row pool.
+     */
+    void releaseSourceRows(int start, int end) {
+        for (int row = start; row < end; row++) {
+            mRowPool.release(mSourceLines[row]);
+            mSourceLines[row] = null;
+            mSourceCompactLines[row] = null;
+        }
+    }
+
+    /** The number of rows of the last reflowed line. */
+    int getLineRows() {
+        return mLineRowCount;
+    }
+
+    /** A row of the last reflowed line, which belongs to the caller until recycled. */
+    TerminalRow getLineRow(int index) {
+        return mLineRows[index];
+    }
+
+    /** The row of the last reflowed line with the cursor, or -1 if the cursor is not in it. */
+    int getCursorLineRow() {
+        return mCursorLineRow;
+    }
+
+    int getCursorLineColumn() {
+        return mCursorLineColumn;
+    }
+
+    /** Reflow the source rows from {@code startRow} to {@code endRow} (inclusive), which form one logical line. */
+    void reflowLine(int startRow, int endRow) {
+        Arrays.fill(mLineRows, 0, mLineRowCount, null);
+        mLineRowCount = 0;
+        mCursorLineRow = -1;
+        startRow();
+        for (int row = startRow; row <= endRow; row++) {
+            if (isSkippedRow(row)) continue;
+            final TerminalRow line = mSourceLines[row];
+            final boolean cursorRow = row == mCursorRow;
+            if (line != null) {
+                if (line.mHasNonOneWidthOrSurrogateChars) {
+                    appendCodePoints(line, cursorRow);
+                } else {
+                    // Each column is one char:
+                    final int columns;
+                    if (cursorRow) {
+                        // The cursor may be outside a row being switched to, in which case the whole row is kept:
+                        columns = Math.min(mCursorColumn + 1, line.getSpaceUsed());
+                    } else if (line.mLineWrap) {
+                        columns = line.getSpaceUsed();
+                    } else {
+                        int lastNonSpace = line.getSpaceUsed();
+                        while (lastNonSpace > 0 && line.mText[lastNonSpace - 1] == ' ') lastNonSpace--;
+                        columns = lastNonSpace;
+                    }
+                    appendColumns(line.mText, line.getSpaceUsed(), line, null, null, columns, cursorRow);
+                }
+            } else {
+                final CompactRow compactLine = mSourceCompactLines[row];
+                if (compactLine.mHasNonOneWidthOrSurrogateChars) {
+                    final int sourceColumns = mSourceColumns[row];
+                    if (mReadRow == null || mReadRow.getColumns() != sourceColumns) mReadRow = new TerminalRow(sourceColumns, TextStyle.NORMAL);
+                    mReadRow.copyFrom(compactLine);
+                    appendCodePoints(mReadRow, cursorRow);
+                } else {
+                    final int sourceColumns = mSourceColumns[row];
+                    final int columns = cursorRow ? Math.min(mCursorColumn + 1, sourceColumns) : (compactLine.mLineWrap ? sourceColumns : compactLine.mText.length);
+                    appendColumns(compactLine.mText, compactLine.mText.length, null, compactLine.mRunStyles, compactLine.mRunEnds, columns, cursorRow);
+                }
+            }
+        }
+    }
+
+    private void startRow() {
+        if (mLineRowCount == mLineRows.length) mLineRows = Arrays.copyOf(mLineRows, mLineRowCount * 2);
+        mLineRows[mLineRowCount++] = newRow();
+        mColumn = 0;
+    }
+
+    private void wrapRow() {
+        mLineRows[mLineRowCount - 1].mLineWrap = true;
+        startRow();
+    }
+
+    /**
+     * Append {@code columns} columns of a source row with one char per column, where the columns after {@code textLength}
+     * are spaces, and the styles are either those of a row or in runs as in a {@link CompactRow}.
+     */
+    private void appendColumns(char[] text, int textLength, TerminalRow styles, long[] runStyles, short[] runEnds, int columns, boolean cursorRow) {
+        int column = 0;
+        while (column < columns) {
+            if (mColumn == mColumns) wrapRow();
+            final TerminalRow row = mLineRows[mLineRowCount - 1];
+            final int count = Math.min(columns - column, mColumns - mColumn);
+            if (cursorRow && mCursorColumn < column + count) {
+                mCursorLineRow = mLineRowCount - 1;
+                mCursorLineColumn = mColumn + mCursorColumn - column;
+            }
+
+            if (!row.mHasNonOneWidthOrSurrogateChars) {
+                // The row is new and only has spaces after the column, which are one char each:
+                final int textCount = Math.max(0, Math.min(count, textLength - column));
+                if (textCount > 0) System.arraycopy(text, column, row.mText, mColumn, textCount);
+                if (styles != null) {
+                    row.copyStyles(styles, column, mColumn, count);
+                } else {
+                    fillRunStyles(runStyles, runEnds, column, column + count, row, mColumn);
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    final char c = (column + i < textLength) ? text[column + i] : ' ';
+                    final long style = (styles != null) ? styles.getStyle(column + i) : runStyle(runStyles, runEnds, column + i);
+                    row.setChar(mColumn + i, c, style);
+                }
+            }
+            column += count;
+            mColumn += count;
+        }
+    }
+
+    private static void fillRunStyles(long[] runStyles, short[] runEnds, int startColumn, int endColumn, TerminalRow row, int destination) {
+        int runStart = 0;
+        for (int run = 0; run < runStyles.length && runStart < endColumn; run++) {
+            final int runEnd = (run < runEnds.length) ? runEnds[run] : Integer.MAX_VALUE;
+            final int from = Math.max(runStart, startColumn);
+            final int to = Math.min(runEnd, endColumn);
+            if (from < to) row.fillStyle(destination + from - startColumn, destination + to - startColumn, runStyles[run]);
+            runStart = runEnd;
+        }
+    }
+
+    private static long runStyle(long[] runStyles, short[] runEnds, int column) {
+        int run = 0;
+        while (run < runEnds.length && runEnds[run] <= column) run++;
+        return runStyles[run];
+    }
+
+    /** Append a source row with chars of other widths than one, one code point at a time. */
+    private void appendCodePoints(TerminalRow line, boolean cursorRow) {
+        final char[] text = line.mText;
+        int charEnd = line.getSpaceUsed();
+        if (!cursorRow && !line.mLineWrap) {
+            while (charEnd > 0 && text[charEnd - 1] == ' ') charEnd--;
+        }
+
+        int sourceColumn = 0;
+        long style = 0;
+        for (int i = 0; i < charEnd; i++) {
+            final char c = text[i];
+            final int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, text[++i]) : c;
+            final int width = WcWidth.width(codePoint);
+            // Use the last style if this is a zero-width character:
+            if (width > 0) style = line.getStyle(sourceColumn);
+
+            if (mColumn + width > mColumns) wrapRow();
+            // A combining char goes into the column before, unless it is first on the row:
+            final int column = (width <= 0 && mColumn > 0) ? mColumn - 1 : mColumn;
+            mLineRows[mLineRowCount - 1].setChar(column, codePoint, style);
+
+            if (width > 0) {
+                final boolean atCursor = cursorRow && mCursorColumn < sourceColumn + width;
+                if (atCursor) {
+                    mCursorLineRow = mLineRowCount - 1;
+                    mCursorLineColumn = mColumn;
+                }
+                sourceColumn += width;
+                mColumn += width;
+                // The rest of the cursor row is dropped:
+                if (atCursor) break;
+            }
+        }
+    }
+
+}
@@ -37,6 +37,10 @@ public final class TerminalRow {
      */
     private static final int MAX_COMBINING_CHARACTERS_PER_COLUMN = 15;
 
+    /** The max number of distinct styles in {@link #mStylePalette}, as indexed by a byte. */
+    static final int MAX_PALETTE_STYLES = 256;
+    private static final int INITIAL_PALETTE_STYLES = 4;
+
     /** The number of columns in this terminal row. */
     private final int mColumns;
     /** The text filling this terminal row. */
@@ -45,16 +49,36 @@ public final class TerminalRow {
     private short mSpaceUsed;
     /** If this row has been line wrapped due to text output at the end of line. */
     boolean mLineWrap;
-    /** The style bits of each cell in the row. See {@link TextStyle}. */
-    final long[] mStyle;
+    /**
+     * The style of each cell as an index into {@link #mStylePalette}, which holds the distinct styles of the row, see
+     * {@link TextStyle}. Rows usually have a few style runs, so this uses an eighth of the memory of a style per cell,
+     * and the runs are found by comparing bytes, see {@link #findStyleRunEnd(int)}. Null while {@link #mStyle} is used.
+     */
+    byte[] mStyleIndices;
+    /** The distinct styles of the row, up to {@link #MAX_PALETTE_STYLES}, of which the first {@link #mStylePaletteSize} are used. */
+    long[] mStylePalette = new long[INITIAL_PALETTE_STYLES];
+    private int mStylePaletteSize;
+    /** The palette index of the style last looked up, as rows are usually written with the same style many times. */
+    private int mLastStyleIndex;
+    /**
+     * The style of each cell, used instead of {@link #mStyleIndices} when the row has had too many distinct styles, like
+     * with true color output which changes color for every cell, until the row is cleared. Null otherwise.
+     */
+    long[] mStyle;
     /** If this row might contain chars with width != 1, used for deactivating fast path */
     boolean mHasNonOneWidthOrSurrogateChars;
+    /**
+     * The value of {@link #findStartOfColumn(int)} for each column from 0 to {@link #mColumns}, only used when
+     * {@link #mHasNonOneWidthOrSurrogateChars} is set. Allocated when first needed, updated by {@link #setChar(int, int, long)}
+     * and rebuilt from {@link #mText} when {@link #mColumnIndexValid} is false.
+     */
+    private short[] mColumnIndex;
+    private boolean mColumnIndexValid;
 
     /** Construct a blank row (containing only whitespace, ' ') with a specified style. */
     public TerminalRow(int columns, long style) {
         mColumns = columns;
         mText = new char[(int) (SPARE_CAPACITY_FACTOR * columns)];
-        mStyle = new long[columns];
         clear(style);
     }
 
@@ -88,9 +112,21 @@ public final class TerminalRow {
         return mSpaceUsed;
     }
 
+    /** The number of columns in this row. */
+    public int getColumns() {
+        return mColumns;
+    }
+
     /** Note that the column may end of second half of wide character. */
     public int findStartOfColumn(int column) {
         if (column == mColumns) return getSpaceUsed();
+        if (!mHasNonOneWidthOrSurrogateChars) return column;
+        return getColumnIndex()[column];
+    }
+
+    /** Find the start of a column by scanning {@link #mText}, used to verify the column index in tests. */
+    int findStartOfColumnByScanning(int column) {
+        if (column == mColumns) return getSpaceUsed();
 
         int currentColumn = 0;
         int currentCharIndex = 0;
@@ -127,7 +163,66 @@ public final class TerminalRow {
         }
     }
 
-    private boolean wideDisplayCharacterStartingAt(int column) {
+    boolean wideDisplayCharacterStartingAt(int column) {
+        if (!mHasNonOneWidthOrSurrogateChars || column < 0 || column >= mColumns) return false;
+        // The second half of a wide char starts at the same index as the first half.
+        final short[] columnIndex = getColumnIndex();
+        return columnIndex[column] == columnIndex[column + 1] && columnIndex[column] < mSpaceUsed;
+    }
+
+    private short[] getColumnIndex() {
+        if (!mColumnIndexValid) {
+            if (mColumnIndex == null) mColumnIndex = new short[mColumns + 1];
+            // Column 0 starts at the first non-combining char.
+            mColumnIndex[0] = (short) skipCombiningChars(0);
+            updateColumnIndex(0, mColumns);
+            mColumnIndexValid = true;
+        }
+        return mColumnIndex;
+    }
+
+    /**
+     * Update the column index for the columns after {@code fromColumn} up to and including {@code toColumn} by scanning
+     * {@link #mText} from the start of {@code fromColumn}, which must be correct.
+     */
+    private void updateColumnIndex(int fromColumn, int toColumn) {
+        final short[] columnIndex = mColumnIndex;
+        int column = fromColumn;
+        int charIndex = columnIndex[fromColumn];
+        while (column < toColumn && charIndex < mSpaceUsed) {
+            final int startOfChar = charIndex;
+            final char c = mText[charIndex++];
+            final int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, mText[charIndex++]) : c;
+            final int wcwidth = WcWidth.width(codePoint);
+            charIndex = skipCombiningChars(charIndex);
+            if (wcwidth == 2 && column + 1 <= toColumn) columnIndex[column + 1] = (short) startOfChar;
+            column += wcwidth;
+            if (column <= toColumn) columnIndex[column] = (short) charIndex;
+        }
+        // Only happens if the text does not fill all columns.
+        while (++column <= toColumn) columnIndex[column] = mSpaceUsed;
+        columnIndex[mColumns] = mSpaceUsed;
+    }
+
+    private int skipCombiningChars(int charIndex) {
+        while (charIndex < mSpaceUsed) {
+            if (Character.isHighSurrogate(mText[charIndex])) {
+                if (WcWidth.width(Character.toCodePoint(mText[charIndex], mText[charIndex + 1])) <= 0) {
+                    charIndex += 2;
+                } else {
+                    break;
+                }
+            } else if (WcWidth.width(mText[charIndex]) <= 0) {
+                charIndex++;
+            } else {
+                break;
+            }
+        }
+        return charIndex;
+    }
+
+    /** Check if a wide character starts at a column by scanning {@link #mText}, used to verify the column index in tests. */
+    boolean wideDisplayCharacterStartingAtByScanning(int column) {
         for (int currentCharIndex = 0, currentColumn = 0; currentCharIndex < mSpaceUsed; ) {
             char c = mText[currentCharIndex++];
             int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, mText[currentCharIndex++]) : c;
@@ -143,17 +238,101 @@ public final class TerminalRow {
 
     public void clear(long style) {
         Arrays.fill(mText, ' ');
-        Arrays.fill(mStyle, style);
+        mStyle = null;
+        if (mStyleIndices == null) {
+            mStyleIndices = new byte[mColumns];
+        } else {
+            Arrays.fill(mStyleIndices, (byte) 0);
+        }
+        mStylePalette[0] = style;
+        mStylePaletteSize = 1;
+        mLastStyleIndex = 0;
         mSpaceUsed = (short) mColumns;
         mHasNonOneWidthOrSurrogateChars = false;
+        mColumnIndexValid = false;
+    }
+
+    /**
+     * Set {@code length} printable ASCII characters from {@code chars} starting at {@code columnToSet}, all with the same
+     * style. Equivalent to calling {@link #setChar(int, int, long)} for each character, but without per character
+     * overhead when the row only contains chars with width 1.
+     */
+    public void setAsciiChars(int columnToSet, byte[] chars, int offset, int length, long style) {
+        if (columnToSet < 0 || length < 0 || columnToSet + length > mColumns)
+            throw new IllegalArgumentException("TerminalRow.setAsciiChars(): columnToSet=" + columnToSet + ", length=" + length + ", mColumns=" + mColumns);
+
+        if (mHasNonOneWidthOrSurrogateChars) {
+            for (int i = 0; i < length; i++)
+                setChar(columnToSet + i, chars[offset + i], style);
+            return;
+        }
+
+        // Fast path: one java char per column, so the column is also the index into mText.
+        final char[] text = mText;
+        for (int i = 0; i < length; i++)
+            text[columnToSet + i] = (char) chars[offset + i];
+        fillStyle(columnToSet, columnToSet + length, style);
+    }
+
+    /**
+     * Set the columns from {@code startColumn} to the exclusive {@code endColumn} to the same character and style, like
+     * when erasing. Equivalent to calling {@link #setChar(int, int, long)} for each column, but for characters with
+     * width 1 the text is replaced at once, only fixing up wide characters cut in half at the edges of the range.
+     */
+    public void fillChars(int startColumn, int endColumn, int codePoint, long style) {
+        if (startColumn < 0 || endColumn > mColumns || startColumn > endColumn)
+            throw new IllegalArgumentException("TerminalRow.fillChars(): startColumn=" + startColumn + ", endColumn=" + endColumn + ", mColumns=" + mColumns);
+        if (startColumn == endColumn) return;
+
+        if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT || WcWidth.width(codePoint) != 1) {
+            for (int column = startColumn; column < endColumn; column++)
+                setChar(column, codePoint, style);
+            return;
+        }
+
+        if (startColumn == 0 && endColumn == mColumns) {
+            clear(style);
+            if (codePoint != ' ') Arrays.fill(mText, 0, mColumns, (char) codePoint);
+            return;
+        }
+
+        if (!mHasNonOneWidthOrSurrogateChars) {
+            Arrays.fill(mText, startColumn, endColumn, (char) codePoint);
+            fillStyle(startColumn, endColumn, style);
+            return;
+        }
+
+        // The first half of a wide char cut at the start becomes a space, as when overwriting its second half:
+        if (startColumn > 0 && wideDisplayCharacterStartingAt(startColumn - 1)) setChar(startColumn - 1, ' ', style);
+        // The second half of a wide char cut at the end becomes a space, keeping its style:
+        final boolean wideCharAtEnd = wideDisplayCharacterStartingAt(endColumn - 1);
+
+        final int startIndex = findStartOfColumn(startColumn);
+        final int oldEndIndex = findStartOfColumn(wideCharAtEnd ? endColumn + 1 : endColumn);
+        final int newLength = endColumn - startColumn + (wideCharAtEnd ? 1 : 0);
+        final int newEndIndex = startIndex + newLength;
+        final int newSpaceUsed = mSpaceUsed + newEndIndex - oldEndIndex;
+        if (newSpaceUsed > mText.length) {
+            char[] newText = new char[newSpaceUsed + mColumns];
+            System.arraycopy(mText, 0, newText, 0, startIndex);
+            System.arraycopy(mText, oldEndIndex, newText, newEndIndex, mSpaceUsed - oldEndIndex);
+            mText = newText;
+        } else {
+            System.arraycopy(mText, oldEndIndex, mText, newEndIndex, mSpaceUsed - oldEndIndex);
+        }
+        Arrays.fill(mText, startIndex, startIndex + endColumn - startColumn, (char) codePoint);
+        if (wideCharAtEnd) mText[newEndIndex - 1] = ' ';
+        mSpaceUsed = (short) newSpaceUsed;
+        mColumnIndexValid = false;
+        fillStyle(startColumn, endColumn, style);
     }
 
     // https://github.com/steven676/Android-Terminal-Emulator/commit/9a47042620bec87617f0b4f5d50568535668fe26
     public void setChar(int columnToSet, int codePoint, long style) {
-        if (columnToSet  < 0 || columnToSet >= mStyle.length)
+        if (columnToSet  < 0 || columnToSet >= mColumns)
             throw new IllegalArgumentException("TerminalRow.setChar(): columnToSet=" + columnToSet + ", codePoint=" + codePoint + ", style=" + style);
 
-        mStyle[columnToSet] = style;
+        setStyle(columnToSet, style);
 
         final int newCodePointDisplayWidth = WcWidth.width(codePoint);
 
@@ -183,6 +362,7 @@ public final class TerminalRow {
         }
 
         char[] text = mText;
+        final int oldSpaceUsed = mSpaceUsed;
         final int oldStartOfColumnIndex = findStartOfColumn(columnToSet);
         final int oldCodePointDisplayWidth = WcWidth.width(text, oldStartOfColumnIndex);
 
@@ -253,6 +433,7 @@ public final class TerminalRow {
             ++mSpaceUsed;
         } else if (oldCodePointDisplayWidth == 1 && newCodePointDisplayWidth == 2) {
             if (columnToSet == mColumns - 1) {
+                mColumnIndexValid = false;
                 throw new IllegalArgumentException("Cannot put wide character in last column");
             } else if (columnToSet == mColumns - 2) {
                 // Truncate the line to the second part of this wide char:
@@ -268,6 +449,73 @@ public final class TerminalRow {
                 mSpaceUsed -= nextLen;
             }
         }
+
+        // Only the two columns after the one set can have changed in other ways than being moved along with the text.
+        final short[] columnIndex = mColumnIndex;
+        final int lastRescannedColumn = Math.min(columnToSet + 2, mColumns);
+        final int javaCharsMoved = mSpaceUsed - oldSpaceUsed;
+        updateColumnIndex(columnToSet, lastRescannedColumn);
+        if (javaCharsMoved != 0) {
+            for (int column = lastRescannedColumn + 1; column < mColumns; column++)
+                columnIndex[column] += javaCharsMoved;
+        }
+    }
+
+    /** Create a compact copy of this row for the transcript. */
+    CompactRow toCompactRow() {
+        int textLength = mSpaceUsed;
+        while (textLength > 0 && mText[textLength - 1] == ' ') textLength--;
+        // Each trailing space uses exactly one column.
+        final int textColumns = mColumns - (mSpaceUsed - textLength);
+        return new CompactRow(mText, textLength, textColumns, this, mLineWrap, mHasNonOneWidthOrSurrogateChars);
+    }
+
+    /** Replace the contents of this row with those of a compact row with the same number of columns. */
+    void copyFrom(CompactRow row) {
+        final int textLength = row.mText.length;
+        final int spaceUsed = textLength + (mColumns - row.mTextColumns);
+        if (spaceUsed > mText.length) mText = new char[spaceUsed + mColumns];
+        System.arraycopy(row.mText, 0, mText, 0, textLength);
+        Arrays.fill(mText, textLength, spaceUsed, ' ');
+        mSpaceUsed = (short) spaceUsed;
+
+        int runStart = 0;
+        for (int run = 0; run < row.mRunStyles.length; run++) {
+            final int runEnd = (run < row.mRunEnds.length) ? row.mRunEnds[run] : mColumns;
+            fillStyle(runStart, runEnd, row.mRunStyles[run]);
+            runStart = runEnd;
+        }
+
+        mLineWrap = row.mLineWrap;
+        mHasNonOneWidthOrSurrogateChars = row.mHasNonOneWidthOrSurrogateChars;
+        mColumnIndexValid = false;
+    }
+
+    /** Replace the contents of this row with those of another row with the same number of columns. */
+    void copyFrom(TerminalRow row) {
+        final int spaceUsed = row.mSpaceUsed;
+        if (spaceUsed > mText.length) mText = new char[row.mText.length];
+        System.arraycopy(row.mText, 0, mText, 0, spaceUsed);
+        mSpaceUsed = (short) spaceUsed;
+
+        if (row.mStyle != null) {
+            if (mStyle == null) mStyle = new long[mColumns];
+            System.arraycopy(row.mStyle, 0, mStyle, 0, mColumns);
+            mStyleIndices = null;
+            mStylePaletteSize = 0;
+        } else {
+            if (mStyleIndices == null) mStyleIndices = new byte[mColumns];
+            System.arraycopy(row.mStyleIndices, 0, mStyleIndices, 0, mColumns);
+            if (mStylePalette.length < row.mStylePaletteSize) mStylePalette = new long[row.mStylePalette.length];
+            System.arraycopy(row.mStylePalette, 0, mStylePalette, 0, row.mStylePaletteSize);
+            mStylePaletteSize = row.mStylePaletteSize;
+            mStyle = null;
+        }
+        mLastStyleIndex = 0;
+
+        mLineWrap = row.mLineWrap;
+        mHasNonOneWidthOrSurrogateChars = row.mHasNonOneWidthOrSurrogateChars;
+        mColumnIndexValid = false;
     }
 
     boolean isBlank() {
@@ -277,7 +525,117 @@ public final class TerminalRow {
     }
 
     public final long getStyle(int column) {
-        return mStyle[column];
+        final long[] styles = mStyle;
+        return (styles != null) ? styles[column] : mStylePalette[mStyleIndices[column] & 0xFF];
+    }
+
+    /** The end of the run of columns with the same style as {@code column}, which is the next column with another style. */
+    public int findStyleRunEnd(int column) {
+        int end = column + 1;
+        final long[] styles = mStyle;
+        if (styles != null) {
+            final long style = styles[column];
+            while (end < mColumns && styles[end] == style) end++;
+        } else {
+            final byte[] indices = mStyleIndices;
+            final byte index = indices[column];
+            while (end < mColumns && indices[end] == index) end++;
+        }
+        return end;
+    }
+
+    /** Set the style of a column without changing its text. */
+    void setStyle(int column, long style) {
+        if (mStyle == null) {
+            final int index = findOrAddPaletteStyle(style);
+            if (index >= 0) {
+                mStyleIndices[column] = (byte) index;
+                return;
+            }
+        }
+        mStyle[column] = style;
+    }
+
+    /** Set the style of the columns from {@code startColumn} to the exclusive {@code endColumn} without changing their text. */
+    void fillStyle(int startColumn, int endColumn, long style) {
+        if (mStyle == null) {
+            final int index = findOrAddPaletteStyle(style);
+            if (index >= 0) {
+                Arrays.fill(mStyleIndices, startColumn, endColumn, (byte) index);
+                return;
+            }
+        }
+        Arrays.fill(mStyle, startColumn, endColumn, style);
+    }
+
+    /** Copy the styles of {@code count} columns of another row, one style run at a time. */
+    void copyStyles(TerminalRow source, int sourceColumn, int destinationColumn, int count) {
+        final int sourceEnd = sourceColumn + count;
+        for (int column = sourceColumn; column < sourceEnd; ) {
+            final int runEnd = Math.min(source.findStyleRunEnd(column), sourceEnd);
+            fillStyle(destinationColumn + column - sourceColumn, destinationColumn + runEnd - sourceColumn, source.getStyle(column));
+            column = runEnd;
+        }
+    }
+
+    /**
+     * The index of a style in {@link #mStylePalette}, which is added if not already there, or -1 if the palette was full
+     * and the row has switched to a style per cell in {@link #mStyle}.
+     */
+    private int findOrAddPaletteStyle(long style) {
+        long[] palette = mStylePalette;
+        if (palette[mLastStyleIndex] == style) return mLastStyleIndex;
+        for (int i = 0; i < mStylePaletteSize; i++) {
+            if (palette[i] == style) return mLastStyleIndex = i;
+        }
+
+        if (mStylePaletteSize == MAX_PALETTE_STYLES) {
+            if (!removeUnusedPaletteStyles()) {
+                switchToStylePerCell();
+                return -1;
+            }
+            palette = mStylePalette;
+        }
+        if (mStylePaletteSize == palette.length)
+            mStylePalette = palette = Arrays.copyOf(palette, Math.min(palette.length * 2, MAX_PALETTE_STYLES));
+        palette[mStylePaletteSize] = style;
+        return mLastStyleIndex = mStylePaletteSize++;
+    }
+
+    /**
+     * Remove the styles no longer used by any column from the full palette, returning false if too few were unused to
+     * be worth keeping the palette, which would otherwise be scanned again soon.
+     */
+    private boolean removeUnusedPaletteStyles() {
+        final byte[] indices = mStyleIndices;
+        final long[] palette = mStylePalette;
+        final long[] newPalette = new long[palette.length];
+        final int[] newIndices = new int[MAX_PALETTE_STYLES];
+        Arrays.fill(newIndices, -1);
+        int size = 0;
+        for (int column = 0; column < mColumns; column++) {
+            final int index = indices[column] & 0xFF;
+            if (newIndices[index] < 0) {
+                newIndices[index] = size;
+                newPalette[size++] = palette[index];
+            }
+            indices[column] = (byte) newIndices[index];
+        }
+        mStylePalette = newPalette;
+        mStylePaletteSize = size;
+        mLastStyleIndex = 0;
+        return size <= MAX_PALETTE_STYLES * 3 / 4;
+    }
+
+    private void switchToStylePerCell() {
+        final long[] styles = new long[mColumns];
+        for (int column = 0; column < mColumns; column++)
+            styles[column] = mStylePalette[mStyleIndices[column] & 0xFF];
+        mStyle = styles;
+        mStyleIndices = null;
+        mStylePalette = new long[INITIAL_PALETTE_STYLES];
+        mStylePaletteSize = 0;
+        mLastStyleIndex = 0;
     }
 
 }
@@ -0,0 +1,96 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * A pool of {@link TerminalRow}:s which are not used anymore, kept by their number of columns to be reused instead of
+ * allocating new rows, for instance when the transcript is cleared and the screen filled again, or when switching
+ * between the normal and alternate screen.
+ * <p>
+ * Rows are kept for the {@link #MAX_COLUMN_COUNTS} most recently used numbers of columns, so that the rows of the
+ * previous width are kept when rotating the device back and forth, up to {@link #MAX_ROWS_PER_COLUMN_COUNT} rows each.
+ * The counters of allocated and reused rows show if a code path allocates rows, see {@link #getAllocatedRows()}.
+ */
+final class TerminalRowPool {
+
+    static final int MAX_COLUMN_COUNTS = 2;
+    static final int MAX_ROWS_PER_COLUMN_COUNT = 128;
+
+    /** The number of columns of the rows in each bucket of {@link #mRows}, most recently used first, or 0 if unused. */
+    private final int[] mColumns = new int[MAX_COLUMN_COUNTS];
+    private final TerminalRow[][] mRows = new TerminalRow[MAX_COLUMN_COUNTS][MAX_ROWS_PER_COLUMN_COUNT];
+    private final int[] mRowCounts = new int[MAX_COLUMN_COUNTS];
+
+    private long mAllocatedRows;
+    private long mReusedRows;
+
+    /** Get a blank row with a style, which is reused from the pool if one with the same number of columns is available. */
+    TerminalRow obtain(int columns, long style) {
+        final int bucket = findBucket(columns);
+        if (bucket >= 0 && mRowCounts[bucket] > 0) {
+            final int count = --mRowCounts[bucket];
+            final TerminalRow row = mRows[bucket][count];
+            mRows[bucket][count] = null;
+            row.clear(style);
+            row.mLineWrap = false;
+            mReusedRows++;
+            return row;
+        }
+        mAllocatedRows++;
+        return new TerminalRow(columns, style);
+    }
+
+    /** Give back a row which is not referenced anymore, which is dropped if the pool is full. Null is ignored. */
+    void release(TerminalRow row) {
+        if (row == null) return;
+        int bucket = findBucket(row.getColumns());
+        if (bucket < 0) {
+            // Drop the rows of the least recently used number of columns:
+            bucket = MAX_COLUMN_COUNTS - 1;
+            Arrays.fill(mRows[bucket], 0, mRowCounts[bucket], null);
+            mRowCounts[bucket] = 0;
+            mColumns[bucket] = row.getColumns();
+        }
+        bucket = moveToFront(bucket);
+        if (mRowCounts[bucket] < MAX_ROWS_PER_COLUMN_COUNT) mRows[bucket][mRowCounts[bucket]++] = row;
+    }
+
+    /** The number of rows allocated by {@link #obtain(int, long)} since there was none to reuse. */
+    long getAllocatedRows() {
+        return mAllocatedRows;
+    }
+
+    /** The number of rows reused by {@link #obtain(int, long)} from the pool. */
+    long getReusedRows() {
+        return mReusedRows;
+    }
+
+    /** The number of rows in the pool. */
+    int getPooledRows() {
+        int rows = 0;
+        for (int count : mRowCounts) rows += count;
+        return rows;
+    }
+
+    private int findBucket(int columns) {
+        for (int bucket = 0; bucket < MAX_COLUMN_COUNTS; bucket++)
+            if (mColumns[bucket] == columns) return bucket;
+        return -1;
+    }
+
+    /** Make a bucket the most recently used one, returning its new index. */
+    private int moveToFront(int bucket) {
+        if (bucket == 0) return 0;
+        final int columns = mColumns[bucket];
+        final TerminalRow[] rows = mRows[bucket];
+        final int count = mRowCounts[bucket];
+        System.arraycopy(mColumns, 0, mColumns, 1, bucket);
+        System.arraycopy(mRows, 0, mRows, 1, bucket);
+        System.arraycopy(mRowCounts, 0, mRowCounts, 1, bucket);
+        mColumns[0] = columns;
+        mRows[0] = rows;
+        mRowCounts[0] = count;
+        return 0;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.termux.terminal;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A text to find with {@link TerminalBuffer#search(TerminalSearch, int, int, boolean)}, either literal or a regular
+ * expression, which is matched against one logical line at a time, where rows continued with
+ * {@link TerminalRow#mLineWrap} are joined.
+ * <p>
+ * To skip lines without reading their text, each transcript row caches a signature with one bit set per pair of
+ * adjacent chars, see {@link #signature(char[], int, int)}. A line can only contain a literal if its signature has all
+ * the bits of that of the literal.
+ */
+public final class TerminalSearch {
+
+    final boolean mIgnoreCase;
+    /** The compiled regular expression, or null for a literal search. */
+    private final Pattern mPattern;
+    private Matcher mMatcher;
+    /** The chars of a literal search, case folded if ignoring case. */
+    private final char[] mLiteral;
+    /** The signature a line must contain to have a match, or 0 if any line may match. */
+    final long mSignature;
+
+    /** The end (exclusive) of the last match found by {@link #find(CharSequence, int)}. */
+    int mMatchEnd;
+
+    /**
+     * @param query      The text, or regular expression, to find.
+     * @param regex      If the query is a regular expression, see {@link Pattern}.
+     * @param ignoreCase If matching should be case-insensitive.
+     * @throws java.util.regex.PatternSyntaxException If the regular expression is not valid.
+     */
+    public TerminalSearch(String query, boolean regex, boolean ignoreCase) {
+        if (query.isEmpty()) throw new IllegalArgumentException("Empty search query");
+        mIgnoreCase = ignoreCase;
+        if (regex) {
+            mPattern = Pattern.compile(query, ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+            mLiteral = null;
+            mSignature = 0;
+        } else {
+            mPattern = null;
+            mLiteral = query.toCharArray();
+            if (ignoreCase) {
+                for (int i = 0; i < mLiteral.length; i++) mLiteral[i] = fold(mLiteral[i]);
+            }
+            mSignature = signature(mLiteral, 0, mLiteral.length);
+        }
+    }
+
+    /** Fold the case of a char, so that chars which are equal ignoring case, as by {@link String#equalsIgnoreCase}, are equal. */
+    static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /** The signature bit for two adjacent chars, which is the same regardless of case. */
+    static long bigramBit(char first, char second) {
+        final int hash = (fold(first) * 31 + fold(second)) * 0x9E3779B1;
+        return 1L << (hash >>> 26);
+    }
+
+    /** The signature of a text, with the {@link #bigramBit(char, char)} of each pair of adjacent chars set. */
+    static long signature(char[] text, int start, int end) {
+        long signature = 0;
+        for (int i = start + 1; i < end; i++) signature |= bigramBit(text[i - 1], text[i]);
+        return signature;
+    }
+
+    /**
+     * Find the first non-empty match in a line starting at or after an index.
+     *
+     * @return The start of the match, with the end in {@link #mMatchEnd}, or -1 if there is none.
+     */
+    int find(CharSequence line, int from) {
+        if (mPattern != null) {
+            if (mMatcher == null) mMatcher = mPattern.matcher(line);
+            else mMatcher.reset(line);
+            while (from <= line.length() && mMatcher.find(from)) {
+                if (mMatcher.end() > mMatcher.start()) {
+                    mMatchEnd = mMatcher.end();
+                    return mMatcher.start();
+                }
+                from = mMatcher.start() + 1;
+            }
+            return -1;
+        }
+
+        final char[] literal = mLiteral;
+        final char first = literal[0];
+        for (int start = from, last = line.length() - literal.length; start <= last; start++) {
+            if (charAt(line, start) != first) continue;
+            int i = 1;
+            while (i < literal.length && charAt(line, start + i) == literal[i]) i++;
+            if (i == literal.length) {
+                mMatchEnd = start + literal.length;
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    private char charAt(CharSequence line, int index) {
+        final char c = line.charAt(index);
+        return mIgnoreCase ? fold(c) : c;
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.termux.terminal;
+
+/**
+ * A match found by {@link TerminalBuffer#search(TerminalSearch, int, int, boolean)}, or a word found by
+ * {@link TerminalBuffer#findWordAtLocation(int, int, String)}, in the external row coordinates of the buffer, with
+ * inclusive columns as for a text selection. A match in a wrapped line may span several rows.
+ */
+public final class TerminalSearchMatch {
+
+    public final int mStartRow, mStartColumn;
+    public final int mEndRow, mEndColumn;
+
+    public TerminalSearchMatch(int startRow, int startColumn, int endRow, int endColumn) {
+        mStartRow = startRow;
+        mStartColumn = startColumn;
+        mEndRow = endRow;
+        mEndColumn = endColumn;
+    }
+
+    /** The same match after the buffer has scrolled {@code rows} rows, as told by {@link TerminalEmulator#getScrollCounter()}. */
+    public TerminalSearchMatch scrolled(int rows) {
+        return new TerminalSearchMatch(mStartRow - rows, mStartColumn, mEndRow - rows, mEndColumn);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TerminalSearchMatch)) return false;
+        TerminalSearchMatch other = (TerminalSearchMatch) o;
+        return mStartRow == other.mStartRow && mStartColumn == other.mStartColumn && mEndRow == other.mEndRow
+            && mEndColumn == other.mEndColumn;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((mStartRow * 31 + mStartColumn) * 31 + mEndRow) * 31 + mEndColumn;
+    }
+
+    @Override
+    public String toString() {
+        return "TerminalSearchMatch[" + mStartRow + "," + mStartColumn + " - " + mEndRow + "," + mEndColumn + "]";
+    }
+
+}
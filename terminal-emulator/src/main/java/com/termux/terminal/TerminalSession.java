@@ -1,8 +1,9 @@
 package com.termux.terminal;
 
-import android.annotation.SuppressLint;
 import android.os.Handler;
-import android.os.Message;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.OsConstants;
@@ -16,13 +17,18 @@ import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A terminal session, consisting of a process coupled to a terminal interface.
  * <p>
  * The subprocess will be executed by the constructor, and when the size is made known by a call to
  * {@link #updateSize(int, int, int, int)} terminal emulation will begin and threads will be spawned to handle the subprocess I/O.
- * All terminal emulation and callback methods will be performed on the main thread.
+ * Terminal emulation is performed on a shared emulation thread, or a low priority one for sessions in the background,
+ * see {@link #setInBackground(boolean)}, while callback methods will be performed on the main thread. The emulator
+ * must only be accessed from other threads while holding {@link #getEmulatorLock()}, and is rendered from a
+ * {@link TerminalSnapshot} so that the lock is only held while copying the rows which changed.
  * <p>
  * The child process may be exited forcefully by using the {@link #finishIfRunning()} method.
  * <p>
@@ -30,23 +36,49 @@ import java.util.UUID;
  */
 public final class TerminalSession extends TerminalOutput {
 
-    private static final int MSG_NEW_INPUT = 1;
-    private static final int MSG_PROCESS_EXITED = 4;
+    /** The number of transcript rows to reflow per task on the emulation thread after a resize. */
+    private static final int REFLOW_TRANSCRIPT_ROWS = 1000;
+
+    /** The default size in bytes of each of the queues to and from the process. */
+    public static final int DEFAULT_IO_QUEUE_CAPACITY = 4096;
+    /** The smallest allowed size of the queues to and from the process, which must fit a chunk of a paste. */
+    public static final int MIN_IO_QUEUE_CAPACITY = 4096;
+
+    /** The default for {@link #setUpdateTimeBudgetMillis(int)}, half a frame at 60 fps. */
+    public static final int DEFAULT_UPDATE_TIME_BUDGET_MILLIS = 8;
+    /** The max number of chars pasted directly on the calling thread, see {@link #paste(CharSequence, TerminalPaste.Listener)}. */
+    private static final int DIRECT_PASTE_MAX_CHARS = 1024;
+    /** The max number of bytes appended to the emulator while holding {@link #mEmulatorLock}. */
+    private static final int APPEND_CHUNK_BYTES = 4 * 1024;
+    /**
+     * The max time to spend processing the output of a session in the background in one batch, after which the
+     * output of other background sessions gets its turn.
+     */
+    private static final long BACKGROUND_UPDATE_TIME_BUDGET_NANOS = 50 * 1_000_000L;
+
+    /** The thread emulating all sessions in the foreground, started when first needed. */
+    private static HandlerThread sEmulationThread;
+    /** The low priority thread emulating all sessions in the background, started when first needed. */
+    private static HandlerThread sBackgroundThread;
+    /** The executors running tasks on {@link #sEmulationThread} and {@link #sBackgroundThread}. */
+    private static Executor sEmulationExecutor, sBackgroundExecutor;
 
     public final String mHandle = UUID.randomUUID().toString();
 
     TerminalEmulator mEmulator;
 
     /**
-     * A queue written to from a separate thread when the process outputs, and read by main thread to process by
-     * terminal emulator.
+     * A queue written to from a separate thread when the process outputs, and read by the emulation thread to process
+     * by terminal emulator while holding {@link #mEmulatorLock}.
      */
-    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(4096);
+    final SpscByteQueue mProcessToTerminalIOQueue;
     /**
-     * A queue written to from the main thread due to user interaction, and read by another thread which forwards by
-     * writing to the {@link #mTerminalFileDescriptor}.
+     * A queue written to from the main thread due to user interaction, by the emulator from the emulation thread and
+     * by pastes, and read by another thread which forwards by writing to the {@link #mTerminalFileDescriptor}. As it
+     * has several producers, each write is made while synchronized on the queue.
      */
-    final ByteQueue mTerminalToProcessIOQueue = new ByteQueue(4096);
+    final SpscByteQueue mTerminalToProcessIOQueue;
+    private final TerminalMetrics mMetrics;
     /** Buffer to write translate code points into utf8 before writing to mTerminalToProcessIOQueue */
     private final byte[] mUtf8InputBuffer = new byte[5];
 
@@ -68,24 +100,95 @@ public final class TerminalSession extends TerminalOutput {
     /** Set by the application for user identification of session, not by terminal. */
     public String mSessionName;
 
-    final Handler mMainThreadHandler = new MainThreadHandler();
+    /** The handler of the main thread, on which the session is created. */
+    final Handler mMainThreadHandler = new Handler();
+    /** Runs the callbacks to the client and the screen updates on the main thread. */
+    private final Executor mMainThreadExecutor;
+    /** Processes input on the emulation thread, set when the emulator is created. */
+    private Executor mEmulationExecutor;
+    /** Processes input on the background thread, set when the session first goes to the background. */
+    private Executor mBackgroundExecutor;
+    /** If input is processed by {@link #mBackgroundExecutor} instead of {@link #mEmulationExecutor}. Only written by the main thread. */
+    private volatile boolean mInBackground;
+    /** Held while reading and appending each chunk of input, and by other threads while accessing the emulator. */
+    private final Object mEmulatorLock = new Object();
+    /** The last paste started by {@link #paste(CharSequence, TerminalPaste.Listener)}, or null. */
+    private TerminalPaste mLastPaste;
+    /** The buffer that input from the process is read into while holding {@link #mEmulatorLock}. */
+    private final byte[] mReceiveBuffer = new byte[APPEND_CHUNK_BYTES];
+    /** If a screen update has been posted to the main thread and not yet run. */
+    private final AtomicBoolean mScreenUpdatePending = new AtomicBoolean();
+    /** If a transcript reflow has been posted to the emulation thread and not yet run. */
+    private final AtomicBoolean mTranscriptReflowPending = new AtomicBoolean();
+
+    /**
+     * If processing new input has been posted and not yet started, so that the reader thread does not flood the
+     * emulation thread with tasks while it is busy.
+     */
+    private final AtomicBoolean mNewInputPending = new AtomicBoolean();
+    /** The max time to spend processing input in one batch before updating the screen and posting the rest. */
+    private volatile long mUpdateTimeBudgetNanos = DEFAULT_UPDATE_TIME_BUDGET_MILLIS * 1_000_000L;
+
+    /** The number of bytes from the process that has been processed by the emulator. Only written with {@link #mEmulatorLock}. */
+    private volatile long mBytesProcessed;
+    /**
+     * The number of batches of input processed in the foreground, each followed by one screen update. Only written by
+     * the emulation thread, which also processes the input left when the process exits.
+     */
+    private volatile long mUpdateBatches;
+    /** The number of new input notifications merged into an already pending one. Only written by the reader thread. */
+    private volatile long mMergedUpdateNotifications;
+
+    /** The recorder of the output from the process, or null, see {@link #startRecording(File)}. Read by the reader thread. */
+    private volatile SessionRecorder mRecorder;
 
     private final String mShellPath;
     private final String mCwd;
     private final String[] mArgs;
     private final String[] mEnv;
     private final Integer mTranscriptRows;
+    /** The file to spill transcript rows to, or null, see {@link #setTranscriptSpill(File, int)}. */
+    private File mTranscriptSpillFile;
+    private int mTranscriptSpillRows;
 
 
     private static final String LOG_TAG = "TerminalSession";
 
     public TerminalSession(String shellPath, String cwd, String[] args, String[] env, Integer transcriptRows, TerminalSessionClient client) {
+        this(shellPath, cwd, args, env, transcriptRows, DEFAULT_IO_QUEUE_CAPACITY, client);
+    }
+
+    /**
+     * @param ioQueueCapacity The size in bytes of each of the queues to and from the process, a power of two of at
+     *                        least {@link #MIN_IO_QUEUE_CAPACITY}. A larger queue lets the process write more output
+     *                        before it has to wait for the emulator.
+     */
+    public TerminalSession(String shellPath, String cwd, String[] args, String[] env, Integer transcriptRows,
+                           int ioQueueCapacity, TerminalSessionClient client) {
+        this(shellPath, cwd, args, env, transcriptRows, ioQueueCapacity, client, null, null, null);
+    }
+
+    /**
+     * Create a session whose tasks are run by the given executors instead of on the main thread and the shared
+     * emulation threads, for tests without loopers. A null executor means the default one.
+     */
+    TerminalSession(String shellPath, String cwd, String[] args, String[] env, Integer transcriptRows,
+                    int ioQueueCapacity, TerminalSessionClient client, Executor mainThreadExecutor,
+                    Executor emulationExecutor, Executor backgroundExecutor) {
+        if (ioQueueCapacity < MIN_IO_QUEUE_CAPACITY)
+            throw new IllegalArgumentException("ioQueueCapacity < " + MIN_IO_QUEUE_CAPACITY + ": " + ioQueueCapacity);
+        this.mProcessToTerminalIOQueue = new SpscByteQueue(ioQueueCapacity);
+        this.mTerminalToProcessIOQueue = new SpscByteQueue(ioQueueCapacity);
+        this.mMetrics = new TerminalMetrics(mProcessToTerminalIOQueue, mTerminalToProcessIOQueue);
         this.mShellPath = shellPath;
         this.mCwd = cwd;
         this.mArgs = args;
         this.mEnv = env;
         this.mTranscriptRows = transcriptRows;
         this.mClient = client;
+        this.mMainThreadExecutor = (mainThreadExecutor != null) ? mainThreadExecutor : mMainThreadHandler::post;
+        this.mEmulationExecutor = emulationExecutor;
+        this.mBackgroundExecutor = backgroundExecutor;
     }
 
     /**
@@ -95,8 +198,31 @@ public final class TerminalSession extends TerminalOutput {
     public void updateTerminalSessionClient(TerminalSessionClient client) {
         mClient = client;
 
-        if (mEmulator != null)
-            mEmulator.updateTerminalSessionClient(client);
+        if (mEmulator != null) {
+            synchronized (mEmulatorLock) {
+                mEmulator.updateTerminalSessionClient(client);
+            }
+        }
+    }
+
+    /**
+     * Spill rows which drop out of the transcript to a file, see {@link TerminalEmulator#enableTranscriptSpill(File, int)}.
+     * Must be called before the emulator is initialized.
+     *
+     * @param file      The file to spill rows to, whose parent directory must exist.
+     * @param spillRows The max number of rows in the file, or 0 to not spill rows.
+     */
+    public void setTranscriptSpill(File file, int spillRows) {
+        mTranscriptSpillFile = spillRows > 0 ? file : null;
+        mTranscriptSpillRows = spillRows;
+    }
+
+    /** Close and delete the transcript spill file, if any. Should be called when the session is removed. */
+    public void closeTranscriptSpill() {
+        if (mEmulator == null) return;
+        synchronized (mEmulatorLock) {
+            mEmulator.closeTranscriptSpill();
+        }
     }
 
     /** Inform the attached pty of the new size and reflow or initialize the emulator. */
@@ -105,8 +231,185 @@ public final class TerminalSession extends TerminalOutput {
             initializeEmulator(columns, rows, cellWidthPixels, cellHeightPixels);
         } else {
             JNI.setPtyWindowSize(mTerminalFileDescriptor, rows, columns, cellWidthPixels, cellHeightPixels);
-            mEmulator.resize(columns, rows, cellWidthPixels, cellHeightPixels);
+            synchronized (mEmulatorLock) {
+                mEmulator.resize(columns, rows, cellWidthPixels, cellHeightPixels);
+            }
+            scheduleTranscriptReflow();
+            final SessionRecorder recorder = mRecorder;
+            if (recorder != null) recorder.recordResize(columns, rows);
+        }
+    }
+
+    /**
+     * Start recording the output from the process and the resizes of the terminal to an asciicast file, see
+     * {@link SessionRecorder}, replacing any ongoing recording. Must be called after the emulator is initialized.
+     */
+    public void startRecording(File file) throws IOException {
+        final SessionRecorder previous = mRecorder;
+        mRecorder = null;
+        // The previous recording may be to the same file, so wait for it to be written like for creating the file:
+        if (previous != null) previous.close();
+        mRecorder = new SessionRecorder(file, mEmulator.mColumns, mEmulator.mRows, mClient);
+    }
+
+    /**
+     * Stop recording, if recording. The recording file is written and closed in the background, so that this does not
+     * block the main thread, or the thread processing the input when the process exits.
+     */
+    public void stopRecording() {
+        final SessionRecorder recorder = mRecorder;
+        if (recorder == null) return;
+        mRecorder = null;
+        recorder.finish();
+    }
+
+    public boolean isRecording() {
+        return mRecorder != null;
+    }
+
+    /**
+     * Move the session to or from the background, which should be done when it is no longer or again displayed. Must be
+     * called on the main thread.
+     * <p>
+     * The output of sessions in the background is processed in larger batches by a shared low priority thread instead
+     * of the emulation thread, so that background sessions with a lot of output do not make the displayed session less
+     * responsive, and no {@link TerminalSessionClient#onTextChanged(TerminalSession)} calls are made for them. When the
+     * session is in the foreground again the screen is updated.
+     */
+    public void setInBackground(boolean inBackground) {
+        if (inBackground == mInBackground) return;
+        if (inBackground && mBackgroundExecutor == null) mBackgroundExecutor = getSharedExecutor(true);
+        mInBackground = inBackground;
+        if (mEmulator == null) return;
+        // Let the new thread process the input which has not been processed yet:
+        mNewInputPending.set(true);
+        postNewInput();
+        if (!inBackground) {
+            scheduleTranscriptReflow();
+            notifyScreenUpdate();
+        }
+    }
+
+    /** If the output of the session is processed in the background, see {@link #setInBackground(boolean)}. */
+    public boolean isInBackground() {
+        return mInBackground;
+    }
+
+    /**
+     * The lock held by the emulation thread while it changes the emulator, which other threads must hold while they
+     * access the emulator, for instance to update a {@link TerminalSnapshot} to render or to get the selected text.
+     */
+    public Object getEmulatorLock() {
+        return mEmulatorLock;
+    }
+
+    /** The executor running tasks on the shared emulation thread or background thread, which is started if needed. */
+    private static synchronized Executor getSharedExecutor(boolean background) {
+        if (background) {
+            if (sBackgroundThread == null) {
+                sBackgroundThread = new HandlerThread("TermSessionBackgroundEmulation", Process.THREAD_PRIORITY_BACKGROUND);
+                sBackgroundThread.start();
+                sBackgroundExecutor = new Handler(sBackgroundThread.getLooper())::post;
+            }
+            return sBackgroundExecutor;
         }
+        if (sEmulationThread == null) {
+            sEmulationThread = new HandlerThread("TermSessionEmulation");
+            sEmulationThread.start();
+            sEmulationExecutor = new Handler(sEmulationThread.getLooper())::post;
+        }
+        return sEmulationExecutor;
+    }
+
+    /** The executor processing input in the background or the foreground. */
+    private Executor getExecutor(boolean background) {
+        return background ? mBackgroundExecutor : mEmulationExecutor;
+    }
+
+    /**
+     * Let the thread processing input know that new input has been written to {@link #mProcessToTerminalIOQueue},
+     * unless it has not started processing it since the last time. Called by the reader thread.
+     */
+    void notifyNewInput() {
+        if (mNewInputPending.compareAndSet(false, true)) {
+            postNewInput();
+        } else {
+            mMergedUpdateNotifications++;
+        }
+    }
+
+    /** Process new input on the emulation thread, or the background thread while in the background. */
+    private void postNewInput() {
+        final boolean background = mInBackground;
+        getExecutor(background).execute(() -> onNewInput(background));
+    }
+
+    private void onNewInput(boolean background) {
+        if (mInBackground != background) {
+            // Posted before the session was moved, so let the other thread process the input.
+            postNewInput();
+            return;
+        }
+        // Clear the flag before reading, so that input written after the last read always causes a new task.
+        mNewInputPending.set(false);
+        final boolean done = processInput(background ? BACKGROUND_UPDATE_TIME_BUDGET_NANOS : mUpdateTimeBudgetNanos, background);
+        // Let the screen update and other sessions process their input before processing the rest:
+        if (!done && mNewInputPending.compareAndSet(false, true)) postNewInput();
+    }
+
+    /** Handle the exit of the process after the input before it, by the thread processing the input. */
+    private void postProcessExit(int exitCode) {
+        final boolean background = mInBackground;
+        getExecutor(background).execute(() -> onProcessExit(background, exitCode));
+    }
+
+    private void onProcessExit(boolean background, int exitCode) {
+        if (mInBackground != background || !processInput(Long.MAX_VALUE, background)) {
+            // Moved before or while processing the rest of the input, so let the other thread finish it.
+            postProcessExit(exitCode);
+            return;
+        }
+        processExit(exitCode);
+    }
+
+    /**
+     * Reflow the transcript left by a resize in chunks on the emulation thread, so that a resize only reflows the
+     * screen before the next frame.
+     */
+    private void scheduleTranscriptReflow() {
+        final boolean pending;
+        synchronized (mEmulatorLock) {
+            pending = mEmulator.hasPendingTranscriptReflow();
+        }
+        if (pending && mTranscriptReflowPending.compareAndSet(false, true)) mEmulationExecutor.execute(this::reflowTranscript);
+    }
+
+    private void reflowTranscript() {
+        // Cleared first, so that a resize while reflowing schedules a reflow of the rows it leaves:
+        mTranscriptReflowPending.set(false);
+        // Continued when the session is in the foreground again:
+        if (mInBackground) return;
+        final boolean more;
+        synchronized (mEmulatorLock) {
+            more = mEmulator.reflowPendingTranscript(REFLOW_TRANSCRIPT_ROWS);
+        }
+        if (more && mTranscriptReflowPending.compareAndSet(false, true)) mEmulationExecutor.execute(this::reflowTranscript);
+        postScreenUpdate();
+    }
+
+    /** Let the main thread update the screen, unless it has not done so since the last time. */
+    private void postScreenUpdate() {
+        if (mScreenUpdatePending.compareAndSet(false, true)) mMainThreadExecutor.execute(this::updateScreen);
+    }
+
+    private void updateScreen() {
+        mScreenUpdatePending.set(false);
+        // Updated by setInBackground() when the session is in the foreground again:
+        if (mInBackground) return;
+        // Switching to the main buffer may have resized it:
+        scheduleTranscriptReflow();
+        if (TerminalMetrics.isEnabled()) mMetrics.onScreenUpdate();
+        notifyScreenUpdate();
     }
 
     /** The terminal title as set through escape sequences or null if none set. */
@@ -121,7 +424,7 @@ public final class TerminalSession extends TerminalOutput {
      * @param rows    The number of rows in the terminal window.
      */
     public void initializeEmulator(int columns, int rows, int cellWidthPixels, int cellHeightPixels) {
-        mEmulator = new TerminalEmulator(this, columns, rows, cellWidthPixels, cellHeightPixels, mTranscriptRows, mClient);
+        createEmulator(columns, rows, cellWidthPixels, cellHeightPixels);
 
         int[] processId = new int[1];
         mTerminalFileDescriptor = JNI.createSubprocess(mShellPath, mCwd, mArgs, mEnv, processId, rows, columns, cellWidthPixels, cellHeightPixels);
@@ -138,8 +441,11 @@ public final class TerminalSession extends TerminalOutput {
                     while (true) {
                         int read = termIn.read(buffer);
                         if (read == -1) return;
+                        final SessionRecorder recorder = mRecorder;
+                        if (recorder != null) recorder.recordOutput(buffer, 0, read);
+                        if (TerminalMetrics.isEnabled()) mMetrics.onBytesRead(read);
                         if (!mProcessToTerminalIOQueue.write(buffer, 0, read)) return;
-                        mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+                        notifyNewInput();
                     }
                 } catch (Exception e) {
                     // Ignore, just shutting down.
@@ -167,16 +473,64 @@ public final class TerminalSession extends TerminalOutput {
             @Override
             public void run() {
                 int processExitCode = JNI.waitFor(mShellPid);
-                mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
+                postProcessExit(processExitCode);
             }
         }.start();
 
     }
 
+    /** Create the emulator, without starting the process, which tests use to append input with. */
+    void createEmulator(int columns, int rows, int cellWidthPixels, int cellHeightPixels) {
+        mEmulator = new TerminalEmulator(this, columns, rows, cellWidthPixels, cellHeightPixels, mTranscriptRows, mClient);
+        mEmulator.setLazyTranscriptReflow(true);
+        mEmulator.setMetrics(mMetrics);
+        if (mEmulationExecutor == null) mEmulationExecutor = getSharedExecutor(false);
+        if (mTranscriptSpillFile != null) {
+            try {
+                mEmulator.enableTranscriptSpill(mTranscriptSpillFile, mTranscriptSpillRows);
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to create transcript spill file", e);
+            }
+        }
+    }
+
     /** Write data to the shell process. */
     @Override
     public void write(byte[] data, int offset, int count) {
-        if (mShellPid > 0) mTerminalToProcessIOQueue.write(data, offset, count);
+        if (mShellPid <= 0) return;
+        // The emulator writes its responses from the emulation thread while the main thread writes user input, and the
+        // queue only supports one writer at a time:
+        synchronized (mTerminalToProcessIOQueue) {
+            mTerminalToProcessIOQueue.write(data, offset, count);
+        }
+    }
+
+    /**
+     * Paste text to the process, like {@link TerminalEmulator#paste(String)}. Text larger than
+     * {@link #DIRECT_PASTE_MAX_CHARS} is written in chunks by a separate thread, so that the main thread does not wait
+     * while the process reads it, and may be cancelled through the returned {@link TerminalPaste}. Must be called on
+     * the main thread.
+     *
+     * @param listener The listener to notify on the main thread about the progress of the paste, or null.
+     * @return The paste being written by a separate thread, or null if the text was written directly.
+     */
+    public TerminalPaste paste(CharSequence text, TerminalPaste.Listener listener) {
+        if (mEmulator == null || mShellPid <= 0) return null;
+        final boolean bracketed;
+        synchronized (mEmulatorLock) {
+            bracketed = mEmulator.isBracketedPasteMode();
+        }
+        // Small text is written directly, unless it would overtake a paste which is still being written:
+        final TerminalPaste lastPaste = mLastPaste;
+        if (text.length() <= DIRECT_PASTE_MAX_CHARS && (lastPaste == null || lastPaste.isFinished())) {
+            PasteEncoder.paste(text, bracketed, this);
+            return null;
+        }
+        final TerminalPaste paste = new TerminalPaste(text, bracketed, mTerminalToProcessIOQueue, lastPaste,
+            mMainThreadExecutor, listener);
+        mLastPaste = paste;
+        paste.start("TermSessionPaste[pid=" + mShellPid + "]");
+        return paste;
     }
 
     /** Write the Unicode code point to the terminal encoded in UTF-8. */
@@ -220,14 +574,45 @@ public final class TerminalSession extends TerminalOutput {
         return mEmulator;
     }
 
+    /**
+     * Set the max time to spend processing process output in one batch, after which the screen is updated and the rest
+     * is processed in a later task so that the screen shows progress while there is a lot of output.
+     */
+    public void setUpdateTimeBudgetMillis(int millis) {
+        if (millis <= 0) throw new IllegalArgumentException("millis <= 0");
+        mUpdateTimeBudgetNanos = millis * 1_000_000L;
+    }
+
+    /** The number of bytes of process output that has been processed by the emulator. */
+    public long getBytesProcessed() {
+        return mBytesProcessed;
+    }
+
+    /** The number of batches of process output processed, each followed by one screen update. */
+    public long getUpdateBatches() {
+        return mUpdateBatches;
+    }
+
+    /** The number of new process output notifications that were merged into an already pending batch. */
+    public long getMergedUpdateNotifications() {
+        return mMergedUpdateNotifications;
+    }
+
+    /** The counters of the work done for the session, see {@link TerminalMetrics#setEnabled(boolean)}. */
+    public TerminalMetrics getMetrics() {
+        return mMetrics;
+    }
+
     /** Notify the {@link #mClient} that the screen has changed. */
     protected void notifyScreenUpdate() {
         mClient.onTextChanged(this);
     }
 
-    /** Reset state for terminal emulator state. */
+    /** Reset state for terminal emulator state. Must be called on the main thread. */
     public void reset() {
-        mEmulator.reset();
+        synchronized (mEmulatorLock) {
+            mEmulator.reset();
+        }
         notifyScreenUpdate();
     }
 
@@ -242,7 +627,7 @@ public final class TerminalSession extends TerminalOutput {
         }
     }
 
-    /** Cleanup resources when the process exits. */
+    /** Cleanup resources when the process exits. Called on the thread processing the input of the session. */
     void cleanupResources(int exitStatus) {
         synchronized (this) {
             mShellPid = -1;
@@ -253,11 +638,21 @@ public final class TerminalSession extends TerminalOutput {
         mTerminalToProcessIOQueue.close();
         mProcessToTerminalIOQueue.close();
         JNI.close(mTerminalFileDescriptor);
+        stopRecording();
+    }
+
+    /** Run a client callback on the main thread, posting it there if made by the emulator on the emulation thread. */
+    private void runOnMainThread(Runnable callback) {
+        if (Looper.myLooper() == mMainThreadHandler.getLooper()) {
+            callback.run();
+        } else {
+            mMainThreadExecutor.execute(callback);
+        }
     }
 
     @Override
     public void titleChanged(String oldTitle, String newTitle) {
-        mClient.onTitleChanged(this);
+        runOnMainThread(() -> mClient.onTitleChanged(this));
     }
 
     public synchronized boolean isRunning() {
@@ -271,22 +666,22 @@ public final class TerminalSession extends TerminalOutput {
 
     @Override
     public void onCopyTextToClipboard(String text) {
-        mClient.onCopyTextToClipboard(this, text);
+        runOnMainThread(() -> mClient.onCopyTextToClipboard(this, text));
     }
 
     @Override
     public void onPasteTextFromClipboard() {
-        mClient.onPasteTextFromClipboard(this);
+        runOnMainThread(() -> mClient.onPasteTextFromClipboard(this));
     }
 
     @Override
     public void onBell() {
-        mClient.onBell(this);
+        runOnMainThread(() -> mClient.onBell(this));
     }
 
     @Override
     public void onColorsChanged() {
-        mClient.onColorsChanged(this);
+        runOnMainThread(() -> mClient.onColorsChanged(this));
     }
 
     public int getPid() {
@@ -333,41 +728,67 @@ public final class TerminalSession extends TerminalOutput {
         return result;
     }
 
-    @SuppressLint("HandlerLeak")
-    class MainThreadHandler extends Handler {
-
-        final byte[] mReceiveBuffer = new byte[4 * 1024];
-
-        @Override
-        public void handleMessage(Message msg) {
-            int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
-            if (bytesRead > 0) {
+    /**
+     * Process the available input from the process as one batch, followed by a single screen update unless in the
+     * background. The emulator lock is held for each chunk, so that other threads only wait for one chunk to be appended.
+     *
+     * @param timeBudgetNanos The time after which to stop processing even if there is more input available.
+     * @param background      If processed by the background thread, to stop if the session is moved to or from the
+     *                        background so that the input is processed by the other thread.
+     * @return If all available input was processed.
+     */
+    private boolean processInput(long timeBudgetNanos, boolean background) {
+        final long startTime = System.nanoTime();
+        final boolean countMetrics = TerminalMetrics.isEnabled();
+        boolean processed = false;
+        boolean done = false;
+        do {
+            synchronized (mEmulatorLock) {
+                int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
+                if (bytesRead <= 0) {
+                    done = true;
+                    break;
+                }
+                final long appendStartTime = countMetrics ? System.nanoTime() : 0;
                 mEmulator.append(mReceiveBuffer, bytesRead);
-                notifyScreenUpdate();
+                if (countMetrics) mMetrics.onAppend(bytesRead, System.nanoTime() - appendStartTime);
+                mBytesProcessed += bytesRead;
             }
+            processed = true;
+        } while (mInBackground == background && System.nanoTime() - startTime < timeBudgetNanos);
 
-            if (msg.what == MSG_PROCESS_EXITED) {
-                int exitCode = (Integer) msg.obj;
-                cleanupResources(exitCode);
-
-                String exitDescription = "\r\n[Process completed";
-                if (exitCode > 0) {
-                    // Non-zero process exit.
-                    exitDescription += " (code " + exitCode + ")";
-                } else if (exitCode < 0) {
-                    // Negated signal.
-                    exitDescription += " (signal " + (-exitCode) + ")";
-                }
-                exitDescription += " - press Enter]";
-
-                byte[] bytesToWrite = exitDescription.getBytes(StandardCharsets.UTF_8);
-                mEmulator.append(bytesToWrite, bytesToWrite.length);
-                notifyScreenUpdate();
+        // The screen is updated when the session is in the foreground again:
+        if (processed && !background) {
+            mUpdateBatches++;
+            postScreenUpdate();
+        }
+        return done;
+    }
 
-                mClient.onSessionFinished(TerminalSession.this);
-            }
+    /**
+     * Close the session after all input from the process has been processed, and append a description of how the
+     * process exited. Called on the thread processing the input of the session.
+     */
+    private void processExit(int exitCode) {
+        cleanupResources(exitCode);
+
+        String exitDescription = "\r\n[Process completed";
+        if (exitCode > 0) {
+            // Non-zero process exit.
+            exitDescription += " (code " + exitCode + ")";
+        } else if (exitCode < 0) {
+            // Negated signal.
+            exitDescription += " (signal " + (-exitCode) + ")";
         }
+        exitDescription += " - press Enter]";
 
+        byte[] bytesToWrite = exitDescription.getBytes(StandardCharsets.UTF_8);
+        synchronized (mEmulatorLock) {
+            mEmulator.append(bytesToWrite, bytesToWrite.length);
+        }
+        if (!mInBackground) postScreenUpdate();
+        // After any screen update with the exit description:
+        mMainThreadExecutor.execute(() -> mClient.onSessionFinished(this));
     }
 
 }
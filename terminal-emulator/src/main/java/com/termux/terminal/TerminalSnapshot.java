@@ -0,0 +1,133 @@
+package com.termux.terminal;
+
+/**
+ * A copy of the visible rows of a {@link TerminalEmulator} and the state needed to render them, like the cursor and
+ * colors, so that they can be rendered while the emulator keeps processing output on another thread.
+ * <p>
+ * {@link #update(TerminalEmulator, int)} must be called while the emulator is not changed by another thread, like
+ * while holding {@link TerminalSession#getEmulatorLock()}, but only copies the rows which changed since the last update
+ * as told by {@link TerminalBuffer#getRowChangeCount(int)}, so that it is short. Reading the snapshot afterwards does
+ * not need any lock, and never sees rows which are half updated.
+ */
+public final class TerminalSnapshot {
+
+    private int mColumns, mRows, mTopRow;
+    /** The screen the rows were copied from, to copy all rows when switching between the main and alternate buffer. */
+    private TerminalBuffer mScreen;
+    /** The copies of the visible rows, from {@link #mTopRow}. */
+    private TerminalRow[] mRowCopies = new TerminalRow[0];
+    /** The {@link TerminalBuffer#getRowChangeCount(int)} of each visible row when it was copied. */
+    private long[] mRowChangeCounts = new long[0];
+    /** If each visible row was copied by the last update. */
+    private boolean[] mRowsChanged = new boolean[0];
+    private boolean mAllRowsChanged = true;
+
+    private int mCursorRow, mCursorCol, mCursorStyle;
+    private boolean mCursorVisible, mReverseVideo;
+    private final int[] mColors = new int[TextStyle.NUM_INDEXED_COLORS];
+    private long mColorsGeneration;
+
+    /**
+     * Copy the rows from {@code topRow}, which is negative when scrolled into the transcript, which changed since the
+     * last update, and the rest of the state needed to render them.
+     */
+    public void update(TerminalEmulator emulator, int topRow) {
+        final TerminalBuffer screen = emulator.getScreen();
+        final int columns = emulator.mColumns;
+        final int rows = emulator.mRows;
+        mAllRowsChanged = columns != mColumns || rows != mRows || topRow != mTopRow || screen != mScreen;
+        if (rows != mRowCopies.length) {
+            mRowCopies = new TerminalRow[rows];
+            mRowChangeCounts = new long[rows];
+            mRowsChanged = new boolean[rows];
+        }
+        mColumns = columns;
+        mRows = rows;
+        mTopRow = topRow;
+        mScreen = screen;
+
+        for (int i = 0; i < rows; i++) {
+            final int row = topRow + i;
+            final long changeCount = screen.getRowChangeCount(row);
+            final boolean changed = mAllRowsChanged || changeCount != mRowChangeCounts[i];
+            mRowsChanged[i] = changed;
+            if (!changed) continue;
+            TerminalRow copy = mRowCopies[i];
+            if (copy == null || copy.getColumns() != columns) copy = mRowCopies[i] = new TerminalRow(columns, TextStyle.NORMAL);
+            copy.copyFrom(screen.allocateFullLineIfNecessary(screen.pageInRow(row)));
+            mRowChangeCounts[i] = changeCount;
+        }
+
+        mCursorRow = emulator.getCursorRow();
+        mCursorCol = emulator.getCursorCol();
+        mCursorStyle = emulator.getCursorStyle();
+        mCursorVisible = emulator.shouldCursorBeVisible();
+        mReverseVideo = emulator.isReverseVideo();
+        final long colorsGeneration = emulator.mColors.getGeneration();
+        if (colorsGeneration != mColorsGeneration) {
+            System.arraycopy(emulator.mColors.mCurrentColors, 0, mColors, 0, mColors.length);
+            mColorsGeneration = colorsGeneration;
+        }
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    /** The first visible row, which is negative when scrolled into the transcript. */
+    public int getTopRow() {
+        return mTopRow;
+    }
+
+    /** The copy of a visible row, from {@link #getTopRow()} to the exclusive {@link #getTopRow()} + {@link #getRows()}. */
+    public TerminalRow getRow(int externalRow) {
+        return mRowCopies[externalRow - mTopRow];
+    }
+
+    /** If a visible row may have changed since the previous update. */
+    public boolean isRowChanged(int externalRow) {
+        return mRowsChanged[externalRow - mTopRow];
+    }
+
+    /** If all rows were copied by the last update, since the size, scroll position or screen changed. */
+    public boolean areAllRowsChanged() {
+        return mAllRowsChanged;
+    }
+
+    public int getCursorRow() {
+        return mCursorRow;
+    }
+
+    public int getCursorCol() {
+        return mCursorCol;
+    }
+
+    /** See {@link TerminalEmulator#getCursorStyle()}. */
+    public int getCursorStyle() {
+        return mCursorStyle;
+    }
+
+    /** See {@link TerminalEmulator#shouldCursorBeVisible()}. */
+    public boolean isCursorVisible() {
+        return mCursorVisible;
+    }
+
+    public boolean isReverseVideo() {
+        return mReverseVideo;
+    }
+
+    /** The current colors, see {@link TerminalColors#mCurrentColors}. */
+    public int[] getColors() {
+        return mColors;
+    }
+
+    /** The {@link TerminalColors#getGeneration()} of {@link #getColors()}. */
+    public long getColorsGeneration() {
+        return mColorsGeneration;
+    }
+
+}
@@ -3,7 +3,7 @@ package com.termux.terminal;
 /**
  * <p>
  * Encodes effects, foreground and background colors into a 64 bit long, which are stored for each cell in a terminal
- * row in {@link TerminalRow#mStyle}.
+ * row, see {@link TerminalRow#getStyle(int)}.
  * </p>
  * <p>
  * The bit layout is:
@@ -83,6 +83,11 @@ public final class TextStyle {
         }
     }
 
+    /** If the foreground or background of a style is a true (24-bit) color. */
+    static boolean hasTrueColor(long style) {
+        return (style & (CHARACTER_ATTRIBUTE_TRUECOLOR_FOREGROUND | CHARACTER_ATTRIBUTE_TRUECOLOR_BACKGROUND)) != 0;
+    }
+
     public static int decodeEffect(long style) {
         return (int) (style & 0b11111111111);
     }
@@ -0,0 +1,301 @@
+package com.termux.terminal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An append-only file holding transcript rows which no longer fit in the transcript kept in memory by a
+ * {@link TerminalBuffer}, so that very long sessions can keep their history without growing the heap.
+ * <p>
+ * The file is memory-mapped in segments, and the offset of each row in its segment is kept in memory as an index.
+ * Rows are numbered from 0 in the order they were appended, and the numbers are never reused. At most {@code maxRows}
+ * rows are kept, after which the oldest rows are dropped and segments which only hold dropped rows are reused.
+ * <p>
+ * If the file cannot be written, for instance when the storage is full, rows are kept in memory instead, see
+ * {@link #appendInMemory(CompactRow, int)}.
+ */
+final class TranscriptSpillFile implements Closeable {
+
+    /** The default size of a mapped segment of the file. */
+    static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    /** The size of a row record before its text and styles: columns, text columns, flags, text length and runs. */
+    private static final int RECORD_HEADER_BYTES = 2 + 2 + 1 + 4 + 2;
+
+    private static final int FLAG_LINE_WRAP = 1;
+    private static final int FLAG_NON_ONE_WIDTH_OR_SURROGATE_CHARS = 2;
+
+    private static final class Segment {
+        final MappedByteBuffer mBuffer;
+        /** The number of the first row in this segment. */
+        long mFirstRow;
+        /** The offset in {@link #mBuffer} of each row in this segment. */
+        int[] mRowOffsets = new int[256];
+        int mRows;
+
+        Segment(MappedByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        void reset(long firstRow) {
+            mFirstRow = firstRow;
+            mRows = 0;
+            mBuffer.clear();
+        }
+    }
+
+    private final File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private final int mMaxRows;
+    private final int mSegmentBytes;
+
+    /** The segments holding rows, oldest first. */
+    private final ArrayList<Segment> mSegments = new ArrayList<>();
+    /** Segments which only hold dropped rows and may be reused. */
+    private final ArrayList<Segment> mFreeSegments = new ArrayList<>();
+    private long mFileLength;
+    /** The number of the oldest row kept. */
+    private long mFirstRow;
+    /** The number of the next row to be appended. */
+    private long mEndRow;
+
+    /** The rows kept in memory after the file could not be written, at their number modulo {@link #mMaxRows}, or null. */
+    private CompactRow[] mMemoryRows;
+    /** The number of columns of each row in {@link #mMemoryRows}. */
+    private int[] mMemoryRowColumns;
+    /** The number of the first row in {@link #mMemoryRows}, after which no rows are in the file. */
+    private long mMemoryFirstRow;
+
+    TranscriptSpillFile(File file, int maxRows) throws IOException {
+        this(file, maxRows, DEFAULT_SEGMENT_BYTES);
+    }
+
+    TranscriptSpillFile(File file, int maxRows, int segmentBytes) throws IOException {
+        if (maxRows <= 0) throw new IllegalArgumentException("maxRows must be positive: " + maxRows);
+        if (segmentBytes <= 0) throw new IllegalArgumentException("segmentBytes must be positive: " + segmentBytes);
+        mFile = file;
+        mMaxRows = maxRows;
+        mSegmentBytes = segmentBytes;
+        openFile();
+    }
+
+    private void openFile() throws IOException {
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mRandomAccessFile.setLength(0);
+        mChannel = mRandomAccessFile.getChannel();
+    }
+
+    /** The number of rows kept. */
+    int getRows() {
+        return (int) (mEndRow - mFirstRow);
+    }
+
+    /** The number of the oldest row kept. */
+    long getFirstRow() {
+        return mFirstRow;
+    }
+
+    /** The number of the next row to be appended, one more than that of the newest row kept. */
+    long getEndRow() {
+        return mEndRow;
+    }
+
+    /** The current length of the file in bytes. */
+    long getFileLength() {
+        return mFileLength;
+    }
+
+    /**
+     * Append a row, dropping the oldest row if there already are {@code maxRows} rows.
+     *
+     * @throws IOException If the file could not be grown, in which case nothing was appended.
+     */
+    void append(CompactRow row, int columns) throws IOException {
+        if (mMemoryRows != null) {
+            appendInMemory(row, columns);
+            return;
+        }
+        final int runs = row.mRunStyles.length;
+        final int recordBytes = RECORD_HEADER_BYTES + 2 * row.mText.length + 2 * row.mRunEnds.length + 8 * runs;
+
+        Segment segment = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+        if (segment == null || segment.mBuffer.remaining() < recordBytes) {
+            segment = newSegment(recordBytes);
+            segment.reset(mEndRow);
+            mSegments.add(segment);
+        }
+
+        final MappedByteBuffer buffer = segment.mBuffer;
+        if (segment.mRows == segment.mRowOffsets.length)
+            segment.mRowOffsets = Arrays.copyOf(segment.mRowOffsets, segment.mRows * 2);
+        segment.mRowOffsets[segment.mRows++] = buffer.position();
+
+        int flags = (row.mLineWrap ? FLAG_LINE_WRAP : 0) | (row.mHasNonOneWidthOrSurrogateChars ? FLAG_NON_ONE_WIDTH_OR_SURROGATE_CHARS : 0);
+        buffer.putShort((short) columns).putShort((short) row.mTextColumns).put((byte) flags)
+            .putInt(row.mText.length).putShort((short) runs);
+        for (char c : row.mText) buffer.putChar(c);
+        for (short runEnd : row.mRunEnds) buffer.putShort(runEnd);
+        for (long runStyle : row.mRunStyles) buffer.putLong(runStyle);
+
+        mEndRow++;
+        if (mEndRow - mFirstRow > mMaxRows) dropOldestRow();
+    }
+
+    /**
+     * Append a row to keep in memory, as when {@link #append(CompactRow, int)} failed. All later rows are kept in memory
+     * as well, until {@link #clear()}.
+     */
+    void appendInMemory(CompactRow row, int columns) {
+        if (mMemoryRows == null) keepRowsInMemory();
+        final int index = (int) (mEndRow % mMaxRows);
+        mMemoryRows[index] = row;
+        mMemoryRowColumns[index] = columns;
+        mEndRow++;
+        if (mEndRow - mFirstRow > mMaxRows) dropOldestRow();
+    }
+
+    private void keepRowsInMemory() {
+        mMemoryRows = new CompactRow[mMaxRows];
+        mMemoryRowColumns = new int[mMaxRows];
+        mMemoryFirstRow = mEndRow;
+    }
+
+    /** If rows are kept in memory, as the file could not be written. */
+    boolean isInMemory() {
+        return mMemoryRows != null;
+    }
+
+    /**
+     * Read back a row.
+     *
+     * @param row     The number of the row, from {@link #getFirstRow()} to {@link #getEndRow()} - 1.
+     * @param columns The number of columns of the returned row. A row appended with a different number of columns is
+     *                cut off or padded with blank columns.
+     */
+    CompactRow read(long row, int columns) {
+        if (row < mFirstRow || row >= mEndRow)
+            throw new IllegalArgumentException("row=" + row + ", mFirstRow=" + mFirstRow + ", mEndRow=" + mEndRow);
+        if (mMemoryRows != null && row >= mMemoryFirstRow) {
+            final int index = (int) (row % mMaxRows);
+            return fit(mMemoryRows[index], mMemoryRowColumns[index], columns);
+        }
+        final Segment segment = findSegment(row);
+        final MappedByteBuffer buffer = segment.mBuffer;
+        int position = segment.mRowOffsets[(int) (row - segment.mFirstRow)];
+
+        final int rowColumns = buffer.getShort(position);
+        final int textColumns = buffer.getShort(position + 2);
+        final int flags = buffer.get(position + 4);
+        final char[] text = new char[buffer.getInt(position + 5)];
+        final long[] runStyles = new long[buffer.getShort(position + 9)];
+        final short[] runEnds = new short[runStyles.length - 1];
+        position += RECORD_HEADER_BYTES;
+        for (int i = 0; i < text.length; i++, position += 2) text[i] = buffer.getChar(position);
+        for (int i = 0; i < runEnds.length; i++, position += 2) runEnds[i] = buffer.getShort(position);
+        for (int i = 0; i < runStyles.length; i++, position += 8) runStyles[i] = buffer.getLong(position);
+
+        final CompactRow compactRow = new CompactRow(text, textColumns, runStyles, runEnds,
+            (flags & FLAG_LINE_WRAP) != 0, (flags & FLAG_NON_ONE_WIDTH_OR_SURROGATE_CHARS) != 0);
+        return fit(compactRow, rowColumns, columns);
+    }
+
+    /** Fit a row of {@code rowColumns} to {@code columns}, by cutting it off or padding it with blank columns. */
+    private static CompactRow fit(CompactRow compactRow, int rowColumns, int columns) {
+        if (rowColumns == columns) return compactRow;
+
+        // The row was appended before a resize, so fit it to the new number of columns:
+        final TerminalRow original = new TerminalRow(rowColumns, TextStyle.NORMAL);
+        original.copyFrom(compactRow);
+        final TerminalRow resized = new TerminalRow(columns, TextStyle.NORMAL);
+        resized.copyInterval(original, 0, Math.min(rowColumns, columns), 0);
+        resized.mLineWrap = compactRow.mLineWrap;
+        return resized.toCompactRow();
+    }
+
+    /**
+     * Drop all rows and empty the file. Row numbers keep increasing, so that rows appended later never get the number
+     * of a row that has been cleared.
+     *
+     * @throws IOException If a new file could not be created, in which case rows are kept in memory from now on.
+     */
+    void clear() throws IOException {
+        // The segments stay mapped until they are garbage collected, and truncating the file under them would make any
+        // access to them fail. So the segments are dropped with the file, whose space is freed once they are unmapped:
+        mSegments.clear();
+        mFreeSegments.clear();
+        mMemoryRows = null;
+        mMemoryRowColumns = null;
+        mFileLength = 0;
+        mFirstRow = mEndRow;
+        try {
+            closeFile();
+            openFile();
+        } catch (IOException e) {
+            keepRowsInMemory();
+            throw e;
+        }
+    }
+
+    /** Close and delete the file. */
+    @Override
+    public void close() throws IOException {
+        mSegments.clear();
+        mFreeSegments.clear();
+        mMemoryRows = null;
+        mMemoryRowColumns = null;
+        closeFile();
+    }
+
+    private void closeFile() throws IOException {
+        if (mRandomAccessFile == null) return;
+        try {
+            mRandomAccessFile.close();
+        } finally {
+            mRandomAccessFile = null;
+            mChannel = null;
+            //noinspection ResultOfMethodCallIgnored
+            mFile.delete();
+        }
+    }
+
+    private void dropOldestRow() {
+        mFirstRow++;
+        // A row in memory has been replaced by the row appended in its place:
+        if (mSegments.isEmpty()) return;
+        final Segment oldest = mSegments.get(0);
+        if (mFirstRow >= oldest.mFirstRow + oldest.mRows) {
+            mSegments.remove(0);
+            mFreeSegments.add(oldest);
+        }
+    }
+
+    /** Get a free segment with room for at least one record of {@code recordBytes}, or map a new one. */
+    private Segment newSegment(int recordBytes) throws IOException {
+        for (int i = 0; i < mFreeSegments.size(); i++)
+            if (mFreeSegments.get(i).mBuffer.capacity() >= recordBytes) return mFreeSegments.remove(i);
+
+        final int segmentBytes = Math.max(mSegmentBytes, recordBytes);
+        final Segment segment = new Segment(mChannel.map(FileChannel.MapMode.READ_WRITE, mFileLength, segmentBytes));
+        mFileLength += segmentBytes;
+        return segment;
+    }
+
+    private Segment findSegment(long row) {
+        int low = 0;
+        int high = mSegments.size() - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (mSegments.get(middle).mFirstRow <= row) low = middle;
+            else high = middle - 1;
+        }
+        return mSegments.get(low);
+    }
+
+}
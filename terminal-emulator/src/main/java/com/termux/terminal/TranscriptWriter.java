@@ -0,0 +1,138 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes the rows of a {@link TerminalBuffer} as text, see {@link TerminalBuffer#writeTranscript(Writer, boolean, boolean, boolean)},
+ * optionally with SGR escape sequences for the colors and effects of the text.
+ * <p>
+ * As by {@link String#trim()} of the whole text, whitespace at the start and end is left out. Whitespace, and the
+ * escape sequences within it, is therefore held back until the next visible char, so that only what has been written
+ * since the last visible char is kept in memory.
+ */
+final class TranscriptWriter {
+
+    private static final String SGR_RESET = "\033[0m";
+
+    private final Writer mOut;
+    private final boolean mWithStyles;
+
+    /** The whitespace and escape sequences since the last visible char, to write before the next one. */
+    private char[] mPending = new char[256];
+    private int mPendingLength;
+    /** If a visible char has been written. */
+    private boolean mStarted;
+    /** The style after the written and pending text, and the style after only the written text. */
+    private long mStyle = TextStyle.NORMAL, mWrittenStyle = TextStyle.NORMAL;
+    private final StringBuilder mSgr = new StringBuilder();
+
+    TranscriptWriter(Writer out, boolean withStyles) {
+        mOut = out;
+        mWithStyles = withStyles;
+    }
+
+    /** Write the chars of a row up to {@code charEnd}, which is at most {@link TerminalRow#getSpaceUsed()}. */
+    void writeRow(TerminalRow row, int charEnd) throws IOException {
+        final char[] text = row.mText;
+        if (!mWithStyles) {
+            for (int i = 0; i < charEnd; i++) writeChar(text[i]);
+            return;
+        }
+
+        int column = 0;
+        for (int i = 0; i < charEnd; ) {
+            final char c = text[i];
+            final int charCount = (Character.isHighSurrogate(c) && i + 1 < charEnd) ? 2 : 1;
+            final int width = (charCount == 2) ? WcWidth.width(Character.toCodePoint(c, text[i + 1])) : WcWidth.width(c);
+            // Combining chars are in the column before, with its style:
+            if (width > 0) {
+                setStyle(row.getStyle(Math.min(column, row.getColumns() - 1)));
+                column += width;
+            }
+            writeChar(c);
+            if (charCount == 2) writeChar(text[i + 1]);
+            i += charCount;
+        }
+    }
+
+    void writeNewline() throws IOException {
+        // Do not leave colors on for the next line, where the text may be read without them:
+        if (mWithStyles) setStyle(TextStyle.NORMAL);
+        writeChar('\n');
+    }
+
+    /** Leave out the trailing whitespace and reset the style, without closing the writer. */
+    void finish() throws IOException {
+        mPendingLength = 0;
+        if (mWrittenStyle != TextStyle.NORMAL) mOut.write(SGR_RESET);
+        mWrittenStyle = TextStyle.NORMAL;
+    }
+
+    private void setStyle(long style) {
+        if (style == mStyle) return;
+        mStyle = style;
+        if (!mStarted) return;
+        mSgr.setLength(0);
+        appendSgr(mSgr, style);
+        for (int i = 0; i < mSgr.length(); i++) addPending(mSgr.charAt(i));
+    }
+
+    private void writeChar(char c) throws IOException {
+        if (c <= ' ') {
+            if (mStarted) addPending(c);
+            return;
+        }
+        if (!mStarted) {
+            mStarted = true;
+            if (mStyle != TextStyle.NORMAL) {
+                mSgr.setLength(0);
+                appendSgr(mSgr, mStyle);
+                mOut.append(mSgr);
+            }
+        } else if (mPendingLength > 0) {
+            mOut.write(mPending, 0, mPendingLength);
+            mPendingLength = 0;
+        }
+        mOut.write(c);
+        mWrittenStyle = mStyle;
+    }
+
+    private void addPending(char c) {
+        if (mPendingLength == mPending.length) mPending = Arrays.copyOf(mPending, mPendingLength * 2);
+        mPending[mPendingLength++] = c;
+    }
+
+    /** Append the SGR escape sequence which sets a style from the normal one. */
+    static void appendSgr(StringBuilder sgr, long style) {
+        sgr.append("\033[0");
+        final int effect = TextStyle.decodeEffect(style);
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_BOLD) != 0) sgr.append(";1");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_DIM) != 0) sgr.append(";2");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_ITALIC) != 0) sgr.append(";3");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE) != 0) sgr.append(";4");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_BLINK) != 0) sgr.append(";5");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_INVERSE) != 0) sgr.append(";7");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_INVISIBLE) != 0) sgr.append(";8");
+        if ((effect & TextStyle.CHARACTER_ATTRIBUTE_STRIKETHROUGH) != 0) sgr.append(";9");
+        appendSgrColor(sgr, TextStyle.decodeForeColor(style), 30, 90, 38);
+        appendSgrColor(sgr, TextStyle.decodeBackColor(style), 40, 100, 48);
+        sgr.append('m');
+    }
+
+    private static void appendSgrColor(StringBuilder sgr, int color, int base, int brightBase, int extended) {
+        if ((color & 0xff000000) == 0xff000000) {
+            sgr.append(';').append(extended).append(";2;").append((color >> 16) & 0xff).append(';')
+                .append((color >> 8) & 0xff).append(';').append(color & 0xff);
+        } else if (color < 8) {
+            sgr.append(';').append(base + color);
+        } else if (color < 16) {
+            sgr.append(';').append(brightBase + color - 8);
+        } else if (color < 256) {
+            sgr.append(';').append(extended).append(";5;").append(color);
+        }
+        // The default colors are set by the reset.
+    }
+
+}
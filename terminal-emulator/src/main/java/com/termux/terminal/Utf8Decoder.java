@@ -0,0 +1,168 @@
+package com.termux.terminal;
+
+/**
+ * A table driven UTF-8 decoder, which decodes a chunk of bytes into a buffer of code points in one pass. Sequences may
+ * continue from one chunk to the next.
+ * <p>
+ * Ill-formed input is handled as by the byte at a time decoding which {@link TerminalEmulator} used before:
+ * <ul>
+ * <li>A byte which cannot start a sequence is decoded as {@link TerminalEmulator#UNICODE_REPLACEMENT_CHAR}.</li>
+ * <li>A sequence which is cut short by a byte that is not a continuation byte is decoded as {@link #BROKEN_SEQUENCE},
+ * and the byte is decoded on its own, so that it is not consumed by the ill-formed sequence.</li>
+ * <li>A complete sequence which is overlong, or decodes to a surrogate, an unassigned code point or a code point after
+ * {@link Character#MAX_CODE_POINT}, is decoded as one {@link TerminalEmulator#UNICODE_REPLACEMENT_CHAR}.</li>
+ * <li>C1 control characters [0x80,0x9F] decoded from a sequence are dropped, as xterm does not allow them in UTF-8.</li>
+ * </ul>
+ */
+final class Utf8Decoder {
+
+    /** Decoded for a sequence cut short, which {@link TerminalEmulator} emits as a replacement character. */
+    static final int BROKEN_SEQUENCE = -1;
+
+    // The classes of bytes, of which a lead byte class is also the length of its sequence:
+    private static final int ASCII = 0, CONTINUATION = 1, LEAD_2 = 2, LEAD_3 = 3, LEAD_4 = 4, INVALID = 5;
+    private static final int CLASSES = 6;
+
+    // The states, of which a state waiting for continuation bytes is also the number of bytes to follow:
+    private static final int ACCEPT = 0, REJECT = 4, BROKEN = 5;
+
+    private static final byte[] BYTE_CLASSES = new byte[256];
+
+    /** The next state from a state, at index {@code state * CLASSES + byteClass}. */
+    private static final byte[] TRANSITIONS = {
+        // ASCII,  CONTINUATION, LEAD_2, LEAD_3, LEAD_4, INVALID
+        ACCEPT, REJECT, 1, 2, 3, REJECT, // ACCEPT
+        BROKEN, ACCEPT, BROKEN, BROKEN, BROKEN, BROKEN, // 1 byte to follow
+        BROKEN, 1, BROKEN, BROKEN, BROKEN, BROKEN, // 2 bytes to follow
+        BROKEN, 2, BROKEN, BROKEN, BROKEN, BROKEN, // 3 bytes to follow
+    };
+
+    /** The smallest code point which is not an overlong encoding, for each sequence length. */
+    private static final int[] MIN_CODE_POINTS = {0, 0, 0x80, 0x800, 0x10000};
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            final int byteClass;
+            if (b < 0x80) byteClass = ASCII;
+            else if (b < 0xC0) byteClass = CONTINUATION;
+            else if (b < 0xE0) byteClass = LEAD_2;
+            else if (b < 0xF0) byteClass = LEAD_3;
+            else if (b < 0xF8) byteClass = LEAD_4;
+            else byteClass = INVALID;
+            BYTE_CLASSES[b] = (byte) byteClass;
+        }
+    }
+
+    private static final int BLOCK_SHIFT = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    /** The bits of a block of code points which are all valid. */
+    private static final InvalidBits NONE_INVALID = new InvalidBits(new long[BLOCK_SIZE / 64]);
+
+    /**
+     * The bits of the code points for which {@link Character#getType(int)} is {@link Character#UNASSIGNED} or
+     * {@link Character#SURROGATE}, for each block of {@link #BLOCK_SIZE} code points. Blocks are filled in when first
+     * decoded, as asking for the type of every code point up front is slow on Android, where it goes through ICU.
+     * A race between decoders only computes a block twice.
+     */
+    private static final InvalidBits[] INVALID_BITS = new InvalidBits[(Character.MAX_CODE_POINT + 1) >> BLOCK_SHIFT];
+
+    /** A block of {@link #INVALID_BITS}, with a final field so that it is safely published to other threads. */
+    private static final class InvalidBits {
+        final long[] mBits;
+
+        InvalidBits(long[] bits) {
+            mBits = bits;
+        }
+    }
+
+    private int mState = ACCEPT;
+    /** The code point decoded so far from the current sequence. */
+    private int mCodePoint;
+    /** The smallest code point allowed for the current sequence, see {@link #MIN_CODE_POINTS}. */
+    private int mMinCodePoint;
+
+    /** Forget a sequence which has not been completed. */
+    void reset() {
+        mState = ACCEPT;
+    }
+
+    /** If no sequence has been started but not completed, so that the next byte is decoded on its own. */
+    boolean isIdle() {
+        return mState == ACCEPT;
+    }
+
+    /**
+     * Decode the bytes in [start, end) of a buffer, after those decoded by previous calls.
+     *
+     * @param codePoints The buffer to decode into, which has room for at least one more code point than bytes.
+     * @return The number of code points and {@link #BROKEN_SEQUENCE}:s decoded into the start of the buffer.
+     */
+    int decode(byte[] bytes, int start, int end, int[] codePoints) {
+        if (codePoints.length <= end - start)
+            throw new IllegalArgumentException("codePoints.length=" + codePoints.length + ", bytes=" + (end - start));
+        int state = mState;
+        int codePoint = mCodePoint;
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            final int b = bytes[i] & 0xFF;
+            if (state == ACCEPT && b < 0x80) {
+                codePoints[count++] = b;
+                continue;
+            }
+
+            final int byteClass = BYTE_CLASSES[b];
+            final int nextState = TRANSITIONS[state * CLASSES + byteClass];
+            if (nextState == BROKEN) {
+                // Decode the byte again, on its own:
+                codePoints[count++] = BROKEN_SEQUENCE;
+                state = ACCEPT;
+                i--;
+            } else if (nextState == REJECT) {
+                codePoints[count++] = TerminalEmulator.UNICODE_REPLACEMENT_CHAR;
+                state = ACCEPT;
+            } else if (state == ACCEPT) {
+                // The lead byte of a sequence, with the bits after its length prefix:
+                codePoint = b & (0x7F >> byteClass);
+                mMinCodePoint = MIN_CODE_POINTS[byteClass];
+                state = nextState;
+            } else {
+                codePoint = (codePoint << 6) | (b & 0b111111);
+                state = nextState;
+                if (state == ACCEPT) {
+                    if (codePoint < mMinCodePoint || isInvalid(codePoint)) {
+                        codePoints[count++] = TerminalEmulator.UNICODE_REPLACEMENT_CHAR;
+                    } else if (codePoint > 0x9F) {
+                        codePoints[count++] = codePoint;
+                    }
+                }
+            }
+        }
+        mState = state;
+        mCodePoint = codePoint;
+        return count;
+    }
+
+    /** If a code point is a surrogate, unassigned or after {@link Character#MAX_CODE_POINT}. */
+    static boolean isInvalid(int codePoint) {
+        if (codePoint > Character.MAX_CODE_POINT) return true;
+        final int block = codePoint >> BLOCK_SHIFT;
+        InvalidBits bits = INVALID_BITS[block];
+        if (bits == null) INVALID_BITS[block] = bits = computeInvalidBits(block);
+        return (bits.mBits[(codePoint & (BLOCK_SIZE - 1)) >> 6] & (1L << codePoint)) != 0;
+    }
+
+    private static InvalidBits computeInvalidBits(int block) {
+        final long[] bits = new long[BLOCK_SIZE / 64];
+        boolean anyInvalid = false;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            final int type = Character.getType((block << BLOCK_SHIFT) + i);
+            if (type == Character.UNASSIGNED || type == Character.SURROGATE) {
+                bits[i >> 6] |= 1L << i;
+                anyInvalid = true;
+            }
+        }
+        return anyInvalid ? new InvalidBits(bits) : NONE_INVALID;
+    }
+
+}
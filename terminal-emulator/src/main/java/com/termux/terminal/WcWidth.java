@@ -1,5 +1,9 @@
 package com.termux.terminal;
 
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
 /**
  * Implementation of wcwidth(3) for Unicode 15.
  *
@@ -490,6 +494,72 @@ public final class WcWidth {
     };
 
 
+    private static final int BLOCK_SHIFT = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    /** Widths are packed as 2 bits each, so one long holds 32 widths. */
+    private static final int LONGS_PER_BLOCK = BLOCK_SIZE / 32;
+
+    /**
+     * Two-level lookup table built from {@link #ZERO_WIDTH} and {@link #WIDE_EASTASIAN}, so that {@link #width(int)}
+     * does not need to binary search them. Index {@code ucs >> BLOCK_SHIFT} in {@link #BLOCK_INDEX} gives the index of
+     * a block of {@link #BLOCK_SIZE} packed 2-bit widths in {@link #BLOCK_WIDTHS}. Identical blocks, like those of CJK
+     * ideographs or unassigned planes, are only stored once.
+     */
+    private static final char[] BLOCK_INDEX;
+    private static final long[] BLOCK_WIDTHS;
+
+    static {
+        final int blockCount = (Character.MAX_CODE_POINT + 1) >> BLOCK_SHIFT;
+        final char[] blockIndex = new char[blockCount];
+        // LongBuffer equality and hash code is based on the remaining content, which makes it usable as a block key.
+        final HashMap<LongBuffer, Integer> uniqueBlocks = new HashMap<>();
+        long[] blockWidths = new long[64 * LONGS_PER_BLOCK];
+
+        final byte[] widths = new byte[BLOCK_SIZE];
+        int zeroWidthIndex = 0;
+        int wideIndex = 0;
+        for (int block = 0; block < blockCount; block++) {
+            final int first = block << BLOCK_SHIFT;
+            final int last = first + BLOCK_SIZE - 1;
+            Arrays.fill(widths, (byte) 1);
+            // Zero width takes precedence over wide, as in widthFromTables().
+            wideIndex = fillIntervals(WIDE_EASTASIAN, wideIndex, first, last, widths, (byte) 2);
+            zeroWidthIndex = fillIntervals(ZERO_WIDTH, zeroWidthIndex, first, last, widths, (byte) 0);
+            for (int i = 0; i < BLOCK_SIZE; i++)
+                if (isNonPrintable(first + i)) widths[i] = 0;
+
+            final long[] packed = new long[LONGS_PER_BLOCK];
+            for (int i = 0; i < BLOCK_SIZE; i++)
+                packed[i >> 5] |= (long) widths[i] << ((i & 31) << 1);
+
+            Integer uniqueIndex = uniqueBlocks.get(LongBuffer.wrap(packed));
+            if (uniqueIndex == null) {
+                uniqueIndex = uniqueBlocks.size();
+                uniqueBlocks.put(LongBuffer.wrap(packed), uniqueIndex);
+                if ((uniqueIndex + 1) * LONGS_PER_BLOCK > blockWidths.length)
+                    blockWidths = Arrays.copyOf(blockWidths, blockWidths.length * 2);
+                System.arraycopy(packed, 0, blockWidths, uniqueIndex * LONGS_PER_BLOCK, LONGS_PER_BLOCK);
+            }
+            blockIndex[block] = (char) (int) uniqueIndex;
+        }
+
+        BLOCK_INDEX = blockIndex;
+        BLOCK_WIDTHS = Arrays.copyOf(blockWidths, uniqueBlocks.size() * LONGS_PER_BLOCK);
+    }
+
+    /**
+     * Set the widths of the code points in [first, last] which are in the intervals of a sorted table.
+     *
+     * @param index The index in the table of the first interval that might end at or after first.
+     * @return The index of the first interval that might end at or after last + 1.
+     */
+    private static int fillIntervals(int[][] table, int index, int first, int last, byte[] widths, byte width) {
+        while (index < table.length && table[index][1] < first) index++;
+        for (int i = index; i < table.length && table[i][0] <= last; i++)
+            Arrays.fill(widths, Math.max(table[i][0], first) - first, Math.min(table[i][1], last) - first + 1, width);
+        return index;
+    }
+
     private static boolean intable(int[][] table, int c) {
         // First quick check f|| Latin1 etc. characters.
         if (c < table[0][0]) return false;
@@ -512,19 +582,29 @@ public final class WcWidth {
 
     /** Return the terminal display width of a code point: 0, 1 || 2. */
     public static int width(int ucs) {
-        if (ucs == 0 ||
+        if (ucs < 0 || ucs > Character.MAX_CODE_POINT) return widthFromTables(ucs);
+        final int bitIndex = (ucs & (BLOCK_SIZE - 1)) << 1;
+        final long packed = BLOCK_WIDTHS[BLOCK_INDEX[ucs >> BLOCK_SHIFT] * LONGS_PER_BLOCK + (bitIndex >> 6)];
+        return (int) (packed >>> (bitIndex & 63)) & 0b11;
+    }
+
+    /** Non-printable characters and C0/C1 control characters, which have zero width but are not in {@link #ZERO_WIDTH}. */
+    private static boolean isNonPrintable(int ucs) {
+        return ucs == 0 ||
             ucs == 0x034F ||
             (0x200B <= ucs && ucs <= 0x200F) ||
             ucs == 0x2028 ||
             ucs == 0x2029 ||
             (0x202A <= ucs && ucs <= 0x202E) ||
-            (0x2060 <= ucs && ucs <= 0x2063)) {
-            return 0;
-        }
+            (0x2060 <= ucs && ucs <= 0x2063) ||
+            // C0/C1 control characters
+            // Termux change: Return 0 instead of -1.
+            ucs < 32 || (0x07F <= ucs && ucs < 0x0A0);
+    }
 
-        // C0/C1 control characters
-        // Termux change: Return 0 instead of -1.
-        if (ucs < 32 || (0x07F <= ucs && ucs < 0x0A0)) return 0;
+    /** The display width of a code point computed by binary searching the interval tables, without the lookup table. */
+    static int widthFromTables(int ucs) {
+        if (isNonPrintable(ucs)) return 0;
 
         // combining characters with zero width
         if (intable(ZERO_WIDTH, ucs)) return 0;
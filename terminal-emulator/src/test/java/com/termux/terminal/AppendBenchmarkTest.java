@@ -0,0 +1,91 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/** Throughput of {@link TerminalEmulator#append(byte[], int)} for typical output. See {@link BenchmarkTestCase}. */
+public class AppendBenchmarkTest extends BenchmarkTestCase {
+
+	private static final int INPUT_SIZE = 1024 * 1024;
+	/** The size of the chunks that {@link TerminalSession} reads from the process. */
+	private static final int CHUNK_SIZE = 4096;
+	private static final int RUNS = 20;
+
+	/** Lines of plain ASCII words, like the output of ls, cat or a compiler. */
+	static byte[] plainAsciiInput(int size) {
+		Random random = new Random(1);
+		StringBuilder sb = new StringBuilder(size + 100);
+		int lineLength = 0;
+		while (sb.length() < size) {
+			int wordLength = 1 + random.nextInt(10);
+			for (int i = 0; i < wordLength; i++)
+				sb.append((char) ('a' + random.nextInt(26)));
+			lineLength += wordLength + 1;
+			if (lineLength > 20 + random.nextInt(100)) {
+				sb.append("\r\n");
+				lineLength = 0;
+			} else {
+				sb.append(' ');
+			}
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** Lines of ASCII words where most words have an SGR colour, like the output of ls --color or a syntax highlighter. */
+	static byte[] sgrColoredInput(int size) {
+		Random random = new Random(2);
+		StringBuilder sb = new StringBuilder(size + 100);
+		int lineLength = 0;
+		while (sb.length() < size) {
+			boolean colored = random.nextInt(4) != 0;
+			if (colored) sb.append("\033[").append(random.nextBoolean() ? "1;" : "").append(30 + random.nextInt(8)).append('m');
+			int wordLength = 1 + random.nextInt(10);
+			for (int i = 0; i < wordLength; i++)
+				sb.append((char) ('a' + random.nextInt(26)));
+			if (colored) sb.append("\033[0m");
+			lineLength += wordLength + 1;
+			if (lineLength > 20 + random.nextInt(100)) {
+				sb.append("\r\n");
+				lineLength = 0;
+			} else {
+				sb.append(' ');
+			}
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	static void appendInChunks(TerminalEmulator emulator, byte[] input) {
+		byte[] chunk = new byte[CHUNK_SIZE];
+		for (int offset = 0; offset < input.length; offset += CHUNK_SIZE) {
+			int length = Math.min(CHUNK_SIZE, input.length - offset);
+			System.arraycopy(input, offset, chunk, 0, length);
+			emulator.append(chunk, length);
+		}
+	}
+
+	/** The code path used for all bytes before printable ASCII was handled in runs. */
+	static void processEachByte(TerminalEmulator emulator, byte[] input) {
+		for (byte b : input)
+			emulator.processCodePoint(b);
+	}
+
+	private void measure(String name, final byte[] input) {
+		final TerminalEmulator emulator = createEmulator(80, 24);
+		final TerminalEmulator baseline = createEmulator(80, 24);
+		double perByte = measureThroughput(name + "PerByte", input.length, RUNS, () -> processEachByte(baseline, input));
+		double append = measureThroughput(name, input.length, RUNS, () -> appendInChunks(emulator, input));
+		if (BENCHMARK_ENABLED) report(name + "Speedup", String.format(Locale.ROOT, "%.2fx", append / perByte));
+
+		assertEquals(baseline.getScreen().getTranscriptText(), emulator.getScreen().getTranscriptText());
+	}
+
+	public void testPlainAscii() {
+		measure("plainAscii", plainAsciiInput(INPUT_SIZE));
+	}
+
+	public void testSgrColored() {
+		measure("sgrColored", sgrColoredInput(INPUT_SIZE));
+	}
+
+}
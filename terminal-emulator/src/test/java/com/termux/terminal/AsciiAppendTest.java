@@ -0,0 +1,110 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Checks that runs of printable ASCII written in bulk by {@link TerminalEmulator#append(byte[], int)} give the same
+ * result as processing each code point on its own.
+ */
+public class AsciiAppendTest extends TestCase {
+
+	private static final String[] SEQUENCES = {
+		"\r\n", "\r", "\n", "\b", "\t", "\033[H", "\033[5;70H", "\033[3D", "\033[2C", "\033[K", "\033[2J",
+		"\033[31m", "\033[1;44m", "\033[0m", "\033[7m",
+		"\033[?7l", "\033[?7h", // DECAWM.
+		"\033[4h", "\033[4l", // Insert mode.
+		"\033(0", "\033(B", "\016", "\017", // Line drawing charsets and shift out/in.
+		"\033[3;10r", "\033[r", // Top and bottom margins.
+		"\033[?69h\033[5;40s", "\033[?69l", // Left and right margins.
+		"\033[3b", // Repeat preceding character.
+		// Wide chars are left out since emitCodePoint() may fail to place them inside left and right margins.
+		"ë", "𝄞", "å", // Combining, surrogate pair and non-ASCII chars.
+	};
+
+	private static TerminalEmulator createEmulator(int columns, int rows) {
+		return new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), columns, rows, 10, 20, 100, null);
+	}
+
+	private static String randomInput(Random random, int parts) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < parts; i++) {
+			if (random.nextInt(3) == 0) {
+				sb.append(SEQUENCES[random.nextInt(SEQUENCES.length)]);
+			} else {
+				int length = random.nextInt(random.nextBoolean() ? 10 : 200);
+				for (int j = 0; j < length; j++)
+					sb.append((char) (32 + random.nextInt(127 - 32)));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void assertSameState(TerminalEmulator expected, TerminalEmulator actual, String input) {
+		String message = "input=" + input;
+		assertEquals(message, expected.getCursorRow(), actual.getCursorRow());
+		assertEquals(message, expected.getCursorCol(), actual.getCursorCol());
+		TerminalBuffer expectedScreen = expected.getScreen();
+		TerminalBuffer actualScreen = actual.getScreen();
+		assertEquals(message, expectedScreen.getActiveTranscriptRows(), actualScreen.getActiveTranscriptRows());
+		for (int row = -expectedScreen.getActiveTranscriptRows(); row < expected.mRows; row++) {
+			TerminalRow expectedRow = expectedScreen.allocateFullLineIfNecessary(expectedScreen.externalToInternalRow(row));
+			TerminalRow actualRow = actualScreen.allocateFullLineIfNecessary(actualScreen.externalToInternalRow(row));
+			String rowMessage = message + ", row=" + row;
+			assertEquals(rowMessage, new String(expectedRow.mText, 0, expectedRow.getSpaceUsed()), new String(actualRow.mText, 0, actualRow.getSpaceUsed()));
+			assertEquals(rowMessage, expectedScreen.getLineWrap(row), actualScreen.getLineWrap(row));
+			for (int column = 0; column < expected.mColumns; column++)
+				assertEquals(rowMessage + ", column=" + column, expectedRow.getStyle(column), actualRow.getStyle(column));
+		}
+	}
+
+	private static void assertAppendMatchesCodePoints(String input, int columns, int rows, int chunkSize) {
+		TerminalEmulator expected = createEmulator(columns, rows);
+		TerminalEmulator actual = createEmulator(columns, rows);
+
+		for (int i = 0; i < input.length(); ) {
+			int codePoint = input.codePointAt(i);
+			expected.processCodePoint(codePoint);
+			i += Character.charCount(codePoint);
+		}
+
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		byte[] chunk = new byte[chunkSize];
+		for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+			int length = Math.min(chunkSize, bytes.length - offset);
+			System.arraycopy(bytes, offset, chunk, 0, length);
+			actual.append(chunk, length);
+		}
+
+		assertSameState(expected, actual, input);
+	}
+
+	public void testPlainText() {
+		assertAppendMatchesCodePoints("hello world", 5, 3, 4096);
+		assertAppendMatchesCodePoints("abcdefghijklmnopqrstuvwxyz0123456789", 5, 3, 4096);
+		assertAppendMatchesCodePoints("abcde\r\nfghij", 5, 3, 4096);
+	}
+
+	public void testWithoutAutoWrap() {
+		assertAppendMatchesCodePoints("\033[?7labcdefghij", 5, 3, 4096);
+		assertAppendMatchesCodePoints("\033[?7labcdefghij\033[?7hklm", 5, 3, 4096);
+	}
+
+	public void testSplitAcrossChunks() {
+		assertAppendMatchesCodePoints("abcdefghij\033[31mklmnop\033[0mqrstuvwxyz", 4, 3, 3);
+		assertAppendMatchesCodePoints("ab中文cdefghijkl", 4, 3, 1);
+	}
+
+	public void testRandomInput() {
+		Random random = new Random(1234);
+		for (int i = 0; i < 300; i++) {
+			int columns = 5 + random.nextInt(80);
+			int rows = 5 + random.nextInt(30);
+			String input = randomInput(random, 1 + random.nextInt(100));
+			assertAppendMatchesCodePoints(input, columns, rows, 1 + random.nextInt(4096));
+		}
+	}
+
+}
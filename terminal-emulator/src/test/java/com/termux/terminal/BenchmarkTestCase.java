@@ -0,0 +1,106 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Base class for throughput benchmarks.
+ * <p>
+ * By default each benchmark only runs a single iteration of its workload, so that it is exercised as an ordinary unit
+ * test. Run with {@code ./gradlew :terminal-emulator:testDebugUnitTest -Ptermux.benchmark=true} to warm up, measure
+ * and print the results.
+ * <p>
+ * Where the JVM supports it, throughput results also report the bytes allocated by the benchmark thread per MB of
+ * input, so that changes which remove allocations from hot paths can be measured as well.
+ */
+public abstract class BenchmarkTestCase extends TestCase {
+
+	/** If benchmarks should do full measurements, set by the "termux.benchmark" system property. */
+	public static final boolean BENCHMARK_ENABLED = Boolean.getBoolean("termux.benchmark");
+
+	private static final int WARMUP_RUNS = 10;
+
+	/** The bytes allocated by the measured runs of the last measurement, or -1 if not supported by the JVM. */
+	private long mAllocatedBytes = -1;
+
+	/** Create an emulator with the default transcript size and a mock output. */
+	static TerminalEmulator createEmulator(int columns, int rows) {
+		return new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), columns, rows, 10, 20, null, null);
+	}
+
+	/**
+	 * Run {@code workload} {@code runs} times after warming up and report the throughput, and the allocations per MB.
+	 *
+	 * @param bytesPerRun The number of bytes processed by one invocation of the workload.
+	 * @return The throughput in MB/s, or 0 if benchmarks are not enabled.
+	 */
+	protected double measureThroughput(String name, long bytesPerRun, int runs, Runnable workload) {
+		double seconds = measureSeconds(runs, workload);
+		if (seconds == 0) return 0;
+		double megabytes = (double) bytesPerRun * runs / (1024 * 1024);
+		double megabytesPerSecond = megabytes / seconds;
+		if (mAllocatedBytes < 0) {
+			report(name, String.format(Locale.ROOT, "%.1f MB/s", megabytesPerSecond));
+		} else {
+			report(name, String.format(Locale.ROOT, "%.1f MB/s, %.0f bytes allocated/MB", megabytesPerSecond,
+				mAllocatedBytes / megabytes));
+		}
+		return megabytesPerSecond;
+	}
+
+	/**
+	 * Run {@code workload} {@code runs} times after warming up and report the number of operations per second.
+	 *
+	 * @param operationsPerRun The number of operations, like lookups or resizes, done by one invocation of the workload.
+	 * @return The number of operations per second, or 0 if benchmarks are not enabled.
+	 */
+	protected double measureOperations(String name, long operationsPerRun, int runs, Runnable workload) {
+		double seconds = measureSeconds(runs, workload);
+		if (seconds == 0) return 0;
+		double operationsPerSecond = (double) operationsPerRun * runs / seconds;
+		report(name, String.format(Locale.ROOT, "%.3f M ops/s (%.1f ns/op)", operationsPerSecond / 1e6, 1e9 / operationsPerSecond));
+		return operationsPerSecond;
+	}
+
+	/**
+	 * The time in seconds for {@code runs} invocations of the workload after warming up, or 0 if benchmarks are not
+	 * enabled. Also sets {@link #mAllocatedBytes}.
+	 */
+	private double measureSeconds(int runs, Runnable workload) {
+		if (!BENCHMARK_ENABLED) {
+			workload.run();
+			return 0;
+		}
+
+		for (int i = 0; i < WARMUP_RUNS; i++)
+			workload.run();
+
+		long startAllocated = getAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < runs; i++)
+			workload.run();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long endAllocated = getAllocatedBytes();
+		mAllocatedBytes = (startAllocated < 0 || endAllocated < 0) ? -1 : endAllocated - startAllocated;
+		return seconds;
+	}
+
+	/** The bytes allocated so far by the current thread, or -1 if not supported by the JVM. */
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+		if (!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled()) return -1;
+		return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/** Print a benchmark result line, if benchmarks are enabled. */
+	protected void report(String name, String result) {
+		if (BENCHMARK_ENABLED)
+			System.out.println(getClass().getSimpleName() + "." + name + ": " + result);
+	}
+
+}
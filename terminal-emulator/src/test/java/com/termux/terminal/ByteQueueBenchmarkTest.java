@@ -0,0 +1,134 @@
+package com.termux.terminal;
+
+/**
+ * Throughput of streaming bytes from one thread to another through {@link ByteQueue} and {@link SpscByteQueue}, the
+ * same way {@link TerminalSession} moves process output to the emulation thread, and the latency of handing a single
+ * byte over, like a key press echoed back by the process. See {@link BenchmarkTestCase}.
+ */
+public class ByteQueueBenchmarkTest extends BenchmarkTestCase {
+
+	private static final int QUEUE_CAPACITY = 4096;
+	private static final int TOTAL_BYTES = 16 * 1024 * 1024;
+	private static final int RUNS = 10;
+	private static final int ROUND_TRIPS = 20_000;
+
+	interface Queue {
+		boolean write(byte[] buffer, int offset, int length);
+
+		int read(byte[] buffer, boolean block);
+	}
+
+	static long stream(final Queue queue, final int totalBytes, final int writeSize, int readSize) throws InterruptedException {
+		Thread producer = new Thread(() -> {
+			byte[] chunk = new byte[writeSize];
+			for (int written = 0; written < totalBytes; written += writeSize)
+				queue.write(chunk, 0, Math.min(writeSize, totalBytes - written));
+		});
+		producer.start();
+
+		byte[] readBuffer = new byte[readSize];
+		long read = 0;
+		while (read < totalBytes)
+			read += queue.read(readBuffer, true);
+		producer.join();
+		return read;
+	}
+
+	private void measure(String name, final QueueFactory factory, final int writeSize, final int readSize) {
+		measureThroughput(name, TOTAL_BYTES, RUNS, () -> {
+			try {
+				assertEquals(TOTAL_BYTES, stream(factory.create(), TOTAL_BYTES, writeSize, readSize));
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
+	/**
+	 * Send a byte to another thread and wait for it to be sent back through a second queue, {@code roundTrips} times.
+	 * Each round trip is two handoffs to a thread which is waiting for the byte.
+	 */
+	static void pingPong(final Queue ping, final Queue pong, final int roundTrips) throws InterruptedException {
+		Thread echo = new Thread(() -> {
+			byte[] buffer = new byte[1];
+			for (int i = 0; i < roundTrips; i++) {
+				if (ping.read(buffer, true) != 1) return;
+				pong.write(buffer, 0, 1);
+			}
+		});
+		echo.start();
+
+		byte[] buffer = new byte[1];
+		for (int i = 0; i < roundTrips; i++) {
+			buffer[0] = (byte) i;
+			ping.write(buffer, 0, 1);
+			assertEquals(1, pong.read(buffer, true));
+			assertEquals((byte) i, buffer[0]);
+		}
+		echo.join();
+	}
+
+	private void measureLatency(String name, final QueueFactory factory) {
+		// Reported per round trip, that is two handoffs:
+		measureOperations(name, ROUND_TRIPS, RUNS, () -> {
+			try {
+				pingPong(factory.create(), factory.create(), ROUND_TRIPS);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
+	interface QueueFactory {
+		Queue create();
+	}
+
+	static Queue byteQueue() {
+		final ByteQueue queue = new ByteQueue(QUEUE_CAPACITY);
+		return new Queue() {
+			@Override
+			public boolean write(byte[] buffer, int offset, int length) {
+				return queue.write(buffer, offset, length);
+			}
+
+			@Override
+			public int read(byte[] buffer, boolean block) {
+				return queue.read(buffer, block);
+			}
+		};
+	}
+
+	static Queue spscByteQueue() {
+		final SpscByteQueue queue = new SpscByteQueue(QUEUE_CAPACITY);
+		return new Queue() {
+			@Override
+			public boolean write(byte[] buffer, int offset, int length) {
+				return queue.write(buffer, offset, length);
+			}
+
+			@Override
+			public int read(byte[] buffer, boolean block) {
+				return queue.read(buffer, block);
+			}
+		};
+	}
+
+	/** Large writes and reads, like the session reader thread and main thread handler. */
+	public void testLargeChunks() {
+		measure("byteQueueLargeChunks", ByteQueueBenchmarkTest::byteQueue, 4096, 4096);
+		measure("spscByteQueueLargeChunks", ByteQueueBenchmarkTest::spscByteQueue, 4096, 4096);
+	}
+
+	/** Small writes, like key presses and terminal responses written to the process. */
+	public void testSmallChunks() {
+		measure("byteQueueSmallChunks", ByteQueueBenchmarkTest::byteQueue, 16, 4096);
+		measure("spscByteQueueSmallChunks", ByteQueueBenchmarkTest::spscByteQueue, 16, 4096);
+	}
+
+	/** Single bytes to a waiting thread and back, like a key press written to the process and its echo. */
+	public void testHandoffLatency() {
+		measureLatency("byteQueueRoundTrip", ByteQueueBenchmarkTest::byteQueue);
+		measureLatency("spscByteQueueRoundTrip", ByteQueueBenchmarkTest::spscByteQueue);
+	}
+
+}
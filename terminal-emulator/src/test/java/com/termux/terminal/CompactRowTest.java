@@ -0,0 +1,207 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+public class CompactRowTest extends BenchmarkTestCase {
+
+	private static final int[] CODE_POINTS = {'a', 'b', ' ', 'ö', 0x679C, 0x2070E, 0x1D11E, 0x0308};
+
+	private static TerminalRow randomRow(Random random, int columns) {
+		TerminalRow row = new TerminalRow(columns, TextStyle.NORMAL);
+		int writes = random.nextInt(columns * 2);
+		for (int i = 0; i < writes; i++) {
+			int codePoint = CODE_POINTS[random.nextInt(CODE_POINTS.length)];
+			int maxColumn = WcWidth.width(codePoint) == 2 ? columns - 1 : columns;
+			long style = random.nextInt(3) == 0 ? TextStyle.encode(random.nextInt(8), 257, 0) : TextStyle.NORMAL;
+			row.setChar(random.nextInt(maxColumn), codePoint, style);
+		}
+		row.mLineWrap = random.nextBoolean();
+		return row;
+	}
+
+	private static void assertRowsEqual(TerminalRow expected, TerminalRow actual, int columns) {
+		assertEquals(new String(expected.mText, 0, expected.getSpaceUsed()), new String(actual.mText, 0, actual.getSpaceUsed()));
+		assertEquals(expected.mLineWrap, actual.mLineWrap);
+		for (int column = 0; column < columns; column++) {
+			assertEquals("column=" + column, expected.getStyle(column), actual.getStyle(column));
+			assertEquals("column=" + column, expected.findStartOfColumn(column), actual.findStartOfColumn(column));
+		}
+	}
+
+	public void testRoundTrip() {
+		Random random = new Random(6);
+		TerminalRow inflated = new TerminalRow(40, TextStyle.NORMAL);
+		for (int i = 0; i < 2000; i++) {
+			TerminalRow row = randomRow(random, 40);
+			CompactRow compactRow = row.toCompactRow();
+			assertEquals(row.isBlank(), compactRow.isBlank());
+			inflated.copyFrom(compactRow);
+			assertRowsEqual(row, inflated, 40);
+		}
+	}
+
+	public void testBlankRowsShareArrays() {
+		CompactRow first = new TerminalRow(80, TextStyle.NORMAL).toCompactRow();
+		CompactRow second = new TerminalRow(80, TextStyle.NORMAL).toCompactRow();
+		assertTrue(first.isBlank());
+		assertSame(first.mText, second.mText);
+		assertSame(first.mRunStyles, second.mRunStyles);
+		assertSame(first.mRunEnds, second.mRunEnds);
+	}
+
+	private static TerminalEmulator emulatorWithHistory(int columns, int rows, int transcriptRows, byte[] output) {
+		TerminalEmulator emulator = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), columns, rows, 10, 20, transcriptRows, null);
+		emulator.append(output, output.length);
+		return emulator;
+	}
+
+	private static byte[] numberedLines(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append("\033[3").append(i % 8).append("mline ").append(i).append("\033[0m");
+			if (i % 3 == 0) sb.append(" 中文");
+			if (i % 5 == 0) sb.append(" with a long tail that wraps around the screen");
+			sb.append("\r\n");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	public void testTranscriptRowsAreCompacted() {
+		TerminalEmulator emulator = emulatorWithHistory(20, 5, 200, numberedLines(100));
+		TerminalBuffer screen = emulator.getScreen();
+		assertTrue(screen.getActiveTranscriptRows() > 100);
+		for (int row = -screen.getActiveTranscriptRows(); row < 0; row++) {
+			int internalRow = screen.externalToInternalRow(row);
+			assertNull(screen.mLines[internalRow]);
+			assertNotNull(screen.mCompactLines[internalRow]);
+		}
+		for (int row = 0; row < emulator.mRows; row++) {
+			int internalRow = screen.externalToInternalRow(row);
+			assertNotNull(screen.mLines[internalRow]);
+			assertNull(screen.mCompactLines[internalRow]);
+		}
+	}
+
+	public void testTranscriptContent() {
+		TerminalEmulator emulator = emulatorWithHistory(20, 5, 500, numberedLines(100));
+		TerminalBuffer screen = emulator.getScreen();
+		String transcript = screen.getTranscriptText();
+		for (int i = 0; i < 100; i++)
+			assertTrue("line " + i, transcript.contains("line " + i + (i % 3 == 0 ? " 中文" : "")));
+
+		// Find the row with "line 42" and check its colour, which inflates the row.
+		for (int row = -screen.getActiveTranscriptRows(); row < 0; row++) {
+			if (screen.getSelectedText(0, row, 6, row).equals("line 42")) {
+				assertEquals(2, TextStyle.decodeForeColor(screen.getStyleAt(row, 0)));
+				assertEquals(TextStyle.COLOR_INDEX_FOREGROUND, TextStyle.decodeForeColor(screen.getStyleAt(row, 19)));
+				assertNotNull(screen.mLines[screen.externalToInternalRow(row)]);
+				assertEquals(transcript, screen.getTranscriptText());
+				return;
+			}
+		}
+		fail("Did not find line 42");
+	}
+
+	public void testInflatedRowsAreBounded() {
+		TerminalEmulator emulator = emulatorWithHistory(20, 5, 2000, numberedLines(1000));
+		TerminalBuffer screen = emulator.getScreen();
+		String transcript = screen.getTranscriptText();
+		// Render all of the history:
+		for (int row = -screen.getActiveTranscriptRows(); row < emulator.mRows; row++)
+			screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+		int fullRows = 0;
+		for (TerminalRow line : screen.mLines)
+			if (line != null) fullRows++;
+		assertTrue("fullRows=" + fullRows, fullRows <= 256 + emulator.mRows);
+		assertEquals(transcript, screen.getTranscriptText());
+	}
+
+	public void testResizeWithCompactRows() {
+		byte[] output = numberedLines(300);
+		TerminalEmulator emulator = emulatorWithHistory(30, 10, 1000, output);
+		String transcript = emulator.getScreen().getTranscriptTextWithFullLinesJoined();
+
+		emulator.resize(25, 10, 10, 20);
+		emulator.resize(30, 10, 10, 20);
+		assertEquals(transcript, emulator.getScreen().getTranscriptTextWithFullLinesJoined());
+
+		// Rows revealed from the transcript when growing are full rows while on the screen:
+		emulator.resize(30, 5, 10, 20);
+		emulator.resize(30, 20, 10, 20);
+		TerminalBuffer screen = emulator.getScreen();
+		for (int row = 0; row < emulator.mRows; row++)
+			assertNotNull(screen.mLines[screen.externalToInternalRow(row)]);
+		assertEquals(transcript, screen.getTranscriptTextWithFullLinesJoined());
+	}
+
+	public void testClearTranscript() {
+		TerminalEmulator emulator = emulatorWithHistory(20, 5, 200, numberedLines(100));
+		TerminalBuffer screen = emulator.getScreen();
+		screen.clearTranscript();
+		assertEquals(0, screen.getActiveTranscriptRows());
+		for (CompactRow line : screen.mCompactLines)
+			assertNull(line);
+	}
+
+	/** Approximate heap size of an array on a 64-bit VM with compressed references. */
+	static long arrayBytes(int length, int elementSize) {
+		return align(16 + (long) length * elementSize);
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7;
+	}
+
+	private static long rowBytes(TerminalRow row) {
+		long styleBytes = (row.mStyle != null) ? arrayBytes(row.mStyle.length, 8)
+			: arrayBytes(row.mStyleIndices.length, 1) + arrayBytes(row.mStylePalette.length, 8);
+		return align(12 + 4 + 4 + 2 + 1 + 1 + 4 + 1 + 4 + 4 + 4 + 4 + 4) + arrayBytes(row.mText.length, 2) + styleBytes;
+	}
+
+	private static long compactRowBytes(CompactRow row, long[] sharedRunStyles) {
+		return align(12 + 4 + 4 + 4 + 4 + 1 + 1) + (row.mText.length == 0 ? 0 : arrayBytes(row.mText.length, 2))
+			+ (row.mRunStyles == sharedRunStyles ? 0 : arrayBytes(row.mRunStyles.length, 8))
+			+ (row.mRunEnds.length == 0 ? 0 : arrayBytes(row.mRunEnds.length, 2));
+	}
+
+	/** A full history of typical output, like build logs with some colours. */
+	private static byte[] typicalOutput(int lines) {
+		Random random = new Random(7);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			if (random.nextInt(4) == 0) sb.append("\033[1;3").append(1 + random.nextInt(6)).append("m");
+			int length = random.nextInt(120);
+			for (int j = 0; j < length; j++) sb.append((char) ('a' + random.nextInt(26)));
+			sb.append("\033[0m\r\n");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	public void testHeapFootprint() {
+		final int columns = 200;
+		final int transcriptRows = BENCHMARK_ENABLED ? TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MAX : 2000;
+		TerminalEmulator emulator = emulatorWithHistory(columns, 50, transcriptRows, typicalOutput(transcriptRows));
+		TerminalBuffer screen = emulator.getScreen();
+
+		long[] sharedRunStyles = new TerminalRow(columns, TextStyle.NORMAL).toCompactRow().mRunStyles;
+		long fullBytes = 0;
+		long compactBytes = 0;
+		TerminalRow inflated = new TerminalRow(columns, TextStyle.NORMAL);
+		int rows = screen.getActiveTranscriptRows();
+		for (int row = -rows; row < 0; row++) {
+			CompactRow compactRow = screen.mCompactLines[screen.externalToInternalRow(row)];
+			compactBytes += compactRowBytes(compactRow, sharedRunStyles);
+			inflated.copyFrom(compactRow);
+			fullBytes += rowBytes(inflated);
+		}
+
+		report("fullBytesPerTranscriptLine", String.valueOf(fullBytes / rows));
+		report("compactBytesPerTranscriptLine", String.valueOf(compactBytes / rows));
+		report("transcriptMegabytes", String.format(Locale.ROOT, "%.1f MB before, %.1f MB after",
+			fullBytes / (1024. * 1024), compactBytes / (1024. * 1024)));
+		assertTrue("full=" + fullBytes + ", compact=" + compactBytes, compactBytes * 5 < fullBytes);
+	}
+
+}
@@ -0,0 +1,194 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Throughput of {@link TerminalEmulator} for canned workloads covering its main code paths: plain log lines, truecolor
+ * SGR output, cursor-addressed full screen redraws, CJK and emoji text, scrolling within margins, clearing the screen
+ * and resizing with a full history. Reports MB/s and bytes allocated per MB, so that changes to the emulator can be compared against a
+ * baseline. See {@link BenchmarkTestCase}.
+ */
+public class EmulatorBenchmarkTest extends BenchmarkTestCase {
+
+	private static final int INPUT_SIZE = 1024 * 1024;
+	private static final int RUNS = 20;
+	private static final int COLUMNS = 80, ROWS = 24;
+
+	/** Timestamped log lines, like the output of logcat or a build. */
+	static byte[] logLinesInput(int size) {
+		Random random = new Random(3);
+		StringBuilder sb = new StringBuilder(size + 200);
+		String[] tags = {"ActivityManager", "PackageManager", "zygote64", "WindowManager", "gradle"};
+		for (int line = 0; sb.length() < size; line++) {
+			sb.append(String.format(Locale.ROOT, "01-01 12:%02d:%02d.%03d  %5d  %5d I %s: ", line / 60 % 60, line % 60, line % 1000,
+				1000 + random.nextInt(9000), 1000 + random.nextInt(9000), tags[random.nextInt(tags.length)]));
+			int words = 3 + random.nextInt(12);
+			for (int i = 0; i < words; i++) {
+				int wordLength = 1 + random.nextInt(9);
+				for (int j = 0; j < wordLength; j++) sb.append((char) ('a' + random.nextInt(26)));
+				sb.append(' ');
+			}
+			sb.append("\r\n");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** Text where every few chars have a 24-bit foreground and background color, like lolcat or a true color theme. */
+	static byte[] truecolorInput(int size) {
+		Random random = new Random(4);
+		StringBuilder sb = new StringBuilder(size + 200);
+		int column = 0;
+		while (sb.length() < size) {
+			sb.append("\033[38;2;").append(random.nextInt(256)).append(';').append(random.nextInt(256)).append(';')
+				.append(random.nextInt(256)).append(";48;2;").append(random.nextInt(256)).append(';')
+				.append(random.nextInt(256)).append(';').append(random.nextInt(256)).append('m');
+			int runLength = 1 + random.nextInt(4);
+			for (int i = 0; i < runLength; i++) sb.append((char) ('!' + random.nextInt(94)));
+			column += runLength;
+			if (column >= COLUMNS - 4) {
+				sb.append("\033[0m\r\n");
+				column = 0;
+			}
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** Frames which redraw every row with cursor addressing and erases, like vim or htop. */
+	static byte[] fullRedrawInput(int size) {
+		Random random = new Random(5);
+		StringBuilder sb = new StringBuilder(size + 4096);
+		for (int frame = 0; sb.length() < size; frame++) {
+			sb.append("\033[?25l\033[H");
+			for (int row = 1; row <= ROWS; row++) {
+				sb.append("\033[").append(row).append(";1H");
+				if (row == 1) {
+					sb.append("\033[7m  PID USER      PRI  NI  VIRT   RES   CPU%  COMMAND").append("\033[K\033[0m");
+					continue;
+				}
+				sb.append("\033[1;3").append(row % 8).append('m').append(String.format(Locale.ROOT, "%5d", 100 + row)).append("\033[0m ")
+					.append(random.nextBoolean() ? "root    " : "u0_a123 ").append(" 20   0 ")
+					.append(String.format(Locale.ROOT, "%5dM %5dM %5.1f ", random.nextInt(4000), random.nextInt(500), random.nextDouble() * 100))
+					.append("\033[32m/system/bin/process_").append(frame % 10).append(row).append("\033[0m\033[K");
+			}
+			sb.append("\033[").append(ROWS).append(";1H\033[?25h");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** Lines of CJK text mixed with ASCII and emoji outside the BMP. */
+	static byte[] cjkEmojiInput(int size) {
+		Random random = new Random(6);
+		int[] emoji = {0x1F600, 0x1F44D, 0x1F680, 0x1F389, 0x2764, 0x1F431};
+		StringBuilder sb = new StringBuilder(size + 200);
+		int width = 0;
+		while (sb.length() < size) {
+			int kind = random.nextInt(10);
+			if (kind < 6) {
+				sb.append((char) (0x4E00 + random.nextInt(0x5000)));
+				width += 2;
+			} else if (kind < 8) {
+				sb.append((char) ('a' + random.nextInt(26)));
+				width++;
+			} else {
+				sb.appendCodePoint(emoji[random.nextInt(emoji.length)]);
+				width += 2;
+			}
+			if (width >= COLUMNS - 2 || random.nextInt(40) == 0) {
+				sb.append("\r\n");
+				width = 0;
+			}
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** Lines scrolling a region between a fixed header and status line, which is updated in between, like less or a REPL. */
+	static byte[] scrollMarginsInput(int size) {
+		Random random = new Random(7);
+		StringBuilder sb = new StringBuilder(size + 200);
+		sb.append("\033[2;").append(ROWS - 1).append("r\033[").append(ROWS - 1).append(";1H");
+		for (int line = 0; sb.length() < size; line++) {
+			int wordCount = 2 + random.nextInt(10);
+			for (int i = 0; i < wordCount; i++) {
+				int wordLength = 1 + random.nextInt(8);
+				for (int j = 0; j < wordLength; j++) sb.append((char) ('a' + random.nextInt(26)));
+				sb.append(' ');
+			}
+			sb.append("\r\n");
+			if (line % 8 == 0) sb.append("\0337\033[").append(ROWS).append(";1H\033[7mline ").append(line).append("\033[0m\033[K\0338");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Frames which clear a large screen and write a few lines, with erases in and below the lines and an occasional
+	 * full reset, like a watch command or scripts running clear and tput reset.
+	 */
+	static byte[] clearScreenInput(int size) {
+		Random random = new Random(8);
+		StringBuilder sb = new StringBuilder(size + 4096);
+		for (int frame = 0; sb.length() < size; frame++) {
+			sb.append(frame % 50 == 0 ? "\033c" : "\033[H\033[2J\033[3J");
+			sb.append("Every 2.0s: ").append(frame).append("\r\n\r\n");
+			int lines = 2 + random.nextInt(8);
+			for (int line = 0; line < lines; line++) {
+				sb.append("\033[3").append(line % 8).append("mline ").append(line).append("\033[0m\033[K\r\n");
+				if (line % 3 == 0) sb.append("\033[10G\033[20X\033[1K");
+			}
+			sb.append("\033[J");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void measureAppend(String name, byte[] input) {
+		measureAppend(name, input, COLUMNS, ROWS);
+	}
+
+	private void measureAppend(String name, byte[] input, int columns, int rows) {
+		final TerminalEmulator emulator = createEmulator(columns, rows);
+		measureThroughput(name, input.length, RUNS, () -> AppendBenchmarkTest.appendInChunks(emulator, input));
+		assertEquals(columns, emulator.mColumns);
+	}
+
+	public void testLogLines() {
+		measureAppend("logLines", logLinesInput(INPUT_SIZE));
+	}
+
+	public void testTruecolor() {
+		measureAppend("truecolor", truecolorInput(INPUT_SIZE));
+	}
+
+	public void testFullRedraw() {
+		measureAppend("fullRedraw", fullRedrawInput(INPUT_SIZE));
+	}
+
+	public void testCjkEmoji() {
+		measureAppend("cjkEmoji", cjkEmojiInput(INPUT_SIZE));
+	}
+
+	public void testScrollMargins() {
+		measureAppend("scrollMargins", scrollMarginsInput(INPUT_SIZE));
+	}
+
+	/** Clearing a 200x60 screen, where erasing is most of the work. */
+	public void testClearScreen() {
+		measureAppend("clearScreen", clearScreenInput(INPUT_SIZE / 4), 200, 60);
+	}
+
+	/** Resizing back and forth with a full history, measured in MB of history text reflowed. */
+	public void testResizeWithHistory() {
+		final TerminalEmulator emulator = createEmulator(COLUMNS, ROWS);
+		byte[] input = logLinesInput(INPUT_SIZE);
+		emulator.append(input, input.length);
+		final TerminalBuffer screen = emulator.getScreen();
+		assertEquals(screen.getActiveTranscriptRows(), TerminalEmulator.DEFAULT_TERMINAL_TRANSCRIPT_ROWS - ROWS);
+		long historyBytes = screen.getTranscriptText().getBytes(StandardCharsets.UTF_8).length;
+		measureThroughput("resizeWithHistory", 2 * historyBytes, RUNS, () -> {
+			emulator.resize(COLUMNS + 20, ROWS, 10, 20);
+			emulator.resize(COLUMNS, ROWS, 10, 20);
+		});
+		assertEquals(COLUMNS, emulator.mColumns);
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class PasteEncoderTest extends TestCase {
+
+	/** The sanitizing done by {@link TerminalEmulator#paste(String)} before it used a {@link PasteEncoder}. */
+	private static byte[] expected(String text, boolean bracketed) {
+		text = text.replaceAll("(\u001B|[\u0080-\u009F])", "");
+		text = text.replaceAll("\r?\n", "\r");
+		if (bracketed) text = "\033[200~" + text + "\033[201~";
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] encode(String text, boolean bracketed, int chunkBytes) {
+		PasteEncoder encoder = new PasteEncoder(text, bracketed);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] chunk = new byte[chunkBytes];
+		int count;
+		while ((count = encoder.encode(chunk, 0, chunk.length)) != -1) {
+			assertTrue(count > 0);
+			output.write(chunk, 0, count);
+		}
+		return output.toByteArray();
+	}
+
+	private static void assertEncodes(String text) {
+		for (boolean bracketed : new boolean[]{false, true}) {
+			byte[] expected = expected(text, bracketed);
+			for (int chunkBytes : new int[]{PasteEncoder.MIN_CHUNK_BYTES, 7, 13, 1024})
+				assertEquals(new String(expected, StandardCharsets.ISO_8859_1),
+					new String(encode(text, bracketed, chunkBytes), StandardCharsets.ISO_8859_1));
+		}
+	}
+
+	public void testSanitizes() {
+		assertEncodes("");
+		assertEncodes("hi");
+		assertEncodes("a\nb\r\nc\rd\n\n\r\r\n");
+		assertEncodes("\033[31mred\u0085\u009b1m");
+		assertEncodes("a\r\033\nb\r\u0080\u009f\nc\r\033x\n");
+		assertEncodes("\r");
+		assertEncodes("\r\033");
+	}
+
+	public void testEncodesUtf8() {
+		assertEncodes("é€中😀x ߿ࠀ￿");
+		// Unpaired surrogates:
+		assertEncodes("a\uD83Db\uDE00c\uD83D");
+		// A surrogate pair separated by removed chars:
+		assertEncodes("\uD83D\033\u0085\uDE00");
+	}
+
+	public void testRandomText() {
+		Random random = new Random(1234);
+		char[] alphabet = {'a', ' ', '\r', '\n', 27, 0x85, 0x9F, 0xA0, 'é', '中', 0xD83D, 0xDE00, 0xFFFD};
+		for (int i = 0; i < 200; i++) {
+			StringBuilder builder = new StringBuilder();
+			int length = random.nextInt(100);
+			for (int j = 0; j < length; j++)
+				builder.append(alphabet[random.nextInt(alphabet.length)]);
+			assertEncodes(builder.toString());
+		}
+	}
+
+	public void testChunksEndBetweenCodePoints() {
+		String text = "a中😀é";
+		PasteEncoder encoder = new PasteEncoder(text, false);
+		byte[] chunk = new byte[PasteEncoder.MIN_CHUNK_BYTES];
+		int count;
+		while ((count = encoder.encode(chunk, 0, chunk.length)) != -1) {
+			String decoded = new String(chunk, 0, count, StandardCharsets.UTF_8);
+			assertEquals(-1, decoded.indexOf('�'));
+		}
+	}
+
+	public void testCancel() {
+		PasteEncoder encoder = new PasteEncoder("abcdefghij", true);
+		byte[] chunk = new byte[12];
+		assertEquals(9, encoder.encode(chunk, 0, chunk.length));
+		assertEquals("\033[200~abc", new String(chunk, 0, 9, StandardCharsets.US_ASCII));
+		assertEquals(3, encoder.getEncodedChars());
+		encoder.cancel();
+		// The paste is still ended:
+		assertEquals(6, encoder.encode(chunk, 0, chunk.length));
+		assertEquals("\033[201~", new String(chunk, 0, 6, StandardCharsets.US_ASCII));
+		assertEquals(-1, encoder.encode(chunk, 0, chunk.length));
+		assertEquals(3, encoder.getEncodedChars());
+
+		// Nothing is written if cancelled before starting:
+		encoder = new PasteEncoder("abc", true);
+		encoder.cancel();
+		assertEquals(-1, encoder.encode(chunk, 0, chunk.length));
+	}
+
+	public void testTooSmallChunk() {
+		try {
+			new PasteEncoder("a", false).encode(new byte[5], 0, 5);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+}
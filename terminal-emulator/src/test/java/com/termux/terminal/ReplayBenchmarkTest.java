@@ -0,0 +1,67 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Throughput of replaying asciicast recordings into an emulator with {@link SessionReplayer}. See
+ * {@link BenchmarkTestCase}.
+ * <p>
+ * Besides a recording of generated output, real captured workloads can be replayed by passing the path of a recording,
+ * made with {@link TerminalSession#startRecording(File)} or asciinema, in the "termux.replay" system property with
+ * {@code -Ptermux.replay=/path/to/recording.cast}.
+ */
+public class ReplayBenchmarkTest extends BenchmarkTestCase {
+
+	private static final int RUNS = 20;
+
+	/** A recording of ls style output, a full screen redraw like by an editor, and resizes in between. */
+	private static SessionReplayer generatedRecording() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SessionRecorder recorder = new SessionRecorder(out, 80, 24, null);
+		record(recorder, AppendBenchmarkTest.sgrColoredInput(256 * 1024));
+		recorder.recordResize(120, 40);
+		StringBuilder redraw = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			redraw.append("\033[H\033[2J");
+			for (int row = 1; row <= 40; row++) {
+				redraw.append("\033[").append(row).append(";1H\033[3").append(row % 8).append('m').append(row + i)
+					.append("\033[0m  int value = compute(").append(i).append(", ").append(row).append(");\033[K");
+			}
+		}
+		record(recorder, redraw.toString().getBytes(StandardCharsets.UTF_8));
+		recorder.recordResize(80, 24);
+		record(recorder, AppendBenchmarkTest.plainAsciiInput(256 * 1024));
+		recorder.close();
+		return new SessionReplayer(new InputStreamReader(new ByteArrayInputStream(out.toByteArray()), StandardCharsets.UTF_8));
+	}
+
+	/** Record in the chunks that {@link TerminalSession} reads from the process. */
+	private static void record(SessionRecorder recorder, byte[] output) {
+		for (int offset = 0; offset < output.length; offset += 4096)
+			recorder.recordOutput(output, offset, Math.min(4096, output.length - offset));
+	}
+
+	private void measure(String name, final SessionReplayer replayer) {
+		final TerminalEmulator emulator = replayer.createEmulator(new TerminalTestCase.MockTerminalOutput(), null);
+		measureThroughput(name, replayer.getOutputBytes(), RUNS, () -> replayer.replay(emulator));
+		assertEquals(replayer.getColumns(), emulator.mColumns);
+	}
+
+	public void testGenerated() throws IOException {
+		SessionReplayer replayer = generatedRecording();
+		assertTrue(replayer.getOutputBytes() > 512 * 1024);
+		measure("generated", replayer);
+	}
+
+	public void testRecordingFromProperty() throws IOException {
+		String path = System.getProperty("termux.replay", "");
+		if (path.isEmpty()) return;
+		measure(new File(path).getName(), SessionReplayer.read(new File(path)));
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+
+/** Latency of resizing to a new number of columns depending on the size of the transcript. See {@link BenchmarkTestCase}. */
+public class ResizeBenchmarkTest extends BenchmarkTestCase {
+
+	private static final int ROWS = 40;
+	private static final int RUNS = 20;
+
+	/** Create an emulator with a full transcript of lines of varying lengths, some of them wrapped and colored. */
+	private static TerminalEmulator emulatorWithTranscript(int transcriptRows, boolean lazyReflow) {
+		TerminalEmulator emulator = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), 100, ROWS, 10, 20,
+			transcriptRows, null);
+		emulator.setLazyTranscriptReflow(lazyReflow);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < transcriptRows + ROWS; i++) {
+			sb.append("\033[3").append(i % 8).append('m').append(i).append(' ');
+			for (int j = 0; j < i % 150; j++) sb.append((char) ('a' + j % 26));
+			sb.append("\033[0m\r\n");
+		}
+		byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+		emulator.append(bytes, bytes.length);
+		return emulator;
+	}
+
+	/** Resize between 100 and 80 columns, where a lazy resize leaves the transcript to be reflowed afterwards. */
+	private void measure(String name, int transcriptRows, final boolean lazyReflow) {
+		final TerminalEmulator emulator = emulatorWithTranscript(transcriptRows, lazyReflow);
+		measureOperations(name, 2, RUNS, () -> {
+			emulator.resize(80, ROWS, 10, 20);
+			emulator.resize(100, ROWS, 10, 20);
+		});
+		// Lines which do not fit when narrower are dropped, but the transcript stays close to full:
+		while (emulator.reflowPendingTranscript(1000)) ;
+		assertTrue(emulator.getScreen().getActiveTranscriptRows() > transcriptRows * 8 / 10);
+	}
+
+	public void testResize1000Rows() {
+		measure("resize1000Rows", 1000, false);
+	}
+
+	public void testResize10000Rows() {
+		measure("resize10000Rows", 10000, false);
+	}
+
+	public void testResize50000Rows() {
+		measure("resize50000Rows", 50000, false);
+	}
+
+	public void testLazyResize10000Rows() {
+		measure("lazyResize10000Rows", 10000, true);
+	}
+
+	public void testLazyResize50000Rows() {
+		measure("lazyResize50000Rows", 50000, true);
+	}
+
+}
@@ -209,4 +209,69 @@ public class ResizeTest extends TerminalTestCase {
 		resize(5, rows).assertLinesAre("ＱＲ ", "     ", "     ", "     ");
 	}
 
+	public void testResizeReflowsHistory() {
+		withTerminalSized(5, 3).enterString("abcdefgh\r\n1\r\n2\r\n3");
+		assertHistoryStartsWith("fgh  ", "abcde");
+		resize(4, 3).assertLinesAre("1   ", "2   ", "3   ").assertHistoryStartsWith("efgh", "abcd");
+		resize(8, 3).assertLinesAre("1       ", "2       ", "3       ").assertHistoryStartsWith("abcdefgh");
+		assertEquals("abcdefgh\n1\n2\n3", mTerminal.getScreen().getTranscriptText());
+	}
+
+	public void testLazyReflowOfHistory() {
+		withTerminalSized(5, 3);
+		mTerminal.setLazyTranscriptReflow(true);
+		enterString("abcdefgh\r\nxy\r\n1\r\n2\r\n3").assertHistoryStartsWith("xy   ", "fgh  ", "abcde");
+
+		// Only the screen is reflowed by the resize:
+		resize(4, 3).assertLinesAre("1   ", "2   ", "3   ").assertCursorAt(2, 1);
+		assertTrue(mTerminal.hasPendingTranscriptReflow());
+		assertEquals(0, mTerminal.getScreen().getActiveTranscriptRows());
+
+		assertTrue(mTerminal.reflowPendingTranscript(1));
+		assertHistoryStartsWith("xy  ");
+		// A line is not split between calls:
+		assertFalse(mTerminal.reflowPendingTranscript(1));
+		assertFalse(mTerminal.hasPendingTranscriptReflow());
+		assertHistoryStartsWith("xy  ", "efgh", "abcd");
+		assertLinesAre("1   ", "2   ", "3   ").assertCursorAt(2, 1);
+	}
+
+	public void testLazyReflowGivesSameTranscript() {
+		// Wide chars are left out, as one wrapped at an intermediate width leaves a padding space behind, which the lazy
+		// reflow of the whole history straight to the final width does not.
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 40; i++) {
+			input.append("line ").append(i).append(" \033[3").append(i % 8).append("m");
+			for (int j = 0; j < i % 13; j++) input.append(j % 3 == 0 ? "\u00e9" : "ab");
+			input.append("\033[0m\r\n");
+		}
+		input.append("$ ");
+
+		String[] transcripts = new String[2];
+		for (int lazy = 0; lazy < 2; lazy++) {
+			withTerminalSized(11, 6);
+			mTerminal.setLazyTranscriptReflow(lazy == 1);
+			enterString(input.toString());
+			resize(7, 6);
+			resize(16, 5);
+			enterString("x\r\ny");
+			resize(9, 7);
+			while (mTerminal.reflowPendingTranscript(3)) assertInvariants();
+			transcripts[lazy] = mTerminal.getScreen().getTranscriptTextWithoutJoinedLines();
+			assertCursorAt(6, 1);
+		}
+		assertEquals(transcripts[0], transcripts[1]);
+	}
+
+	public void testResizeColumnsInAltBuffer() {
+		withTerminalSized(5, 3).enterString("abcdefg\r\n$ ").assertLinesAre("abcde", "fg   ", "$    ");
+		enterString("\033[?1049h").enterString("alt").assertLinesAre("     ", "     ", "  alt");
+
+		// The main buffer is reflowed when switching back to it:
+		resize(4, 4).assertLinesAre("    ", "    ", "  al", "t   ");
+		enterString("\033[?1049l").assertLinesAre("abcd", "efg ", "$   ", "    ").assertCursorAt(2, 2);
+		resize(8, 2).assertLinesAre("$       ", "        ").assertCursorAt(0, 2).assertHistoryStartsWith("abcdefg ");
+	}
+
+
 }
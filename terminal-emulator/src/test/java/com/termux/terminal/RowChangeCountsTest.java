@@ -0,0 +1,182 @@
+package com.termux.terminal;
+
+public class RowChangeCountsTest extends TerminalTestCase {
+
+	private long[] mCounts;
+
+	/** Remember the change counts of the screen rows and the transcript row before it, to compare with later. */
+	private void rememberCounts() {
+		TerminalBuffer screen = mTerminal.getScreen();
+		mCounts = new long[screen.mScreenRows + 1];
+		for (int row = -1; row < screen.mScreenRows; row++)
+			mCounts[row + 1] = screen.getRowChangeCount(row);
+	}
+
+	private boolean isRowChanged(int row) {
+		return mTerminal.getScreen().getRowChangeCount(row) != mCounts[row + 1];
+	}
+
+	private void assertChangedRows(boolean... rows) {
+		for (int row = 0; row < rows.length; row++)
+			assertEquals("row=" + row, rows[row], isRowChanged(row));
+	}
+
+	private void assertAllRowsChanged() {
+		for (int row = -1; row < mTerminal.getScreen().mScreenRows; row++)
+			assertTrue("row=" + row, isRowChanged(row));
+	}
+
+	public void testSetChar() {
+		withTerminalSized(5, 3);
+		rememberCounts();
+		enterString("\033[2;1Hab");
+		assertChangedRows(false, true, false);
+		// Moving the cursor or changing the current style does not change any row:
+		rememberCounts();
+		enterString("\033[3;1H\033[31m");
+		assertChangedRows(false, false, false);
+	}
+
+	public void testScroll() {
+		withTerminalSized(5, 4).enterString("a\r\nb\r\nc\r\nd");
+		rememberCounts();
+		enterString("\r\n");
+		assertAllRowsChanged();
+
+		// Only the rows within the margins scroll:
+		enterString("\033[2;3r");
+		rememberCounts();
+		enterString("\033[3;1H\n");
+		assertChangedRows(false, true, true, false);
+	}
+
+	public void testBlockOperations() {
+		withTerminalSized(5, 4).enterString("abcde\r\nfghij");
+		rememberCounts();
+		// Erase in line:
+		enterString("\033[1;3H\033[K");
+		assertChangedRows(true, false, false, false);
+		// Insert line, which copies the rows below down:
+		rememberCounts();
+		enterString("\033[2;1H\033[L");
+		assertChangedRows(false, true, true, true);
+		// Change attributes in a rectangle:
+		rememberCounts();
+		enterString("\033[3;1;3;2;1$r");
+		assertChangedRows(false, false, true, false);
+	}
+
+	public void testResizeAndClearTranscript() {
+		withTerminalSized(5, 3).enterString("a\r\nb\r\nc\r\nd");
+		rememberCounts();
+		resize(4, 3);
+		assertAllRowsChanged();
+		rememberCounts();
+		enterString("\033[3J");
+		assertAllRowsChanged();
+	}
+
+	public void testManyRows() {
+		withTerminalSized(5, 100);
+		rememberCounts();
+		enterString("\033[70;1Hx");
+		for (int row = 0; row < 100; row++)
+			assertEquals("row=" + row, row == 69, isRowChanged(row));
+		// Growing past the rows the counts were allocated for:
+		resize(5, 200);
+		rememberCounts();
+		enterString("\033[150;1Hx");
+		assertTrue(isRowChanged(149));
+		assertFalse(isRowChanged(85));
+	}
+
+	public void testRowChangeCounts() {
+		withTerminalSized(5, 3).enterString("ab");
+		TerminalBuffer screen = mTerminal.getScreen();
+		long first = screen.getRowChangeCount(0);
+		long second = screen.getRowChangeCount(1);
+		enterString("\033[2;1Hx");
+		assertEquals(first, screen.getRowChangeCount(0));
+		assertTrue(screen.getRowChangeCount(1) > second);
+		assertTrue(screen.getRowChangeCount(-1) < first);
+
+		long changed = screen.getRowChangeCount(1);
+		resize(4, 3);
+		assertTrue(screen.getRowChangeCount(0) > changed);
+		assertTrue(screen.getRowChangeCount(-1) > changed);
+	}
+
+	/** Read the rows of a view scrolled back into the transcript again after more output, as for accessibility. */
+	public void testScrollThenRead() {
+		withTerminalSized(5, 3).enterString("a\r\nb\r\nc\r\nd\r\ne");
+		TerminalBuffer screen = mTerminal.getScreen();
+		final int topRow = -2;
+		String[] texts = new String[3];
+		long[] counts = new long[3];
+		for (int i = 0; i < 3; i++) {
+			texts[i] = screen.getSelectedText(0, topRow + i, 5, topRow + i);
+			counts[i] = screen.getRowChangeCount(topRow + i);
+		}
+		assertEquals("a", texts[0]);
+
+		// The rows move up in the transcript as output scrolls, so a reader only reading changed rows stays correct:
+		enterString("\r\nf");
+		for (int i = 0; i < 3; i++) {
+			if (screen.getRowChangeCount(topRow + i) != counts[i])
+				texts[i] = screen.getSelectedText(0, topRow + i, 5, topRow + i);
+			assertEquals("row=" + (topRow + i), screen.getSelectedText(0, topRow + i, 5, topRow + i), texts[i]);
+		}
+		assertEquals("b", texts[0]);
+	}
+
+	/** The text of the screen rows, joined by newlines unless wrapped, as for accessibility. */
+	private static String joinRows(String[] texts, boolean[] wraps) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < texts.length; i++) {
+			builder.append(texts[i]);
+			if (!wraps[i] && i < texts.length - 1) builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+	/** Read the text and line wraps of the screen rows again after output which wraps and then unwraps a row. */
+	public void testLineWrapThenRead() {
+		withTerminalSized(5, 3).enterString("abcde");
+		TerminalBuffer screen = mTerminal.getScreen();
+		String[] texts = new String[3];
+		boolean[] wraps = new boolean[3];
+		long[] counts = new long[3];
+		for (int row = 0; row < 3; row++) {
+			texts[row] = screen.getSelectedText(0, row, 5, row);
+			wraps[row] = screen.getLineWrap(row);
+			counts[row] = screen.getRowChangeCount(row);
+		}
+
+		// Wrap the first row, and then unwrap it again by moving back onto it:
+		for (String output : new String[]{"fg\n", "\033[2;1H\b"}) {
+			rememberCounts();
+			enterString(output);
+			assertTrue(isRowChanged(0));
+			String[] freshTexts = new String[3];
+			boolean[] freshWraps = new boolean[3];
+			for (int row = 0; row < 3; row++) {
+				freshTexts[row] = screen.getSelectedText(0, row, 5, row);
+				freshWraps[row] = screen.getLineWrap(row);
+				if (screen.getRowChangeCount(row) == counts[row]) continue;
+				texts[row] = freshTexts[row];
+				wraps[row] = freshWraps[row];
+				counts[row] = screen.getRowChangeCount(row);
+			}
+			assertEquals(joinRows(freshTexts, freshWraps), joinRows(texts, wraps));
+		}
+		assertEquals("abcde\nfg\n", joinRows(texts, wraps));
+	}
+
+	public void testAppendSelectedText() {
+		withTerminalSized(5, 3).enterString("abcdefg\r\nhi");
+		StringBuilder builder = new StringBuilder("> ");
+		mTerminal.getScreen().appendSelectedText(builder, 0, 0, 5, 2, true, false);
+		assertEquals("> abcdefg\nhi", builder.toString());
+	}
+
+}
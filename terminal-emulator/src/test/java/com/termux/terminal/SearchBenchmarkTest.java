@@ -0,0 +1,45 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Time to search through a full transcript for text which is not in it, where literal searches can skip lines using
+ * the signatures cached in the transcript rows. See {@link BenchmarkTestCase}.
+ */
+public class SearchBenchmarkTest extends BenchmarkTestCase {
+
+	private static final int TRANSCRIPT_ROWS = 10000;
+	private static final int RUNS = 20;
+
+	private static TerminalEmulator emulatorWithTranscript() {
+		TerminalEmulator emulator = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), 100, 40, 10, 20,
+			TRANSCRIPT_ROWS, null);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < TRANSCRIPT_ROWS + 40; i++) {
+			sb.append("drwxr-xr-x 2 u0_a").append(i % 300).append(" 4096 Jan  1 12:00 ");
+			for (int j = 0; j < i % 120; j++) sb.append((char) ('a' + (i * j) % 26));
+			sb.append("\r\n");
+		}
+		byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+		emulator.append(bytes, bytes.length);
+		return emulator;
+	}
+
+	private void measure(String name, final TerminalSearch search) {
+		final TerminalBuffer screen = emulatorWithTranscript().getScreen();
+		measureOperations(name, 1, RUNS, () -> assertNull(screen.search(search, 0, 0, true)));
+	}
+
+	public void testLiteral() {
+		measure("literal", new TerminalSearch("not-in-transcript", false, false));
+	}
+
+	public void testLiteralIgnoreCase() {
+		measure("literalIgnoreCase", new TerminalSearch("Not-In-Transcript", false, true));
+	}
+
+	public void testRegex() {
+		measure("regex", new TerminalSearch("not-in-[a-z]+", true, false));
+	}
+
+}
@@ -0,0 +1,174 @@
+package com.termux.terminal;
+
+public class SearchTest extends TerminalTestCase {
+
+	private TerminalSearchMatch search(String query, boolean regex, boolean ignoreCase, int row, int column, boolean backward) {
+		return mTerminal.getScreen().search(new TerminalSearch(query, regex, ignoreCase), row, column, backward);
+	}
+
+	private static void assertMatch(TerminalSearchMatch match, int startRow, int startColumn, int endRow, int endColumn) {
+		assertEquals(new TerminalSearchMatch(startRow, startColumn, endRow, endColumn), match);
+	}
+
+	public void testLiteral() {
+		withTerminalSized(10, 3).enterString("foo bar\r\nbar foo");
+		assertMatch(search("foo", false, false, 0, 0, false), 0, 0, 0, 2);
+		assertMatch(search("foo", false, false, 0, 1, false), 1, 4, 1, 6);
+		assertNull(search("foo", false, false, 1, 5, false));
+		assertNull(search("baz", false, false, 0, 0, false));
+		assertNull(search("FOO", false, false, 0, 0, false));
+		assertMatch(search("FOO", false, true, 0, 0, false), 0, 0, 0, 2);
+	}
+
+	public void testBackward() {
+		withTerminalSized(10, 3).enterString("foo bar\r\nbar foo");
+		// A match at the position is not found backward, so that searching from a match finds the previous one:
+		assertMatch(search("foo", false, false, 2, 0, true), 1, 4, 1, 6);
+		assertMatch(search("foo", false, false, 1, 4, true), 0, 0, 0, 2);
+		assertNull(search("foo", false, false, 0, 0, true));
+		assertMatch(search("bar", false, false, 1, 0, true), 0, 4, 0, 6);
+	}
+
+	public void testRegex() {
+		withTerminalSized(12, 3).enterString("error: 12\r\nWarning: 345");
+		assertMatch(search("[0-9]+", true, false, 0, 0, false), 0, 7, 0, 8);
+		assertMatch(search("[0-9]+", true, false, 0, 8, false), 0, 8, 0, 8);
+		assertMatch(search("[0-9]+", true, false, 0, 9, false), 1, 9, 1, 11);
+		assertMatch(search("^warn", true, true, 0, 0, false), 1, 0, 1, 3);
+		assertNull(search("^warn", true, false, 0, 0, false));
+		// Empty matches are skipped:
+		assertMatch(search("a*", true, false, 0, 0, false), 1, 1, 1, 1);
+	}
+
+	public void testWrappedLine() {
+		withTerminalSized(5, 4).enterString("abcdefghij\r\nxyz");
+		assertLineWraps(true, false, false, false);
+		assertMatch(search("defg", false, false, 0, 0, false), 0, 3, 1, 1);
+		assertMatch(search("e.*h", true, false, 0, 0, false), 0, 4, 1, 2);
+		// Rows not joined by wrapping are separate lines:
+		assertNull(search("jx", false, false, 0, 0, false));
+	}
+
+	public void testWrappedLineWithTrailingSpaces() {
+		withTerminalSized(5, 4).enterString("ab   cd");
+		assertMatch(search("b   c", false, false, 0, 0, false), 0, 1, 1, 0);
+	}
+
+	public void testWideChars() {
+		withTerminalSized(10, 3).enterString("中文 foo\r\ne\u0301bar");
+		assertMatch(search("foo", false, false, 0, 0, false), 0, 5, 0, 7);
+		assertMatch(search("文", false, false, 0, 0, false), 0, 2, 0, 3);
+		assertMatch(search("bar", false, false, 0, 0, false), 1, 1, 1, 3);
+		// Searching from the column of a wide char finds it:
+		assertMatch(search("文", false, false, 0, 2, false), 0, 2, 0, 3);
+	}
+
+	public void testTranscript() {
+		withTerminalSized(5, 3);
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 5; i++) input.append("line").append(i).append("\r\n");
+		input.append("$");
+		enterString(input.toString());
+		assertEquals(3, mTerminal.getScreen().getActiveTranscriptRows());
+		assertMatch(search("line1", false, false, -3, 0, false), -2, 0, -2, 4);
+		assertMatch(search("line", false, false, 0, 0, true), -1, 0, -1, 3);
+		assertMatch(search("LINE0", false, true, 2, 0, true), -3, 0, -3, 4);
+		assertNull(search("line9", false, false, -3, 0, false));
+		// Searching from before the transcript starts at its first row:
+		assertMatch(search("line", false, false, -100, 0, false), -3, 0, -3, 3);
+	}
+
+	public void testTranscriptWrappedAcrossRows() {
+		// The pairs of chars around the wrap of transcript rows are part of the signature of the line:
+		withTerminalSized(4, 2).enterString("abcdefgh\r\nwxyz\r\n$");
+		assertLineWraps(false, false);
+		assertEquals(2, mTerminal.getScreen().getActiveTranscriptRows());
+		assertMatch(search("de", false, false, -100, 0, false), -2, 3, -1, 0);
+		assertMatch(search("DEF", false, true, -100, 0, false), -2, 3, -1, 1);
+		assertNull(search("hw", false, false, -100, 0, false));
+	}
+
+	public void testRepeatedSearchUsesCachedSignatures() {
+		withTerminalSized(5, 3);
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 4; i++) input.append("row").append(i).append("\r\n");
+		enterString(input.toString());
+		TerminalSearch search = new TerminalSearch("w0", false, false);
+		TerminalSearchMatch first = mTerminal.getScreen().search(search, -100, 0, false);
+		assertEquals(first, mTerminal.getScreen().search(search, -100, 0, false));
+		assertMatch(first, -2, 2, -2, 3);
+		assertNull(mTerminal.getScreen().search(search, -1, 0, false));
+	}
+
+	private String wordAt(int column, int row) {
+		return mTerminal.getScreen().getWordAtLocation(column, row);
+	}
+
+	public void testWordAtLocation() {
+		withTerminalSized(10, 3).enterString("foo bar\r\n  baz");
+		assertEquals("foo", wordAt(0, 0));
+		assertEquals("foo", wordAt(2, 0));
+		assertEquals("bar", wordAt(5, 0));
+		assertEquals("baz", wordAt(4, 1));
+		// On a space, after the end of the row and outside the buffer:
+		assertEquals("", wordAt(3, 0));
+		assertEquals("", wordAt(8, 0));
+		assertEquals("", wordAt(0, 1));
+		assertEquals("", wordAt(0, 2));
+		assertEquals("", wordAt(0, 5));
+		assertEquals("", wordAt(10, 0));
+	}
+
+	public void testWordAtLocationInWrappedLine() {
+		withTerminalSized(5, 5).enterString("ab cdefghijklm n\r\nxyz");
+		assertLineWraps(true, true, true, false, false);
+		assertEquals("cdefghijklm", wordAt(3, 0));
+		assertEquals("cdefghijklm", wordAt(2, 1));
+		assertEquals("cdefghijklm", wordAt(3, 2));
+		assertEquals("ab", wordAt(1, 0));
+		assertEquals("n", wordAt(0, 3));
+		// Rows not joined by wrapping are separate lines:
+		assertEquals("xyz", wordAt(0, 4));
+		assertMatch(mTerminal.getScreen().findWordAtLocation(0, 1, TerminalBuffer.DEFAULT_WORD_DELIMITERS), 0, 3, 2, 3);
+		assertNull(mTerminal.getScreen().findWordAtLocation(2, 0, TerminalBuffer.DEFAULT_WORD_DELIMITERS));
+	}
+
+	public void testWordAtLocationInTranscript() {
+		withTerminalSized(5, 2).enterString("abcdefg\r\nx\r\ny");
+		assertEquals("abcdefg", wordAt(1, -1));
+		assertEquals("abcdefg", wordAt(1, -2));
+		assertMatch(mTerminal.getScreen().findWordAtLocation(1, -1, TerminalBuffer.DEFAULT_WORD_DELIMITERS), -2, 0, -1, 1);
+	}
+
+	public void testWordAtLocationWithWideChars() {
+		withTerminalSized(12, 3).enterString("ab 中文x 😀y");
+		assertEquals("中文x", wordAt(3, 0));
+		// The second column of a wide char:
+		assertEquals("中文x", wordAt(4, 0));
+		assertEquals("中文x", wordAt(6, 0));
+		assertEquals("😀y", wordAt(10, 0));
+		assertEquals("😀y", wordAt(11, 0));
+		assertMatch(mTerminal.getScreen().findWordAtLocation(4, 0, TerminalBuffer.DEFAULT_WORD_DELIMITERS), 0, 3, 0, 7);
+	}
+
+	public void testUrlDelimiters() {
+		withTerminalSized(40, 3).enterString("see <https://example.com/a?b=c> \"x\"");
+		assertEquals("<https://example.com/a?b=c>", wordAt(10, 0));
+		assertEquals("https://example.com/a?b=c", mTerminal.getScreen().getWordAtLocation(10, 0, TerminalBuffer.URL_DELIMITERS));
+		assertEquals("", mTerminal.getScreen().getWordAtLocation(4, 0, TerminalBuffer.URL_DELIMITERS));
+	}
+
+	public void testMatchScrolled() {
+		assertEquals(new TerminalSearchMatch(-2, 1, -1, 3), new TerminalSearchMatch(0, 1, 1, 3).scrolled(2));
+	}
+
+	public void testEmptyQuery() {
+		try {
+			new TerminalSearch("", false, false);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SessionRecorderTest extends TestCase {
+
+	private static String record(int columns, int rows, Object... events) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SessionRecorder recorder = new SessionRecorder(out, columns, rows, null);
+		for (Object event : events) {
+			if (event instanceof int[]) {
+				recorder.recordResize(((int[]) event)[0], ((int[]) event)[1]);
+			} else {
+				byte[] bytes = (event instanceof byte[]) ? (byte[]) event : ((String) event).getBytes(StandardCharsets.UTF_8);
+				recorder.recordOutput(bytes, 0, bytes.length);
+			}
+		}
+		recorder.close();
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/** The recorded events without their times. */
+	private static String eventsOf(String recording) {
+		return recording.substring(recording.indexOf('\n') + 1).replaceAll("\\[[0-9.]+, ", "[");
+	}
+
+	public void testFormat() throws IOException {
+		String recording = record(80, 24, "a\033[1mb\"\\\r\n\t\u007f", new int[]{100, 30}, "中");
+		assertTrue(recording, recording.startsWith("{\"version\": 2, \"width\": 80, \"height\": 24, \"timestamp\": "));
+		assertEquals("[\"o\", \"a\\u001b[1mb\\\"\\\\\\r\\n\\t\\u007f\"]\n[\"r\", \"100x30\"]\n[\"o\", \"中\"]\n", eventsOf(recording));
+		assertTrue(recording, recording.matches("(?s)[^\n]*\n\\[[0-9]+\\.[0-9]{6}, .*"));
+	}
+
+	public void testUtf8SplitAcrossChunks() throws IOException {
+		byte[] bytes = "x中".getBytes(StandardCharsets.UTF_8);
+		byte[] first = {bytes[0], bytes[1]};
+		byte[] second = {bytes[2], bytes[3]};
+		assertEquals("[\"o\", \"x\"]\n[\"o\", \"中\"]\n", eventsOf(record(80, 24, first, second)));
+	}
+
+	public void testIncompleteUtf8AtEnd() throws IOException {
+		byte[] bytes = "中".getBytes(StandardCharsets.UTF_8);
+		assertEquals("[\"o\", \"�\"]\n", eventsOf(record(80, 24, new byte[]{bytes[0], bytes[1]})));
+	}
+
+	public void testReplay() throws IOException {
+		Object[] events = {"\033[31mred\033[0m ", "line\r\n中文 é\r\n", new int[]{5, 3}, "\033[2J\033[Habcdefgh", new int[]{12, 4}, "!"};
+		SessionReplayer replayer = new SessionReplayer(new StringReader(record(10, 4, events)));
+		assertEquals(10, replayer.getColumns());
+		assertEquals(4, replayer.getRows());
+		assertEquals(6, replayer.getEventCount());
+
+		TerminalEmulator replayed = replayer.createEmulator(new TerminalTestCase.MockTerminalOutput(), null);
+		replayer.replay(replayed);
+		TerminalEmulator expected = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), 10, 4, 10, 20, null, null);
+		for (Object event : events) {
+			if (event instanceof int[]) {
+				expected.resize(((int[]) event)[0], ((int[]) event)[1], 10, 20);
+			} else {
+				byte[] bytes = ((String) event).getBytes(StandardCharsets.UTF_8);
+				expected.append(bytes, bytes.length);
+			}
+		}
+		assertEquals(12, replayed.mColumns);
+		assertEquals(expected.getScreen().getTranscriptText(), replayed.getScreen().getTranscriptText());
+		assertEquals(expected.getCursorRow(), replayed.getCursorRow());
+		assertEquals(expected.getCursorCol(), replayed.getCursorCol());
+	}
+
+	public void testReplayerSkipsOtherEvents() throws IOException {
+		SessionReplayer replayer = new SessionReplayer(new StringReader("{\"version\": 2, \"width\": 5, \"height\": 2}\n"
+			+ "[0.1, \"i\", \"typed\"]\n[0.2, \"m\", \"\"]\n\n[0.3, \"o\", \"\\u0041\\/b\"]\n"));
+		assertEquals(1, replayer.getEventCount());
+		assertEquals(3, replayer.getOutputBytes());
+		TerminalEmulator emulator = replayer.createEmulator(new TerminalTestCase.MockTerminalOutput(), null);
+		replayer.replay(emulator);
+		assertEquals("A/b", emulator.getScreen().getTranscriptText());
+	}
+
+	public void testReplayerRejectsInvalidRecordings() {
+		String[] recordings = {"", "{\"version\": 1, \"width\": 5, \"height\": 2}\n", "{\"width\": 5}\n",
+			"{\"version\": 2, \"width\": 5, \"height\": 2}\n[0.1, \"o\", \"unterminated]\n",
+			"{\"version\": 2, \"width\": 5, \"height\": 2}\n[0.1, \"r\", \"5by2\"]\n"};
+		for (String recording : recordings) {
+			try {
+				new SessionReplayer(new StringReader(recording));
+				fail(recording);
+			} catch (IOException e) {
+				// Expected.
+			}
+		}
+	}
+
+	/** Finishing does not wait for the writing, which still writes all recorded events and closes the stream. */
+	public void testFinishDoesNotWaitForWriting() throws IOException, InterruptedException {
+		final CountDownLatch unblock = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		OutputStream blocking = new OutputStream() {
+			@Override
+			public void write(int b) {
+				write(new byte[]{(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				try {
+					unblock.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				written.write(b, off, len);
+			}
+
+			@Override
+			public void close() {
+				closed.countDown();
+			}
+		};
+
+		SessionRecorder recorder = new SessionRecorder(blocking, 80, 24, null);
+		recorder.recordOutput(new byte[]{'a'}, 0, 1);
+		recorder.finish();
+		recorder.recordOutput(new byte[]{'b'}, 0, 1);
+		assertEquals(1, closed.getCount());
+
+		unblock.countDown();
+		assertTrue(closed.await(10, TimeUnit.SECONDS));
+		assertEquals("[\"o\", \"a\"]\n", eventsOf(new String(written.toByteArray(), StandardCharsets.UTF_8)));
+	}
+
+	/** The output is dropped instead of blocking the recording thread when the writing cannot keep up. */
+	public void testDropsOutputWhenWritingIsBlocked() throws IOException, InterruptedException {
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch unblock = new CountDownLatch(1);
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		OutputStream blocking = new OutputStream() {
+			@Override
+			public void write(int b) {
+				write(new byte[]{(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				writing.countDown();
+				try {
+					unblock.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				written.write(b, off, len);
+			}
+		};
+
+		SessionRecorder recorder = new SessionRecorder(blocking, 80, 24, null);
+		recorder.recordOutput(new byte[]{'a'}, 0, 1);
+		writing.await();
+
+		byte[] chunk = new byte[4096];
+		for (int i = 0; i < chunk.length; i++) chunk[i] = (byte) ('a' + i % 26);
+		int chunks = 2 * SessionRecorder.MAX_BATCH_BYTES / chunk.length;
+		for (int i = 0; i < chunks; i++) recorder.recordOutput(chunk, 0, chunk.length);
+		long dropped = recorder.getDroppedBytes();
+		assertTrue(dropped > 0);
+		assertTrue(dropped < (long) chunks * chunk.length);
+
+		unblock.countDown();
+		recorder.close();
+		assertEquals(dropped, recorder.getDroppedBytes());
+		recorder.recordOutput(chunk, 0, chunk.length);
+		SessionReplayer replayer = new SessionReplayer(new StringReader(new String(written.toByteArray(), StandardCharsets.UTF_8)));
+		assertEquals(1 + (long) chunks * chunk.length - dropped, replayer.getOutputBytes());
+	}
+
+}
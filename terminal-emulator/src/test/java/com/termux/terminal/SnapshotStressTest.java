@@ -0,0 +1,100 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders snapshots of an emulator on one thread while another thread appends output to it, the same way
+ * {@link TerminalSession} emulates on the emulation thread while the main thread draws from a {@link TerminalSnapshot}.
+ * Checks that no snapshot has a row which is half updated, and reports the time the "main" thread spends waiting for
+ * the lock and copying rows per second of frames. See {@link BenchmarkTestCase}.
+ */
+public class SnapshotStressTest extends BenchmarkTestCase {
+
+	private static final int COLUMNS = 80, ROWS = 24;
+	/** The chunk size that {@link TerminalSession} appends while holding the lock. */
+	private static final int CHUNK_BYTES = 4096;
+	private static final long BATCH_NANOS = TerminalSession.DEFAULT_UPDATE_TIME_BUDGET_MILLIS * 1_000_000L;
+
+	public void testNoTornRows() throws Exception {
+		final TerminalEmulator emulator = createEmulator(COLUMNS, ROWS);
+		final Object lock = new Object();
+		final byte[] chunk = createChunk();
+		final AtomicReference<Throwable> writerFailure = new AtomicReference<>();
+		final long durationMillis = BENCHMARK_ENABLED ? 5000 : 300;
+		final long frameMillis = BENCHMARK_ENABLED ? 16 : 1;
+
+		Thread writer = new Thread("SnapshotStressWriter") {
+			@Override
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						// Like TerminalSession, append chunks in batches of at most the update time budget:
+						long batchStart = System.nanoTime();
+						do {
+							synchronized (lock) {
+								emulator.append(chunk, chunk.length);
+							}
+						} while (System.nanoTime() - batchStart < BATCH_NANOS);
+						Thread.yield();
+					}
+				} catch (Throwable t) {
+					writerFailure.set(t);
+				}
+			}
+		};
+		writer.start();
+
+		TerminalSnapshot snapshot = new TerminalSnapshot();
+		long lockedNanos = 0, maxFrameNanos = 0;
+		int frames = 0;
+		final long start = System.nanoTime();
+		try {
+			while (System.nanoTime() - start < durationMillis * 1_000_000L) {
+				long frameStart = System.nanoTime();
+				synchronized (lock) {
+					snapshot.update(emulator, 0);
+				}
+				long frameNanos = System.nanoTime() - frameStart;
+				lockedNanos += frameNanos;
+				maxFrameNanos = Math.max(maxFrameNanos, frameNanos);
+				frames++;
+				for (int row = 0; row < ROWS; row++)
+					assertRowIsUniform(snapshot.getRow(row), frames, row);
+				Thread.sleep(frameMillis);
+			}
+		} finally {
+			writer.interrupt();
+			writer.join();
+		}
+		if (writerFailure.get() != null) throw new AssertionError(writerFailure.get());
+		assertTrue(frames > 0);
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		report("mainThreadTime", String.format(Locale.ROOT, "%.2f ms/s over %d frames, max %.3f ms per frame",
+			lockedNanos / 1e6 / seconds, frames, maxFrameNanos / 1e6));
+	}
+
+	/** Rows of one repeated letter each, so that a row which is half updated has two different letters. */
+	private static byte[] createChunk() {
+		StringBuilder builder = new StringBuilder();
+		int rows = CHUNK_BYTES / (COLUMNS + 2);
+		for (int i = 0; i < rows; i++) {
+			builder.append("\r\n");
+			char letter = (char) ('a' + i % 26);
+			for (int column = 0; column < COLUMNS; column++)
+				builder.append(letter);
+		}
+		return builder.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static void assertRowIsUniform(TerminalRow row, int frame, int rowIndex) {
+		char first = row.mText[0];
+		for (int i = 1; i < row.getSpaceUsed(); i++) {
+			if (row.mText[i] != first)
+				fail("Torn row " + rowIndex + " in frame " + frame + ": " + new String(row.mText, 0, row.getSpaceUsed()));
+		}
+	}
+
+}
@@ -0,0 +1,203 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SpscByteQueueTest extends TestCase {
+
+	public void testCompleteWrites() throws Exception {
+		SpscByteQueue q = new SpscByteQueue(16);
+		assertTrue(q.write(new byte[]{1, 2, 3}, 0, 3));
+
+		byte[] arr = new byte[16];
+		assertEquals(3, q.read(arr, true));
+		assertTrue(Arrays.equals(new byte[]{1, 2, 3}, Arrays.copyOf(arr, 3)));
+
+		byte[] full = new byte[16];
+		for (int i = 0; i < full.length; i++) full[i] = (byte) i;
+		assertTrue(q.write(full, 0, 16));
+		assertEquals(16, q.read(arr, true));
+		assertTrue(Arrays.equals(full, arr));
+	}
+
+	public void testQueueWraparound() throws Exception {
+		SpscByteQueue q = new SpscByteQueue(16);
+
+		byte[] origArray = new byte[]{1, 2, 3, 4, 5, 6, 7};
+		byte[] readArray = new byte[origArray.length];
+		for (int i = 0; i < 20; i++) {
+			q.write(origArray, 0, origArray.length);
+			assertEquals(origArray.length, q.read(readArray, true));
+			assertTrue(Arrays.equals(origArray, readArray));
+		}
+	}
+
+	public void testReadIntoSmallerBuffer() {
+		SpscByteQueue q = new SpscByteQueue(8);
+		assertTrue(q.write(new byte[]{1, 2, 3, 4, 5}, 0, 5));
+		byte[] readArray = new byte[3];
+		assertEquals(3, q.read(readArray, false));
+		assertTrue(Arrays.equals(new byte[]{1, 2, 3}, readArray));
+		assertEquals(2, q.read(readArray, false));
+		assertEquals(4, readArray[0]);
+		assertEquals(5, readArray[1]);
+		assertEquals(0, q.read(readArray, false));
+	}
+
+	public void testWriteNotesClosing() throws Exception {
+		SpscByteQueue q = new SpscByteQueue(16);
+		q.close();
+		assertFalse(q.write(new byte[]{1, 2, 3}, 0, 3));
+		assertEquals(-1, q.read(new byte[16], true));
+	}
+
+	public void testReadNonBlocking() throws Exception {
+		SpscByteQueue q = new SpscByteQueue(16);
+		assertEquals(0, q.read(new byte[128], false));
+	}
+
+	public void testTryWriteWritesWhatFits() {
+		SpscByteQueue q = new SpscByteQueue(8);
+		byte[] bytes = new byte[]{1, 2, 3, 4, 5, 6, 7};
+		assertEquals(3, q.tryWrite(bytes, 0, 7, 5));
+		assertEquals(0, q.tryWrite(bytes, 3, 4, 5));
+		assertEquals(4, q.tryWrite(bytes, 3, 4, 0));
+
+		byte[] readArray = new byte[8];
+		assertEquals(7, q.read(readArray, false));
+		assertTrue(Arrays.equals(bytes, Arrays.copyOf(readArray, 7)));
+
+		q.close();
+		assertEquals(-1, q.tryWrite(bytes, 0, 1, 0));
+	}
+
+	public void testCapacityMustBePowerOfTwo() {
+		assertEquals(4096, new SpscByteQueue(4096).capacity());
+		try {
+			new SpscByteQueue(10);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	public void testCloseWakesUpBlockedThreads() throws Exception {
+		final SpscByteQueue q = new SpscByteQueue(4);
+		final AtomicReference<Object> readResult = new AtomicReference<>();
+		final AtomicReference<Object> writeResult = new AtomicReference<>();
+
+		Thread reader = new Thread(() -> readResult.set(q.read(new byte[4], true)));
+		reader.start();
+		Thread.sleep(50);
+		q.close();
+		reader.join(5000);
+		assertEquals(-1, readResult.get());
+
+		final SpscByteQueue fullQueue = new SpscByteQueue(4);
+		Thread writer = new Thread(() -> writeResult.set(fullQueue.write(new byte[8], 0, 8)));
+		writer.start();
+		Thread.sleep(50);
+		fullQueue.close();
+		writer.join(5000);
+		assertEquals(false, writeResult.get());
+	}
+
+	/** Stream bytes through a small queue, so that both threads have to wait for each other many times. */
+	public void testProducerConsumer() throws Exception {
+		final SpscByteQueue q = new SpscByteQueue(64);
+		final int totalBytes = 1024 * 1024;
+		final AtomicReference<Throwable> producerError = new AtomicReference<>();
+
+		Thread producer = new Thread(() -> {
+			try {
+				byte[] chunk = new byte[100];
+				int written = 0;
+				while (written < totalBytes) {
+					int length = Math.min(1 + (written % chunk.length), totalBytes - written);
+					for (int i = 0; i < length; i++) chunk[i] = (byte) (written + i);
+					assertTrue(q.write(chunk, 0, length));
+					written += length;
+				}
+			} catch (Throwable t) {
+				producerError.set(t);
+			}
+		});
+		producer.start();
+
+		byte[] readBuffer = new byte[37];
+		int read = 0;
+		while (read < totalBytes) {
+			int bytesRead = q.read(readBuffer, true);
+			assertTrue(bytesRead > 0);
+			for (int i = 0; i < bytesRead; i++)
+				assertEquals("index " + (read + i), (byte) (read + i), readBuffer[i]);
+			read += bytesRead;
+		}
+
+		producer.join(5000);
+		assertNull(producerError.get());
+		assertEquals(0, q.read(readBuffer, false));
+	}
+
+	/** Several producers writing while synchronized on the queue, like the writers to the process of a session. */
+	public void testProducersWithExternalLock() throws Exception {
+		final SpscByteQueue q = new SpscByteQueue(16);
+		final int producers = 4, writesPerProducer = 20_000;
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final byte id = (byte) p;
+			threads[p] = new Thread(() -> {
+				// Each write is the producer id and a sequence number, which must not be interleaved with other writes:
+				byte[] message = new byte[3];
+				message[0] = id;
+				for (int i = 0; i < writesPerProducer; i++) {
+					message[1] = (byte) (i >> 8);
+					message[2] = (byte) i;
+					synchronized (q) {
+						assertTrue(q.write(message, 0, message.length));
+					}
+				}
+			});
+			threads[p].start();
+		}
+
+		int[] nextSequence = new int[producers];
+		byte[] message = new byte[3];
+		int messageBytes = 0;
+		byte[] readBuffer = new byte[7];
+		for (int read = 0; read < producers * writesPerProducer * message.length; ) {
+			int bytesRead = q.read(readBuffer, true);
+			for (int i = 0; i < bytesRead; i++) {
+				message[messageBytes++] = readBuffer[i];
+				if (messageBytes < message.length) continue;
+				messageBytes = 0;
+				int id = message[0];
+				assertEquals((byte) (nextSequence[id] >> 8), message[1]);
+				assertEquals((byte) nextSequence[id], message[2]);
+				nextSequence[id]++;
+			}
+			read += bytesRead;
+		}
+		for (Thread thread : threads) thread.join(5000);
+		for (int p = 0; p < producers; p++) assertEquals(writesPerProducer, nextSequence[p]);
+	}
+
+	public void testCountsFullStalls() throws Exception {
+		final SpscByteQueue q = new SpscByteQueue(4);
+		assertTrue(q.write(new byte[]{1, 2, 3}, 0, 3));
+		assertEquals(0, q.getFullStalls());
+
+		// The writer waits once the queue is full, until the bytes are read:
+		Thread writer = new Thread(() -> q.write(new byte[]{4, 5, 6}, 0, 3));
+		writer.start();
+		while (q.getFullStalls() == 0) Thread.sleep(1);
+		byte[] readArray = new byte[8];
+		int read = 0;
+		while (read < 6) read += q.read(readArray, true);
+		writer.join();
+		assertEquals(1, q.getFullStalls());
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Time to resolve the colors of each style run of a frame, like {@code TerminalRenderer} does, with and without a
+ * {@link StyleColorCache}, for screens of indexed and truecolor output. See {@link BenchmarkTestCase}.
+ */
+public class StyleColorCacheBenchmarkTest extends BenchmarkTestCase {
+
+	private static final int COLUMNS = 120, ROWS = 40;
+	private static final int RUNS = 20_000;
+
+	static volatile long sSink;
+
+	/** Syntax highlighted code, like from bat or delta, with a handful of truecolor styles repeated on every row. */
+	private static String highlightedScreen() {
+		return highlightedScreen(new String[]{"38;2;249;38;114", "38;2;166;226;46", "38;2;230;219;116",
+			"38;2;117;113;94;3", "1;38;2;102;217;239", "38;2;248;248;242;48;2;39;40;34", "2;38;2;174;129;255"});
+	}
+
+	/** Syntax highlighted code, like from vim or ls, with a handful of indexed color styles repeated on every row. */
+	private static String indexedScreen() {
+		return highlightedScreen(new String[]{"31", "1;32", "33", "38;5;244;3", "1;34", "37;48;5;236", "2;35"});
+	}
+
+	private static String highlightedScreen(String[] styles) {
+		Random random = new Random(3);
+		StringBuilder sb = new StringBuilder();
+		for (int row = 0; row < ROWS; row++) {
+			if (row > 0) sb.append("\r\n");
+			int column = 0;
+			while (column < COLUMNS - 12) {
+				String word = "token" + random.nextInt(100);
+				sb.append("\033[").append(styles[random.nextInt(styles.length)]).append('m').append(word).append("\033[0m ");
+				column += word.length() + 1;
+			}
+		}
+		return sb.toString();
+	}
+
+	/** A gradient, like from lolcat, where the color changes every few columns so that most runs have a new style. */
+	private static String gradientScreen() {
+		StringBuilder sb = new StringBuilder();
+		for (int row = 0; row < ROWS; row++) {
+			if (row > 0) sb.append("\r\n");
+			for (int column = 0; column < COLUMNS; column++) {
+				if (column % 3 == 0) {
+					int red = (column * 2 + row * 3) & 0xFF, green = (row * 6) & 0xFF, blue = (255 - column * 2) & 0xFF;
+					sb.append("\033[38;2;").append(red).append(';').append(green).append(';').append(blue).append('m');
+				}
+				sb.append('#');
+			}
+		}
+		return sb.toString();
+	}
+
+	/** The styles of the style runs of each row of the screen, as rendered in one frame. */
+	private static long[] styleRuns(String screen) {
+		TerminalEmulator emulator = createEmulator(COLUMNS, ROWS);
+		byte[] bytes = screen.getBytes(StandardCharsets.UTF_8);
+		emulator.append(bytes, bytes.length);
+		TerminalBuffer buffer = emulator.getScreen();
+		long[] runs = new long[COLUMNS * ROWS];
+		int count = 0;
+		for (int row = 0; row < ROWS; row++) {
+			TerminalRow line = buffer.allocateFullLineIfNecessary(buffer.externalToInternalRow(row));
+			for (int column = 0; column < COLUMNS; column = line.findStyleRunEnd(column))
+				runs[count++] = line.getStyle(column);
+		}
+		long[] result = new long[count];
+		System.arraycopy(runs, 0, result, 0, count);
+		return result;
+	}
+
+	private void measure(String name, String screen) {
+		final long[] runs = styleRuns(screen);
+		final int[] palette = new TerminalColors().mCurrentColors;
+		final StyleColorCache cache = new StyleColorCache();
+		cache.setPalette(palette, 1);
+		for (long style : runs)
+			assertEquals(StyleColorCache.resolve(palette, style, false), cache.get(style, false));
+
+		measureOperations(name + "Uncached", runs.length, RUNS, () -> {
+			long sum = 0;
+			for (long style : runs) sum += StyleColorCache.resolve(palette, style, false);
+			sSink = sum;
+		});
+		measureOperations(name + "Cached", runs.length, RUNS, () -> {
+			long sum = 0;
+			for (long style : runs) sum += cache.get(style, false);
+			sSink = sum;
+		});
+		if (BENCHMARK_ENABLED) {
+			long misses = cache.getMisses();
+			for (long style : runs) cache.get(style, false);
+			report(name, runs.length + " runs/frame, " + (cache.getMisses() - misses) + " misses/frame");
+		}
+	}
+
+	public void testIndexed() {
+		measure("indexed", indexedScreen());
+	}
+
+	public void testHighlighted() {
+		measure("highlighted", highlightedScreen());
+	}
+
+	public void testGradient() {
+		measure("gradient", gradientScreen());
+	}
+
+}
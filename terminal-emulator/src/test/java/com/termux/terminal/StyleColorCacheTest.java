@@ -0,0 +1,162 @@
+package com.termux.terminal;
+
+import java.util.Random;
+
+public class StyleColorCacheTest extends TerminalTestCase {
+
+	private final StyleColorCache mCache = new StyleColorCache();
+
+	private static int[] palette() {
+		int[] palette = new int[TextStyle.NUM_INDEXED_COLORS];
+		for (int i = 0; i < palette.length; i++)
+			palette[i] = 0xFF000000 | (i * 0x010203);
+		return palette;
+	}
+
+	private static void assertColors(int expectedFore, int expectedBack, long colors) {
+		assertEquals(Integer.toHexString(expectedFore), Integer.toHexString(StyleColorCache.foreColor(colors)));
+		assertEquals(Integer.toHexString(expectedBack), Integer.toHexString(StyleColorCache.backColor(colors)));
+	}
+
+	public void testResolveIndexedColors() {
+		int[] palette = palette();
+		long style = TextStyle.encode(3, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		assertColors(palette[3], palette[TextStyle.COLOR_INDEX_BACKGROUND], StyleColorCache.resolve(palette, style, false));
+		// Bold and blink have bright colors, for the first 8 colors only:
+		style = TextStyle.encode(3, 4, TextStyle.CHARACTER_ATTRIBUTE_BOLD);
+		assertColors(palette[11], palette[4], StyleColorCache.resolve(palette, style, false));
+		style = TextStyle.encode(3, 4, TextStyle.CHARACTER_ATTRIBUTE_BLINK);
+		assertColors(palette[11], palette[4], StyleColorCache.resolve(palette, style, false));
+		style = TextStyle.encode(9, 4, TextStyle.CHARACTER_ATTRIBUTE_BOLD);
+		assertColors(palette[9], palette[4], StyleColorCache.resolve(palette, style, false));
+	}
+
+	public void testResolveTruecolor() {
+		int[] palette = palette();
+		long style = TextStyle.encode(0xFF123456, 0xFF654321, TextStyle.CHARACTER_ATTRIBUTE_BOLD);
+		assertColors(0xFF123456, 0xFF654321, StyleColorCache.resolve(palette, style, false));
+		style = TextStyle.encode(0xFF123456, 5, 0);
+		assertColors(0xFF123456, palette[5], StyleColorCache.resolve(palette, style, false));
+	}
+
+	public void testResolveReverseVideo() {
+		int[] palette = palette();
+		long style = TextStyle.encode(0xFF123456, 0xFF654321, 0);
+		assertColors(0xFF654321, 0xFF123456, StyleColorCache.resolve(palette, style, true));
+		// Inverse and reverse video cancel out:
+		style = TextStyle.encode(0xFF123456, 0xFF654321, TextStyle.CHARACTER_ATTRIBUTE_INVERSE);
+		assertColors(0xFF654321, 0xFF123456, StyleColorCache.resolve(palette, style, false));
+		assertColors(0xFF123456, 0xFF654321, StyleColorCache.resolve(palette, style, true));
+	}
+
+	public void testResolveDim() {
+		int[] palette = palette();
+		long style = TextStyle.encode(0xFF306090, 0xFF654321, TextStyle.CHARACTER_ATTRIBUTE_DIM);
+		assertColors(0xFF204060, 0xFF654321, StyleColorCache.resolve(palette, style, false));
+		// The color shown as foreground is dimmed after reversing:
+		assertColors(0xFF432C16, 0xFF306090, StyleColorCache.resolve(palette, style, true));
+	}
+
+	public void testCacheMatchesResolve() {
+		int[] palette = palette();
+		mCache.setPalette(palette, 1);
+		Random random = new Random(5);
+		long[] styles = new long[2000];
+		for (int i = 0; i < styles.length; i++) {
+			int fore = random.nextBoolean() ? random.nextInt(TextStyle.NUM_INDEXED_COLORS) : 0xFF000000 | random.nextInt();
+			int back = random.nextBoolean() ? random.nextInt(TextStyle.NUM_INDEXED_COLORS) : 0xFF000000 | random.nextInt();
+			styles[i] = TextStyle.encode(fore, back, random.nextInt(1 << 9));
+		}
+		for (int round = 0; round < 3; round++) {
+			for (long style : styles) {
+				boolean reverseVideo = random.nextBoolean();
+				assertEquals(StyleColorCache.resolve(palette, style, reverseVideo), mCache.get(style, reverseVideo));
+			}
+		}
+	}
+
+	public void testRepeatedStylesAreCached() {
+		int[] palette = palette();
+		mCache.setPalette(palette, 1);
+		long style = TextStyle.encode(1, 2, 0);
+		mCache.get(style, false);
+		mCache.get(style, false);
+		mCache.get(style, true);
+		mCache.get(style, true);
+		assertEquals(2, mCache.getMisses());
+
+		// The same palette generation keeps the cache, and a new one invalidates it:
+		mCache.setPalette(palette, 1);
+		mCache.get(style, false);
+		assertEquals(2, mCache.getMisses());
+		mCache.setPalette(palette, 2);
+		mCache.get(style, false);
+		assertEquals(3, mCache.getMisses());
+	}
+
+	public void testTruecolorIsNotCached() {
+		int[] palette = palette();
+		mCache.setPalette(palette, 1);
+		long style = TextStyle.encode(0xFF123456, 2, 0);
+		assertEquals(StyleColorCache.resolve(palette, style, false), mCache.get(style, false));
+		assertEquals(StyleColorCache.resolve(palette, style, true), mCache.get(style, true));
+		assertEquals(0, mCache.getMisses());
+	}
+
+	public void testInvalidPalette() {
+		try {
+			mCache.setPalette(new int[16], 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	public void testGenerationChangesWithColors() {
+		withTerminalSized(3, 3);
+		TerminalColors colors = mTerminal.mColors;
+		long generation = colors.getGeneration();
+		// OSC 4, set an indexed color:
+		enterString("\033]4;5;#00FF00\007");
+		assertTrue(colors.getGeneration() != generation);
+		generation = colors.getGeneration();
+		// An invalid color changes nothing:
+		enterString("\033]4;5;invalid\007");
+		assertEquals(generation, colors.getGeneration());
+		// OSC 10 and 11, set the foreground and background:
+		enterString("\033]10;#FF0000\007");
+		assertTrue(colors.getGeneration() != generation);
+		generation = colors.getGeneration();
+		enterString("\033]11;#0000FF\007");
+		assertTrue(colors.getGeneration() != generation);
+		generation = colors.getGeneration();
+		// OSC 104, reset the colors:
+		enterString("\033]104\007");
+		assertTrue(colors.getGeneration() != generation);
+
+		assertTrue(new TerminalColors().getGeneration() != new TerminalColors().getGeneration());
+	}
+
+	public void testInvalidatedWhenColorsChange() {
+		withTerminalSized(3, 3);
+		TerminalSnapshot snapshot = new TerminalSnapshot();
+		snapshot.update(mTerminal, 0);
+		mCache.setPalette(snapshot.getColors(), snapshot.getColorsGeneration());
+		long style = TextStyle.encode(5, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		assertColors(mTerminal.mColors.mCurrentColors[5], mTerminal.mColors.mCurrentColors[TextStyle.COLOR_INDEX_BACKGROUND],
+			mCache.get(style, false));
+
+		enterString("\033]4;5;#00FF00\007\033]11;#0000FF\007");
+		snapshot.update(mTerminal, 0);
+		mCache.setPalette(snapshot.getColors(), snapshot.getColorsGeneration());
+		assertColors(0xFF00FF00, 0xFF0000FF, mCache.get(style, false));
+
+		// A snapshot reused for another emulator has the colors of that emulator:
+		TerminalEmulator other = BenchmarkTestCase.createEmulator(3, 3);
+		snapshot.update(other, 0);
+		mCache.setPalette(snapshot.getColors(), snapshot.getColorsGeneration());
+		assertColors(other.mColors.mCurrentColors[5], other.mColors.mCurrentColors[TextStyle.COLOR_INDEX_BACKGROUND],
+			mCache.get(style, false));
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.termux.terminal;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class TerminalMetricsTest extends TerminalTestCase {
+
+	private final TerminalMetrics mMetrics = new TerminalMetrics(new SpscByteQueue(16), new SpscByteQueue(16));
+
+	@Override
+	protected void tearDown() throws Exception {
+		TerminalMetrics.setEnabled(false);
+		super.tearDown();
+	}
+
+	public void testCountsEscapeSequencesWhileEnabled() {
+		withTerminalSized(10, 3);
+		mTerminal.setMetrics(mMetrics);
+		enterString("\033[31mred\033[m");
+		assertEquals(0, mMetrics.getEscapeSequences(TerminalMetrics.ESCAPE_CSI));
+
+		TerminalMetrics.setEnabled(true);
+		enterString("\033[1;2H\033]2;title\007\033P$qm\033\\\033_apc\033\\\0337x");
+		assertEquals(1, mMetrics.getEscapeSequences(TerminalMetrics.ESCAPE_CSI));
+		assertEquals(1, mMetrics.getEscapeSequences(TerminalMetrics.ESCAPE_OSC));
+		assertEquals(1, mMetrics.getEscapeSequences(TerminalMetrics.ESCAPE_DCS));
+		assertEquals(1, mMetrics.getEscapeSequences(TerminalMetrics.ESCAPE_APC));
+		// DECSC, as the string terminators of the DCS and APC sequences are part of them:
+		assertEquals(1, mMetrics.getEscapeSequences(TerminalMetrics.ESCAPE_OTHER));
+
+		TerminalMetrics.setEnabled(false);
+		enterString("\033[m");
+		assertEquals(1, mMetrics.getEscapeSequences(TerminalMetrics.ESCAPE_CSI));
+	}
+
+	public void testFramesOnlyCountedWhileEnabled() {
+		mMetrics.onFrameRendered(1000);
+		assertEquals(0, mMetrics.getFramesRendered());
+		TerminalMetrics.setEnabled(true);
+		mMetrics.onFrameRendered(1000);
+		mMetrics.onFrameRendered(2000);
+		assertEquals(2, mMetrics.getFramesRendered());
+		assertEquals(3000, mMetrics.getRenderNanos());
+	}
+
+	public void testDump() {
+		mMetrics.onBytesRead(100);
+		mMetrics.onAppend(80, 1_500_000);
+		mMetrics.onEscapeSequence(TerminalMetrics.ESCAPE_OSC);
+		mMetrics.onScreenUpdate();
+		StringWriter output = new StringWriter();
+		mMetrics.dump(new PrintWriter(output), "  ");
+		assertEquals("  bytesRead=100 bytesParsed=80 appendMillis=1.5\n"
+			+ "  escapeSequences: CSI=0 OSC=1 DCS=0 APC=0 ESC=0\n"
+			+ "  queueStalls: output=0 input=0\n"
+			+ "  screenUpdates=1 framesRendered=0 renderMillis=0.0\n", output.toString().replace(System.lineSeparator(), "\n"));
+	}
+
+}
@@ -0,0 +1,192 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Pastes through a queue like the one to the process of a {@link TerminalSession}, read by a slow consumer. */
+public class TerminalPasteTest extends TestCase {
+
+	private static final int QUEUE_BYTES = 4096;
+
+	private final SpscByteQueue mQueue = new SpscByteQueue(QUEUE_BYTES);
+	private TerminalPaste mLastPaste;
+	private final AtomicInteger mProgressUpdates = new AtomicInteger();
+	private final AtomicInteger mFinishedPastes = new AtomicInteger();
+
+	private final TerminalPaste.Listener mListener = new TerminalPaste.Listener() {
+		@Override
+		public void onPasteProgress(TerminalPaste paste) {
+			mProgressUpdates.incrementAndGet();
+		}
+
+		@Override
+		public void onPasteFinished(TerminalPaste paste) {
+			mFinishedPastes.incrementAndGet();
+		}
+	};
+
+	/**
+	 * Reads the queue in small pieces, sleeping now and then like a process busy with what it read. Compares the bytes
+	 * read with the expected bytes, if any, instead of keeping them.
+	 */
+	private final class SlowConsumer extends Thread {
+		final byte[] mExpected;
+		final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+		volatile long mBytesRead;
+		volatile long mMismatchIndex = -1;
+
+		SlowConsumer(byte[] expected) {
+			mExpected = expected;
+		}
+
+		@Override
+		public void run() {
+			byte[] buffer = new byte[512];
+			int reads = 0;
+			int count;
+			while ((count = mQueue.read(buffer, true)) != -1) {
+				if (mExpected == null) {
+					mOutput.write(buffer, 0, count);
+				} else if (mMismatchIndex == -1) {
+					for (int i = 0; i < count; i++) {
+						long index = mBytesRead + i;
+						if (index >= mExpected.length || buffer[i] != mExpected[(int) index]) {
+							mMismatchIndex = index;
+							break;
+						}
+					}
+				}
+				mBytesRead += count;
+				if (++reads % 256 == 0) {
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}
+
+		/** Wait until {@code bytes} bytes have been read, and then stop reading. */
+		void finish(long bytes) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (mBytesRead < bytes && System.currentTimeMillis() < deadline)
+				Thread.sleep(1);
+			mQueue.close();
+			join();
+		}
+	}
+
+	private TerminalPaste startPaste(String text, boolean bracketed) {
+		TerminalPaste paste = new TerminalPaste(text, bracketed, mQueue, mLastPaste, Runnable::run, mListener);
+		paste.start("TerminalPasteTest");
+		mLastPaste = paste;
+		return paste;
+	}
+
+	private static String createText(int chars) {
+		Random random = new Random(4321);
+		String[] pieces = {"echo hello world", "\n", "\r\n", "中文", "😀", "é", "\033[31m", "\u009b", "\t"};
+		StringBuilder builder = new StringBuilder(chars + 32);
+		while (builder.length() < chars)
+			builder.append(pieces[random.nextInt(pieces.length)]);
+		return builder.toString();
+	}
+
+	private static byte[] expected(String text, boolean bracketed) {
+		text = text.replaceAll("(\u001B|[\u0080-\u009F])", "");
+		text = text.replaceAll("\r?\n", "\r");
+		if (bracketed) text = "\033[200~" + text + "\033[201~";
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	public void testLargePaste() throws Exception {
+		// Tens of MB of UTF-8:
+		String text = createText(20 * 1024 * 1024);
+		byte[] expected = expected(text, true);
+		assertTrue(expected.length > 20 * 1024 * 1024);
+
+		SlowConsumer consumer = new SlowConsumer(expected);
+		consumer.start();
+		TerminalPaste paste = startPaste(text, true);
+		paste.join();
+		assertTrue(paste.isFinished());
+		assertFalse(paste.isCancelled());
+		assertEquals(text.length(), paste.getPastedChars());
+		assertEquals(text.length(), paste.getTotalChars());
+		assertEquals(1, mFinishedPastes.get());
+		assertTrue(mProgressUpdates.get() > 0);
+
+		// Let the consumer read the rest:
+		consumer.finish(expected.length);
+		assertEquals(-1, consumer.mMismatchIndex);
+		assertEquals(expected.length, consumer.mBytesRead);
+	}
+
+	public void testOtherWritersDoNotWaitForPaste() throws Exception {
+		String text = createText(64 * 1024);
+		TerminalPaste paste = startPaste(text, true);
+		// Without a consumer, the paste stops when the queue is almost full:
+		int pastedChars;
+		do {
+			pastedChars = paste.getPastedChars();
+			Thread.sleep(20);
+		} while (pastedChars != paste.getPastedChars() || pastedChars == 0);
+		assertFalse(paste.isFinished());
+
+		// A key typed during the paste is written without waiting for the process:
+		Thread keyWriter = new Thread() {
+			@Override
+			public void run() {
+				synchronized (mQueue) {
+					mQueue.write(new byte[]{'q'}, 0, 1);
+				}
+			}
+		};
+		keyWriter.start();
+		keyWriter.join(5000);
+		assertFalse(keyWriter.isAlive());
+
+		paste.cancel();
+		SlowConsumer consumer = new SlowConsumer(null);
+		consumer.start();
+		paste.join();
+		assertTrue(paste.isCancelled());
+		assertTrue(paste.isFinished());
+		// At most the chunk which was waiting for space was written after cancelling:
+		assertTrue(paste.getPastedChars() >= pastedChars);
+		assertTrue(paste.getPastedChars() <= pastedChars + TerminalPaste.CHUNK_BYTES);
+		assertEquals(1, mFinishedPastes.get());
+
+		// The paste so far, the key and the end of the paste:
+		int expectedBytes = expected(text.substring(0, paste.getPastedChars()), true).length + 1;
+		consumer.finish(expectedBytes);
+		assertEquals(expectedBytes, consumer.mBytesRead);
+		// Bracketed paste mode is still ended:
+		String output = new String(consumer.mOutput.toByteArray(), StandardCharsets.UTF_8);
+		assertTrue(output.startsWith("\033[200~"));
+		assertTrue(output.endsWith("\033[201~"));
+		assertTrue(output.indexOf('q') > 0);
+	}
+
+	public void testPastesAreWrittenInOrder() throws Exception {
+		String first = createText(100 * 1024), second = "second paste";
+		byte[] expected = (new String(expected(first, false), StandardCharsets.UTF_8) + second).getBytes(StandardCharsets.UTF_8);
+		SlowConsumer consumer = new SlowConsumer(expected);
+		consumer.start();
+		TerminalPaste firstPaste = startPaste(first, false);
+		TerminalPaste secondPaste = startPaste(second, false);
+		firstPaste.join();
+		secondPaste.join();
+		assertEquals(2, mFinishedPastes.get());
+
+		consumer.finish(expected.length);
+		assertEquals(-1, consumer.mMismatchIndex);
+		assertEquals(expected.length, consumer.mBytesRead);
+	}
+
+}
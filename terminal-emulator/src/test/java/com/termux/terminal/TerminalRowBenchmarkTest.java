@@ -0,0 +1,109 @@
+package com.termux.terminal;
+
+import java.util.Locale;
+
+/**
+ * Cost of filling rows containing wide characters with {@link TerminalRow#setChar(int, int, long)}, and of finding the
+ * style runs of rows as when rendering them, with the heap used for their styles. See {@link BenchmarkTestCase}.
+ */
+public class TerminalRowBenchmarkTest extends BenchmarkTestCase {
+
+	private static final int COLUMNS = 200;
+	private static final int ROWS_PER_RUN = 100;
+	private static final int RUNS = 50;
+
+	/** Fill each row from left to right with the given code points, as when printing a line of output. */
+	private static void fillRows(TerminalRow row, int[] codePoints) {
+		for (int i = 0; i < ROWS_PER_RUN; i++) {
+			row.clear(TextStyle.NORMAL);
+			int column = 0;
+			for (int j = 0; column < COLUMNS; j++) {
+				int codePoint = codePoints[j % codePoints.length];
+				int width = WcWidth.width(codePoint);
+				if (column + width > COLUMNS) break;
+				row.setChar(column, codePoint, TextStyle.NORMAL);
+				column += width;
+			}
+		}
+	}
+
+	private void measure(String name, final int... codePoints) {
+		final TerminalRow row = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		measureOperations(name, ROWS_PER_RUN, RUNS, () -> fillRows(row, codePoints));
+	}
+
+	public void testFillCjk() {
+		measure("fillCjkRows", '中', '文', '字', '符');
+	}
+
+	public void testFillMixedCjkAndAscii() {
+		measure("fillMixedCjkAndAsciiRows", 'a', '中', 'b', ' ', '文', 'c');
+	}
+
+	public void testFillEmoji() {
+		measure("fillEmojiRows", 0x1F600, 0x1F428, ' ', 0x1F643);
+	}
+
+	public void testFillCombining() {
+		measure("fillCombiningRows", 'a', 0x0308, 'o', 0x0301, ' ');
+	}
+
+	/** The rows of a screen after typical colored output. */
+	private static TerminalRow[] coloredScreenRows(byte[] output) {
+		TerminalEmulator emulator = createEmulator(COLUMNS, 50);
+		emulator.append(output, output.length);
+		TerminalBuffer screen = emulator.getScreen();
+		TerminalRow[] rows = new TerminalRow[emulator.mRows];
+		for (int row = 0; row < rows.length; row++)
+			rows[row] = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+		return rows;
+	}
+
+	/** Count the style runs of the rows the way the renderer used to, by comparing the style of each column. */
+	private static int countStyleRunsPerColumn(TerminalRow[] rows) {
+		int runs = 0;
+		for (TerminalRow row : rows) {
+			long lastStyle = row.getStyle(0);
+			runs++;
+			for (int column = 1; column < COLUMNS; column++) {
+				long style = row.getStyle(column);
+				if (style != lastStyle) runs++;
+				lastStyle = style;
+			}
+		}
+		return runs;
+	}
+
+	private static int countStyleRuns(TerminalRow[] rows) {
+		int runs = 0;
+		for (TerminalRow row : rows) {
+			for (int column = 0; column < COLUMNS; column = row.findStyleRunEnd(column)) runs++;
+		}
+		return runs;
+	}
+
+	private void measureStyleRuns(String name, byte[] output) {
+		final TerminalRow[] rows = coloredScreenRows(output);
+		final int runs = countStyleRuns(rows);
+		assertEquals(countStyleRunsPerColumn(rows), runs);
+		measureOperations(name + "StyleRunsPerColumn", rows.length, RUNS * 20, () -> assertEquals(runs, countStyleRunsPerColumn(rows)));
+		measureOperations(name + "StyleRuns", rows.length, RUNS * 20, () -> assertEquals(runs, countStyleRuns(rows)));
+
+		long styleBytes = 0;
+		for (TerminalRow row : rows) {
+			styleBytes += (row.mStyle != null) ? CompactRowTest.arrayBytes(row.mStyle.length, 8)
+				: CompactRowTest.arrayBytes(row.mStyleIndices.length, 1) + CompactRowTest.arrayBytes(row.mStylePalette.length, 8);
+		}
+		report(name + "StyleBytesPerRow", String.format(Locale.ROOT, "%d (%d with a style per column)",
+			styleBytes / rows.length, CompactRowTest.arrayBytes(COLUMNS, 8)));
+	}
+
+	public void testSgrColoredStyleRuns() {
+		measureStyleRuns("sgrColored", AppendBenchmarkTest.sgrColoredInput(64 * 1024));
+	}
+
+	public void testTruecolorStyleRuns() {
+		measureStyleRuns("truecolor", EmulatorBenchmarkTest.truecolorInput(64 * 1024));
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+
+public class TerminalRowPoolTest extends TerminalTestCase {
+
+	private long allocatedRows() {
+		return mTerminal.getScreen().getAllocatedRows();
+	}
+
+	private static String lines(int from, int to) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = from; i < to; i++) sb.append("line").append(i).append("\r\n");
+		return sb.toString();
+	}
+
+	public void testPoolReusesRowsWithSameColumns() {
+		TerminalRowPool pool = new TerminalRowPool();
+		TerminalRow row = pool.obtain(10, TextStyle.NORMAL);
+		row.setChar(0, 'x', TextStyle.NORMAL);
+		row.mLineWrap = true;
+		pool.release(row);
+		assertNotSame(row, pool.obtain(20, TextStyle.NORMAL));
+		TerminalRow reused = pool.obtain(10, 5);
+		assertSame(row, reused);
+		assertTrue(reused.isBlank());
+		assertFalse(reused.mLineWrap);
+		assertEquals(5, reused.getStyle(9));
+		assertEquals(2, pool.getAllocatedRows());
+		assertEquals(1, pool.getReusedRows());
+	}
+
+	public void testPoolKeepsMostRecentColumnCounts() {
+		TerminalRowPool pool = new TerminalRowPool();
+		pool.release(new TerminalRow(10, TextStyle.NORMAL));
+		pool.release(new TerminalRow(20, TextStyle.NORMAL));
+		pool.release(new TerminalRow(10, TextStyle.NORMAL));
+		pool.release(new TerminalRow(30, TextStyle.NORMAL));
+		// The rows with 20 columns were least recently used:
+		assertEquals(3, pool.getPooledRows());
+		pool.obtain(20, TextStyle.NORMAL);
+		assertEquals(1, pool.getAllocatedRows());
+		pool.obtain(10, TextStyle.NORMAL);
+		pool.obtain(30, TextStyle.NORMAL);
+		assertEquals(2, pool.getReusedRows());
+
+		for (int i = 0; i < TerminalRowPool.MAX_ROWS_PER_COLUMN_COUNT + 10; i++)
+			pool.release(new TerminalRow(10, TextStyle.NORMAL));
+		assertEquals(TerminalRowPool.MAX_ROWS_PER_COLUMN_COUNT, pool.getPooledRows());
+	}
+
+	public void testScrollingDoesNotAllocateRows() {
+		withTerminalSized(10, 5).enterString(lines(0, 20));
+		long allocated = allocatedRows();
+		// Both while the transcript grows and when it is full:
+		enterString(lines(20, 500));
+		assertEquals(allocated, allocatedRows());
+		// Scrolling within margins:
+		enterString("\033[2;4r\033[4;1H" + lines(0, 50) + "\033[r");
+		assertEquals(allocated, allocatedRows());
+	}
+
+	public void testAlternateScreenReusesRows() {
+		withTerminalSized(10, 5).enterString(lines(0, 20));
+		enterString("\033[?1049h" + lines(0, 10) + "\033[?1049l");
+		long allocated = allocatedRows();
+		for (int i = 0; i < 5; i++) {
+			enterString("\033[?1049h");
+			assertLinesAre("          ", "          ", "          ", "          ", "          ");
+			enterString("full" + i + "\033[5;1Hscreen\033[?1049l");
+		}
+		assertEquals(allocated, allocatedRows());
+		assertLineIs(3, "line19    ");
+	}
+
+	/** Rows read are not reused while a reader may hold them, even when reading more than are kept inflated. */
+	public void testReadingMoreRowsThanKeptInflated() {
+		TerminalEmulator emulator = new TerminalEmulator(new MockTerminalOutput(), 10, 5, 10, 20, 1000, null);
+		byte[] bytes = lines(0, 600).getBytes(StandardCharsets.UTF_8);
+		emulator.append(bytes, bytes.length);
+		TerminalBuffer screen = emulator.getScreen();
+		int firstRow = -screen.getActiveTranscriptRows();
+		assertEquals(596, -firstRow);
+
+		TerminalRow[] rows = new TerminalRow[-firstRow];
+		for (int row = firstRow; row < 0; row++)
+			rows[row - firstRow] = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+		for (int i = 0; i < rows.length; i++)
+			assertEquals("line" + i, new String(rows[i].mText, 0, rows[i].getSpaceUsed()).trim());
+
+		// The rows compacted again are reused once the buffer changes:
+		long reused = screen.getReusedRows();
+		bytes = lines(600, 700).getBytes(StandardCharsets.UTF_8);
+		emulator.append(bytes, bytes.length);
+		for (int row = firstRow; row < firstRow + 10; row++)
+			screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+		assertTrue(screen.getReusedRows() > reused);
+		assertEquals("line100", screen.getSelectedText(0, firstRow, 10, firstRow).trim());
+	}
+
+	public void testClearTranscriptReusesRows() {
+		withTerminalSized(10, 5).enterString(lines(0, 50));
+		TerminalBuffer screen = mTerminal.getScreen();
+		for (int row = -10; row < 0; row++) screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+		long allocated = allocatedRows();
+		enterString("\033[3J");
+		assertEquals(0, screen.getActiveTranscriptRows());
+		enterString(lines(50, 100));
+		for (int row = -10; row < 0; row++) screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+		assertEquals(allocated, allocatedRows());
+		assertEquals("line95", screen.getSelectedText(0, -1, 10, -1).trim());
+	}
+
+	public void testResizeReusesRows() {
+		withTerminalSized(10, 5).enterString(lines(0, 50));
+		resize(15, 5);
+		resize(10, 5);
+		long allocated = allocatedRows();
+		for (int i = 0; i < 3; i++) {
+			resize(15, 5);
+			resize(10, 5);
+		}
+		assertEquals(allocated, allocatedRows());
+		assertLineIs(3, "line49    ");
+	}
+
+}
@@ -429,4 +429,154 @@ public class TerminalRowTest extends TestCase {
 		// assertEquals(' ', line.mText[line.findStartOfColumn(COLUMNS - 1)]);
 	}
 
+	private void assertColumnIndexMatchesScanning(TerminalRow line, String message) {
+		for (int column = 0; column <= COLUMNS; column++)
+			assertEquals(message + ", column=" + column, line.findStartOfColumnByScanning(column), line.findStartOfColumn(column));
+		for (int column = 0; column < COLUMNS; column++)
+			assertEquals(message + ", column=" + column, line.wideDisplayCharacterStartingAtByScanning(column), line.wideDisplayCharacterStartingAt(column));
+	}
+
+	public void testColumnIndexMatchesScanning() {
+		int[] codePoints = {'a', 'ö', ' ', ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_2, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1,
+			TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1, DIARESIS_CODEPOINT};
+		TerminalRow other = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		Random random = new Random(5);
+		for (int i = 0; i < 20000; i++) {
+			int operation = random.nextInt(100);
+			if (operation == 0) {
+				row.clear(TextStyle.NORMAL);
+			} else if (operation < 5) {
+				int start = random.nextInt(COLUMNS);
+				int end = start + random.nextInt(COLUMNS - start + 1);
+				row.copyInterval(other, start, end, random.nextInt(COLUMNS - (end - start) + 1));
+			} else {
+				int codePoint = codePoints[random.nextInt(codePoints.length)];
+				int maxColumn = WcWidth.width(codePoint) == 2 ? COLUMNS - 1 : COLUMNS;
+				TerminalRow line = random.nextInt(5) == 0 ? other : row;
+				line.setChar(random.nextInt(maxColumn), codePoint, 0);
+			}
+			assertColumnIndexMatchesScanning(row, "i=" + i);
+		}
+	}
+
+	public void testStyleRuns() {
+		long red = TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		row.fillStyle(10, 20, red);
+		row.setChar(15, 'x', red);
+		assertNotNull(row.mStyleIndices);
+		assertEquals(TextStyle.NORMAL, row.getStyle(9));
+		assertEquals(red, row.getStyle(10));
+		assertEquals(red, row.getStyle(19));
+		assertEquals(TextStyle.NORMAL, row.getStyle(20));
+		assertEquals(10, row.findStyleRunEnd(0));
+		assertEquals(20, row.findStyleRunEnd(12));
+		assertEquals(COLUMNS, row.findStyleRunEnd(20));
+	}
+
+	public void testManyDistinctStylesSwitchToStylePerCell() {
+		// Truecolor output with a new color in every column fills the palette:
+		for (int i = 0; i < 5 * COLUMNS; i++)
+			row.setChar(i % COLUMNS, 'a', TextStyle.encode(0xff000000 | i, TextStyle.COLOR_INDEX_BACKGROUND, 0));
+		// Only COLUMNS styles are in use at a time, so unused ones are removed from the palette instead:
+		assertNotNull(row.mStyleIndices);
+		for (int column = 0; column < COLUMNS; column++)
+			assertEquals(TextStyle.encode(0xff000000 | (4 * COLUMNS + column), TextStyle.COLOR_INDEX_BACKGROUND, 0), row.getStyle(column));
+
+		TerminalRow wide = new TerminalRow(400, TextStyle.NORMAL);
+		for (int column = 0; column < 400; column++)
+			wide.setChar(column, 'a', TextStyle.encode(0xff000000 | column, TextStyle.COLOR_INDEX_BACKGROUND, 0));
+		assertNull(wide.mStyleIndices);
+		assertNotNull(wide.mStyle);
+		for (int column = 0; column < 400; column++)
+			assertEquals(TextStyle.encode(0xff000000 | column, TextStyle.COLOR_INDEX_BACKGROUND, 0), wide.getStyle(column));
+		assertEquals(1, wide.findStyleRunEnd(0));
+
+		wide.clear(TextStyle.NORMAL);
+		assertNull(wide.mStyle);
+		assertEquals(400, wide.findStyleRunEnd(0));
+	}
+
+	public void testStylesMatchStylePerCell() {
+		// Wider than the palette, so that a row can have too many styles for it:
+		final int columns = 300;
+		TerminalRow row = new TerminalRow(columns, TextStyle.NORMAL);
+		long[] styles = new long[columns];
+		boolean switched = false;
+		Arrays.fill(styles, TextStyle.NORMAL);
+		Random random = new Random(6);
+		for (int i = 0; i < 20000; i++) {
+			// Alternately a few styles and a new style each time, so that the palette both fills up and is cleared:
+			long style = TextStyle.encode(i % 4000 < 2000 ? random.nextInt(4) : 0xff000000 | i, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+			int operation = random.nextInt(1000);
+			if (operation == 0) {
+				row.clear(style);
+				Arrays.fill(styles, style);
+			} else if (operation < 30) {
+				int start = random.nextInt(columns);
+				int end = start + random.nextInt(columns - start + 1);
+				row.fillStyle(start, end, style);
+				Arrays.fill(styles, start, end, style);
+			} else {
+				int column = random.nextInt(columns);
+				row.setChar(column, 'a', style);
+				styles[column] = style;
+			}
+			switched |= row.mStyle != null;
+			for (int column = 0; column < columns; column++) {
+				assertEquals("i=" + i + ", column=" + column, styles[column], row.getStyle(column));
+				int end = column + 1;
+				while (end < columns && styles[end] == styles[column]) end++;
+				assertEquals("i=" + i + ", column=" + column, end, row.findStyleRunEnd(column));
+			}
+		}
+		assertTrue(switched);
+	}
+
+	public void testFillCharsCuttingWideChars() {
+		row.setChar(0, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
+		row.setChar(2, 'a', 0);
+		row.setChar(3, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1, 0);
+		long red = TextStyle.encode(1, TextStyle.COLOR_INDEX_BACKGROUND, 0);
+		// Cuts the first wide char after its first half, and the second one after its first half:
+		row.fillChars(1, 4, 'x', red);
+		assertLineStartsWith(' ', 'x', 'x', 'x', ' ', ' ');
+		assertEquals(COLUMNS, row.getSpaceUsed());
+		assertEquals(red, row.getStyle(0));
+		assertEquals(red, row.getStyle(3));
+		assertEquals(TextStyle.NORMAL, row.getStyle(4));
+		assertColumnIndexMatchesScanning(row, "after fill");
+	}
+
+	public void testFillCharsMatchesSetChar() {
+		int[] codePoints = {'a', 'ö', ' ', ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1,
+			TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1, DIARESIS_CODEPOINT};
+		TerminalRow expected = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		Random random = new Random(7);
+		for (int i = 0; i < 20000; i++) {
+			long style = TextStyle.encode(random.nextInt(4), TextStyle.COLOR_INDEX_BACKGROUND, 0);
+			if (random.nextInt(4) == 0) {
+				int start = random.nextInt(COLUMNS + 1);
+				int end = random.nextInt(3) == 0 ? COLUMNS : start + random.nextInt(COLUMNS - start + 1);
+				int codePoint = random.nextBoolean() ? ' ' : codePoints[random.nextInt(codePoints.length)];
+				if (WcWidth.width(codePoint) == 2) {
+					// Wide chars overwrite each other when set in consecutive columns, so only fill a single column:
+					end = Math.min(start + 1, COLUMNS - 1);
+					if (start >= end) continue;
+				}
+				row.fillChars(start, end, codePoint, style);
+				for (int column = start; column < end; column++)
+					expected.setChar(column, codePoint, style);
+			} else {
+				int codePoint = codePoints[random.nextInt(codePoints.length)];
+				int column = random.nextInt(WcWidth.width(codePoint) == 2 ? COLUMNS - 1 : COLUMNS);
+				row.setChar(column, codePoint, style);
+				expected.setChar(column, codePoint, style);
+			}
+			assertEquals("i=" + i, new String(expected.mText, 0, expected.getSpaceUsed()), new String(row.mText, 0, row.getSpaceUsed()));
+			for (int column = 0; column < COLUMNS; column++)
+				assertEquals("i=" + i + ", column=" + column, expected.getStyle(column), row.getStyle(column));
+			assertColumnIndexMatchesScanning(row, "i=" + i);
+		}
+	}
+
 }
@@ -0,0 +1,142 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/** Tests the threads processing the input of a session, with executors run by the tests instead of loopers. */
+public class TerminalSessionTest extends TestCase {
+
+	/** Queues tasks until they are run by the test, like a handler on a thread which is busy. */
+	private static final class QueueExecutor implements Executor {
+		final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+		@Override
+		public void execute(Runnable task) {
+			mTasks.add(task);
+		}
+
+		/** Run the queued tasks, including those queued while running them, and return how many were run. */
+		int runAll() {
+			int tasks = 0;
+			while (!mTasks.isEmpty()) {
+				mTasks.poll().run();
+				tasks++;
+			}
+			return tasks;
+		}
+	}
+
+	private static final class CountingClient implements TerminalSessionClient {
+		int mTextChanges;
+
+		@Override public void onTextChanged(TerminalSession changedSession) { mTextChanges++; }
+		@Override public void onTitleChanged(TerminalSession changedSession) { }
+		@Override public void onSessionFinished(TerminalSession finishedSession) { }
+		@Override public void onCopyTextToClipboard(TerminalSession session, String text) { }
+		@Override public void onPasteTextFromClipboard(TerminalSession session) { }
+		@Override public void onBell(TerminalSession session) { }
+		@Override public void onColorsChanged(TerminalSession session) { }
+		@Override public void onTerminalCursorStateChange(boolean state) { }
+		@Override public void setTerminalShellPid(TerminalSession session, int pid) { }
+		@Override public Integer getTerminalCursorStyle() { return null; }
+		@Override public void logError(String tag, String message) { }
+		@Override public void logWarn(String tag, String message) { }
+		@Override public void logInfo(String tag, String message) { }
+		@Override public void logDebug(String tag, String message) { }
+		@Override public void logVerbose(String tag, String message) { }
+		@Override public void logStackTraceWithMessage(String tag, String message, Exception e) { }
+		@Override public void logStackTrace(String tag, Exception e) { }
+	}
+
+	private final QueueExecutor mMainThread = new QueueExecutor();
+	private final QueueExecutor mEmulationThread = new QueueExecutor();
+	private final QueueExecutor mBackgroundThread = new QueueExecutor();
+	private final CountingClient mClient = new CountingClient();
+	private TerminalSession mSession;
+
+	@Override
+	protected void setUp() {
+		mSession = new TerminalSession("/bin/sh", "/", new String[0], new String[0], null,
+			TerminalSession.DEFAULT_IO_QUEUE_CAPACITY, mClient, mMainThread, mEmulationThread, mBackgroundThread);
+		mSession.createEmulator(20, 5, 10, 20);
+	}
+
+	/** Write output as the reader thread does when the process writes it. */
+	private void output(String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		assertTrue(mSession.mProcessToTerminalIOQueue.write(bytes, 0, bytes.length));
+		mSession.notifyNewInput();
+	}
+
+	private String screenText() {
+		return mSession.getEmulator().getScreen().getTranscriptText();
+	}
+
+	public void testInputIsProcessedOnEmulationThread() {
+		output("a");
+		output("b");
+		assertEquals(1, mSession.getMergedUpdateNotifications());
+		assertEquals("", screenText());
+		assertEquals(1, mEmulationThread.runAll());
+		assertEquals("ab", screenText());
+
+		// One screen update on the main thread for the batch:
+		assertEquals(0, mClient.mTextChanges);
+		assertEquals(1, mMainThread.runAll());
+		assertEquals(1, mClient.mTextChanges);
+		assertEquals(1, mSession.getUpdateBatches());
+	}
+
+	public void testBackgroundInputDoesNotUpdateScreen() {
+		mSession.setInBackground(true);
+		mBackgroundThread.runAll();
+		output("a");
+		assertEquals(0, mEmulationThread.runAll());
+		assertEquals(1, mBackgroundThread.runAll());
+		assertEquals("a", screenText());
+		assertEquals(0, mMainThread.runAll());
+		assertEquals(0, mClient.mTextChanges);
+
+		// The screen is updated when the session is in the foreground again:
+		mSession.setInBackground(false);
+		assertEquals(1, mClient.mTextChanges);
+	}
+
+	public void testInputPostedBeforeMovingIsForwarded() {
+		output("a");
+		mSession.setInBackground(true);
+		// The task posted to the emulation thread lets the background thread process the input:
+		assertEquals(1, mEmulationThread.runAll());
+		assertEquals("", screenText());
+		mBackgroundThread.runAll();
+		assertEquals("a", screenText());
+
+		output("b");
+		mSession.setInBackground(false);
+		assertEquals(1, mBackgroundThread.runAll());
+		assertEquals("a", screenText());
+		mEmulationThread.runAll();
+		assertEquals("ab", screenText());
+	}
+
+	public void testInputStaysInOrderWhenMovedBackAndForth() {
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			String text = Integer.toString(i % 10);
+			output(text);
+			expected.append(text);
+			mSession.setInBackground(i % 2 == 0);
+			// Let the threads get behind in different ways, running one or the other or both:
+			if (i % 3 == 0) mEmulationThread.runAll();
+			if (i % 4 == 0) mBackgroundThread.runAll();
+		}
+		while (mEmulationThread.runAll() + mBackgroundThread.runAll() > 0) {
+			// Run the tasks forwarded between the threads until none is left.
+		}
+		assertEquals(expected.toString(), screenText());
+	}
+
+}
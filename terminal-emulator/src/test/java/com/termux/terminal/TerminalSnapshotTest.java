@@ -0,0 +1,124 @@
+package com.termux.terminal;
+
+public class TerminalSnapshotTest extends TerminalTestCase {
+
+	private final TerminalSnapshot mSnapshot = new TerminalSnapshot();
+
+	private TerminalSnapshot update(int topRow) {
+		mSnapshot.update(mTerminal, topRow);
+		return mSnapshot;
+	}
+
+	private String rowText(int externalRow) {
+		TerminalRow row = mSnapshot.getRow(externalRow);
+		return new String(row.mText, 0, row.getSpaceUsed()).trim();
+	}
+
+	private void assertRowsChanged(boolean... rows) {
+		assertFalse(mSnapshot.areAllRowsChanged());
+		for (int row = 0; row < rows.length; row++)
+			assertEquals("row=" + row, rows[row], mSnapshot.isRowChanged(mSnapshot.getTopRow() + row));
+	}
+
+	public void testCopiesRowsAndCursor() {
+		withTerminalSized(5, 3).enterString("ab\r\n\033[31mcd");
+		update(0);
+		assertTrue(mSnapshot.areAllRowsChanged());
+		assertEquals(5, mSnapshot.getColumns());
+		assertEquals(3, mSnapshot.getRows());
+		assertEquals("ab", rowText(0));
+		assertEquals("cd", rowText(1));
+		assertEquals("", rowText(2));
+		assertEquals(1, mSnapshot.getCursorRow());
+		assertEquals(2, mSnapshot.getCursorCol());
+		assertTrue(mSnapshot.isCursorVisible());
+		assertEquals(getStyleAt(1, 0), mSnapshot.getRow(1).getStyle(0));
+
+		enterString("\033[?25l\033[?5h");
+		update(0);
+		assertFalse(mSnapshot.isCursorVisible());
+		assertTrue(mSnapshot.isReverseVideo());
+	}
+
+	public void testOnlyCopiesChangedRows() {
+		withTerminalSized(5, 3).enterString("ab\r\ncd");
+		update(0);
+		update(0);
+		assertRowsChanged(false, false, false);
+
+		enterString("\033[3;1Hef");
+		update(0);
+		assertRowsChanged(false, false, true);
+		assertEquals("ef", rowText(2));
+
+		// Scrolling changes all rows on the screen:
+		enterString("\r\n");
+		update(0);
+		assertRowsChanged(true, true, true);
+		assertEquals("cd", rowText(0));
+	}
+
+	public void testTranscriptRows() {
+		withTerminalSized(5, 3).enterString("a\r\nb\r\nc\r\nd");
+		update(-1);
+		assertEquals("a", rowText(-1));
+		assertEquals("c", rowText(1));
+		update(-1);
+		assertRowsChanged(false, false, false);
+
+		// A row scrolling into the transcript moves the visible transcript rows:
+		enterString("\r\ne");
+		update(-1);
+		assertEquals("b", rowText(-1));
+		assertEquals("d", rowText(1));
+		assertTrue(mSnapshot.isRowChanged(-1));
+	}
+
+	public void testAllRowsChanged() {
+		withTerminalSized(5, 3).enterString("a\r\nb\r\nc\r\nd");
+		update(0);
+		update(-1);
+		assertTrue(mSnapshot.areAllRowsChanged());
+		update(-1);
+		assertFalse(mSnapshot.areAllRowsChanged());
+
+		enterString("\033[?1049h");
+		update(0);
+		assertTrue(mSnapshot.areAllRowsChanged());
+		assertEquals("", rowText(0));
+		update(0);
+		assertFalse(mSnapshot.areAllRowsChanged());
+
+		resize(4, 2);
+		update(0);
+		assertTrue(mSnapshot.areAllRowsChanged());
+		assertEquals(4, mSnapshot.getColumns());
+		assertEquals(2, mSnapshot.getRows());
+		assertEquals(4, mSnapshot.getRow(0).getColumns());
+	}
+
+	public void testSnapshotIsNotChangedByEmulator() {
+		withTerminalSized(5, 3).enterString("ab\033[44m\033[2K");
+		update(0);
+		assertEquals("", rowText(0));
+		enterString("\033[1;1Hxyz\033[2;1H中");
+		// The rows are only copied on the next update:
+		assertEquals("", rowText(0));
+		assertEquals("", rowText(1));
+		update(0);
+		assertEquals("xyz", rowText(0));
+		assertEquals("中", rowText(1));
+		assertEquals(mTerminal.getScreen().getStyleAt(0, 4), mSnapshot.getRow(0).getStyle(4));
+	}
+
+	public void testColors() {
+		withTerminalSized(5, 3);
+		update(0);
+		int original = mSnapshot.getColors()[1];
+		enterString("\033]4;1;#ffffff\007");
+		assertEquals(original, mSnapshot.getColors()[1]);
+		update(0);
+		assertEquals(0xffffffff, mSnapshot.getColors()[1]);
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+public class TranscriptExportTest extends TerminalTestCase {
+
+	private String export(boolean joinBackLines, boolean joinFullLines, boolean withStyles) throws IOException {
+		StringWriter writer = new StringWriter();
+		mTerminal.getScreen().writeTranscript(writer, joinBackLines, joinFullLines, withStyles);
+		return writer.toString();
+	}
+
+	public void testPlainText() throws IOException {
+		withTerminalSized(5, 3).enterString("\r\n  abcdefg\r\nhij  \r\n\r\n");
+		assertEquals("abcdefg\nhij", export(true, false, false));
+		assertEquals("abc\ndefg\nhij", export(false, false, false));
+		assertEquals(mTerminal.getScreen().getTranscriptText(), export(true, false, false));
+		assertEquals(mTerminal.getScreen().getTranscriptTextWithoutJoinedLines(), export(false, false, false));
+	}
+
+	public void testFullLinesJoined() throws IOException {
+		withTerminalSized(5, 3).enterString("abcde\r\nfgh");
+		assertEquals("abcdefgh", export(true, true, false));
+		assertEquals(mTerminal.getScreen().getTranscriptTextWithFullLinesJoined(), export(true, true, false));
+	}
+
+	public void testWholeHistory() throws IOException {
+		withTerminalSized(5, 3);
+		StringBuilder input = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			input.append(i).append("\r\n");
+			expected.append(i).append(i < 19 ? "\n" : "");
+		}
+		enterString(input.toString());
+		assertEquals(expected.toString(), export(true, false, false));
+	}
+
+	public void testStyles() throws IOException {
+		withTerminalSized(10, 3).enterString("a\033[1;31mb\033[0m c\r\n\033[38;2;1;2;3;48;5;200mX\033[0m");
+		assertEquals("a\033[0;1;31mb\033[0m c\n\033[0;38;2;1;2;3;48;5;200mX\033[0m", export(true, false, true));
+
+		// A style at the start is kept although leading whitespace is not:
+		withTerminalSized(10, 3).enterString("\033[4m  u");
+		assertEquals("\033[0;4mu\033[0m", export(true, false, true));
+	}
+
+	public void testStylesReadBack() throws IOException {
+		withTerminalSized(10, 3).enterString("\033[1mbold\033[0m \033[3;35mital\033[0m\r\n\033[7mrev");
+		String exported = export(true, false, true);
+		TerminalEmulator original = mTerminal;
+		withTerminalSized(10, 3).enterString(exported.replace("\n", "\r\n"));
+		for (int row = 0; row < 2; row++) {
+			for (int column = 0; column < 9; column++) {
+				assertEquals("row=" + row + ", column=" + column, original.getScreen().getStyleAt(row, column),
+					mTerminal.getScreen().getStyleAt(row, column));
+			}
+		}
+	}
+
+	public void testOutputStream() throws IOException {
+		withTerminalSized(5, 3).enterString("中文\r\né");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		mTerminal.getScreen().writeTranscript(out, true, false, false);
+		assertEquals("中文\né", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+}
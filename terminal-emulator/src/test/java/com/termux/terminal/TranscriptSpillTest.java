@@ -0,0 +1,228 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class TranscriptSpillTest extends TestCase {
+
+	private static final int COLUMNS = 20;
+	private static final int ROWS = 5;
+	private static final int TRANSCRIPT_ROWS = TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN;
+
+	private File mFile;
+
+	@Override
+	protected void setUp() throws IOException {
+		mFile = File.createTempFile("transcript-spill", null);
+	}
+
+	@Override
+	protected void tearDown() {
+		//noinspection ResultOfMethodCallIgnored
+		mFile.delete();
+	}
+
+	private TerminalEmulator emulatorWithSpill(int spillRows, int segmentBytes) throws IOException {
+		TerminalEmulator emulator = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), COLUMNS, ROWS, 10, 20, TRANSCRIPT_ROWS, null);
+		emulator.getScreen().setTranscriptSpill(new TranscriptSpillFile(mFile, spillRows, segmentBytes));
+		return emulator;
+	}
+
+	/** An emulator keeping all of the history in memory, to compare with. */
+	private static TerminalEmulator emulatorWithoutSpill() {
+		return new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), COLUMNS, ROWS, 10, 20, TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MAX, null);
+	}
+
+	private static void append(TerminalEmulator emulator, String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		emulator.append(bytes, bytes.length);
+	}
+
+	private static String numberedLines(int first, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = first; i < first + count; i++) {
+			sb.append("\033[3").append(i % 8).append("mline ").append(i).append("\033[0m");
+			if (i % 3 == 0) sb.append(" 中文");
+			sb.append("\r\n");
+		}
+		return sb.toString();
+	}
+
+	/** The last {@code rows} rows of history and the screen, as text. */
+	private static String lastRows(TerminalBuffer screen, int rows) {
+		return screen.getSelectedText(0, screen.mScreenRows - rows, COLUMNS, screen.mScreenRows);
+	}
+
+	public void testSpilledRowsAreKept() throws IOException {
+		TerminalEmulator emulator = emulatorWithSpill(1000, TranscriptSpillFile.DEFAULT_SEGMENT_BYTES);
+		TerminalEmulator expected = emulatorWithoutSpill();
+		String output = numberedLines(0, 600);
+		append(emulator, output);
+		append(expected, output);
+
+		TerminalBuffer screen = emulator.getScreen();
+		assertEquals(TRANSCRIPT_ROWS - ROWS, screen.getActiveTranscriptRows() - screen.getSpilledRows());
+		assertEquals(expected.getScreen().getActiveTranscriptRows(), screen.getActiveTranscriptRows());
+		assertEquals(expected.getScreen().getTranscriptText(), screen.getTranscriptText());
+
+		// Scroll through all of the history the way the renderer does:
+		for (int row = -screen.getActiveTranscriptRows(); row < ROWS; row++) {
+			TerminalRow line = screen.allocateFullLineIfNecessary(screen.pageInRow(row));
+			for (int column = 0; column < COLUMNS; column++)
+				assertEquals("row=" + row, expected.getScreen().getStyleAt(row, column), line.getStyle(column));
+			assertEquals(expected.getScreen().getSelectedText(0, row, COLUMNS, row), screen.getSelectedText(0, row, COLUMNS, row));
+		}
+	}
+
+	public void testWraparound() throws IOException {
+		final int spillRows = 150;
+		// Small segments, so that segments with only dropped rows are reused:
+		TerminalEmulator emulator = emulatorWithSpill(spillRows, 1024);
+		TerminalEmulator expected = emulatorWithoutSpill();
+		for (int i = 0; i < 20; i++) {
+			String output = numberedLines(i * 100, 100);
+			append(emulator, output);
+			append(expected, output);
+		}
+
+		TerminalBuffer screen = emulator.getScreen();
+		assertEquals(spillRows, screen.getSpilledRows());
+		int rows = screen.getActiveRows();
+		assertEquals(TRANSCRIPT_ROWS + spillRows, rows);
+		assertEquals(lastRows(expected.getScreen(), rows), lastRows(screen, rows));
+		assertTrue(screen.getTranscriptText().startsWith("line " + (2000 - rows + 1) + "\n"));
+	}
+
+	public void testFileSizeIsBounded() throws IOException {
+		TranscriptSpillFile spill = new TranscriptSpillFile(mFile, 100, 1024);
+		CompactRow row = new TerminalRow(COLUMNS, TextStyle.NORMAL).toCompactRow();
+		long fileLength = 0;
+		for (int i = 0; i < 10000; i++) {
+			spill.append(row, COLUMNS);
+			if (i == 1000) fileLength = spill.getFileLength();
+		}
+		assertEquals(100, spill.getRows());
+		assertEquals(10000, spill.getEndRow());
+		assertEquals(fileLength, spill.getFileLength());
+		spill.close();
+		assertFalse(mFile.exists());
+	}
+
+	public void testRowsInMemoryAfterFailure() throws IOException {
+		TranscriptSpillFile spill = new TranscriptSpillFile(mFile, 100, 1024);
+		TerminalRow row = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		for (int i = 0; i < 150; i++) {
+			row.setChar(0, '0' + i % 10, TextStyle.NORMAL);
+			// As when the file could not be grown after 80 rows:
+			if (i < 80) spill.append(row.toCompactRow(), COLUMNS);
+			else spill.appendInMemory(row.toCompactRow(), COLUMNS);
+		}
+		assertTrue(spill.isInMemory());
+		assertEquals(100, spill.getRows());
+		for (long i = spill.getFirstRow(); i < spill.getEndRow(); i++)
+			assertEquals("row=" + i, '0' + i % 10, spill.read(i, COLUMNS).mText[0]);
+
+		// Later rows are kept in memory as well, and drop the oldest ones:
+		row.setChar(0, 'x', TextStyle.NORMAL);
+		for (int i = 0; i < 100; i++) spill.append(row.toCompactRow(), COLUMNS);
+		assertEquals(100, spill.getRows());
+		assertEquals('x', spill.read(spill.getFirstRow(), COLUMNS).mText[0]);
+
+		spill.clear();
+		assertFalse(spill.isInMemory());
+		assertEquals(0, spill.getRows());
+		spill.append(row.toCompactRow(), COLUMNS);
+		assertTrue(mFile.length() > 0);
+		spill.close();
+		assertFalse(mFile.exists());
+	}
+
+	public void testSpilledRowsArePagedInExplicitly() throws IOException {
+		TerminalEmulator emulator = emulatorWithSpill(1000, 1024);
+		append(emulator, numberedLines(0, 300));
+		TerminalBuffer screen = emulator.getScreen();
+		int oldestRow = -screen.getActiveTranscriptRows();
+		try {
+			screen.externalToInternalRow(oldestRow);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		TerminalRow line = screen.allocateFullLineIfNecessary(screen.pageInRow(oldestRow));
+		assertEquals("line 0 中文", new String(line.mText, 0, line.getSpaceUsed()).trim());
+	}
+
+	public void testClearTranscript() throws IOException {
+		TerminalEmulator emulator = emulatorWithSpill(1000, 1024);
+		append(emulator, numberedLines(0, 300));
+		TerminalBuffer screen = emulator.getScreen();
+		assertTrue(screen.getSpilledRows() > 0);
+		// Page in some spilled rows before clearing:
+		screen.getSelectedText(0, -screen.getActiveTranscriptRows(), COLUMNS, -screen.getActiveTranscriptRows() + 10);
+
+		append(emulator, "\033[3J");
+		assertEquals(0, screen.getActiveTranscriptRows());
+		assertEquals(0, screen.getSpilledRows());
+		assertEquals(0, mFile.length());
+
+		TerminalEmulator expected = emulatorWithoutSpill();
+		append(expected, numberedLines(0, 300) + "\033[3J" + numberedLines(1000, 300));
+		append(emulator, numberedLines(1000, 300));
+		assertEquals(expected.getScreen().getActiveTranscriptRows(), screen.getActiveTranscriptRows());
+		assertEquals(expected.getScreen().getTranscriptText(), screen.getTranscriptText());
+	}
+
+	public void testResize() throws IOException {
+		TerminalEmulator emulator = emulatorWithSpill(1000, TranscriptSpillFile.DEFAULT_SEGMENT_BYTES);
+		TerminalEmulator expected = emulatorWithoutSpill();
+		String output = numberedLines(0, 400);
+		append(emulator, output);
+		append(expected, output);
+		TerminalBuffer screen = emulator.getScreen();
+		int spilledRows = screen.getSpilledRows();
+		assertTrue(spilledRows > 0);
+
+		// Changing only the rows keeps the spilled rows:
+		emulator.resize(COLUMNS, ROWS + 3, 10, 20);
+		expected.resize(COLUMNS, ROWS + 3, 10, 20);
+		assertEquals(spilledRows, screen.getSpilledRows());
+		assertEquals(expected.getScreen().getTranscriptText(), screen.getTranscriptText());
+
+		// Reflowing the transcript in memory pushes more rows into the spill file, which are not reflowed. The lines
+		// are short, so there is nothing to reflow and the text does not change:
+		emulator.resize(COLUMNS - 5, ROWS, 10, 20);
+		expected.resize(COLUMNS - 5, ROWS, 10, 20);
+		assertTrue(screen.getSpilledRows() >= spilledRows);
+		assertEquals(expected.getScreen().getTranscriptText(), screen.getTranscriptText());
+		emulator.resize(COLUMNS, ROWS, 10, 20);
+		expected.resize(COLUMNS, ROWS, 10, 20);
+		assertEquals(expected.getScreen().getTranscriptText(), screen.getTranscriptText());
+	}
+
+	public void testResizeCutsOffWiderSpilledRows() throws IOException {
+		TerminalEmulator emulator = emulatorWithSpill(1000, TranscriptSpillFile.DEFAULT_SEGMENT_BYTES);
+		append(emulator, "abcdefghijklmnopqrst\r\n" + numberedLines(0, 200));
+		TerminalBuffer screen = emulator.getScreen();
+		int oldestRow = -screen.getActiveTranscriptRows();
+		assertEquals("abcdefghijklmnopqrst", screen.getSelectedText(0, oldestRow, COLUMNS, oldestRow));
+
+		emulator.resize(10, ROWS, 10, 20);
+		oldestRow = -screen.getActiveTranscriptRows();
+		assertEquals("abcdefghij", screen.getSelectedText(0, oldestRow, 10, oldestRow));
+		assertEquals(10, screen.allocateFullLineIfNecessary(screen.pageInRow(oldestRow)).getColumns());
+	}
+
+	public void testCloseDeletesFile() throws IOException {
+		TerminalEmulator emulator = emulatorWithSpill(1000, 1024);
+		append(emulator, numberedLines(0, 300));
+		assertTrue(mFile.length() > 0);
+		emulator.closeTranscriptSpill();
+		assertFalse(mFile.exists());
+		assertEquals(0, emulator.getScreen().getSpilledRows());
+		assertEquals(TRANSCRIPT_ROWS - ROWS, emulator.getScreen().getActiveTranscriptRows());
+	}
+
+}
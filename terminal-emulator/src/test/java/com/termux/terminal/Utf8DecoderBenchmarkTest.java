@@ -0,0 +1,48 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Throughput of decoding UTF-8 output by a {@link Utf8Decoder}, compared to decoding it a byte at a time as
+ * {@link TerminalEmulator} did before. See {@link BenchmarkTestCase}.
+ */
+public class Utf8DecoderBenchmarkTest extends BenchmarkTestCase {
+
+	private static final int INPUT_SIZE = 1024 * 1024;
+	/** The size of the chunks that {@link TerminalSession} reads from the process. */
+	private static final int CHUNK_SIZE = 4096;
+	private static final int RUNS = 20;
+
+	private void measure(String name, final byte[] input) {
+		final Utf8Decoder decoder = new Utf8Decoder();
+		final Utf8DecoderTest.ByteAtATimeDecoder baseline = new Utf8DecoderTest.ByteAtATimeDecoder();
+		final int[] codePoints = new int[CHUNK_SIZE + 1];
+		final int[] baselineCodePoints = new int[CHUNK_SIZE + 1];
+
+		double byteAtATime = measureThroughput(name + "ByteAtATime", input.length, RUNS, () -> {
+			for (int offset = 0; offset < input.length; offset += CHUNK_SIZE)
+				baseline.decode(input, offset, Math.min(input.length, offset + CHUNK_SIZE), baselineCodePoints);
+		});
+		double decode = measureThroughput(name, input.length, RUNS, () -> {
+			for (int offset = 0; offset < input.length; offset += CHUNK_SIZE)
+				decoder.decode(input, offset, Math.min(input.length, offset + CHUNK_SIZE), codePoints);
+		});
+		if (BENCHMARK_ENABLED) report(name + "Speedup", String.format(Locale.ROOT, "%.2fx", decode / byteAtATime));
+
+		// Both decoders are at the same place in the same chunk:
+		final int offset = (input.length - 1) / CHUNK_SIZE * CHUNK_SIZE;
+		final int count = decoder.decode(input, offset, input.length, codePoints);
+		final int baselineCount = baseline.decode(input, offset, input.length, baselineCodePoints);
+		assertTrue(Arrays.equals(Arrays.copyOf(baselineCodePoints, baselineCount), Arrays.copyOf(codePoints, count)));
+	}
+
+	public void testCjkEmoji() {
+		measure("cjkEmoji", EmulatorBenchmarkTest.cjkEmojiInput(INPUT_SIZE));
+	}
+
+	public void testLogLines() {
+		measure("logLines", EmulatorBenchmarkTest.logLinesInput(INPUT_SIZE));
+	}
+
+}
@@ -0,0 +1,192 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Utf8DecoderTest extends TestCase {
+
+	private static final int R = TerminalEmulator.UNICODE_REPLACEMENT_CHAR;
+	private static final int B = Utf8Decoder.BROKEN_SEQUENCE;
+
+	/**
+	 * The byte at a time decoding done by {@link TerminalEmulator} before it used a {@link Utf8Decoder}, with the off by
+	 * one in its overlong check fixed, which let U+07FF and U+FFFF through as 3 and 4 byte sequences.
+	 */
+	static final class ByteAtATimeDecoder {
+		private int mToFollow, mIndex;
+		private final byte[] mBuffer = new byte[4];
+		private int[] mOutput;
+		private int mCount;
+
+		int decode(byte[] bytes, int start, int end, int[] output) {
+			mOutput = output;
+			mCount = 0;
+			for (int i = start; i < end; i++)
+				processByte(bytes[i]);
+			return mCount;
+		}
+
+		private void processByte(byte byteToProcess) {
+			if (mToFollow > 0) {
+				if ((byteToProcess & 0b11000000) == 0b10000000) {
+					mBuffer[mIndex++] = byteToProcess;
+					if (--mToFollow == 0) {
+						byte firstByteMask = (byte) (mIndex == 2 ? 0b00011111 : (mIndex == 3 ? 0b00001111 : 0b00000111));
+						int codePoint = (mBuffer[0] & firstByteMask);
+						for (int i = 1; i < mIndex; i++)
+							codePoint = ((codePoint << 6) | (mBuffer[i] & 0b00111111));
+						if (((codePoint <= 0b1111111) && mIndex > 1) || (codePoint <= 0b11111111111 && mIndex > 2)
+							|| (codePoint <= 0b1111111111111111 && mIndex > 3)) {
+							codePoint = R;
+						}
+						mIndex = mToFollow = 0;
+						if (codePoint < 0x80 || codePoint > 0x9F) {
+							switch (Character.getType(codePoint)) {
+								case Character.UNASSIGNED:
+								case Character.SURROGATE:
+									codePoint = R;
+							}
+							mOutput[mCount++] = codePoint;
+						}
+					}
+				} else {
+					mIndex = mToFollow = 0;
+					mOutput[mCount++] = B;
+					processByte(byteToProcess);
+				}
+			} else {
+				if ((byteToProcess & 0b10000000) == 0) {
+					mOutput[mCount++] = byteToProcess;
+					return;
+				} else if ((byteToProcess & 0b11100000) == 0b11000000) {
+					mToFollow = 1;
+				} else if ((byteToProcess & 0b11110000) == 0b11100000) {
+					mToFollow = 2;
+				} else if ((byteToProcess & 0b11111000) == 0b11110000) {
+					mToFollow = 3;
+				} else {
+					mOutput[mCount++] = R;
+					return;
+				}
+				mBuffer[mIndex++] = byteToProcess;
+			}
+		}
+	}
+
+	private static int[] decode(byte[] bytes, int chunkSize) {
+		Utf8Decoder decoder = new Utf8Decoder();
+		int[] output = new int[bytes.length + 1];
+		int[] chunk = new int[chunkSize + 1];
+		int count = 0;
+		for (int start = 0; start < bytes.length; start += chunkSize) {
+			int chunkCount = decoder.decode(bytes, start, Math.min(bytes.length, start + chunkSize), chunk);
+			System.arraycopy(chunk, 0, output, count, chunkCount);
+			count += chunkCount;
+		}
+		return Arrays.copyOf(output, count);
+	}
+
+	private static int[] decodeByteAtATime(byte[] bytes) {
+		int[] output = new int[bytes.length + 1];
+		return Arrays.copyOf(output, new ByteAtATimeDecoder().decode(bytes, 0, bytes.length, output));
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) bytes[i] = (byte) values[i];
+		return bytes;
+	}
+
+	/** Check the decoding of bytes, also when they are split into chunks, and that it is the same as before. */
+	private static void assertDecodes(byte[] bytes, int... expected) {
+		for (int chunkSize : new int[]{1, 2, 3, 5, Math.max(1, bytes.length)})
+			assertEquals(Arrays.toString(expected), Arrays.toString(decode(bytes, chunkSize)));
+		assertEquals(Arrays.toString(expected), Arrays.toString(decodeByteAtATime(bytes)));
+	}
+
+	public void testWellFormed() {
+		String text = "a\u00e9\u20ac\u4e2d\uD83D\uDE00\u0000\u007f\u00a0\uFFEE\uDBFF\uDFFD";
+		assertDecodes(text.getBytes(StandardCharsets.UTF_8), text.codePoints().toArray());
+	}
+
+	public void testOverlong() {
+		// Overlong encodings of '/', U+07FF and U+FFFF, each replaced with one replacement character:
+		assertDecodes(bytes(0xc0, 0xaf, 'a'), R, 'a');
+		assertDecodes(bytes(0xc1, 0xbf), R);
+		assertDecodes(bytes(0xe0, 0x80, 0xaf), R);
+		assertDecodes(bytes(0xe0, 0x9f, 0xbf), R);
+		assertDecodes(bytes(0xf0, 0x80, 0x80, 0xaf), R);
+		assertDecodes(bytes(0xf0, 0x8f, 0xbf, 0xbf), R);
+		// The shortest encodings of the same lengths:
+		assertDecodes(bytes(0xc2, 0xa0), 0xa0);
+		assertDecodes(bytes(0xe0, 0xa0, 0x80), 0x800);
+		assertDecodes(bytes(0xf0, 0x90, 0x80, 0x80), 0x10000);
+	}
+
+	public void testTruncated() {
+		// A sequence cut short does not consume the byte after it:
+		assertDecodes(bytes(0xc2, 'a'), B, 'a');
+		assertDecodes(bytes(0xe4, 0xb8, 'a'), B, 'a');
+		assertDecodes(bytes(0xf0, 0x9f, 0x98, 'a'), B, 'a');
+		assertDecodes(bytes(0xe4, 0xb8, 0xe4, 0xb8, 0xad), B, 0x4e2d);
+		assertDecodes(bytes(0xf0, 0x9f, 0xc3, 0xa9), B, 0xe9);
+		// Not yet completed at the end:
+		assertDecodes(bytes('a', 0xe4, 0xb8), 'a');
+	}
+
+	public void testInvalidBytes() {
+		assertDecodes(bytes(0x80, 'a', 0xbf), R, 'a', R);
+		assertDecodes(bytes(0xf8, 0xfc, 0xfe, 0xff), R, R, R, R);
+		assertDecodes(bytes(0xc2, 0xf8), B, R);
+	}
+
+	public void testInvalidCodePoints() {
+		// Surrogates:
+		assertDecodes(bytes(0xed, 0xa0, 0x80, 0xed, 0xbf, 0xbf), R, R);
+		// After U+10FFFF:
+		assertDecodes(bytes(0xf4, 0x90, 0x80, 0x80), R);
+		assertDecodes(bytes(0xf7, 0xbf, 0xbf, 0xbf), R);
+		// U+C2541 and U+0378, which are unassigned:
+		assertDecodes(bytes(0xf3, 0x82, 0x95, 0x81), R);
+		assertDecodes(bytes(0xcd, 0xb8), R);
+		// Private use code points are assigned:
+		assertDecodes(bytes(0xee, 0x80, 0x80), 0xe000);
+	}
+
+	public void testC1ControlsAreDropped() {
+		assertDecodes(bytes('a', 0xc2, 0x80, 0xc2, 0x9b, 0xc2, 0x9f, 'b'), 'a', 'b');
+	}
+
+	public void testIsInvalid() {
+		for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT + 1; codePoint++) {
+			int type = Character.getType(codePoint);
+			assertEquals(type == Character.UNASSIGNED || type == Character.SURROGATE, Utf8Decoder.isInvalid(codePoint));
+		}
+	}
+
+	public void testSameAsByteAtATime() {
+		Random random = new Random(5678);
+		int[] interesting = {'a', 0x80, 0x9f, 0xbf, 0xc0, 0xc2, 0xdf, 0xe0, 0xe4, 0xed, 0xef, 0xf0, 0xf3, 0xf4, 0xf7, 0xf8, 0xff};
+		for (int i = 0; i < 1000; i++) {
+			byte[] bytes = new byte[random.nextInt(64)];
+			for (int j = 0; j < bytes.length; j++)
+				bytes[j] = (byte) (random.nextBoolean() ? interesting[random.nextInt(interesting.length)] : random.nextInt(256));
+			int[] expected = decodeByteAtATime(bytes);
+			for (int chunkSize : new int[]{1, 3, 7, 64})
+				assertEquals(Arrays.toString(expected), Arrays.toString(decode(bytes, chunkSize)));
+		}
+	}
+
+	public void testTooSmallBuffer() {
+		try {
+			new Utf8Decoder().decode(new byte[4], 0, 4, new int[4]);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+}
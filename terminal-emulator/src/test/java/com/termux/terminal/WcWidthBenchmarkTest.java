@@ -0,0 +1,62 @@
+package com.termux.terminal;
+
+import java.util.Random;
+
+/** Lookup speed of {@link WcWidth#width(int)} compared to binary searching the interval tables. See {@link BenchmarkTestCase}. */
+public class WcWidthBenchmarkTest extends BenchmarkTestCase {
+
+	private static final int TEXT_LENGTH = 100_000;
+	private static final int RUNS = 50;
+
+	/** Written with the results, so that the JIT can not remove the lookups. */
+	static volatile int sSink;
+
+	/** Random code points from the given ranges, mixed with some ASCII like in real world output. */
+	static int[] randomText(long seed, int... ranges) {
+		Random random = new Random(seed);
+		int[] text = new int[TEXT_LENGTH];
+		for (int i = 0; i < text.length; i++) {
+			if (random.nextInt(5) == 0) {
+				text[i] = ' ' + random.nextInt(95);
+			} else {
+				int range = random.nextInt(ranges.length / 2) * 2;
+				text[i] = ranges[range] + random.nextInt(ranges[range + 1] - ranges[range] + 1);
+			}
+		}
+		return text;
+	}
+
+	private static int sumWidths(int[] text) {
+		int sum = 0;
+		for (int codePoint : text) sum += WcWidth.width(codePoint);
+		return sum;
+	}
+
+	private static int sumWidthsFromTables(int[] text) {
+		int sum = 0;
+		for (int codePoint : text) sum += WcWidth.widthFromTables(codePoint);
+		return sum;
+	}
+
+	private void measure(String name, final int[] text) {
+		measureOperations(name + "FromTables", text.length, RUNS, () -> sSink = sumWidthsFromTables(text));
+		measureOperations(name, text.length, RUNS, () -> sSink = sumWidths(text));
+		assertEquals(sumWidthsFromTables(text), sumWidths(text));
+	}
+
+	public void testCjk() {
+		// CJK Unified Ideographs, Hiragana and Katakana, Hangul Syllables and Halfwidth and Fullwidth Forms.
+		measure("cjk", randomText(1, 0x4E00, 0x9FFF, 0x3040, 0x30FF, 0xAC00, 0xD7A3, 0xFF00, 0xFFEF));
+	}
+
+	public void testEmoji() {
+		// Miscellaneous Symbols and Pictographs, Emoticons, Transport and Map Symbols and Supplemental Symbols and Pictographs.
+		measure("emoji", randomText(2, 0x1F300, 0x1F5FF, 0x1F600, 0x1F64F, 0x1F680, 0x1F6FF, 0x1F900, 0x1F9FF));
+	}
+
+	public void testCombining() {
+		// Latin and Cyrillic with Combining Diacritical Marks, Devanagari and Arabic.
+		measure("combining", randomText(3, 0x0041, 0x005A, 0x0300, 0x036F, 0x0400, 0x04FF, 0x0900, 0x097F, 0x0600, 0x06FF));
+	}
+
+}
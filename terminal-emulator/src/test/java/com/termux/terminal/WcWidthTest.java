@@ -78,4 +78,13 @@ public class WcWidthTest extends TestCase {
 		assertWidthIs(2, 0x1F643); // UPSIDE-DOWN FACE (Unicode 8).
 	}
 
+	public void testLookupTableMatchesIntervalTables() {
+		for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+			if (WcWidth.width(codePoint) != WcWidth.widthFromTables(codePoint))
+				fail("Different width for code point " + Integer.toHexString(codePoint));
+		}
+		assertEquals(WcWidth.widthFromTables(-1), WcWidth.width(-1));
+		assertEquals(WcWidth.widthFromTables(Character.MAX_CODE_POINT + 1), WcWidth.width(Character.MAX_CODE_POINT + 1));
+	}
+
 }
@@ -0,0 +1,46 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Time to find the word at a location in a single wrapped line of 20 000 chars, as when double tapping to select a
+ * word or tapping a URL in long output without newlines. See {@link BenchmarkTestCase}.
+ */
+public class WordAtLocationBenchmarkTest extends BenchmarkTestCase {
+
+	private static final int COLUMNS = 80, ROWS = 24;
+	private static final int LINE_CHARS = 20_000;
+	private static final int RUNS = 20;
+
+	private static TerminalBuffer screenWithLine(String line) {
+		TerminalEmulator emulator = createEmulator(COLUMNS, ROWS);
+		byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+		emulator.append(bytes, bytes.length);
+		return emulator.getScreen();
+	}
+
+	private void measure(String name, String line) {
+		assertEquals(LINE_CHARS, line.length());
+		final TerminalBuffer screen = screenWithLine(line);
+		// A row in the middle of the line, which is in the transcript as the line ends on the last row:
+		final int lineRow = LINE_CHARS / COLUMNS / 2;
+		final int row = ROWS - LINE_CHARS / COLUMNS + lineRow;
+		final int index = lineRow * COLUMNS + COLUMNS / 2;
+		int end = line.indexOf(' ', index);
+		final String expectedWord = line.substring(line.lastIndexOf(' ', index) + 1, end == -1 ? LINE_CHARS : end);
+		measureOperations(name, 1, RUNS, () -> assertEquals(expectedWord, screen.getWordAtLocation(COLUMNS / 2, row)));
+	}
+
+	public void testOneWord() {
+		StringBuilder line = new StringBuilder("https://example.com/");
+		while (line.length() < LINE_CHARS) line.append((char) ('a' + line.length() % 26));
+		measure("oneWord", line.toString());
+	}
+
+	public void testWords() {
+		StringBuilder line = new StringBuilder();
+		while (line.length() < LINE_CHARS) line.append(line.length() % 7 == 0 ? ' ' : 'x');
+		measure("words", line.toString());
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.termux.view;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import com.termux.terminal.TerminalMetrics;
+import com.termux.terminal.TerminalSession;
+
+import java.util.Locale;
+
+/**
+ * Draws the {@link TerminalMetrics} of the session shown by a {@link TerminalView} in its top right corner while they
+ * are enabled, as rates over the last second.
+ */
+final class MetricsOverlay {
+
+    /** How often the rates are updated, and the overlay redrawn if nothing else redraws the view. */
+    static final long UPDATE_INTERVAL_MILLIS = 1000;
+    private static final long UPDATE_INTERVAL_NANOS = UPDATE_INTERVAL_MILLIS * 1_000_000L;
+    private static final int BACKGROUND_COLOR = 0xC0000000;
+    private static final int TEXT_COLOR = 0xFF00FF00;
+
+    private final Paint mPaint = new Paint();
+    private final String[] mLines = new String[4];
+
+    private TerminalMetrics mMetrics;
+    private long mSampleTime;
+    private long mBytesRead, mBytesParsed, mAppendNanos, mEscapeSequences, mOutputStalls, mInputStalls;
+    private long mScreenUpdates, mFramesRendered, mRenderNanos;
+
+    MetricsOverlay(float textSize) {
+        mPaint.setTypeface(Typeface.MONOSPACE);
+        mPaint.setAntiAlias(true);
+        mPaint.setTextSize(textSize);
+    }
+
+    /** Draw the metrics of a session, which are updated once per {@link #UPDATE_INTERVAL_NANOS}. */
+    void draw(Canvas canvas, TerminalSession session) {
+        final TerminalMetrics metrics = session.getMetrics();
+        final long now = System.nanoTime();
+        if (metrics != mMetrics) {
+            mMetrics = metrics;
+            sample(now);
+            mLines[0] = "collecting metrics...";
+            for (int i = 1; i < mLines.length; i++) mLines[i] = "";
+        } else if (now - mSampleTime >= UPDATE_INTERVAL_NANOS) {
+            updateLines(now);
+        }
+
+        float width = 0;
+        for (String line : mLines) width = Math.max(width, mPaint.measureText(line));
+        final float lineSpacing = mPaint.getFontSpacing();
+        final float padding = lineSpacing / 4;
+        final float left = canvas.getWidth() - width - 2 * padding;
+        mPaint.setColor(BACKGROUND_COLOR);
+        canvas.drawRect(left, 0, canvas.getWidth(), mLines.length * lineSpacing + 2 * padding, mPaint);
+        mPaint.setColor(TEXT_COLOR);
+        for (int i = 0; i < mLines.length; i++)
+            canvas.drawText(mLines[i], left + padding, padding + (i + 1) * lineSpacing - mPaint.descent(), mPaint);
+    }
+
+    private void updateLines(long now) {
+        final TerminalMetrics metrics = mMetrics;
+        final double seconds = (now - mSampleTime) / 1e9;
+        final long escapeSequences = getEscapeSequences(metrics);
+
+        mLines[0] = String.format(Locale.ROOT, "read %.1f KB/s  parsed %.1f KB/s",
+            (metrics.getBytesRead() - mBytesRead) / 1024. / seconds, (metrics.getBytesParsed() - mBytesParsed) / 1024. / seconds);
+        mLines[1] = String.format(Locale.ROOT, "append %.1f ms/s  escapes %.0f/s",
+            (metrics.getAppendNanos() - mAppendNanos) / 1e6 / seconds, (escapeSequences - mEscapeSequences) / seconds);
+        mLines[2] = String.format(Locale.ROOT, "updates %.0f/s  frames %.0f/s  render %.1f ms/s",
+            (metrics.getScreenUpdates() - mScreenUpdates) / seconds, (metrics.getFramesRendered() - mFramesRendered) / seconds,
+            (metrics.getRenderNanos() - mRenderNanos) / 1e6 / seconds);
+        mLines[3] = String.format(Locale.ROOT, "queue stalls output %.0f/s  input %.0f/s",
+            (metrics.getOutputQueueStalls() - mOutputStalls) / seconds, (metrics.getInputQueueStalls() - mInputStalls) / seconds);
+        sample(now);
+    }
+
+    private void sample(long now) {
+        final TerminalMetrics metrics = mMetrics;
+        mSampleTime = now;
+        mBytesRead = metrics.getBytesRead();
+        mBytesParsed = metrics.getBytesParsed();
+        mAppendNanos = metrics.getAppendNanos();
+        mEscapeSequences = getEscapeSequences(metrics);
+        mOutputStalls = metrics.getOutputQueueStalls();
+        mInputStalls = metrics.getInputQueueStalls();
+        mScreenUpdates = metrics.getScreenUpdates();
+        mFramesRendered = metrics.getFramesRendered();
+        mRenderNanos = metrics.getRenderNanos();
+    }
+
+    private static long getEscapeSequences(TerminalMetrics metrics) {
+        long escapeSequences = 0;
+        for (int type = TerminalMetrics.ESCAPE_CSI; type <= TerminalMetrics.ESCAPE_OTHER; type++)
+            escapeSequences += metrics.getEscapeSequences(type);
+        return escapeSequences;
+    }
+
+}
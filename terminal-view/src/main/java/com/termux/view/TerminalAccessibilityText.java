@@ -0,0 +1,75 @@
+package com.termux.view;
+
+import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.TerminalEmulator;
+
+/**
+ * The text of the visible rows of a terminal, as the content description for accessibility services.
+ * <p>
+ * The text of each row is kept, and only rows which changed since the last {@link #update(TerminalEmulator, int)}, as
+ * told by {@link TerminalBuffer#getRowChangeCount(int)}, are read again. The rows are joined into a reused buffer, so
+ * that the only allocation for an unchanged screen size is the final string.
+ */
+final class TerminalAccessibilityText {
+
+    private TerminalBuffer mScreen;
+    private int mTopRow;
+    private int mColumns;
+    /** The text of each visible row. */
+    private StringBuilder[] mRows;
+    /** If each visible row continues on the next one. */
+    private boolean[] mRowWraps;
+    /** The {@link TerminalBuffer#getRowChangeCount(int)} when each visible row was read. */
+    private long[] mRowChangeCounts;
+    private final StringBuilder mText = new StringBuilder();
+
+    /**
+     * Read the visible rows which changed since the last update.
+     *
+     * @return If the text changed.
+     */
+    boolean update(TerminalEmulator emulator, int topRow) {
+        final TerminalBuffer screen = emulator.getScreen();
+        final int rows = emulator.mRows;
+        final int columns = emulator.mColumns;
+
+        boolean readAll = false;
+        if (mRows == null || mRows.length != rows || mColumns != columns) {
+            mRows = new StringBuilder[rows];
+            for (int i = 0; i < rows; i++) mRows[i] = new StringBuilder(columns);
+            mRowWraps = new boolean[rows];
+            mRowChangeCounts = new long[rows];
+            readAll = true;
+        }
+        if (screen != mScreen || topRow != mTopRow) readAll = true;
+        mScreen = screen;
+        mTopRow = topRow;
+        mColumns = columns;
+
+        boolean changed = false;
+        for (int i = 0; i < rows; i++) {
+            final int row = topRow + i;
+            final long changeCount = screen.getRowChangeCount(row);
+            if (!readAll && changeCount == mRowChangeCounts[i]) continue;
+            final StringBuilder rowText = mRows[i];
+            rowText.setLength(0);
+            screen.appendSelectedText(rowText, 0, row, columns, row, true, false);
+            mRowWraps[i] = screen.getLineWrap(row);
+            mRowChangeCounts[i] = changeCount;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /** The text of the visible rows, with rows joined by newlines unless wrapped, as when selecting them. */
+    String getText() {
+        mText.setLength(0);
+        if (mRows == null) return "";
+        for (int i = 0; i < mRows.length; i++) {
+            mText.append(mRows[i]);
+            if (!mRowWraps[i] && i < mRows.length - 1) mText.append('\n');
+        }
+        return mText.toString();
+    }
+
+}
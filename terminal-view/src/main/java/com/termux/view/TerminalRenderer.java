@@ -1,19 +1,22 @@
 package com.termux.view;
 
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.Typeface;
 
-import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.StyleColorCache;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalRow;
+import com.termux.terminal.TerminalSnapshot;
 import com.termux.terminal.TextStyle;
 import com.termux.terminal.WcWidth;
 
 /**
- * Renderer of a {@link TerminalEmulator} into a {@link Canvas}.
+ * Renderer of a {@link TerminalEmulator} into a {@link Canvas}, from a {@link TerminalSnapshot} of it so that the
+ * emulator may keep processing output on another thread while rendering.
  * <p/>
  * Saves font metrics, so needs to be recreated each time the typeface or font size changes.
  */
@@ -36,6 +39,28 @@ public final class TerminalRenderer {
 
     private final float[] asciiMeasures = new float[127];
 
+    /** The colors to draw each style with, for the colors of the snapshot being rendered. */
+    private final StyleColorCache mStyleColors = new StyleColorCache();
+
+    /** If rows are rendered into {@link #mRowBitmaps}, see {@link #setRowCacheEnabled(boolean)}. */
+    private boolean mRowCacheEnabled;
+    /** The rendered rows on the screen, from the top, or null. */
+    private Bitmap[] mRowBitmaps;
+    private final Canvas mRowCanvas = new Canvas();
+    /** The state the rows in {@link #mRowBitmaps} were rendered with. */
+    private TerminalSnapshot mCachedSnapshot;
+    private int mCachedTopRow, mCachedCursorRow, mCachedCursorX, mCachedCursorShape, mCachedTextColor;
+    private int mCachedSelectionY1, mCachedSelectionY2, mCachedSelectionX1, mCachedSelectionX2;
+    private boolean mCachedReverseVideo;
+    private long mCachedColorsGeneration;
+
+    /** The snapshot used by {@link #render(TerminalEmulator, Canvas, int, int, int, int, int)}, created when needed. */
+    private TerminalSnapshot mSnapshot;
+
+    private int mRowsDrawnLastFrame;
+    private long mTotalRowsDrawn;
+    private long mFramesRendered;
+
     public TerminalRenderer(int textSize, Typeface typeface) {
         mTextSize = textSize;
         mTypeface = typeface;
@@ -56,138 +81,265 @@ public final class TerminalRenderer {
         }
     }
 
-    /** Render the terminal to a canvas with at a specified row scroll, and an optional rectangular selection. */
+    /**
+     * Render the terminal to a canvas with at a specified row scroll, and an optional rectangular selection. Must be
+     * called while the emulator is not changed by another thread, see {@link #render(TerminalSnapshot, Canvas, int, int, int, int)}.
+     */
     public final void render(TerminalEmulator mEmulator, Canvas canvas, int topRow,
                              int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
-        final boolean reverseVideo = mEmulator.isReverseVideo();
-        final int endRow = topRow + mEmulator.mRows;
-        final int columns = mEmulator.mColumns;
-        final int cursorCol = mEmulator.getCursorCol();
-        final int cursorRow = mEmulator.getCursorRow();
-        final boolean cursorVisible = mEmulator.shouldCursorBeVisible();
-        final TerminalBuffer screen = mEmulator.getScreen();
-        final int[] palette = mEmulator.mColors.mCurrentColors;
-        final int cursorShape = mEmulator.getCursorStyle();
+        if (mSnapshot == null) mSnapshot = new TerminalSnapshot();
+        mSnapshot.update(mEmulator, topRow);
+        render(mSnapshot, canvas, selectionY1, selectionY2, selectionX1, selectionX2);
+    }
+
+    /**
+     * Render a snapshot of the terminal to a canvas, and an optional rectangular selection. The snapshot should be
+     * updated once before each frame, as only the rows which changed in the last update are rendered again when the
+     * row cache is enabled.
+     */
+    public final void render(TerminalSnapshot snapshot, Canvas canvas,
+                             int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
+        final boolean reverseVideo = snapshot.isReverseVideo();
+        final int rows = snapshot.getRows();
+        final int topRow = snapshot.getTopRow();
+        final int cursorRow = snapshot.getCursorRow();
+        final int cursorX = snapshot.isCursorVisible() ? snapshot.getCursorCol() : -1;
+        final int[] palette = snapshot.getColors();
+        mStyleColors.setPalette(palette, snapshot.getColorsGeneration());
 
         if (reverseVideo)
             canvas.drawColor(palette[TextStyle.COLOR_INDEX_FOREGROUND], PorterDuff.Mode.SRC);
 
-        float heightOffset = mFontLineSpacingAndAscent;
-        for (int row = topRow; row < endRow; row++) {
-            heightOffset += mFontLineSpacing;
+        if (mRowCacheEnabled) {
+            renderCachedRows(snapshot, canvas, selectionY1, selectionY2, selectionX1, selectionX2);
+        } else {
+            float heightOffset = mFontLineSpacingAndAscent;
+            for (int row = topRow; row < topRow + rows; row++) {
+                heightOffset += mFontLineSpacing;
+                renderRow(snapshot, canvas, row, heightOffset, row == cursorRow ? cursorX : -1,
+                    selectionY1, selectionY2, selectionX1, selectionX2);
+            }
+            mRowsDrawnLastFrame = rows;
+        }
+        mTotalRowsDrawn += mRowsDrawnLastFrame;
+        mFramesRendered++;
+    }
+
+    /**
+     * Render the rows which changed in the last snapshot update into their cached bitmaps, and then draw all of the
+     * bitmaps. Everything is rendered again if the scroll position, screen, size, colors or cursor style changed.
+     */
+    private void renderCachedRows(TerminalSnapshot snapshot, Canvas canvas,
+                                  int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
+        final int rows = snapshot.getRows();
+        final int topRow = snapshot.getTopRow();
+        final long colorsGeneration = snapshot.getColorsGeneration();
+        final int cursorRow = snapshot.getCursorRow();
+        final int cursorX = snapshot.isCursorVisible() ? snapshot.getCursorCol() : -1;
+        final int cursorShape = snapshot.getCursorStyle();
+        final boolean reverseVideo = snapshot.isReverseVideo();
+        final int bitmapWidth = (int) Math.ceil(snapshot.getColumns() * mFontWidth);
+
+        boolean redrawAll = snapshot.areAllRowsChanged() || snapshot != mCachedSnapshot || topRow != mCachedTopRow
+            || reverseVideo != mCachedReverseVideo || cursorShape != mCachedCursorShape || COLOR_TEXT != mCachedTextColor
+            || colorsGeneration != mCachedColorsGeneration;
+        if (mRowBitmaps == null || mRowBitmaps.length != rows || mRowBitmaps[0].getWidth() != bitmapWidth) {
+            releaseRowCache();
+            mRowBitmaps = new Bitmap[rows];
+            for (int i = 0; i < rows; i++)
+                mRowBitmaps[i] = Bitmap.createBitmap(bitmapWidth, mFontLineSpacing, Bitmap.Config.ARGB_8888);
+            redrawAll = true;
+        }
+        final boolean cursorChanged = cursorRow != mCachedCursorRow || cursorX != mCachedCursorX;
+        final boolean selectionChanged = selectionY1 != mCachedSelectionY1 || selectionY2 != mCachedSelectionY2
+            || selectionX1 != mCachedSelectionX1 || selectionX2 != mCachedSelectionX2;
+
+        int rowsDrawn = 0;
+        for (int i = 0; i < rows; i++) {
+            final int row = topRow + i;
+            final boolean dirty = redrawAll || snapshot.isRowChanged(row)
+                || (cursorChanged && (row == cursorRow || row == mCachedCursorRow))
+                || (selectionChanged && (isRowInSelection(row, selectionY1, selectionY2) || isRowInSelection(row, mCachedSelectionY1, mCachedSelectionY2)));
+            if (dirty) {
+                final Bitmap bitmap = mRowBitmaps[i];
+                bitmap.eraseColor(Color.TRANSPARENT);
+                mRowCanvas.setBitmap(bitmap);
+                renderRow(snapshot, mRowCanvas, row, mFontLineSpacing, row == cursorRow ? cursorX : -1,
+                    selectionY1, selectionY2, selectionX1, selectionX2);
+                rowsDrawn++;
+            }
+            // The top of the row, see drawTextRun():
+            canvas.drawBitmap(mRowBitmaps[i], 0, mFontLineSpacingAndAscent + i * mFontLineSpacing, null);
+        }
+        mRowCanvas.setBitmap(null);
+        mRowsDrawnLastFrame = rowsDrawn;
+
+        mCachedSnapshot = snapshot;
+        mCachedTopRow = topRow;
+        mCachedReverseVideo = reverseVideo;
+        mCachedCursorShape = cursorShape;
+        mCachedTextColor = COLOR_TEXT;
+        mCachedColorsGeneration = colorsGeneration;
+        mCachedCursorRow = cursorRow;
+        mCachedCursorX = cursorX;
+        mCachedSelectionY1 = selectionY1;
+        mCachedSelectionY2 = selectionY2;
+        mCachedSelectionX1 = selectionX1;
+        mCachedSelectionX2 = selectionX2;
+    }
+
+    private static boolean isRowInSelection(int row, int selectionY1, int selectionY2) {
+        return row >= selectionY1 && row <= selectionY2;
+    }
 
-            final int cursorX = (row == cursorRow && cursorVisible) ? cursorCol : -1;
-            int selx1 = -1, selx2 = -1;
-            if (row >= selectionY1 && row <= selectionY2) {
-                if (row == selectionY1) selx1 = selectionX1;
-                selx2 = (row == selectionY2) ? selectionX2 : mEmulator.mColumns;
+    /**
+     * Render a row.
+     *
+     * @param heightOffset The y coordinate of the bottom of the row.
+     * @param cursorX      The column of the cursor if it is visible on this row, or -1.
+     */
+    private void renderRow(TerminalSnapshot snapshot, Canvas canvas, int row, float heightOffset, int cursorX,
+                           int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
+        final boolean reverseVideo = snapshot.isReverseVideo();
+        final int columns = snapshot.getColumns();
+        final int[] palette = snapshot.getColors();
+        final int cursorShape = snapshot.getCursorStyle();
+
+        int selx1 = -1, selx2 = -1;
+        if (row >= selectionY1 && row <= selectionY2) {
+            if (row == selectionY1) selx1 = selectionX1;
+            selx2 = (row == selectionY2) ? selectionX2 : columns;
+        }
+
+        TerminalRow lineObject = snapshot.getRow(row);
+        final char[] line = lineObject.mText;
+        final int charsUsedInLine = lineObject.getSpaceUsed();
+
+        long lastRunStyle = 0;
+        // The style of the current style run of the row, and the column where it ends:
+        long style = 0;
+        int styleRunEnd = 0;
+        boolean lastRunInsideCursor = false;
+        boolean lastRunInsideSelection = false;
+        int lastRunStartColumn = -1;
+        int lastRunStartIndex = 0;
+        boolean lastRunFontWidthMismatch = false;
+        int currentCharIndex = 0;
+        float measuredWidthForRun = 0.f;
+
+        for (int column = 0; column < columns; ) {
+            final char charAtIndex = line[currentCharIndex];
+            final boolean charIsHighsurrogate = Character.isHighSurrogate(charAtIndex);
+            final int charsForCodePoint = charIsHighsurrogate ? 2 : 1;
+            final int codePoint = charIsHighsurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
+            final int codePointWcWidth = WcWidth.width(codePoint);
+            final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
+            final boolean insideSelection = column >= selx1 && column <= selx2;
+            if (column >= styleRunEnd) {
+                style = lineObject.getStyle(column);
+                styleRunEnd = lineObject.findStyleRunEnd(column);
             }
 
-            TerminalRow lineObject = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
-            final char[] line = lineObject.mText;
-            final int charsUsedInLine = lineObject.getSpaceUsed();
-
-            long lastRunStyle = 0;
-            boolean lastRunInsideCursor = false;
-            boolean lastRunInsideSelection = false;
-            int lastRunStartColumn = -1;
-            int lastRunStartIndex = 0;
-            boolean lastRunFontWidthMismatch = false;
-            int currentCharIndex = 0;
-            float measuredWidthForRun = 0.f;
-
-            for (int column = 0; column < columns; ) {
-                final char charAtIndex = line[currentCharIndex];
-                final boolean charIsHighsurrogate = Character.isHighSurrogate(charAtIndex);
-                final int charsForCodePoint = charIsHighsurrogate ? 2 : 1;
-                final int codePoint = charIsHighsurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
-                final int codePointWcWidth = WcWidth.width(codePoint);
-                final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
-                final boolean insideSelection = column >= selx1 && column <= selx2;
-                final long style = lineObject.getStyle(column);
-
-                // Check if the measured text width for this code point is not the same as that expected by wcwidth().
-                // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
-                // smileys which android font renders as wide.
-                // If this is detected, we draw this code point scaled to match what wcwidth() expects.
-                final float measuredCodePointWidth = (codePoint < asciiMeasures.length) ? asciiMeasures[codePoint] : mTextPaint.measureText(line,
-                    currentCharIndex, charsForCodePoint);
-                final boolean fontWidthMismatch = Math.abs(measuredCodePointWidth / mFontWidth - codePointWcWidth) > 0.01;
-
-                if (style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection || fontWidthMismatch || lastRunFontWidthMismatch) {
-                    if (column == 0) {
-                        // Skip first column as there is nothing to draw, just record the current style.
-                    } else {
-                        final int columnWidthSinceLastRun = column - lastRunStartColumn;
-                        final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-                        int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
-                        boolean invertCursorTextColor = false;
-                        if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
-                            invertCursorTextColor = true;
-                        }
-                        drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun,
-                            lastRunStartIndex, charsSinceLastRun, measuredWidthForRun,
-                            cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
+            // Check if the measured text width for this code point is not the same as that expected by wcwidth().
+            // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
+            // smileys which android font renders as wide.
+            // If this is detected, we draw this code point scaled to match what wcwidth() expects.
+            final float measuredCodePointWidth = (codePoint < asciiMeasures.length) ? asciiMeasures[codePoint] : mTextPaint.measureText(line,
+                currentCharIndex, charsForCodePoint);
+            final boolean fontWidthMismatch = Math.abs(measuredCodePointWidth / mFontWidth - codePointWcWidth) > 0.01;
+
+            if (style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection || fontWidthMismatch || lastRunFontWidthMismatch) {
+                if (column == 0) {
+                    // Skip first column as there is nothing to draw, just record the current style.
+                } else {
+                    final int columnWidthSinceLastRun = column - lastRunStartColumn;
+                    final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
+                    int cursorColor = lastRunInsideCursor ? palette[TextStyle.COLOR_INDEX_CURSOR] : 0;
+                    boolean invertCursorTextColor = false;
+                    if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
+                        invertCursorTextColor = true;
                     }
-                    measuredWidthForRun = 0.f;
-                    lastRunStyle = style;
-                    lastRunInsideCursor = insideCursor;
-                    lastRunInsideSelection = insideSelection;
-                    lastRunStartColumn = column;
-                    lastRunStartIndex = currentCharIndex;
-                    lastRunFontWidthMismatch = fontWidthMismatch;
-                }
-                measuredWidthForRun += measuredCodePointWidth;
-                column += codePointWcWidth;
-                currentCharIndex += charsForCodePoint;
-                while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
-                    // Eat combining chars so that they are treated as part of the last non-combining code point,
-                    // instead of e.g. being considered inside the cursor in the next run.
-                    currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
+                    drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun,
+                        lastRunStartIndex, charsSinceLastRun, measuredWidthForRun,
+                        cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
                 }
+                measuredWidthForRun = 0.f;
+                lastRunStyle = style;
+                lastRunInsideCursor = insideCursor;
+                lastRunInsideSelection = insideSelection;
+                lastRunStartColumn = column;
+                lastRunStartIndex = currentCharIndex;
+                lastRunFontWidthMismatch = fontWidthMismatch;
             }
-
-            final int columnWidthSinceLastRun = columns - lastRunStartColumn;
-            final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-            int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
-            boolean invertCursorTextColor = false;
-            if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
-                invertCursorTextColor = true;
+            measuredWidthForRun += measuredCodePointWidth;
+            column += codePointWcWidth;
+            currentCharIndex += charsForCodePoint;
+            while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
+                // Eat combining chars so that they are treated as part of the last non-combining code point,
+                // instead of e.g. being considered inside the cursor in the next run.
+                currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
             }
-            drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun,
-                measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
         }
+
+        final int columnWidthSinceLastRun = columns - lastRunStartColumn;
+        final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
+        int cursorColor = lastRunInsideCursor ? palette[TextStyle.COLOR_INDEX_CURSOR] : 0;
+        boolean invertCursorTextColor = false;
+        if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
+            invertCursorTextColor = true;
+        }
+        drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun,
+            measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
+    }
+
+    /**
+     * Enable or disable rendering each row into a cached bitmap, so that only rows which changed since the last frame
+     * are rendered again. This uses a bitmap the size of the terminal, but avoids drawing every character of every
+     * row on each frame, like when only the cursor row changed while typing.
+     */
+    public void setRowCacheEnabled(boolean enabled) {
+        mRowCacheEnabled = enabled;
+        if (!enabled) releaseRowCache();
+    }
+
+    public boolean isRowCacheEnabled() {
+        return mRowCacheEnabled;
+    }
+
+    private void releaseRowCache() {
+        if (mRowBitmaps != null) {
+            for (Bitmap bitmap : mRowBitmaps) bitmap.recycle();
+            mRowBitmaps = null;
+        }
+        mCachedSnapshot = null;
+    }
+
+    /** The number of rows rendered in the last frame, which is all of the rows unless the row cache is enabled. */
+    public int getRowsDrawnLastFrame() {
+        return mRowsDrawnLastFrame;
+    }
+
+    /** The total number of rows rendered by this renderer. */
+    public long getTotalRowsDrawn() {
+        return mTotalRowsDrawn;
+    }
+
+    /** The number of frames rendered by this renderer. */
+    public long getFramesRendered() {
+        return mFramesRendered;
     }
 
     private void drawTextRun(Canvas canvas, char[] text, int[] palette, float y, int startColumn, int runWidthColumns,
                              int startCharIndex, int runWidthChars, float mes, int cursor, int cursorStyle,
                              long textStyle, boolean reverseVideo) {
-        int foreColor = TextStyle.decodeForeColor(textStyle);
+        final long colors = mStyleColors.get(textStyle, reverseVideo);
+        final int foreColor = StyleColorCache.foreColor(colors);
+        final int backColor = StyleColorCache.backColor(colors);
         final int effect = TextStyle.decodeEffect(textStyle);
-        int backColor = TextStyle.decodeBackColor(textStyle);
         final boolean bold = (effect & (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_BLINK)) != 0;
         final boolean underline = (effect & TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE) != 0;
         final boolean italic = (effect & TextStyle.CHARACTER_ATTRIBUTE_ITALIC) != 0;
         final boolean strikeThrough = (effect & TextStyle.CHARACTER_ATTRIBUTE_STRIKETHROUGH) != 0;
-        final boolean dim = (effect & TextStyle.CHARACTER_ATTRIBUTE_DIM) != 0;
-
-        if ((foreColor & 0xff000000) != 0xff000000) {
-            // Let bold have bright colors if applicable (one of the first 8):
-            if (bold && foreColor >= 0 && foreColor < 8) foreColor += 8;
-            foreColor = palette[foreColor];
-        }
-
-        if ((backColor & 0xff000000) != 0xff000000) {
-            backColor = palette[backColor];
-        }
-
-        // Reverse video here if _one and only one_ of the reverse flags are set:
-        final boolean reverseVideoHere = reverseVideo ^ (effect & (TextStyle.CHARACTER_ATTRIBUTE_INVERSE)) != 0;
-        if (reverseVideoHere) {
-            int tmp = foreColor;
-            foreColor = backColor;
-            backColor = tmp;
-        }
 
         float left = startColumn * mFontWidth;
         float right = left + runWidthColumns * mFontWidth;
@@ -217,18 +369,6 @@ public final class TerminalRenderer {
         }
 
         if ((effect & TextStyle.CHARACTER_ATTRIBUTE_INVISIBLE) == 0) {
-            if (dim) {
-                int red = (0xFF & (foreColor >> 16));
-                int green = (0xFF & (foreColor >> 8));
-                int blue = (0xFF & foreColor);
-                // Dim color handling used by libvte which in turn took it from xterm
-                // (https://bug735245.bugzilla-attachments.gnome.org/attachment.cgi?id=284267):
-                red = red * 2 / 3;
-                green = green * 2 / 3;
-                blue = blue * 2 / 3;
-                foreColor = 0xFF000000 + (red << 16) + (green << 8) + blue;
-            }
-
             mTextPaint.setFakeBoldText(bold);
             mTextPaint.setUnderlineText(underline);
             mTextPaint.setTextSkewX(italic ? -0.35f : 0.f);
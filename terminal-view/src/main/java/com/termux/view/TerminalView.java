@@ -40,7 +40,11 @@ import androidx.annotation.RequiresApi;
 
 import com.termux.terminal.KeyHandler;
 import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalMetrics;
+import com.termux.terminal.TerminalPaste;
+import com.termux.terminal.TerminalSearchMatch;
 import com.termux.terminal.TerminalSession;
+import com.termux.terminal.TerminalSnapshot;
 import com.termux.view.textselection.TextSelectionCursorController;
 
 /** View displaying and interacting with a {@link TerminalSession}. */
@@ -55,11 +59,30 @@ public final class TerminalView extends View {
     public TerminalEmulator mEmulator;
 
     public TerminalRenderer mRenderer;
+    /** The copy of the visible rows of {@link #mEmulator} which is rendered, see {@link TerminalSnapshot}. */
+    private final TerminalSnapshot mSnapshot = new TerminalSnapshot();
+    /** Draws the metrics of the session while {@link TerminalMetrics#isEnabled()}, created when first needed. */
+    private MetricsOverlay mMetricsOverlay;
 
     public TerminalViewClient mClient;
 
     private TextSelectionCursorController mTextSelectionCursorController;
 
+    /** See {@link #getPaste()}. */
+    private TerminalPaste mPaste;
+    private final TerminalPaste.Listener mPasteListener = new TerminalPaste.Listener() {
+        @Override
+        public void onPasteProgress(TerminalPaste paste) {
+            mClient.onPasteProgress(paste);
+        }
+
+        @Override
+        public void onPasteFinished(TerminalPaste paste) {
+            if (paste == mPaste) mPaste = null;
+            mClient.onPasteFinished(paste);
+        }
+    };
+
     private Handler mTerminalCursorBlinkerHandler;
     private TerminalCursorBlinkerRunnable mTerminalCursorBlinkerRunnable;
     private int mTerminalCursorBlinkerRate;
@@ -70,6 +93,8 @@ public final class TerminalView extends View {
     /** The top row of text to display. Ranges from -activeTranscriptRows to 0. */
     int mTopRow;
     int[] mDefaultSelectors = new int[]{-1,-1,-1,-1};
+    /** The search match to highlight when not selecting text, see {@link #setSearchMatch(TerminalSearchMatch)}. */
+    private TerminalSearchMatch mSearchMatch;
 
     float mScaleFactor = 1.f;
     final GestureAndScaleRecognizer mGestureRecognizer;
@@ -126,6 +151,26 @@ public final class TerminalView extends View {
 
     private final boolean mAccessibilityEnabled;
 
+    /** The default min time between updates of the content description for accessibility. */
+    public static final int DEFAULT_ACCESSIBILITY_UPDATE_INTERVAL_MILLIS = 100;
+    private int mAccessibilityUpdateIntervalMillis = DEFAULT_ACCESSIBILITY_UPDATE_INTERVAL_MILLIS;
+    private final TerminalAccessibilityText mAccessibilityText = new TerminalAccessibilityText();
+    private long mLastAccessibilityUpdateTime;
+    private boolean mAccessibilityUpdatePending;
+    private final Runnable mAccessibilityUpdater = new Runnable() {
+        @Override
+        public void run() {
+            mAccessibilityUpdatePending = false;
+            mLastAccessibilityUpdateTime = SystemClock.uptimeMillis();
+            if (mEmulator == null) return;
+            final boolean changed;
+            synchronized (getEmulatorLock()) {
+                changed = mAccessibilityText.update(mEmulator, mTopRow);
+            }
+            if (changed) setContentDescription(mAccessibilityText.getText());
+        }
+    };
+
     /** The {@link KeyEvent} is generated from a virtual keyboard, like manually with the {@link KeyEvent#KeyEvent(int, int)} constructor. */
     public final static int KEY_EVENT_SOURCE_VIRTUAL_KEYBOARD = KeyCharacterMap.VIRTUAL_KEYBOARD; // -1
 
@@ -298,7 +343,11 @@ public final class TerminalView extends View {
     public boolean attachSession(TerminalSession session) {
         if (session == mTermSession) return false;
         mTopRow = 0;
+        mSearchMatch = null;
 
+        // The session which is no longer displayed processes its output in the background:
+        if (mTermSession != null) mTermSession.setInBackground(true);
+        session.setInBackground(false);
         mTermSession = session;
         mEmulator = null;
         mCombiningAccent = 0;
@@ -465,45 +514,54 @@ public final class TerminalView extends View {
     public void onScreenUpdated(boolean skipScrolling) {
         if (mEmulator == null) return;
 
-        int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
-        if (mTopRow < -rowsInHistory) mTopRow = -rowsInHistory;
+        // The scroll counter is updated by the emulation thread:
+        synchronized (getEmulatorLock()) {
+            int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
+            if (mTopRow < -rowsInHistory) mTopRow = -rowsInHistory;
 
-        if (isSelectingText() || mEmulator.isAutoScrollDisabled()) {
+            if (isSelectingText() || mEmulator.isAutoScrollDisabled()) {
 
-            // Do not scroll when selecting text.
-            int rowShift = mEmulator.getScrollCounter();
-            if (-mTopRow + rowShift > rowsInHistory) {
-                // .. unless we're hitting the end of history transcript, in which
-                // case we abort text selection and scroll to end.
-                if (isSelectingText())
-                    stopTextSelectionMode();
+                // Do not scroll when selecting text.
+                int rowShift = mEmulator.getScrollCounter();
+                if (-mTopRow + rowShift > rowsInHistory) {
+                    // .. unless we're hitting the end of history transcript, in which
+                    // case we abort text selection and scroll to end.
+                    if (isSelectingText())
+                        stopTextSelectionMode();
 
-                if (mEmulator.isAutoScrollDisabled()) {
-                    mTopRow = -rowsInHistory;
+                    if (mEmulator.isAutoScrollDisabled()) {
+                        mTopRow = -rowsInHistory;
+                        skipScrolling = true;
+                    }
+                } else {
                     skipScrolling = true;
+                    mTopRow -= rowShift;
+                    decrementYTextSelectionCursors(rowShift);
                 }
-            } else {
-                skipScrolling = true;
-                mTopRow -= rowShift;
-                decrementYTextSelectionCursors(rowShift);
             }
-        }
 
-        if (!skipScrolling && mTopRow != 0) {
-            // Scroll down if not already there.
-            if (mTopRow < -3) {
-                // Awaken scroll bars only if scrolling a noticeable amount
-                // - we do not want visible scroll bars during normal typing
-                // of one row at a time.
-                awakenScrollBars();
+            if (!skipScrolling && mTopRow != 0) {
+                // Scroll down if not already there.
+                if (mTopRow < -3) {
+                    // Awaken scroll bars only if scrolling a noticeable amount
+                    // - we do not want visible scroll bars during normal typing
+                    // of one row at a time.
+                    awakenScrollBars();
+                }
+                mTopRow = 0;
             }
-            mTopRow = 0;
-        }
 
-        mEmulator.clearScrollCounter();
+            if (mSearchMatch != null) {
+                // Keep highlighting the text the match was found in:
+                mSearchMatch = mSearchMatch.scrolled(mEmulator.getScrollCounter());
+                if (mSearchMatch.mStartRow < -rowsInHistory) mSearchMatch = null;
+            }
+
+            mEmulator.clearScrollCounter();
+        }
 
         invalidate();
-        if (mAccessibilityEnabled) setContentDescription(getText());
+        if (mAccessibilityEnabled) scheduleAccessibilityUpdate();
     }
 
     /** This must be called by the hosting activity in {@link Activity#onContextMenuClosed(Menu)}
@@ -520,16 +578,34 @@ public final class TerminalView extends View {
      * @param textSize the new font size, in density-independent pixels.
      */
     public void setTextSize(int textSize) {
-        mRenderer = new TerminalRenderer(textSize, mRenderer == null ? Typeface.MONOSPACE : mRenderer.mTypeface);
+        setRenderer(new TerminalRenderer(textSize, mRenderer == null ? Typeface.MONOSPACE : mRenderer.mTypeface));
         updateSize();
     }
 
     public void setTypeface(Typeface newTypeface) {
-        mRenderer = new TerminalRenderer(mRenderer.mTextSize, newTypeface);
+        setRenderer(new TerminalRenderer(mRenderer.mTextSize, newTypeface));
         updateSize();
         invalidate();
     }
 
+    /** Replace the renderer after a font change, keeping the row cache mode of the previous one. */
+    private void setRenderer(TerminalRenderer renderer) {
+        if (mRenderer != null && mRenderer.isRowCacheEnabled()) {
+            renderer.setRowCacheEnabled(true);
+            mRenderer.setRowCacheEnabled(false);
+        }
+        mRenderer = renderer;
+    }
+
+    /**
+     * Enable or disable caching rendered rows, so that only rows which changed are rendered on each frame. See
+     * {@link TerminalRenderer#setRowCacheEnabled(boolean)}.
+     */
+    public void setRowCacheEnabled(boolean enabled) {
+        mRenderer.setRowCacheEnabled(enabled);
+        invalidate();
+    }
+
     @Override
     public boolean onCheckIsTextEditor() {
         return true;
@@ -575,7 +651,9 @@ public final class TerminalView extends View {
                 mMouseScrollStartY = y;
             }
         }
-        mEmulator.sendMouseEvent(button, x, y, pressed);
+        synchronized (getEmulatorLock()) {
+            mEmulator.sendMouseEvent(button, x, y, pressed);
+        }
     }
 
     /** Perform a scroll, either from dragging the screen or by scrolling a mouse wheel. */
@@ -657,7 +735,7 @@ public final class TerminalView extends View {
                     ClipData.Item clipItem = clipData.getItemAt(0);
                     if (clipItem != null) {
                         CharSequence text = clipItem.coerceToText(getContext());
-                        if (!TextUtils.isEmpty(text)) mEmulator.paste(text.toString());
+                        if (!TextUtils.isEmpty(text)) paste(text);
                     }
                 }
             } else if (mEmulator.isMouseTrackingActive()) { // BUTTON_PRIMARY.
@@ -1051,10 +1129,28 @@ public final class TerminalView extends View {
                 mTextSelectionCursorController.getSelectors(sel);
             }
 
-            mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3]);
+            final boolean showMetrics = mTermSession != null && TerminalMetrics.isEnabled();
+            final long frameStartTime = showMetrics ? System.nanoTime() : 0;
+            // Only hold the lock while copying the rows which changed, not while rendering them:
+            synchronized (getEmulatorLock()) {
+                mSnapshot.update(mEmulator, mTopRow);
+            }
+            if (mSearchMatch != null && !isSelectingText()) {
+                mRenderer.render(mSnapshot, canvas, mSearchMatch.mStartRow, mSearchMatch.mEndRow,
+                    mSearchMatch.mStartColumn, mSearchMatch.mEndColumn);
+            } else {
+                mRenderer.render(mSnapshot, canvas, sel[0], sel[1], sel[2], sel[3]);
+            }
 
             // render the text selection handles
             renderTextSelection();
+
+            if (showMetrics) {
+                mTermSession.getMetrics().onFrameRendered(System.nanoTime() - frameStartTime);
+                if (mMetricsOverlay == null) mMetricsOverlay = new MetricsOverlay(mRenderer.mTextSize * 0.75f);
+                mMetricsOverlay.draw(canvas, mTermSession);
+                postInvalidateDelayed(MetricsOverlay.UPDATE_INTERVAL_MILLIS);
+            }
         }
     }
 
@@ -1062,8 +1158,52 @@ public final class TerminalView extends View {
         return mTermSession;
     }
 
-    private CharSequence getText() {
-        return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
+    /**
+     * Paste text to the current session. Large text is written by a separate thread, whose progress is reported to
+     * {@link TerminalViewClient#onPasteProgress(TerminalPaste)} and which may be stopped with {@link #cancelPaste()}.
+     */
+    public void paste(CharSequence text) {
+        if (mTermSession == null) return;
+        final TerminalPaste paste = mTermSession.paste(text, mPasteListener);
+        if (paste != null) mPaste = paste;
+    }
+
+    /** Stop writing the last paste started by {@link #paste(CharSequence)}, if it is still being written. */
+    public void cancelPaste() {
+        if (mPaste != null) mPaste.cancel();
+    }
+
+    /** The last paste started by {@link #paste(CharSequence)} which is still being written, or null. */
+    public TerminalPaste getPaste() {
+        return mPaste;
+    }
+
+    /**
+     * The lock to hold while accessing {@link #mEmulator}, which is changed by the emulation thread of the session,
+     * see {@link TerminalSession#getEmulatorLock()}.
+     */
+    public Object getEmulatorLock() {
+        return mTermSession.getEmulatorLock();
+    }
+
+    /**
+     * Update the content description with the visible text, at most once per
+     * {@link #setAccessibilityUpdateInterval(int)} so that streaming output does not rebuild it for every update.
+     */
+    private void scheduleAccessibilityUpdate() {
+        if (mAccessibilityUpdatePending) return;
+        mAccessibilityUpdatePending = true;
+        long delay = mLastAccessibilityUpdateTime + mAccessibilityUpdateIntervalMillis - SystemClock.uptimeMillis();
+        postDelayed(mAccessibilityUpdater, Math.max(0, delay));
+    }
+
+    /**
+     * Set the min time between updates of the content description for accessibility services while the screen
+     * changes. The default is {@link #DEFAULT_ACCESSIBILITY_UPDATE_INTERVAL_MILLIS}.
+     */
+    public void setAccessibilityUpdateInterval(int millis) {
+        if (millis < 0) throw new IllegalArgumentException("millis must not be negative: " + millis);
+        mAccessibilityUpdateIntervalMillis = millis;
     }
 
     public int getCursorX(float x) {
@@ -1089,6 +1229,24 @@ public final class TerminalView extends View {
         return mTopRow;
     }
 
+    /**
+     * Highlight a match found with {@link com.termux.terminal.TerminalBuffer#search}, scrolling to it if it is not
+     * visible, or stop highlighting with null. The highlight follows the text as the terminal scrolls.
+     */
+    public void setSearchMatch(TerminalSearchMatch match) {
+        mSearchMatch = match;
+        if (match != null && mEmulator != null && (match.mStartRow < mTopRow || match.mEndRow >= mTopRow + mEmulator.mRows)) {
+            int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
+            mTopRow = Math.min(0, Math.max(-rowsInHistory, match.mStartRow - mEmulator.mRows / 2));
+            awakenScrollBars();
+        }
+        invalidate();
+    }
+
+    public TerminalSearchMatch getSearchMatch() {
+        return mSearchMatch;
+    }
+
     public void setTopRow(int mTopRow) {
         this.mTopRow = mTopRow;
     }
@@ -1478,6 +1636,11 @@ public final class TerminalView extends View {
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
 
+        if (mAccessibilityUpdatePending) {
+            removeCallbacks(mAccessibilityUpdater);
+            mAccessibilityUpdatePending = false;
+        }
+
         if (mTextSelectionCursorController != null) {
             // Might solve the following exception
             // android.view.WindowLeaked: Activity com.termux.app.TermuxActivity has leaked window android.widget.PopupWindow
@@ -1732,7 +1895,9 @@ public final class TerminalView extends View {
     }
 
     public String getText555(){
-        return  mEmulator.getScreen().getTranscriptText();
+        synchronized (getEmulatorLock()) {
+            return mEmulator.getScreen().getTranscriptText();
+        }
     }
 
     private OnLongClickListener mOnLongClickListener;
@@ -5,6 +5,7 @@ import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
 
+import com.termux.terminal.TerminalPaste;
 import com.termux.terminal.TerminalSession;
 
 /**
@@ -65,6 +66,12 @@ public interface TerminalViewClient {
 
     void onEmulatorSet();
 
+    /** Called on the main thread as a paste started by {@link TerminalView#paste(CharSequence)} is written. */
+    void onPasteProgress(TerminalPaste paste);
+
+    /** Called on the main thread when a paste started by {@link TerminalView#paste(CharSequence)} is finished or cancelled. */
+    void onPasteFinished(TerminalPaste paste);
+
 
     void logError(String tag, String message);
 
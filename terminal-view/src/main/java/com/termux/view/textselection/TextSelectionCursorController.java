@@ -15,6 +15,7 @@ import android.widget.Toast;
 import androidx.annotation.Nullable;
 
 import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.TerminalSearchMatch;
 import com.termux.terminal.WcWidth;
 import com.termux.view.R;
 import com.termux.view.TerminalView;
@@ -104,14 +105,15 @@ public class TextSelectionCursorController implements CursorController {
         mSelX1 = mSelX2 = columnAndRow[0];
         mSelY1 = mSelY2 = columnAndRow[1];
 
-        TerminalBuffer screen = terminalView.mEmulator.getScreen();
-        if (!" ".equals(screen.getSelectedText(mSelX1, mSelY1, mSelX1, mSelY1))) {
-            // Selecting something other than whitespace. Expand to word.
-            while (mSelX1 > 0 && !"".equals(screen.getSelectedText(mSelX1 - 1, mSelY1, mSelX1 - 1, mSelY1))) {
-                mSelX1--;
-            }
-            while (mSelX2 < terminalView.mEmulator.mColumns - 1 && !"".equals(screen.getSelectedText(mSelX2 + 1, mSelY1, mSelX2 + 1, mSelY1))) {
-                mSelX2++;
+        synchronized (terminalView.getEmulatorLock()) {
+            // Selecting something other than whitespace. Expand to word, also on the rows of a wrapped line:
+            TerminalSearchMatch word = terminalView.mEmulator.getScreen().findWordAtLocation(mSelX1, mSelY1,
+                TerminalBuffer.DEFAULT_WORD_DELIMITERS);
+            if (word != null) {
+                mSelX1 = word.mStartColumn;
+                mSelY1 = word.mStartRow;
+                mSelX2 = word.mEndColumn;
+                mSelY2 = word.mEndRow;
             }
         }
     }
@@ -244,6 +246,13 @@ public class TextSelectionCursorController implements CursorController {
 
     @Override
     public void updatePosition(TextSelectionHandleView handle, int x, int y) {
+        synchronized (terminalView.getEmulatorLock()) {
+            updatePositionLocked(handle, x, y);
+        }
+    }
+
+    /** Update the position of a handle while holding the emulator lock, see {@link TerminalView#getEmulatorLock()}. */
+    private void updatePositionLocked(TextSelectionHandleView handle, int x, int y) {
         TerminalBuffer screen = terminalView.mEmulator.getScreen();
         final int scrollRows = screen.getActiveRows() - terminalView.mEmulator.mRows;
         if (handle == mStartHandle) {
@@ -400,7 +409,9 @@ public class TextSelectionCursorController implements CursorController {
 
     /** Get the currently selected text. */
     public String getSelectedText() {
-        return terminalView.mEmulator.getSelectedText(mSelX1, mSelY1, mSelX2, mSelY2);
+        synchronized (terminalView.getEmulatorLock()) {
+            return terminalView.mEmulator.getSelectedText(mSelX1, mSelY1, mSelX2, mSelY2);
+        }
     }
 
     /** Get the selected text stored before "MORE" button was pressed on the context menu. */
@@ -0,0 +1,66 @@
+package com.termux.shared.data;
+
+import androidx.annotation.NonNull;
+
+import java.io.Writer;
+
+/**
+ * A {@link Writer} which only keeps the last chars written to it, up to a max length, so that the end of a long text
+ * can be taken while it is written without keeping all of it in memory.
+ */
+public class TailWriter extends Writer {
+
+    private final char[] mBuffer;
+    /** The index in {@link #mBuffer} to write the next char to. */
+    private int mEnd;
+    private long mWrittenLength;
+
+    public TailWriter(int maxLength) {
+        if (maxLength <= 0) throw new IllegalArgumentException("maxLength must be positive: " + maxLength);
+        mBuffer = new char[maxLength];
+    }
+
+    @Override
+    public void write(@NonNull char[] cbuf, int off, int len) {
+        mWrittenLength += len;
+        if (len > mBuffer.length) {
+            off += len - mBuffer.length;
+            len = mBuffer.length;
+        }
+        int firstPart = Math.min(len, mBuffer.length - mEnd);
+        System.arraycopy(cbuf, off, mBuffer, mEnd, firstPart);
+        System.arraycopy(cbuf, off + firstPart, mBuffer, 0, len - firstPart);
+        mEnd = (mEnd + len) % mBuffer.length;
+    }
+
+    @Override
+    public void write(int c) {
+        mWrittenLength++;
+        mBuffer[mEnd] = (char) c;
+        mEnd = (mEnd + 1) % mBuffer.length;
+    }
+
+    /** The number of chars written, including those which are not kept. */
+    public long getWrittenLength() {
+        return mWrittenLength;
+    }
+
+    /** The last chars written, at most the max length of them. */
+    @NonNull
+    @Override
+    public String toString() {
+        if (mWrittenLength < mBuffer.length) return new String(mBuffer, 0, mEnd);
+        StringBuilder builder = new StringBuilder(mBuffer.length);
+        builder.append(mBuffer, mEnd, mBuffer.length - mEnd).append(mBuffer, 0, mEnd);
+        return builder.toString();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -3,11 +3,15 @@ package com.termux.shared.shell;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.termux.shared.data.DataUtils;
+import com.termux.shared.data.TailWriter;
 import com.termux.shared.file.FileUtils;
 import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
 
 import java.util.ArrayList;
@@ -60,10 +64,13 @@ public class ShellUtils {
 
         String transcriptText;
 
-        if (linesJoined)
-            transcriptText = terminalBuffer.getTranscriptTextWithFullLinesJoined();
-        else
-            transcriptText = terminalBuffer.getTranscriptTextWithoutJoinedLines();
+        // The emulator is changed by the emulation thread of the session
+        synchronized (terminalSession.getEmulatorLock()) {
+            if (linesJoined)
+                transcriptText = terminalBuffer.getTranscriptTextWithFullLinesJoined();
+            else
+                transcriptText = terminalBuffer.getTranscriptTextWithoutJoinedLines();
+        }
 
         if (transcriptText == null) return null;
 
@@ -73,4 +80,56 @@ public class ShellUtils {
         return transcriptText;
     }
 
+    /**
+     * Get the end of the transcript for {@link TerminalSession}, at most {@code maxLength} chars of it starting at a
+     * line if truncated, while only keeping that many chars of it in memory.
+     */
+    public static String getTerminalSessionTranscriptTail(TerminalSession terminalSession, boolean linesJoined, int maxLength) {
+        TerminalBuffer terminalBuffer = getTerminalSessionBuffer(terminalSession);
+        if (terminalBuffer == null) return null;
+
+        TailWriter writer = new TailWriter(maxLength);
+        try {
+            // The emulator is changed by the emulation thread of the session
+            synchronized (terminalSession.getEmulatorLock()) {
+                terminalBuffer.writeTranscript(writer, linesJoined, linesJoined, false);
+            }
+        } catch (IOException e) {
+            // Not thrown by a TailWriter.
+            return null;
+        }
+
+        // Cut at the first line like when truncating the whole transcript.
+        return DataUtils.getTruncatedCommandOutput(writer.toString(), maxLength, false, true, false).trim();
+    }
+
+    /**
+     * Write the transcript for {@link TerminalSession} as UTF-8, one row at a time so that a transcript of any size can
+     * be exported to a file without building it in memory.
+     *
+     * @param withStyles If the colors and effects of the text should be kept as ANSI escape sequences.
+     * @return If there was a transcript to write.
+     */
+    public static boolean writeTerminalSessionTranscript(TerminalSession terminalSession, OutputStream outputStream,
+                                                         boolean linesJoined, boolean withStyles) throws IOException {
+        TerminalBuffer terminalBuffer = getTerminalSessionBuffer(terminalSession);
+        if (terminalBuffer == null) return false;
+
+        // The emulator is changed by the emulation thread of the session, which waits while the transcript is written
+        synchronized (terminalSession.getEmulatorLock()) {
+            terminalBuffer.writeTranscript(outputStream, linesJoined, linesJoined, withStyles);
+        }
+        return true;
+    }
+
+    @Nullable
+    private static TerminalBuffer getTerminalSessionBuffer(TerminalSession terminalSession) {
+        if (terminalSession == null) return null;
+
+        TerminalEmulator terminalEmulator = terminalSession.getEmulator();
+        if (terminalEmulator == null) return null;
+
+        return terminalEmulator.getScreen();
+    }
+
 }
@@ -168,6 +168,9 @@ public class ExecutionCommand {
     /** The terminal transcript rows for the {@link ExecutionCommand}. */
     public Integer terminalTranscriptRows;
 
+    /** The terminal transcript rows to spill to a file for the {@link ExecutionCommand}, 0 to not spill rows. */
+    public int terminalTranscriptSpillRows;
+
 
     /** The {@link Runner} for the {@link ExecutionCommand}. */
     public String runner;
@@ -255,6 +255,14 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for the terminal transcript rows spilled to a file in the cache directory after the transcript rows, 0 to disable */
+    public static final String KEY_TERMINAL_TRANSCRIPT_SPILL_ROWS =  "terminal-transcript-spill-rows"; // Default: "terminal-transcript-spill-rows"
+    public static final int IVALUE_TERMINAL_TRANSCRIPT_SPILL_ROWS_MIN = TerminalEmulator.TERMINAL_TRANSCRIPT_SPILL_ROWS_MIN;
+    public static final int IVALUE_TERMINAL_TRANSCRIPT_SPILL_ROWS_MAX = TerminalEmulator.TERMINAL_TRANSCRIPT_SPILL_ROWS_MAX;
+    public static final int DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_SPILL_ROWS = TerminalEmulator.DEFAULT_TERMINAL_TRANSCRIPT_SPILL_ROWS;
+
+
+
 
 
     /* float */
@@ -415,6 +423,7 @@ public final class TermuxPropertyConstants {
         KEY_TERMINAL_MARGIN_HORIZONTAL,
         KEY_TERMINAL_MARGIN_VERTICAL,
         KEY_TERMINAL_TRANSCRIPT_ROWS,
+        KEY_TERMINAL_TRANSCRIPT_SPILL_ROWS,
 
         /* float */
         KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR,
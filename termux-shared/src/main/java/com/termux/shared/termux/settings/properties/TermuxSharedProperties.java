@@ -273,6 +273,8 @@ public abstract class TermuxSharedProperties {
                 return (int) getTerminalMarginVerticalInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS:
                 return (int) getTerminalTranscriptRowsInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_SPILL_ROWS:
+                return (int) getTerminalTranscriptSpillRowsInternalPropertyValueFromValue(value);
 
             /* float */
             case TermuxPropertyConstants.KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR:
@@ -438,6 +440,24 @@ public abstract class TermuxSharedProperties {
             true, true, LOG_TAG);
     }
 
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_TRANSCRIPT_SPILL_ROWS_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_TRANSCRIPT_SPILL_ROWS_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_SPILL_ROWS}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalTranscriptSpillRowsInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_SPILL_ROWS,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_SPILL_ROWS),
+            TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_TRANSCRIPT_SPILL_ROWS,
+            TermuxPropertyConstants.IVALUE_TERMINAL_TRANSCRIPT_SPILL_ROWS_MIN,
+            TermuxPropertyConstants.IVALUE_TERMINAL_TRANSCRIPT_SPILL_ROWS_MAX,
+            true, true, LOG_TAG);
+    }
+
     /**
      * Returns the int for the value if its not null and is between
      * {@link TermuxPropertyConstants#IVALUE_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR_MIN} and
@@ -654,6 +674,10 @@ public abstract class TermuxSharedProperties {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS, true);
     }
 
+    public int getTerminalTranscriptSpillRows() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_SPILL_ROWS, true);
+    }
+
     public float getTerminalToolbarHeightScaleFactor() {
         return (float) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TOOLBAR_HEIGHT_SCALE_FACTOR, true);
     }
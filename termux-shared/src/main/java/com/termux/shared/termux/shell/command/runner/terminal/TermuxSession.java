@@ -36,6 +36,9 @@ public class TermuxSession {
     private final TermuxSessionClient mTermuxSessionClient;
     private final boolean mSetStdoutOnExit;
 
+    /** The basename of the directory in the cache directory for the transcript spill files of sessions. */
+    private static final String TRANSCRIPT_SPILL_CACHE_DIR_BASENAME = "transcript_spill";
+
     private static final String LOG_TAG = "TermuxSession";
 
     private TermuxSession(@NonNull final TerminalSession terminalSession, @NonNull final ExecutionCommand executionCommand,
@@ -161,6 +164,15 @@ public class TermuxSession {
             terminalSession.mSessionName = executionCommand.shellName;
         }
 
+        if (executionCommand.terminalTranscriptSpillRows > 0) {
+            File transcriptSpillDirectory = new File(currentPackageContext.getCacheDir(), TRANSCRIPT_SPILL_CACHE_DIR_BASENAME);
+            if (transcriptSpillDirectory.isDirectory() || transcriptSpillDirectory.mkdirs())
+                terminalSession.setTranscriptSpill(new File(transcriptSpillDirectory, terminalSession.mHandle),
+                    executionCommand.terminalTranscriptSpillRows);
+            else
+                Logger.logError(LOG_TAG, "Failed to create transcript spill directory \"" + transcriptSpillDirectory.getAbsolutePath() + "\"");
+        }
+
         return new TermuxSession(terminalSession, executionCommand, termuxSessionClient, setStdoutOnExit);
     }
 
@@ -4,6 +4,7 @@ import android.view.KeyEvent;
 import android.view.MotionEvent;
 
 import com.termux.shared.logger.Logger;
+import com.termux.terminal.TerminalPaste;
 import com.termux.terminal.TerminalSession;
 import com.termux.view.TerminalViewClient;
 
@@ -89,6 +90,16 @@ public class TermuxTerminalViewClientBase implements TerminalViewClient {
 
     }
 
+    @Override
+    public void onPasteProgress(TerminalPaste paste) {
+
+    }
+
+    @Override
+    public void onPasteFinished(TerminalPaste paste) {
+
+    }
+
     @Override
     public void logError(String tag, String message) {
         Logger.logError(tag, message);